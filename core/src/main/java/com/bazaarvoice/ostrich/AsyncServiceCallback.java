@@ -0,0 +1,15 @@
+package com.bazaarvoice.ostrich;
+
+import com.bazaarvoice.ostrich.exceptions.ServiceException;
+
+/**
+ * A callback for services with non-blocking clients.  Unlike a {@link ServiceCallback}, the callback starts the call
+ * and returns right away with a future for its result.  The service instance stays checked out of the pool until the
+ * future completes.
+ *
+ * @param <S> The service interface.
+ * @param <RETURN> The result type of the call.
+ */
+public interface AsyncServiceCallback<S, RETURN> {
+    ListenableServiceFuture<RETURN> call(S service) throws ServiceException;
+}
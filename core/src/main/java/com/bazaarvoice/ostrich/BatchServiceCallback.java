@@ -0,0 +1,22 @@
+package com.bazaarvoice.ostrich;
+
+import com.bazaarvoice.ostrich.exceptions.ServiceException;
+
+import java.util.List;
+
+/**
+ * A callback for services with bulk operations.  It's called with a batch of items that were submitted separately to
+ * a {@link ServiceBatcher} and were routed to the same end point.
+ *
+ * @param <S> The service interface.
+ * @param <ITEM> The type of the items being batched.
+ * @param <RETURN> The result type for each item.
+ */
+public interface BatchServiceCallback<S, ITEM, RETURN> {
+    /**
+     * Execute a batch of items against a service.
+     *
+     * @return One result for each item, in the same order as the items.
+     */
+    List<RETURN> call(S service, List<ITEM> items) throws ServiceException;
+}
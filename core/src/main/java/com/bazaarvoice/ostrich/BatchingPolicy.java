@@ -0,0 +1,18 @@
+package com.bazaarvoice.ostrich;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A policy for how long a {@link ServiceBatcher} holds items back while waiting for a batch to fill up.
+ */
+public interface BatchingPolicy {
+    /**
+     * The most items that are executed in one batch.  A batch is executed as soon as it's full.
+     */
+    int getMaxBatchSize();
+
+    /**
+     * The longest the first item of a batch waits for the batch to fill up before the batch is executed anyway.
+     */
+    long getMaxDelay(TimeUnit unit);
+}
@@ -0,0 +1,43 @@
+package com.bazaarvoice.ostrich;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * Marks a method of a service interface whose responses may be cached by a service pool proxy.  Responses are cached
+ * per method and arguments, so the arguments must implement {@code equals} and {@code hashCode}.  Every caller of a
+ * cached response receives the same object, so responses shouldn't be modified by callers.
+ * <p/>
+ * Exceptions are never cached.
+ */
+@Documented
+@Target({METHOD})
+@Retention(RUNTIME)
+public @interface Cacheable {
+    /**
+     * @return How long a response is cached for, in {@link #unit}s.
+     */
+    long ttl();
+
+    /**
+     * @return The unit of the {@link #ttl}.
+     */
+    TimeUnit unit() default TimeUnit.SECONDS;
+
+    /**
+     * @return The maximum number of responses of the method to cache.  The least recently used responses are evicted
+     * when there are more.
+     */
+    long maxSize() default 1000;
+
+    /**
+     * @return Whether a response that's used shortly before it expires should be refreshed in the background, so that
+     * frequently used responses don't expire and stall their callers.
+     */
+    boolean refreshAhead() default true;
+}
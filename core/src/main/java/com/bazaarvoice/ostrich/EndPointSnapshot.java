@@ -0,0 +1,68 @@
+package com.bazaarvoice.ostrich;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An immutable, indexed view of the end points that a {@link ServicePool} considers valid at a point in time.
+ * <p/>
+ * A service pool only rebuilds its snapshot when its set of end points changes (an end point is discovered or removed,
+ * marked as bad, or recovers), so a {@link IndexedLoadBalanceAlgorithm} or an
+ * {@link com.bazaarvoice.ostrich.partition.IndexedPartitionFilter} can select from it by index without iterating over
+ * host discovery or allocating on every call.  Implementations that cache derived state may compare the
+ * {@link #getVersion() version} (or the identity) of the snapshot they were last given to detect changes.
+ */
+public final class EndPointSnapshot {
+    private final long _version;
+    private final ImmutableList<ServiceEndPoint> _endPoints;
+
+    public EndPointSnapshot(long version, Iterable<ServiceEndPoint> endPoints) {
+        _version = version;
+        _endPoints = ImmutableList.copyOf(checkNotNull(endPoints));
+    }
+
+    /**
+     * @return A number that increases every time the service pool rebuilds its snapshot.
+     */
+    public long getVersion() {
+        return _version;
+    }
+
+    /**
+     * @return The number of end points in the snapshot.
+     */
+    public int size() {
+        return _endPoints.size();
+    }
+
+    public boolean isEmpty() {
+        return _endPoints.isEmpty();
+    }
+
+    /**
+     * @param index The index of the end point, between {@code 0} (inclusive) and {@link #size()} (exclusive).
+     * @return The end point at the specified index.
+     */
+    public ServiceEndPoint get(int index) {
+        return _endPoints.get(index);
+    }
+
+    /**
+     * @return An immutable list of the end points in the snapshot, in index order.
+     */
+    public List<ServiceEndPoint> asList() {
+        return _endPoints;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .add("version", _version)
+                .add("endPoints", _endPoints)
+                .toString();
+    }
+}
@@ -0,0 +1,51 @@
+package com.bazaarvoice.ostrich;
+
+/**
+ * An {@link AsyncServicePool} with the methods that were added after it.  They live on this optional interface so
+ * that existing implementations of {@code AsyncServicePool} keep working.  The pools built by
+ * {@link com.bazaarvoice.ostrich.pool.ServicePoolBuilder#buildAsync} implement it.
+ *
+ * @param <S> The service interface that this pool keeps track of end points for.
+ */
+public interface ExtendedAsyncServicePool<S> extends AsyncServicePool<S> {
+    /**
+     * Execute a request against one of the remote services in this {@code ServicePool} using a non-blocking client.
+     * No thread is blocked while the call is in flight, and if the retry policy is a {@link ScheduledRetryPolicy} none
+     * is blocked between attempts either.
+     *
+     * @param retryPolicy The retry policy for the operation.
+     * @param callback    The user provided callback that starts the call.
+     * @param <R>         The return type for the call.
+     * @return            A future representing the call.  Cancelling it cancels the attempt in flight.
+     */
+    <R> ListenableServiceFuture<R> executeAsync(RetryPolicy retryPolicy, AsyncServiceCallback<S, R> callback);
+
+    /**
+     * Execute a request against one of the remote services in this {@code ServicePool} using a non-blocking client and
+     * the specified partition information to narrow down the suitable service end points.
+     *
+     * @param partitionContext The partition context.
+     * @param retryPolicy      The retry policy for the operation.
+     * @param callback         The user provided callback that starts the call.
+     * @param <R>              The return type for the call.
+     * @return                 A future representing the call.  Cancelling it cancels the attempt in flight.
+     */
+    <R> ListenableServiceFuture<R> executeAsync(PartitionContext partitionContext, RetryPolicy retryPolicy,
+                                                AsyncServiceCallback<S, R> callback);
+
+    /**
+     * Create a batcher that groups items submitted one at a time into batches, so that services with bulk operations
+     * can be called once per batch rather than once per item.  Each item is routed to an end point as if it were a
+     * call of its own, and the items routed to the same end point are executed together once a batch is full or the
+     * batching policy's maximum delay has passed.  Batches are executed in the background.
+     *
+     * @param batchingPolicy The policy for how large batches get and how long items wait for them to fill up.
+     * @param retryPolicy    The retry policy for each batch.
+     * @param callback       The user provided callback to invoke with each batch.
+     * @param <T>            The type of the items being batched.
+     * @param <R>            The result type for each item.
+     * @return               The batcher.  Closing it executes the items that are still waiting.
+     */
+    <T, R> ServiceBatcher<T, R> newBatcher(BatchingPolicy batchingPolicy, RetryPolicy retryPolicy,
+                                           BatchServiceCallback<S, T, R> callback);
+}
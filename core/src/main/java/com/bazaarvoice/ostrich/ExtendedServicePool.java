@@ -0,0 +1,30 @@
+package com.bazaarvoice.ostrich;
+
+/**
+ * A {@link ServicePool} with the methods that were added after it.  They live on this optional interface so that
+ * existing implementations of {@code ServicePool} keep working.  The pools built by
+ * {@link com.bazaarvoice.ostrich.pool.ServicePoolBuilder#build} implement it.
+ *
+ * @param <S> The service interface that this pool keeps track of end points for.
+ */
+public interface ExtendedServicePool<S> extends ServicePool<S> {
+    /**
+     * Execute an idempotent request synchronously, sharing a single execution with identical requests that are in
+     * flight at the same time.  Requests are identical if their partition contexts and keys are equal.  The first of
+     * them is executed with its retry policy and callback, and the others wait for it and receive the same result or
+     * exception.  Nothing is remembered once the execution completes, so a request that starts afterwards is executed
+     * again.
+     * <p/>
+     * This protects the service from bursts of identical requests, for example when many callers miss a cache at once.
+     * Requests with equal keys must be interchangeable, including the type of their results.
+     *
+     * @param partitionContext The partition context.
+     * @param key The key that, together with the partition context, identifies identical requests.
+     * @param retryPolicy The retry policy for the operation.
+     * @param callback The user provided callback to invoke with a service end point.
+     * @param <R> The return type for the call.
+     * @return The result provided by the callback of whichever request was executed.
+     */
+    <R> R executeCoalesced(PartitionContext partitionContext, Object key, RetryPolicy retryPolicy,
+                           ServiceCallback<S, R> callback);
+}
@@ -0,0 +1,47 @@
+package com.bazaarvoice.ostrich;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ServicePoolStatistics} with the statistics that were added after it.  They live on this optional interface
+ * so that existing implementations of {@code ServicePoolStatistics} keep working.  The statistics that a
+ * {@link ServicePool} passes to its load balance algorithm and partition filter implement it.
+ * <p/>
+ * Load balance algorithms and partition filters that use these statistics should check for this interface, and fall
+ * back to the statistics of {@code ServicePoolStatistics} when they're given an implementation that isn't one.
+ */
+public interface ExtendedServicePoolStatistics extends ServicePoolStatistics {
+    /**
+     * The number of callbacks that the service pool is currently executing against a single end point, including any
+     * that are still waiting for a service instance.  Unlike {@link #getNumActiveInstances} this counts every in-flight
+     * call, even when a single service instance is shared between many callers.  As with {@code getNumActiveInstances}
+     * this only represents the activity of a single service pool.
+     * @param endPoint The end point to get activity data for.
+     * @return The number of callbacks in flight against the given end point.
+     */
+    int getNumOutstandingRequests(ServiceEndPoint endPoint);
+
+    /**
+     * The number of callbacks that the service pool is currently executing against any end point, including any that
+     * are still waiting for a service instance.  This is the sum of {@link #getNumOutstandingRequests} over every end
+     * point, but takes constant time to read.
+     * @return The number of callbacks in flight.
+     */
+    int getTotalNumOutstandingRequests();
+
+    /**
+     * A peak-sensitive exponentially weighted moving average of how long callbacks take to execute against a single
+     * end point.  A response that is slower than the current average replaces it outright, faster responses are
+     * blended in, and the average decays towards zero while no responses are seen so that an end point that once was
+     * slow is eventually tried again.  End points that haven't executed any callbacks yet are seeded with the response
+     * time of their most recent health check, if there was one.  As with {@link #getNumActiveInstances} this only
+     * represents the activity of a single service pool.
+     * <p/>
+     * NOTE: A service pool only starts timing callbacks for the average the first time it's asked for, so that pools
+     * whose load balancer doesn't use it don't pay for it.
+     * @param endPoint The end point to get response time data for.
+     * @param unit The {@code TimeUnit} the response time should be in.
+     * @return The average response time of the given end point, or {@code 0} if it is not known.
+     */
+    long getAverageResponseTime(ServiceEndPoint endPoint, TimeUnit unit);
+}
@@ -10,6 +10,10 @@ import java.io.Closeable;
 public interface HostDiscovery extends Closeable {
     /**
      * Retrieve the available hosts.
+     * <p/>
+     * Service pools cache an immutable snapshot of the hosts until either a different collection is returned from this
+     * method or a listener is notified of a change.  Implementations that return a live view should therefore notify
+     * their listeners whenever the contents of that view change.
      *
      * @return The available hosts.
      */
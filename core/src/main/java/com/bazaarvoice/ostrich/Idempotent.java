@@ -0,0 +1,20 @@
+package com.bazaarvoice.ostrich;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * Marks a method of a service interface as idempotent, so that a service pool proxy may let concurrent calls with
+ * equal arguments share a single execution, as with {@link ExtendedServicePool#executeCoalesced}.  Every caller
+ * receives the same result object, so results shouldn't be modified by callers.  Proxies of pools that aren't an
+ * {@code ExtendedServicePool} execute every call.
+ */
+@Documented
+@Target({METHOD})
+@Retention(RUNTIME)
+public @interface Idempotent {
+}
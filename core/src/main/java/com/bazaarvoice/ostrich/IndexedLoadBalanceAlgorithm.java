@@ -0,0 +1,18 @@
+package com.bazaarvoice.ostrich;
+
+/**
+ * A {@link LoadBalanceAlgorithm} that can choose directly from an {@link EndPointSnapshot}.  When the partition filter
+ * doesn't narrow down the set of end points, a {@link ServicePool} will call {@link #chooseIndex} instead of
+ * {@link #choose}, which lets the algorithm pick an end point without iterating over or copying the end points.
+ */
+public interface IndexedLoadBalanceAlgorithm extends LoadBalanceAlgorithm {
+    /**
+     * Selects an end point from a snapshot based on a load balancing algorithm.
+     *
+     * @param endPoints The end points to choose from.
+     * @param statistics Usage statistics about the end points in case the load balancing algorithm needs some
+     *                   knowledge of the service pool's state.
+     * @return The index of the end point to use in {@code endPoints}, or a negative value if one couldn't be chosen.
+     */
+    int chooseIndex(EndPointSnapshot endPoints, ServicePoolStatistics statistics);
+}
@@ -0,0 +1,24 @@
+package com.bazaarvoice.ostrich;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+
+/**
+ * A {@link Future} that can notify listeners when it completes, so that asynchronous results can be acted on without
+ * parking a thread in {@link #get}.
+ * <p/>
+ * NOTE: This interface mirrors Guava's {@code ListenableFuture}, but the goal is to not include any 3rd party library
+ * classes in the public interface of Ostrich.
+ *
+ * @param <V> The result type of the future.
+ */
+public interface ListenableServiceFuture<V> extends Future<V> {
+    /**
+     * Registers a listener to be run on the given executor when the future completes, whether successfully, with an
+     * exception or by being cancelled.  If the future has already completed the listener runs immediately.
+     *
+     * @param listener The listener to run when the future completes.
+     * @param executor The executor to run the listener in.
+     */
+    void addListener(Runnable listener, Executor executor);
+}
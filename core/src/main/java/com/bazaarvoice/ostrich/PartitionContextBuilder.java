@@ -4,15 +4,17 @@ import com.google.common.collect.ImmutableMap;
 
 import java.util.Map;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
  * A builder for creating immutable {@link com.bazaarvoice.ostrich.PartitionContextBuilder} instances.
  * <p>
- * For small partition contexts, the {@code PartitionContext.of()} methods are more convenient.
+ * For small partition contexts, the {@code PartitionContext.of()} methods are more convenient.  They're also cheaper,
+ * since contexts with one or two keys are stored without a backing map.
  */
 public final class PartitionContextBuilder {
-    private static final PartitionContext EMPTY = new Context(ImmutableMap.<String, Object>of());
+    private static final PartitionContext EMPTY = new MapContext(ImmutableMap.<String, Object>of());
 
     private final ImmutableMap.Builder<String, Object> _map = ImmutableMap.builder();
 
@@ -21,15 +23,15 @@ public final class PartitionContextBuilder {
     }
 
     public static PartitionContext of(Object obj) {
-        return new Context(ImmutableMap.of("", obj));
+        return new SingleKeyContext("", obj);
     }
 
     public static PartitionContext of(String key, Object value) {
-        return new Context(ImmutableMap.of(key, value));
+        return new SingleKeyContext(key, value);
     }
 
     public static PartitionContext of(String key1, Object value1, String key2, Object value2) {
-        return new Context(ImmutableMap.of(key1, value1, key2, value2));
+        return new TwoKeyContext(key1, value1, key2, value2);
     }
 
     /**
@@ -58,19 +60,132 @@ public final class PartitionContextBuilder {
      * Returns a newly-create immutable {@code PartitionContext}.
      */
     public PartitionContext build() {
-        return new Context(_map.build());
+        return new MapContext(_map.build());
     }
 
-    private static class Context implements PartitionContext {
-        private final ImmutableMap<String, Object> _map;
+    /**
+     * Base class of the partition contexts.  Contexts with the same keys and values are equal regardless of how
+     * they're stored.
+     */
+    private abstract static class Context implements PartitionContext {
+        @Override
+        public Object get() {
+            return get("");
+        }
 
-        private Context(ImmutableMap<String, Object> map) {
-            _map = checkNotNull(map);
+        /**
+         * @return The number of keys in the context.
+         */
+        abstract int size();
+
+        /**
+         * @return Whether every key of this context has the same value in the other context.
+         */
+        abstract boolean valuesMatch(PartitionContext other);
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Context)) {
+                return false;
+            }
+            Context that = (Context) o;
+            return size() == that.size() && valuesMatch(that);
         }
 
         @Override
-        public Object get() {
-            return _map.get("");
+        public int hashCode() {
+            return 95261 + asMap().hashCode();
+        }
+    }
+
+    private static class SingleKeyContext extends Context {
+        private final String _key;
+        private final Object _value;
+
+        private SingleKeyContext(String key, Object value) {
+            _key = checkNotNull(key);
+            _value = checkNotNull(value);
+        }
+
+        @Override
+        public Object get(String key) {
+            return _key.equals(key) ? _value : null;
+        }
+
+        @Override
+        public Map<String, Object> asMap() {
+            return ImmutableMap.of(_key, _value);
+        }
+
+        @Override
+        int size() {
+            return 1;
+        }
+
+        @Override
+        boolean valuesMatch(PartitionContext other) {
+            return _value.equals(other.get(_key));
+        }
+
+        @Override
+        public int hashCode() {
+            // The same as the hash of the equivalent map, without building the map.
+            return 95261 + (_key.hashCode() ^ _value.hashCode());
+        }
+    }
+
+    private static class TwoKeyContext extends Context {
+        private final String _key1;
+        private final Object _value1;
+        private final String _key2;
+        private final Object _value2;
+
+        private TwoKeyContext(String key1, Object value1, String key2, Object value2) {
+            checkArgument(!key1.equals(key2), "Duplicate key: %s", key1);
+            _key1 = key1;
+            _value1 = checkNotNull(value1);
+            _key2 = checkNotNull(key2);
+            _value2 = checkNotNull(value2);
+        }
+
+        @Override
+        public Object get(String key) {
+            if (_key1.equals(key)) {
+                return _value1;
+            }
+            return _key2.equals(key) ? _value2 : null;
+        }
+
+        @Override
+        public Map<String, Object> asMap() {
+            return ImmutableMap.of(_key1, _value1, _key2, _value2);
+        }
+
+        @Override
+        int size() {
+            return 2;
+        }
+
+        @Override
+        boolean valuesMatch(PartitionContext other) {
+            return _value1.equals(other.get(_key1)) && _value2.equals(other.get(_key2));
+        }
+
+        @Override
+        public int hashCode() {
+            // The same as the hash of the equivalent map, without building the map.
+            return 95261 + (_key1.hashCode() ^ _value1.hashCode()) + (_key2.hashCode() ^ _value2.hashCode());
+        }
+    }
+
+    private static class MapContext extends Context {
+        private final ImmutableMap<String, Object> _map;
+
+        private MapContext(ImmutableMap<String, Object> map) {
+            _map = checkNotNull(map);
         }
 
         @Override
@@ -84,13 +199,18 @@ public final class PartitionContextBuilder {
         }
 
         @Override
-        public boolean equals(Object o) {
-            return this == o || (o instanceof Context && _map.equals(((Context) o)._map));
+        int size() {
+            return _map.size();
         }
 
         @Override
-        public int hashCode() {
-            return 95261 + _map.hashCode();
+        boolean valuesMatch(PartitionContext other) {
+            for (Map.Entry<String, Object> entry : _map.entrySet()) {
+                if (!entry.getValue().equals(other.get(entry.getKey()))) {
+                    return false;
+                }
+            }
+            return true;
         }
     }
 }
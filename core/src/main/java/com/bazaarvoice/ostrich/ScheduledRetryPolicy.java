@@ -0,0 +1,17 @@
+package com.bazaarvoice.ostrich;
+
+/**
+ * A {@link RetryPolicy} that can say how long to wait before retrying instead of waiting itself.  This lets an
+ * {@link AsyncServicePool} schedule retries without tying up a thread while it waits.
+ */
+public interface ScheduledRetryPolicy extends RetryPolicy {
+    /**
+     * Called when an operation has failed for some reason.  Unlike {@link #allowRetry} this must not block.
+     *
+     * @param numAttempts   The number of attempts that have happened so far.  This must be greater than zero.
+     * @param elapsedTimeMs The amount of time in milliseconds that the operation has been attempted.
+     * @return The time in milliseconds to wait before retrying the operation, or a negative value if the operation
+     *         should not be retried.
+     */
+    long getRetryDelayMs(int numAttempts, long elapsedTimeMs);
+}
@@ -0,0 +1,38 @@
+package com.bazaarvoice.ostrich;
+
+import java.io.Closeable;
+
+/**
+ * Groups items submitted one at a time into batches and executes each batch with a single call to an end point.  Each
+ * item is routed to an end point as if it were a call of its own, and items routed to the same end point are held back
+ * until either a full batch has accumulated or the first of them has waited for the maximum delay.
+ *
+ * @param <ITEM> The type of the items being batched.
+ * @param <RETURN> The result type for each item.
+ * @see ExtendedAsyncServicePool#newBatcher
+ */
+public interface ServiceBatcher<ITEM, RETURN> extends Closeable {
+    /**
+     * Submit an item to be executed as part of a batch.
+     *
+     * @param item The item.
+     * @return A future for the item's result.
+     */
+    ListenableServiceFuture<RETURN> submit(ITEM item);
+
+    /**
+     * Submit an item to be executed as part of a batch, using the specified partition information to narrow down the
+     * suitable service end points.
+     *
+     * @param partitionContext The partition context.
+     * @param item             The item.
+     * @return A future for the item's result.
+     */
+    ListenableServiceFuture<RETURN> submit(PartitionContext partitionContext, ITEM item);
+
+    /**
+     * Execute the items that are still waiting for their batches to fill up right away, and stop accepting new ones.
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,66 @@
+package com.bazaarvoice.ostrich;
+
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A {@link ListenableServiceFuture} whose result is set by calling {@link #set} or {@link #setException}.  This is
+ * the simplest way for an {@link AsyncServiceCallback} to adapt the completion handler of a non-blocking client.
+ *
+ * @param <V> The result type of the future.
+ */
+public class SettableServiceFuture<V> implements ListenableServiceFuture<V> {
+    private final SettableFuture<V> _future = SettableFuture.create();
+
+    /**
+     * Completes the future successfully.
+     *
+     * @return {@code true} if the future was completed by this call, {@code false} if it had already completed.
+     */
+    public boolean set(V value) {
+        return _future.set(value);
+    }
+
+    /**
+     * Completes the future with an exception.
+     *
+     * @return {@code true} if the future was completed by this call, {@code false} if it had already completed.
+     */
+    public boolean setException(Throwable throwable) {
+        return _future.setException(throwable);
+    }
+
+    @Override
+    public void addListener(Runnable listener, Executor executor) {
+        _future.addListener(listener, executor);
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return _future.cancel(mayInterruptIfRunning);
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return _future.isCancelled();
+    }
+
+    @Override
+    public boolean isDone() {
+        return _future.isDone();
+    }
+
+    @Override
+    public V get() throws InterruptedException, ExecutionException {
+        return _future.get();
+    }
+
+    @Override
+    public V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        return _future.get(timeout, unit);
+    }
+}
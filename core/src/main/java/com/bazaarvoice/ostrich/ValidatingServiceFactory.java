@@ -0,0 +1,22 @@
+package com.bazaarvoice.ostrich;
+
+/**
+ * A service factory that can tell whether a cached service instance is still usable, for example whether its
+ * connection has been closed by the server after sitting idle.
+ * <p/>
+ * Service caches validate instances in the background, off the request path, and replace the ones that aren't valid
+ * any more, as often as their {@link com.bazaarvoice.ostrich.pool.ExtendedServiceCachingPolicy} says.
+ *
+ * @param <S> the type parameter for the service
+ */
+public interface ValidatingServiceFactory<S> extends ServiceFactory<S> {
+    /**
+     * Checks whether a cached service instance is still usable.  This is only ever called for instances that aren't
+     * checked out, or for thread safe instances, while they may also be in use.
+     *
+     * @param endPoint The end point of the instance.
+     * @param service  The service instance to check.
+     * @return {@code true} if the instance may still be used, {@code false} if it should be destroyed.
+     */
+    boolean isValid(ServiceEndPoint endPoint, S service);
+}
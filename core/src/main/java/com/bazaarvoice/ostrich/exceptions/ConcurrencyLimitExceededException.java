@@ -0,0 +1,24 @@
+package com.bazaarvoice.ostrich.exceptions;
+
+/**
+ * An exception to be thrown when an end point already has as many requests in flight as its concurrency limit allows.
+ */
+public class ConcurrencyLimitExceededException extends ServiceException {
+    private static final long serialVersionUID = 0;
+
+    public ConcurrencyLimitExceededException() {
+        super();
+    }
+
+    public ConcurrencyLimitExceededException(String message) {
+        super(message);
+    }
+
+    public ConcurrencyLimitExceededException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public ConcurrencyLimitExceededException(Throwable cause) {
+        super(cause);
+    }
+}
@@ -0,0 +1,24 @@
+package com.bazaarvoice.ostrich.exceptions;
+
+/**
+ * An exception to be thrown when a service pool's rate limit doesn't allow another request soon enough.
+ */
+public class RateLimitExceededException extends ServiceException {
+    private static final long serialVersionUID = 0;
+
+    public RateLimitExceededException() {
+        super();
+    }
+
+    public RateLimitExceededException(String message) {
+        super(message);
+    }
+
+    public RateLimitExceededException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public RateLimitExceededException(Throwable cause) {
+        super(cause);
+    }
+}
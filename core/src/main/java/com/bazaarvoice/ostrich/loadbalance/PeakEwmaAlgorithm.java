@@ -0,0 +1,41 @@
+package com.bazaarvoice.ostrich.loadbalance;
+
+import com.bazaarvoice.ostrich.ExtendedServicePoolStatistics;
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.bazaarvoice.ostrich.ServicePoolStatistics;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A latency aware load balancer.  Each end point is scored by its average response time multiplied by one more than
+ * its number of outstanding requests, and of two randomly sampled end points the one with the lower score is chosen.
+ * <p/>
+ * The response time comes from {@link ExtendedServicePoolStatistics#getAverageResponseTime}, a peak-sensitive moving
+ * average that decays over time, so a single slow response moves traffic away from an end point quickly but the end
+ * point is eventually given another chance.  This suits services that run on a mix of hardware where some end points
+ * are consistently faster than others.  Statistics that don't report response times are compared the same way as by
+ * {@link PowerOfTwoChoicesAlgorithm}.
+ */
+public class PeakEwmaAlgorithm extends PowerOfTwoChoicesAlgorithm {
+    /**
+     * The score of an end point whose response time isn't known yet but that already has requests in flight.  This
+     * keeps a newly discovered end point from being sent every request until its first response comes back.
+     */
+    private static final double UNKNOWN_RESPONSE_TIME_PENALTY = Long.MAX_VALUE >> 16;
+
+    @Override
+    protected double getLoad(ServiceEndPoint endPoint, ServicePoolStatistics statistics) {
+        if (!(statistics instanceof ExtendedServicePoolStatistics)) {
+            return super.getLoad(endPoint, statistics);
+        }
+
+        ExtendedServicePoolStatistics extendedStatistics = (ExtendedServicePoolStatistics) statistics;
+        long responseTime = extendedStatistics.getAverageResponseTime(endPoint, TimeUnit.NANOSECONDS);
+        int numOutstandingRequests = extendedStatistics.getNumOutstandingRequests(endPoint);
+
+        if (responseTime == 0 && numOutstandingRequests != 0) {
+            return UNKNOWN_RESPONSE_TIME_PENALTY + numOutstandingRequests;
+        }
+        return (double) responseTime * (numOutstandingRequests + 1);
+    }
+}
@@ -0,0 +1,88 @@
+package com.bazaarvoice.ostrich.loadbalance;
+
+import com.bazaarvoice.ostrich.EndPointSnapshot;
+import com.bazaarvoice.ostrich.ExtendedServicePoolStatistics;
+import com.bazaarvoice.ostrich.IndexedLoadBalanceAlgorithm;
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.bazaarvoice.ostrich.ServicePoolStatistics;
+import com.google.common.collect.Lists;
+
+import java.util.List;
+import java.util.Random;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A "power of two choices" load balancer.  Two distinct end points are picked at random and the one with fewer
+ * outstanding requests (as reported by {@link ExtendedServicePoolStatistics#getNumOutstandingRequests}) is used.
+ * Statistics that don't report outstanding requests are compared by their number of active instances instead.
+ * <p/>
+ * Compared to {@link RandomAlgorithm} this steers traffic away from end points that are slow to respond, because
+ * requests pile up on them, while keeping the herd behavior of always picking the globally least loaded end point in
+ * check.
+ */
+public class PowerOfTwoChoicesAlgorithm implements IndexedLoadBalanceAlgorithm {
+    private final Random _rnd = new Random();
+
+    @Override
+    public ServiceEndPoint choose(Iterable<ServiceEndPoint> endPoints, ServicePoolStatistics statistics) {
+        checkNotNull(endPoints);
+        checkNotNull(statistics);
+
+        List<ServiceEndPoint> list = Lists.newArrayList(endPoints);
+        if (list.isEmpty()) {
+            return null;
+        }
+        return list.get(chooseIndex(list, statistics));
+    }
+
+    @Override
+    public int chooseIndex(EndPointSnapshot endPoints, ServicePoolStatistics statistics) {
+        checkNotNull(endPoints);
+        checkNotNull(statistics);
+
+        if (endPoints.isEmpty()) {
+            return -1;
+        }
+        return chooseIndex(endPoints.asList(), statistics);
+    }
+
+    private int chooseIndex(List<ServiceEndPoint> endPoints, ServicePoolStatistics statistics) {
+        int size = endPoints.size();
+        if (size == 1) {
+            return 0;
+        }
+
+        // Pick two distinct indexes uniformly at random.
+        int first = _rnd.nextInt(size);
+        int second = _rnd.nextInt(size - 1);
+        if (second >= first) {
+            second++;
+        }
+
+        double firstLoad = getLoad(endPoints.get(first), statistics);
+        double secondLoad = getLoad(endPoints.get(second), statistics);
+        return (secondLoad < firstLoad) ? second : first;
+    }
+
+    /**
+     * Determines how loaded an end point is.  Of the two sampled end points, the one with the lower load is chosen.
+     *
+     * @param endPoint The end point to measure.
+     * @param statistics Usage statistics about the end points.
+     * @return The load of the end point, by default its number of outstanding requests.
+     */
+    protected double getLoad(ServiceEndPoint endPoint, ServicePoolStatistics statistics) {
+        return getNumOutstandingRequests(endPoint, statistics);
+    }
+
+    /**
+     * @return The number of outstanding requests for the end point, or its number of active instances if the
+     *         statistics don't report outstanding requests.
+     */
+    static int getNumOutstandingRequests(ServiceEndPoint endPoint, ServicePoolStatistics statistics) {
+        return (statistics instanceof ExtendedServicePoolStatistics)
+                ? ((ExtendedServicePoolStatistics) statistics).getNumOutstandingRequests(endPoint)
+                : statistics.getNumActiveInstances(endPoint);
+    }
+}
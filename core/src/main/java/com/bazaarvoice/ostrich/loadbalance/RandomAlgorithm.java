@@ -1,6 +1,7 @@
 package com.bazaarvoice.ostrich.loadbalance;
 
-import com.bazaarvoice.ostrich.LoadBalanceAlgorithm;
+import com.bazaarvoice.ostrich.EndPointSnapshot;
+import com.bazaarvoice.ostrich.IndexedLoadBalanceAlgorithm;
 import com.bazaarvoice.ostrich.ServiceEndPoint;
 import com.bazaarvoice.ostrich.ServicePoolStatistics;
 import com.google.common.base.Preconditions;
@@ -10,7 +11,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
 
-public class RandomAlgorithm implements LoadBalanceAlgorithm {
+public class RandomAlgorithm implements IndexedLoadBalanceAlgorithm {
     private final Random _rnd = new Random();
 
     @Override
@@ -28,4 +29,15 @@ public class RandomAlgorithm implements LoadBalanceAlgorithm {
         }
         return list.get(_rnd.nextInt(list.size()));
     }
+
+    @Override
+    public int chooseIndex(EndPointSnapshot endPoints, ServicePoolStatistics statistics) {
+        Preconditions.checkNotNull(endPoints);
+
+        int size = endPoints.size();
+        if (size <= 1) {
+            return size - 1;
+        }
+        return _rnd.nextInt(size);
+    }
 }
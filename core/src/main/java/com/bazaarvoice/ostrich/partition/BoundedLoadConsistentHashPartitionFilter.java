@@ -0,0 +1,110 @@
+package com.bazaarvoice.ostrich.partition;
+
+import com.bazaarvoice.ostrich.EndPointSnapshot;
+import com.bazaarvoice.ostrich.ExtendedServicePoolStatistics;
+import com.bazaarvoice.ostrich.PartitionContext;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A {@link ConsistentHashPartitionFilter} that caps how much of the in-flight load any one end point may carry.  No
+ * end point is assigned more than {@code (1 + epsilon)} times the average number of outstanding requests per end
+ * point; when the end point a partition hashes to is at capacity the request walks clockwise around the ring to the
+ * next end point that isn't.  The average comes from the service pool's total number of outstanding requests, so
+ * routing a request takes constant time unless its end point is at capacity.
+ * <p/>
+ * Choose this partition filter over {@link ConsistentHashPartitionFilter} when a few hot partitions can saturate a
+ * single server while its neighbors sit idle.  Most requests still go to the same server as with plain consistent
+ * hashing, so most of the cache affinity is kept.  Smaller values of {@code epsilon} balance load more tightly at the
+ * cost of moving more requests off of their preferred server.
+ * <p/>
+ * Load is measured with {@link ExtendedServicePoolStatistics#getNumOutstandingRequests}, so it is only bounded when
+ * the filter is used by a {@link com.bazaarvoice.ostrich.ServicePool}.  Calling {@link #filter} directly behaves
+ * exactly like {@link ConsistentHashPartitionFilter}.
+ * <p/>
+ * The algorithm is described in:
+ * <a href="http://arxiv.org/abs/1608.01350">Consistent Hashing with Bounded Loads</a>
+ */
+public class BoundedLoadConsistentHashPartitionFilter extends ConsistentHashPartitionFilter
+        implements LoadAwarePartitionFilter {
+    private final double _epsilon;
+
+    /**
+     * Constructs a {@code BoundedLoadConsistentHashPartitionFilter} that uses the default partition key
+     * ({@link com.bazaarvoice.ostrich.PartitionContext#get()}) to determine the partition.
+     *
+     * @param epsilon How far above the average load an end point may go, e.g. {@code 0.25} for 25%.
+     */
+    public BoundedLoadConsistentHashPartitionFilter(double epsilon) {
+        this(epsilon, Collections.<String>emptyList());
+    }
+
+    /**
+     * Constructs a {@code BoundedLoadConsistentHashPartitionFilter} that concatenates the partition context values for
+     * the specified set of keys to determine the partition.
+     *
+     * @param epsilon How far above the average load an end point may go, e.g. {@code 0.25} for 25%.
+     */
+    public BoundedLoadConsistentHashPartitionFilter(double epsilon, String... partitionKeys) {
+        this(epsilon, Arrays.asList(partitionKeys));
+    }
+
+    /**
+     * Constructs a {@code BoundedLoadConsistentHashPartitionFilter} that concatenates the partition context values for
+     * the specified set of keys to determine the partition.
+     *
+     * @param epsilon How far above the average load an end point may go, e.g. {@code 0.25} for 25%.
+     */
+    public BoundedLoadConsistentHashPartitionFilter(double epsilon, List<String> partitionKeys) {
+        this(epsilon, partitionKeys, PartitionHashFunction.MD5);
+    }
+
+    /**
+     * Constructs a {@code BoundedLoadConsistentHashPartitionFilter} that concatenates the partition context values for
+     * the specified set of keys to determine the partition, hashing them with the specified hash function.
+     *
+     * @param epsilon How far above the average load an end point may go, e.g. {@code 0.25} for 25%.
+     */
+    public BoundedLoadConsistentHashPartitionFilter(double epsilon, List<String> partitionKeys,
+                                                    PartitionHashFunction partitionHashFunction) {
+        super(partitionKeys, partitionHashFunction);
+        checkArgument(epsilon >= 0, "epsilon must be non-negative");
+        _epsilon = epsilon;
+    }
+
+    @Override
+    public int filterIndex(EndPointSnapshot endPoints, PartitionContext partitionContext,
+                           ExtendedServicePoolStatistics statistics) {
+        checkNotNull(statistics);
+
+        PartitionHash partitionHash = hashPartition(partitionContext);
+        if (partitionHash == null) {
+            return ALL_END_POINTS;  // No partition hash means any server can handle the request.
+        }
+
+        Ring ring = getRing(endPoints);
+        if (ring.size() == 0) {
+            return NO_END_POINTS;
+        }
+
+        // Count the request being routed so that there is always at least one end point below capacity.
+        long totalLoad = statistics.getTotalNumOutstandingRequests() + 1L;
+        double capacity = Math.ceil((1 + _epsilon) * totalLoad / ring.getEndPoints().size());
+
+        int start = ring.findPosition(partitionHash.asInt());
+        for (int i = 0; i < ring.size(); i++) {
+            int ordinal = ring.getOrdinal((start + i) % ring.size());
+            if (statistics.getNumOutstandingRequests(endPoints.get(ordinal)) < capacity) {
+                return ordinal;
+            }
+        }
+
+        // The load changed while we were walking the ring.  Fall back to the end point the partition hashes to.
+        return ring.getOrdinal(start);
+    }
+}
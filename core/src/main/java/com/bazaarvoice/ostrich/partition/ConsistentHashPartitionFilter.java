@@ -1,11 +1,11 @@
 package com.bazaarvoice.ostrich.partition;
 
+import com.bazaarvoice.ostrich.EndPointSnapshot;
 import com.bazaarvoice.ostrich.PartitionContext;
 import com.bazaarvoice.ostrich.ServiceEndPoint;
-import com.google.common.collect.Lists;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
-import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
 import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
 
@@ -14,7 +14,8 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.NavigableMap;
+
+import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
  * Uses consistent hashing to map service calls to end points.  Partitions are mapped to servers based on hashes of the
@@ -24,17 +25,37 @@ import java.util.NavigableMap;
  * on the same data are directed to the same server.  For example, choose this partition filter to distribute requests
  * across a set of memcached servers.
  * <p/>
+ * The ring is an immutable pair of sorted arrays that is only rebuilt when the set of end points changes and is
+ * published through a volatile field, so looking up the end point for a partition is a lock-free binary search.
+ * <p/>
  * The algorithm is inspired by:
  * <a href="http://last.fm/user/RJ/journal/2007/04/10/rz_libketama_-_a_consistent_hashing_algo_for_memcache_clients">
  *     libketama</a>
  */
-public class ConsistentHashPartitionFilter implements PartitionFilter {
+public class ConsistentHashPartitionFilter implements IndexedPartitionFilter {
     private static final int DEFAULT_ENTRIES_PER_END_POINT = 100;
 
+    /**
+     * The function used to hash the values in the {@link PartitionContext}.  The choice only affects which end point a
+     * given partition maps to, not how evenly partitions are spread across end points.
+     */
+    public enum PartitionHashFunction {
+        /** The MD5 hash.  This is the default and is compatible with earlier versions of this filter. */
+        MD5(Hashing.md5()),
+
+        /** The 32-bit Murmur3 hash.  Much cheaper to compute than MD5, but maps partitions to different end points. */
+        MURMUR3_32(Hashing.murmur3_32());
+
+        private final HashFunction _hashFunction;
+
+        private PartitionHashFunction(HashFunction hashFunction) {
+            _hashFunction = hashFunction;
+        }
+    }
+
     private final int _entriesPerEndPoint;
-    private final List<String> _partitionKeys;
-    private final NavigableMap<Integer, String> _ring = Maps.newTreeMap();
-    private Map<String, ServiceEndPoint> _endPointsById = Maps.newHashMap();
+    private final PartitionHasher _partitionHasher;
+    private volatile Ring _ring = new Ring(EndPointIndex.EMPTY, null);
 
     /**
      * Constructs a default {@code ConsistentHashPartitionFilter} that uses the default partition key
@@ -57,124 +78,192 @@ public class ConsistentHashPartitionFilter implements PartitionFilter {
      * specified set of keys to determine the partition.
      */
     public ConsistentHashPartitionFilter(List<String> partitionKeys) {
-        this(partitionKeys, DEFAULT_ENTRIES_PER_END_POINT);
+        this(partitionKeys, PartitionHashFunction.MD5);
     }
 
     /**
      * Constructs a {@code ConsistentHashPartitionFilter} that concatenates the partition context values for the
-     * specified set of keys to determine the partition.
+     * specified set of keys to determine the partition, hashing them with the specified hash function.
      */
-    private ConsistentHashPartitionFilter(List<String> partitionKeys, int entriesPerEndPoint) {
-        _partitionKeys = partitionKeys;
-        _entriesPerEndPoint = entriesPerEndPoint;
+    public ConsistentHashPartitionFilter(List<String> partitionKeys, PartitionHashFunction partitionHashFunction) {
+        _partitionHasher = new PartitionHasher(partitionKeys, checkNotNull(partitionHashFunction)._hashFunction);
+        _entriesPerEndPoint = DEFAULT_ENTRIES_PER_END_POINT;
     }
 
     @Override
     public Iterable<ServiceEndPoint> filter(Iterable<ServiceEndPoint> endPoints, PartitionContext partitionContext) {
-        HashCode partitionHash = getPartitionHash(partitionContext);
+        PartitionHash partitionHash = _partitionHasher.hash(partitionContext);
         if (partitionHash == null) {
             return endPoints;  // No partition hash means any server can handle the request.
         }
 
-        // The choose() method is synchronized.  Do any prep work we can up front before calling into it.
-        Map<String, ServiceEndPoint> endPointsById = indexById(endPoints);
+        Ring ring = _ring;
+        if (!ring.getEndPoints().hasSameEndPoints(endPoints)) {
+            ring = updateRing(endPoints, ImmutableList.copyOf(endPoints));
+        }
 
-        ServiceEndPoint endPoint = choose(endPointsById, partitionHash);
-        return Collections.singleton(endPoint);
+        int ordinal = ring.choose(partitionHash.asInt());
+        return (ordinal >= 0)
+                ? Collections.singleton(ring.getEndPoints().getEndPoint(ordinal))
+                : Collections.<ServiceEndPoint>emptySet();
     }
 
-    private HashCode getPartitionHash(PartitionContext partitionContext) {
-        // The precise implementation of this method isn't particularly important.  There are lots of ways we can hash
-        // the data in the PartitionContext.  It just needs to be deterministic and to take into account the values in
-        // the PartitionContext for the configured partition keys.
-        Hasher hasher = Hashing.md5().newHasher();
-        boolean empty = true;
-        if (_partitionKeys.isEmpty()) {
-            // Use the default context.
-            Object value = partitionContext.get();
-            if (value != null) {
-                putUnencodedChars(hasher, value.toString());
-                empty = false;
-            }
-        }
-        for (String partitionKey : _partitionKeys) {
-            Object value = partitionContext.get(partitionKey);
-            if (value != null) {
-                // Include both the key and value in the hash so "reviewId" of 1 and "reviewerId" of 1 hash differently.
-                putUnencodedChars(hasher, partitionKey);
-                putUnencodedChars(hasher, value.toString());
-                empty = false;
-            }
-        }
-        if (empty) {
-            // When the partition context has no relevant values that means we should ignore the partition context and
-            // don't filter the end points based on partition.  Return null to indicate this.
-            return null;
+    @Override
+    public int filterIndex(EndPointSnapshot endPoints, PartitionContext partitionContext) {
+        PartitionHash partitionHash = hashPartition(partitionContext);
+        if (partitionHash == null) {
+            return ALL_END_POINTS;  // No partition hash means any server can handle the request.
         }
-        return hasher.hash();
+
+        int ordinal = getRing(endPoints).choose(partitionHash.asInt());
+        return (ordinal >= 0) ? ordinal : NO_END_POINTS;
     }
 
-    private synchronized ServiceEndPoint choose(Map<String, ServiceEndPoint> endPointsById, HashCode partitionHash) {
-        // Update the ring if the set of active end points has changed.
-        for (String endPointId : Sets.difference(_endPointsById.keySet(), endPointsById.keySet())) {
-            for (Integer hash : computeHashCodes(endPointId)) {
-                _ring.remove(hash);
-            }
-        }
-        for (String endPointId : Sets.difference(endPointsById.keySet(), _endPointsById.keySet())) {
-            for (Integer hash : computeHashCodes(endPointId)) {
-                _ring.put(hash, endPointId);
-            }
-        }
-        if (!_endPointsById.equals(endPointsById)) {
-            _endPointsById = endPointsById;
-        }
+    /**
+     * @return The hash of the partition, or {@code null} if any end point may service it.
+     */
+    PartitionHash hashPartition(PartitionContext partitionContext) {
+        return _partitionHasher.hash(partitionContext);
+    }
 
-        // For the given partition hash, find its location in the ring and return its associated end point.
-        Map.Entry<Integer, String> entry = _ring.ceilingEntry(partitionHash.asInt());
-        if (entry == null) {
-            entry = _ring.firstEntry();
+    /**
+     * @return A ring whose ordinals are indexes into the specified snapshot.
+     */
+    Ring getRing(EndPointSnapshot endPoints) {
+        // The ring's ordinals are indexes into the list it was built from, so only reuse a ring built from this
+        // exact snapshot.  Snapshots are only replaced when the set of valid end points changes.
+        Ring ring = _ring;
+        if (ring.getEndPoints().getSource() != endPoints) {
+            ring = updateRing(endPoints, endPoints.asList());
         }
-        return _endPointsById.get(entry.getValue());
+        return ring;
+    }
+
+    /**
+     * Builds and publishes a new ring for the specified end points.  No lock is held: if several threads notice the
+     * change at the same time they each build an equivalent ring and the last one published wins.
+     */
+    private Ring updateRing(Object source, List<ServiceEndPoint> endPoints) {
+        Ring ring = new Ring(new EndPointIndex(source, endPoints), _ring);
+        _ring = ring;
+        return ring;
     }
 
     /**
-     * Returns a list of pseudo-random 32-bit values derived from the specified end point ID.
+     * Returns an array of pseudo-random 32-bit values derived from the specified end point ID.
      */
-    private List<Integer> computeHashCodes(String endPointId) {
+    private int[] computeHashCodes(String endPointId) {
         // Use the libketama approach of using MD5 hashes to generate 32-bit random values.  This assigns a set of
         // randomly generated ranges to each end point.  The individual ranges may vary widely in size, but, with
         // sufficient # of entries per end point, the overall amount of data assigned to each server tends to even out
         // with minimal variation (256 entries per server yields roughly 5% variation in server load).
-        List<Integer> list = Lists.newArrayListWithCapacity(_entriesPerEndPoint);
-        for (int i = 0; list.size() < _entriesPerEndPoint; i++) {
+        int[] hashCodes = new int[_entriesPerEndPoint];
+        int count = 0;
+        for (int i = 0; count < _entriesPerEndPoint; i++) {
             Hasher hasher = Hashing.md5().newHasher();
             hasher.putInt(i);
-            putUnencodedChars(hasher, endPointId);
+            PartitionHasher.putUnencodedChars(hasher, endPointId);
             ByteBuffer buf = ByteBuffer.wrap(hasher.hash().asBytes());
-            while (buf.hasRemaining() && list.size() < _entriesPerEndPoint) {
-                list.add(buf.getInt());
+            while (buf.hasRemaining() && count < _entriesPerEndPoint) {
+                hashCodes[count++] = buf.getInt();
             }
         }
-        return list;
+        return hashCodes;
     }
 
     /**
-     * Returns a map of {@link ServiceEndPoint} objects indexed by their ID.
+     * An immutable consistent hash ring.  {@code _hashes} is sorted and {@code _ordinals[i]} is the index, in the list
+     * of end points the ring was built from, of the end point that owns the range ending at {@code _hashes[i]}.
      */
-    private Map<String, ServiceEndPoint> indexById(Iterable<ServiceEndPoint> endPoints) {
-        Map<String, ServiceEndPoint> map = Maps.newHashMap();
-        for (ServiceEndPoint endPoint : endPoints) {
-            map.put(endPoint.getId(), endPoint);
+    final class Ring {
+        private final EndPointIndex _endPoints;
+        private final Map<String, int[]> _hashCodesById;
+        private final int[] _hashes;
+        private final int[] _ordinals;
+
+        private Ring(EndPointIndex endPoints, Ring previous) {
+            _endPoints = endPoints;
+
+            // Pack each (hash, ordinal) pair into a long so the ring can be sorted by hash, with ties broken by ordinal,
+            // without boxing.  Hashes are compared as signed ints, the same as when the ring was a TreeMap<Integer>.
+            Map<String, int[]> hashCodesById = Maps.newHashMapWithExpectedSize(endPoints.size());
+            long[] entries = new long[endPoints.size() * _entriesPerEndPoint];
+            int numEntries = 0;
+            for (int position = 0; position < endPoints.size(); position++) {
+                String id = endPoints.getId(position);
+                int ordinal = endPoints.getOrdinal(position);
+
+                // Computing the hash codes is the expensive part, so reuse them for end points that were already in
+                // the previous ring.
+                int[] hashCodes = (previous != null) ? previous._hashCodesById.get(id) : null;
+                if (hashCodes == null) {
+                    hashCodes = computeHashCodes(id);
+                }
+                for (int hash : hashCodes) {
+                    entries[numEntries++] = ((long) hash << 32) | ordinal;
+                }
+                hashCodesById.put(id, hashCodes);
+            }
+            Arrays.sort(entries, 0, numEntries);
+
+            // Collapse duplicate hashes so every position on the ring is owned by exactly one end point.
+            int[] hashes = new int[numEntries];
+            int[] ordinals = new int[numEntries];
+            int size = 0;
+            for (int i = 0; i < numEntries; i++) {
+                int hash = (int) (entries[i] >> 32);
+                if (size > 0 && hashes[size - 1] == hash) {
+                    continue;
+                }
+                hashes[size] = hash;
+                ordinals[size] = (int) entries[i];
+                size++;
+            }
+
+            _hashCodesById = hashCodesById;
+            _hashes = Arrays.copyOf(hashes, size);
+            _ordinals = Arrays.copyOf(ordinals, size);
+        }
+
+        EndPointIndex getEndPoints() {
+            return _endPoints;
+        }
+
+        /**
+         * @return The number of positions on the ring.
+         */
+        int size() {
+            return _hashes.length;
         }
-        return map;
-    }
 
-    private void putUnencodedChars(Hasher hasher, CharSequence charSequence) {
-        // This is equivalent to Guava 15.0+'s Hasher.putUnencodedChars(CharSequence) but is backward compatible to
-        // Guava 11.0-14.0.1 in which it was called Hasher.putString(CharSequence).
-        for (int i = 0; i < charSequence.length(); i++) {
-            hasher.putChar(charSequence.charAt(i));
+        /**
+         * @return The ordinal of the end point that owns the specified position on the ring.
+         */
+        int getOrdinal(int position) {
+            return _ordinals[position];
+        }
+
+        /**
+         * For the given partition hash, find its location in the ring and return the ordinal of its associated end
+         * point, or -1 if the ring is empty.
+         */
+        int choose(int partitionHash) {
+            if (_hashes.length == 0) {
+                return -1;
+            }
+            return _ordinals[findPosition(partitionHash)];
+        }
+
+        /**
+         * @return The position of the first entry at or after the partition hash, wrapping around to the start of the
+         *         ring.  The ring must not be empty.
+         */
+        int findPosition(int partitionHash) {
+            int position = Arrays.binarySearch(_hashes, partitionHash);
+            if (position < 0) {
+                position = -position - 1;
+            }
+            return (position == _hashes.length) ? 0 : position;
         }
     }
 }
@@ -0,0 +1,89 @@
+package com.bazaarvoice.ostrich.partition;
+
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.google.common.collect.Maps;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable view of a list of end points that hash based partition filters build their lookup structures from.
+ * End points are de-duplicated by ID, with the last end point in the list winning, and sorted by ID so every client
+ * sees the same order regardless of the order in which host discovery returned them.
+ * <p/>
+ * Positions refer to the sorted, de-duplicated end points.  Ordinals refer to the original list, which for a
+ * {@link com.bazaarvoice.ostrich.EndPointSnapshot} are the indexes that {@link IndexedPartitionFilter#filterIndex}
+ * returns.
+ */
+final class EndPointIndex {
+    static final EndPointIndex EMPTY = new EndPointIndex(null, Collections.<ServiceEndPoint>emptyList());
+
+    private final Object _source;
+    private final List<ServiceEndPoint> _endPoints;
+    private final Map<String, ServiceEndPoint> _endPointsById;
+    private final String[] _ids;
+    private final int[] _ordinals;
+
+    /**
+     * @param source    The object the end points came from.  Used to cheaply tell whether the index is still current.
+     * @param endPoints The end points.
+     */
+    EndPointIndex(Object source, List<ServiceEndPoint> endPoints) {
+        _source = source;
+        _endPoints = endPoints;
+
+        Map<String, Integer> ordinalsById = Maps.newHashMap();
+        for (int i = 0; i < endPoints.size(); i++) {
+            ordinalsById.put(endPoints.get(i).getId(), i);
+        }
+
+        _ids = ordinalsById.keySet().toArray(new String[ordinalsById.size()]);
+        Arrays.sort(_ids);
+
+        _ordinals = new int[_ids.length];
+        _endPointsById = Maps.newHashMapWithExpectedSize(_ids.length);
+        for (int i = 0; i < _ids.length; i++) {
+            _ordinals[i] = ordinalsById.get(_ids[i]);
+            _endPointsById.put(_ids[i], endPoints.get(_ordinals[i]));
+        }
+    }
+
+    Object getSource() {
+        return _source;
+    }
+
+    /**
+     * @return The number of end points with distinct IDs.
+     */
+    int size() {
+        return _ids.length;
+    }
+
+    String getId(int position) {
+        return _ids[position];
+    }
+
+    int getOrdinal(int position) {
+        return _ordinals[position];
+    }
+
+    ServiceEndPoint getEndPoint(int ordinal) {
+        return _endPoints.get(ordinal);
+    }
+
+    /**
+     * Checks, without allocating, whether this index was built from the same set of end points.
+     */
+    boolean hasSameEndPoints(Iterable<ServiceEndPoint> endPoints) {
+        int count = 0;
+        for (ServiceEndPoint endPoint : endPoints) {
+            if (!endPoint.equals(_endPointsById.get(endPoint.getId()))) {
+                return false;
+            }
+            count++;
+        }
+        return count == _endPoints.size();
+    }
+}
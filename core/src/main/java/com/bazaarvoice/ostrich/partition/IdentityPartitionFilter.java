@@ -1,14 +1,20 @@
 package com.bazaarvoice.ostrich.partition;
 
+import com.bazaarvoice.ostrich.EndPointSnapshot;
 import com.bazaarvoice.ostrich.PartitionContext;
 import com.bazaarvoice.ostrich.ServiceEndPoint;
 
 /**
  * A partition filter with a {@link #filter} method that always returns the same end points it is given.
  */
-public class IdentityPartitionFilter implements PartitionFilter {
+public class IdentityPartitionFilter implements IndexedPartitionFilter {
     @Override
     public Iterable<ServiceEndPoint> filter(Iterable<ServiceEndPoint> endPoints, PartitionContext partitionContext) {
         return endPoints;
     }
+
+    @Override
+    public int filterIndex(EndPointSnapshot endPoints, PartitionContext partitionContext) {
+        return ALL_END_POINTS;
+    }
 }
@@ -0,0 +1,28 @@
+package com.bazaarvoice.ostrich.partition;
+
+import com.bazaarvoice.ostrich.EndPointSnapshot;
+import com.bazaarvoice.ostrich.PartitionContext;
+import com.bazaarvoice.ostrich.ServicePool;
+
+/**
+ * A {@link PartitionFilter} that can select directly from an {@link EndPointSnapshot}.  A service pool prefers
+ * {@link #filterIndex} over {@link #filter}, which avoids wrapping or copying the end points on every call.
+ */
+public interface IndexedPartitionFilter extends PartitionFilter {
+    /** Returned by {@link #filterIndex} when every end point in the snapshot may service the partition. */
+    int ALL_END_POINTS = -1;
+
+    /** Returned by {@link #filterIndex} when no end point in the snapshot may service the partition. */
+    int NO_END_POINTS = -2;
+
+    /**
+     * Selects the end point that should service the partition described by a {@link PartitionContext} object.
+     *
+     * @param endPoints A snapshot of the valid end points.  Known (or suspected) bad end points have been removed.
+     * @param partitionContext The {@link com.bazaarvoice.ostrich.PartitionContext} object passed to the
+     *                         {@link ServicePool#execute} method.
+     * @return The index in {@code endPoints} of the end point that must service the partition,
+     *         {@link #ALL_END_POINTS} if any end point may service it, or {@link #NO_END_POINTS} if none may.
+     */
+    int filterIndex(EndPointSnapshot endPoints, PartitionContext partitionContext);
+}
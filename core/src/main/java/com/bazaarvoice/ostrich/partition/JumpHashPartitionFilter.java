@@ -0,0 +1,95 @@
+package com.bazaarvoice.ostrich.partition;
+
+import com.bazaarvoice.ostrich.EndPointSnapshot;
+import com.bazaarvoice.ostrich.PartitionContext;
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Uses Jump Consistent Hash to map service calls to end points.  End points are ordered by their IDs and each
+ * partition is mapped to one of them, using no memory beyond that ordering and with a near perfectly even spread of
+ * partitions.
+ * <p/>
+ * Jump hashing only minimizes the number of partitions that move when end points are added to or removed from the
+ * <em>end</em> of the ordering, so choose this partition filter when the set of end points is stable and ordered, for
+ * example a fixed list of shards named so they sort in the order they were added.  When arbitrary end points come and
+ * go use {@link ConsistentHashPartitionFilter} or {@link MaglevPartitionFilter} instead.
+ * <p/>
+ * The algorithm is described in:
+ * <a href="http://arxiv.org/abs/1406.2294">A Fast, Minimal Memory, Consistent Hash Algorithm</a>
+ */
+public class JumpHashPartitionFilter implements IndexedPartitionFilter {
+    private final PartitionHasher _partitionHasher;
+    private volatile EndPointIndex _endPoints = EndPointIndex.EMPTY;
+
+    /**
+     * Constructs a default {@code JumpHashPartitionFilter} that uses the default partition key
+     * ({@link com.bazaarvoice.ostrich.PartitionContext#get()}) to determine the partition.
+     */
+    public JumpHashPartitionFilter() {
+        this(Collections.<String>emptyList());
+    }
+
+    /**
+     * Constructs a {@code JumpHashPartitionFilter} that concatenates the partition context values for the specified
+     * set of keys to determine the partition.
+     */
+    public JumpHashPartitionFilter(String... partitionKeys) {
+        this(Arrays.asList(partitionKeys));
+    }
+
+    /**
+     * Constructs a {@code JumpHashPartitionFilter} that concatenates the partition context values for the specified
+     * set of keys to determine the partition.
+     */
+    public JumpHashPartitionFilter(List<String> partitionKeys) {
+        _partitionHasher = new PartitionHasher(partitionKeys, Hashing.murmur3_128());
+    }
+
+    @Override
+    public Iterable<ServiceEndPoint> filter(Iterable<ServiceEndPoint> endPoints, PartitionContext partitionContext) {
+        PartitionHash partitionHash = _partitionHasher.hash(partitionContext);
+        if (partitionHash == null) {
+            return endPoints;  // No partition hash means any server can handle the request.
+        }
+
+        EndPointIndex index = _endPoints;
+        if (!index.hasSameEndPoints(endPoints)) {
+            index = _endPoints = new EndPointIndex(endPoints, ImmutableList.copyOf(endPoints));
+        }
+
+        int ordinal = choose(index, partitionHash);
+        return (ordinal >= 0)
+                ? Collections.singleton(index.getEndPoint(ordinal))
+                : Collections.<ServiceEndPoint>emptySet();
+    }
+
+    @Override
+    public int filterIndex(EndPointSnapshot endPoints, PartitionContext partitionContext) {
+        PartitionHash partitionHash = _partitionHasher.hash(partitionContext);
+        if (partitionHash == null) {
+            return ALL_END_POINTS;  // No partition hash means any server can handle the request.
+        }
+
+        EndPointIndex index = _endPoints;
+        if (index.getSource() != endPoints) {
+            index = _endPoints = new EndPointIndex(endPoints, endPoints.asList());
+        }
+
+        int ordinal = choose(index, partitionHash);
+        return (ordinal >= 0) ? ordinal : NO_END_POINTS;
+    }
+
+    private int choose(EndPointIndex index, PartitionHash partitionHash) {
+        if (index.size() == 0) {
+            return -1;
+        }
+        // Guava's consistentHash is an implementation of jump consistent hashing.
+        return index.getOrdinal(Hashing.consistentHash(partitionHash.asLong(), index.size()));
+    }
+}
@@ -0,0 +1,25 @@
+package com.bazaarvoice.ostrich.partition;
+
+import com.bazaarvoice.ostrich.EndPointSnapshot;
+import com.bazaarvoice.ostrich.ExtendedServicePoolStatistics;
+import com.bazaarvoice.ostrich.PartitionContext;
+import com.bazaarvoice.ostrich.ServicePool;
+
+/**
+ * An {@link IndexedPartitionFilter} that takes the current load on the end points into account.  A service pool
+ * prefers this variant of {@link #filterIndex} and passes its own statistics to it.
+ */
+public interface LoadAwarePartitionFilter extends IndexedPartitionFilter {
+    /**
+     * Selects the end point that should service the partition described by a {@link PartitionContext} object.
+     *
+     * @param endPoints A snapshot of the valid end points.  Known (or suspected) bad end points have been removed.
+     * @param partitionContext The {@link com.bazaarvoice.ostrich.PartitionContext} object passed to the
+     *                         {@link ServicePool#execute} method.
+     * @param statistics Usage statistics about the end points.
+     * @return The index in {@code endPoints} of the end point that must service the partition,
+     *         {@link #ALL_END_POINTS} if any end point may service it, or {@link #NO_END_POINTS} if none may.
+     */
+    int filterIndex(EndPointSnapshot endPoints, PartitionContext partitionContext,
+                    ExtendedServicePoolStatistics statistics);
+}
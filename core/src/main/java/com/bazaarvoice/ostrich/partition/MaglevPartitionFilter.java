@@ -0,0 +1,209 @@
+package com.bazaarvoice.ostrich.partition;
+
+import com.bazaarvoice.ostrich.EndPointSnapshot;
+import com.bazaarvoice.ostrich.PartitionContext;
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Uses Maglev hashing to map service calls to end points.  Each end point fills its share of a fixed size lookup table
+ * following its own pseudo-random permutation of the table slots, so partitions are spread almost perfectly evenly
+ * across end points and looking up the end point for a partition is a single array access.
+ * <p/>
+ * Choose this partition filter, like {@link ConsistentHashPartitionFilter}, when every server can handle every request
+ * but throughput is increased if requests on the same data are directed to the same server.  When an end point is
+ * added or removed, most partitions stay with the end point they were on, though slightly more move than with
+ * {@link ConsistentHashPartitionFilter}.
+ * <p/>
+ * The lookup table is rebuilt whenever the set of end points changes and uses 4 bytes per slot.  The table size should
+ * be a prime much larger than the number of end points, at least 100 times larger for balance within 1%.  The table
+ * for the previous set of end points is kept too, so callers that alternate between two sets of end points, such as
+ * two pools sharing a filter, don't rebuild a table on every call.
+ * <p/>
+ * The algorithm is described in:
+ * <a href="http://research.google.com/pubs/pub44824.html">Maglev: A Fast and Reliable Software Network Load
+ * Balancer</a>
+ */
+public class MaglevPartitionFilter implements IndexedPartitionFilter {
+    private static final int DEFAULT_TABLE_SIZE = 65537;
+
+    private static final HashFunction OFFSET_HASH = Hashing.murmur3_32(0);
+    private static final HashFunction SKIP_HASH = Hashing.murmur3_32(1);
+
+    private final int _tableSize;
+    private final PartitionHasher _partitionHasher;
+    private volatile LookupTable _lookupTable = new LookupTable(EndPointIndex.EMPTY);
+    private volatile LookupTable _previousLookupTable = _lookupTable;
+
+    /**
+     * Constructs a default {@code MaglevPartitionFilter} that uses the default partition key
+     * ({@link com.bazaarvoice.ostrich.PartitionContext#get()}) to determine the partition.
+     */
+    public MaglevPartitionFilter() {
+        this(Collections.<String>emptyList());
+    }
+
+    /**
+     * Constructs a {@code MaglevPartitionFilter} that concatenates the partition context values for the specified set
+     * of keys to determine the partition.
+     */
+    public MaglevPartitionFilter(String... partitionKeys) {
+        this(Arrays.asList(partitionKeys));
+    }
+
+    /**
+     * Constructs a {@code MaglevPartitionFilter} that concatenates the partition context values for the specified set
+     * of keys to determine the partition.
+     */
+    public MaglevPartitionFilter(List<String> partitionKeys) {
+        this(partitionKeys, DEFAULT_TABLE_SIZE);
+    }
+
+    /**
+     * Constructs a {@code MaglevPartitionFilter} that concatenates the partition context values for the specified set
+     * of keys to determine the partition, using a lookup table of the specified size.
+     *
+     * @param tableSize The number of slots in the lookup table.  Must be prime.
+     */
+    public MaglevPartitionFilter(List<String> partitionKeys, int tableSize) {
+        checkArgument(tableSize > 1 && BigInteger.valueOf(tableSize).isProbablePrime(64), "tableSize must be prime");
+
+        _partitionHasher = new PartitionHasher(partitionKeys, Hashing.murmur3_32());
+        _tableSize = tableSize;
+    }
+
+    @Override
+    public Iterable<ServiceEndPoint> filter(Iterable<ServiceEndPoint> endPoints, PartitionContext partitionContext) {
+        PartitionHash partitionHash = _partitionHasher.hash(partitionContext);
+        if (partitionHash == null) {
+            return endPoints;  // No partition hash means any server can handle the request.
+        }
+
+        LookupTable lookupTable = _lookupTable;
+        if (!lookupTable.getEndPoints().hasSameEndPoints(endPoints)) {
+            LookupTable previous = _previousLookupTable;
+            lookupTable = previous.getEndPoints().hasSameEndPoints(endPoints)
+                    ? previous
+                    : updateLookupTable(new EndPointIndex(endPoints, ImmutableList.copyOf(endPoints)));
+        }
+
+        int ordinal = lookupTable.choose(partitionHash.asInt());
+        return (ordinal >= 0)
+                ? Collections.singleton(lookupTable.getEndPoints().getEndPoint(ordinal))
+                : Collections.<ServiceEndPoint>emptySet();
+    }
+
+    @Override
+    public int filterIndex(EndPointSnapshot endPoints, PartitionContext partitionContext) {
+        PartitionHash partitionHash = _partitionHasher.hash(partitionContext);
+        if (partitionHash == null) {
+            return ALL_END_POINTS;  // No partition hash means any server can handle the request.
+        }
+
+        LookupTable lookupTable = _lookupTable;
+        if (lookupTable.getEndPoints().getSource() != endPoints) {
+            LookupTable previous = _previousLookupTable;
+            lookupTable = (previous.getEndPoints().getSource() == endPoints)
+                    ? previous
+                    : updateLookupTable(new EndPointIndex(endPoints, endPoints.asList()));
+        }
+
+        int ordinal = lookupTable.choose(partitionHash.asInt());
+        return (ordinal >= 0) ? ordinal : NO_END_POINTS;
+    }
+
+    /**
+     * Builds and publishes a new lookup table, keeping the current one as the previous table.  No lock is held: racing
+     * threads may publish tables in either order, which at worst costs another rebuild.
+     */
+    private LookupTable updateLookupTable(EndPointIndex endPoints) {
+        LookupTable lookupTable = new LookupTable(endPoints);
+        _previousLookupTable = _lookupTable;
+        _lookupTable = lookupTable;
+        return lookupTable;
+    }
+
+    private static int hash(HashFunction hashFunction, String endPointId) {
+        Hasher hasher = hashFunction.newHasher();
+        PartitionHasher.putUnencodedChars(hasher, endPointId);
+        return hasher.hash().asInt() & Integer.MAX_VALUE;
+    }
+
+    /**
+     * An immutable Maglev lookup table.  Each slot holds the ordinal of the end point that owns it.
+     */
+    private final class LookupTable {
+        private final EndPointIndex _endPoints;
+        private final int[] _ordinals;
+
+        private LookupTable(EndPointIndex endPoints) {
+            _endPoints = endPoints;
+
+            int numEndPoints = endPoints.size();
+            if (numEndPoints == 0) {
+                _ordinals = new int[0];
+                return;
+            }
+
+            // Each end point walks its own permutation of the slots, (offset + j * skip) mod tableSize, which visits
+            // every slot because the table size is prime.  The end points take turns claiming their next free slot
+            // until the table is full, so they each end up with nearly the same number of slots.
+            int[] positions = new int[numEndPoints];
+            int[] skips = new int[numEndPoints];
+            for (int i = 0; i < numEndPoints; i++) {
+                String id = endPoints.getId(i);
+                positions[i] = hash(OFFSET_HASH, id) % _tableSize;
+                skips[i] = hash(SKIP_HASH, id) % (_tableSize - 1) + 1;
+            }
+
+            int[] ordinals = new int[_tableSize];
+            Arrays.fill(ordinals, -1);
+            int filled = 0;
+            while (filled < _tableSize) {
+                for (int i = 0; i < numEndPoints; i++) {
+                    int slot = positions[i];
+                    while (ordinals[slot] >= 0) {
+                        slot = advance(slot, skips[i]);
+                    }
+                    ordinals[slot] = endPoints.getOrdinal(i);
+                    positions[i] = advance(slot, skips[i]);
+
+                    if (++filled == _tableSize) {
+                        break;
+                    }
+                }
+            }
+            _ordinals = ordinals;
+        }
+
+        private int advance(int slot, int skip) {
+            // Equivalent to (slot + skip) % tableSize, without overflowing for very large tables.
+            int remaining = _tableSize - skip;
+            return (slot >= remaining) ? slot - remaining : slot + skip;
+        }
+
+        EndPointIndex getEndPoints() {
+            return _endPoints;
+        }
+
+        /**
+         * @return The ordinal of the end point that owns the partition, or -1 if there are no end points.
+         */
+        int choose(int partitionHash) {
+            if (_ordinals.length == 0) {
+                return -1;
+            }
+            return _ordinals[(partitionHash & Integer.MAX_VALUE) % _ordinals.length];
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.bazaarvoice.ostrich.partition;
+
+import com.bazaarvoice.ostrich.PartitionContext;
+
+/**
+ * The hash of the values in a {@link PartitionContext} that are relevant to a hash based partition filter.  It's also
+ * an entry in the {@link PartitionHasher}'s cache, so it remembers the context it was computed from.
+ */
+final class PartitionHash {
+    private final PartitionContext _partitionContext;
+    private final long _hash;
+
+    PartitionHash(PartitionContext partitionContext, long hash) {
+        _partitionContext = partitionContext;
+        _hash = hash;
+    }
+
+    PartitionContext getPartitionContext() {
+        return _partitionContext;
+    }
+
+    /**
+     * @return The first 32 bits of the hash, the same as Guava's {@code HashCode.asInt()}.
+     */
+    int asInt() {
+        return (int) _hash;
+    }
+
+    /**
+     * @return The first 64 bits of the hash, the same as Guava's {@code HashCode.padToLong()}.
+     */
+    long asLong() {
+        return _hash;
+    }
+}
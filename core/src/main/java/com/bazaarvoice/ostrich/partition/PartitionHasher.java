@@ -0,0 +1,102 @@
+package com.bazaarvoice.ostrich.partition;
+
+import com.bazaarvoice.ostrich.PartitionContext;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Hashes the values in a {@link PartitionContext} that are relevant to a hash based partition filter.
+ * <p/>
+ * Partition contexts are immutable, so the hashes of recently hashed contexts are kept in a small cache, so that a
+ * context used for retries or hedges, or reused across calls, is usually hashed only once.  Contexts are looked up by
+ * identity, which is cheap and doesn't depend on how the context implements {@code equals}.
+ */
+final class PartitionHasher {
+    /** The number of cached hashes.  Must be a power of two. */
+    @VisibleForTesting
+    static final int CACHE_SIZE = 64;
+
+    private final List<String> _partitionKeys;
+    private final HashFunction _hashFunction;
+
+    // Each slot holds the hash of the last context hashed into it.  Hashes are immutable, so threads racing for a slot
+    // can only replace each other's hashes, which costs at most a hash being computed again.
+    private final PartitionHash[] _cache = new PartitionHash[CACHE_SIZE];
+
+    /**
+     * @param partitionKeys The partition keys to hash, or an empty list to hash the default partition key
+     *                      ({@link PartitionContext#get()}).
+     * @param hashFunction  The hash function to use.
+     */
+    PartitionHasher(List<String> partitionKeys, HashFunction hashFunction) {
+        _partitionKeys = ImmutableList.copyOf(partitionKeys);
+        _hashFunction = checkNotNull(hashFunction);
+    }
+
+    /**
+     * @return The hash of the relevant partition context values, or {@code null} if the partition context doesn't
+     *         contain any relevant values and any end point may service the request.
+     */
+    PartitionHash hash(PartitionContext partitionContext) {
+        int slot = System.identityHashCode(partitionContext) & (CACHE_SIZE - 1);
+        PartitionHash hash = _cache[slot];
+        if (hash != null && hash.getPartitionContext() == partitionContext) {
+            return hash;
+        }
+
+        // Contexts without relevant values, such as the empty context, are quick to recognize and aren't cached.
+        HashCode hashCode = computeHash(partitionContext);
+        if (hashCode == null) {
+            return null;
+        }
+        hash = new PartitionHash(partitionContext, hashCode.padToLong());
+        _cache[slot] = hash;
+        return hash;
+    }
+
+    private HashCode computeHash(PartitionContext partitionContext) {
+        // The precise implementation of this method isn't particularly important.  There are lots of ways we can hash
+        // the data in the PartitionContext.  It just needs to be deterministic and to take into account the values in
+        // the PartitionContext for the configured partition keys.
+        Hasher hasher = _hashFunction.newHasher();
+        boolean empty = true;
+        if (_partitionKeys.isEmpty()) {
+            // Use the default context.
+            Object value = partitionContext.get();
+            if (value != null) {
+                putUnencodedChars(hasher, value.toString());
+                empty = false;
+            }
+        }
+        for (String partitionKey : _partitionKeys) {
+            Object value = partitionContext.get(partitionKey);
+            if (value != null) {
+                // Include both the key and value in the hash so "reviewId" of 1 and "reviewerId" of 1 hash differently.
+                putUnencodedChars(hasher, partitionKey);
+                putUnencodedChars(hasher, value.toString());
+                empty = false;
+            }
+        }
+        if (empty) {
+            // When the partition context has no relevant values that means we should ignore the partition context and
+            // don't filter the end points based on partition.  Return null to indicate this.
+            return null;
+        }
+        return hasher.hash();
+    }
+
+    static void putUnencodedChars(Hasher hasher, CharSequence charSequence) {
+        // This is equivalent to Guava 15.0+'s Hasher.putUnencodedChars(CharSequence) but is backward compatible to
+        // Guava 11.0-14.0.1 in which it was called Hasher.putString(CharSequence).
+        for (int i = 0; i < charSequence.length(); i++) {
+            hasher.putChar(charSequence.charAt(i));
+        }
+    }
+}
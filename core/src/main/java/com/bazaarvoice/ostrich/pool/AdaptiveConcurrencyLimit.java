@@ -0,0 +1,126 @@
+package com.bazaarvoice.ostrich.pool;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The concurrency limit of a single end point, adjusted with an algorithm modelled on TCP Vegas congestion control.
+ * <p/>
+ * The fastest response time seen approximates the end point's response time when nothing is queued on it.  Comparing a
+ * response time to it estimates how many requests were queued ahead of that one: {@code limit * (1 - min / rtt)}.
+ * The limit grows while that estimate is small, shrinks once it gets large, and backs off sharply when a request
+ * fails.  The minimum is forgotten every so often so that the limit can follow an end point whose baseline gets slower.
+ */
+class AdaptiveConcurrencyLimit {
+    /** Grow the limit while fewer than this many requests, scaled by the log of the limit, appear to be queued. */
+    private static final int ALPHA = 3;
+
+    /** Shrink the limit once more than this many requests, scaled by the log of the limit, appear to be queued. */
+    private static final int BETA = 6;
+
+    /** How much of the limit is kept after a request fails. */
+    private static final double BACKOFF_RATIO = 0.9;
+
+    /** The number of response times after which the fastest one is forgotten and measured again. */
+    private static final int MIN_RESPONSE_TIME_RESET_SAMPLES = 1000;
+
+    private final int _minLimit;
+    private final int _maxLimit;
+    private final AtomicInteger _numInFlight = new AtomicInteger();
+    private volatile int _limit;
+
+    // Guarded by this.
+    private double _estimatedLimit;
+    private long _minResponseTimeNanos;
+    private int _numSamples;
+
+    AdaptiveConcurrencyLimit(ConcurrencyLimitPolicy policy) {
+        _minLimit = policy.getMinLimit();
+        _maxLimit = policy.getMaxLimit();
+        _estimatedLimit = policy.getInitialLimit();
+        _limit = policy.getInitialLimit();
+    }
+
+    /**
+     * Start a request if the end point is below its limit.  Every successful call must be followed by exactly one call
+     * to {@link #onSuccess}, {@link #onDropped} or {@link #onIgnored}.
+     *
+     * @return Whether the request may be sent to the end point.
+     */
+    boolean tryAcquire() {
+        while (true) {
+            int numInFlight = _numInFlight.get();
+            if (numInFlight >= _limit) {
+                return false;
+            }
+            if (_numInFlight.compareAndSet(numInFlight, numInFlight + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return Whether a request could currently be started without going over the limit.
+     */
+    boolean hasCapacity() {
+        return _numInFlight.get() < _limit;
+    }
+
+    /**
+     * Finish a request that the end point responded to.
+     */
+    void onSuccess(long responseTimeNanos) {
+        int numInFlight = _numInFlight.getAndDecrement();
+        update(Math.max(responseTimeNanos, 1), numInFlight);
+    }
+
+    /**
+     * Finish a request that failed in a way that suggests the end point is overloaded.
+     */
+    void onDropped() {
+        _numInFlight.decrementAndGet();
+        synchronized (this) {
+            setLimit(_estimatedLimit * BACKOFF_RATIO);
+        }
+    }
+
+    /**
+     * Finish a request that says nothing about the end point's capacity, for example one that never reached it.
+     */
+    void onIgnored() {
+        _numInFlight.decrementAndGet();
+    }
+
+    int getLimit() {
+        return _limit;
+    }
+
+    int getNumInFlight() {
+        return _numInFlight.get();
+    }
+
+    private synchronized void update(long responseTimeNanos, int numInFlight) {
+        if (++_numSamples >= MIN_RESPONSE_TIME_RESET_SAMPLES) {
+            _numSamples = 0;
+            _minResponseTimeNanos = 0;
+        }
+        if (_minResponseTimeNanos == 0 || responseTimeNanos < _minResponseTimeNanos) {
+            _minResponseTimeNanos = responseTimeNanos;
+        }
+
+        double step = Math.max(1, Math.log10(_estimatedLimit));
+        double queueSize = _estimatedLimit * (1 - (double) _minResponseTimeNanos / responseTimeNanos);
+        if (queueSize <= ALPHA * step) {
+            // Only grow while the limit is actually being used, otherwise an idle end point's limit grows unbounded.
+            if (numInFlight * 2 >= _estimatedLimit) {
+                setLimit(_estimatedLimit + step);
+            }
+        } else if (queueSize >= BETA * step) {
+            setLimit(_estimatedLimit - step);
+        }
+    }
+
+    private void setLimit(double limit) {
+        _estimatedLimit = Math.min(Math.max(limit, _minLimit), _maxLimit);
+        _limit = (int) _estimatedLimit;
+    }
+}
@@ -21,7 +21,7 @@ import static com.google.common.base.Preconditions.checkState;
  * context from method arguments.
  */
 class AnnotationPartitionContextSupplier implements PartitionContextSupplier {
-    private final Map<Method, String[]> _keyMappings;
+    private final Map<Method, KeyExtractor> _keyExtractors;
 
     /**
      * Introspects the specified service interface and client implementation class, looking for {@link PartitionKey}
@@ -35,7 +35,7 @@ class AnnotationPartitionContextSupplier implements PartitionContextSupplier {
     <S> AnnotationPartitionContextSupplier(Class<S> ifc, Class<? extends S> impl) {
         checkArgument(ifc.isAssignableFrom(impl));
 
-        ImmutableMap.Builder<Method, String[]> builder = ImmutableMap.builder();
+        ImmutableMap.Builder<Method, KeyExtractor> builder = ImmutableMap.builder();
         for (Method ifcMethod : ifc.getMethods()) {
             Method implMethod;
             try {
@@ -50,25 +50,18 @@ class AnnotationPartitionContextSupplier implements PartitionContextSupplier {
             }
 
             // Index by the ifcMethod because that's the method provided when a dynamic proxy method is invoked.
-            builder.put(ifcMethod, keyMappings);
+            builder.put(ifcMethod, new KeyExtractor(keyMappings));
         }
-        _keyMappings = builder.build();
+        _keyExtractors = builder.build();
     }
 
     @Override
     public PartitionContext forCall(Method method, Object... args) {
-        String[] mappings = _keyMappings.get(method);
-        if (mappings == null) {
+        KeyExtractor extractor = _keyExtractors.get(method);
+        if (extractor == null) {
             return PartitionContextBuilder.empty();
         }
-
-        PartitionContextBuilder builder = new PartitionContextBuilder();
-        for (int i = 0; i < mappings.length; i++) {
-            if (mappings[i] != null && args[i] != null) {
-                builder.put(mappings[i], args[i]);
-            }
-        }
-        return builder.build();
+        return extractor.extract(args);
     }
 
     /**
@@ -95,6 +88,68 @@ class AnnotationPartitionContextSupplier implements PartitionContextSupplier {
         return keyMappingFound ? keyMappings : null;
     }
 
+    /**
+     * Builds the partition context of calls to a single method.  Only the indexes of the annotated arguments are kept,
+     * and contexts with one or two keys are built without going through a {@link PartitionContextBuilder}.
+     */
+    private static class KeyExtractor {
+        private final int[] _indexes;
+        private final String[] _keys;
+
+        KeyExtractor(String[] keyMappings) {
+            int numKeys = 0;
+            for (String key : keyMappings) {
+                if (key != null) {
+                    numKeys++;
+                }
+            }
+            _indexes = new int[numKeys];
+            _keys = new String[numKeys];
+            int next = 0;
+            for (int i = 0; i < keyMappings.length; i++) {
+                if (keyMappings[i] != null) {
+                    _indexes[next] = i;
+                    _keys[next] = keyMappings[i];
+                    next++;
+                }
+            }
+        }
+
+        PartitionContext extract(Object[] args) {
+            switch (_indexes.length) {
+                case 1:
+                    return of(_keys[0], args[_indexes[0]]);
+                case 2:
+                    return of(_keys[0], args[_indexes[0]], _keys[1], args[_indexes[1]]);
+                default:
+                    PartitionContextBuilder builder = new PartitionContextBuilder();
+                    for (int i = 0; i < _indexes.length; i++) {
+                        Object value = args[_indexes[i]];
+                        if (value != null) {
+                            builder.put(_keys[i], value);
+                        }
+                    }
+                    return builder.build();
+            }
+        }
+
+        /** Null arguments are left out of the context. */
+        private static PartitionContext of(String key, Object value) {
+            return (value != null) ? PartitionContextBuilder.of(key, value) : PartitionContextBuilder.empty();
+        }
+
+        /** Null arguments are left out of the context. */
+        private static PartitionContext of(String key1, Object value1, String key2, Object value2) {
+            if (value1 == null) {
+                return of(key2, value2);
+            }
+            if (value2 == null) {
+                return of(key1, value1);
+            }
+            return PartitionContextBuilder.of(key1, value1, key2, value2);
+        }
+    }
+
     private static PartitionKey findPartitionKeyAnnotation(Annotation[] annotations) {
         for (Annotation annotation : annotations) {
             if (annotation instanceof PartitionKey) {
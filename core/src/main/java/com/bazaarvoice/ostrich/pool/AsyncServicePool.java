@@ -1,10 +1,19 @@
 package com.bazaarvoice.ostrich.pool;
 
+import com.bazaarvoice.ostrich.AsyncServiceCallback;
+import com.bazaarvoice.ostrich.BatchServiceCallback;
+import com.bazaarvoice.ostrich.BatchingPolicy;
+import com.bazaarvoice.ostrich.EndPointSnapshot;
+import com.bazaarvoice.ostrich.ExtendedAsyncServicePool;
+import com.bazaarvoice.ostrich.ListenableServiceFuture;
 import com.bazaarvoice.ostrich.PartitionContext;
+import com.bazaarvoice.ostrich.PartitionContextBuilder;
 import com.bazaarvoice.ostrich.RetryPolicy;
+import com.bazaarvoice.ostrich.ScheduledRetryPolicy;
 import com.bazaarvoice.ostrich.ServiceCallback;
 import com.bazaarvoice.ostrich.ServiceEndPoint;
 import com.bazaarvoice.ostrich.ServiceEndPointPredicate;
+import com.bazaarvoice.ostrich.SettableServiceFuture;
 import com.bazaarvoice.ostrich.exceptions.MaxRetriesException;
 import com.bazaarvoice.ostrich.exceptions.NoAvailableHostsException;
 import com.bazaarvoice.ostrich.metrics.Metrics;
@@ -15,19 +24,25 @@ import com.codahale.metrics.Timer;
 import com.google.common.base.Ticker;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.Collection;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
-class AsyncServicePool<S> implements com.bazaarvoice.ostrich.AsyncServicePool<S> {
+class AsyncServicePool<S> implements ExtendedAsyncServicePool<S> {
     private static final Logger LOG = LoggerFactory.getLogger(AsyncServicePool.class);
 
     private static final ServiceEndPointPredicate ALL_END_POINTS = new ServiceEndPointPredicate() {
@@ -42,25 +57,33 @@ class AsyncServicePool<S> implements com.bazaarvoice.ostrich.AsyncServicePool<S>
     private final boolean _shutdownPoolOnClose;
     private final ExecutorService _executor;
     private final boolean _shutdownExecutorOnClose;
+    private final ScheduledExecutorService _retryScheduler;
+    private final boolean _shutdownRetrySchedulerOnClose;
     private final Metrics.InstanceMetrics _metrics;
     private final Timer _executionTime;
     private final Meter _numExecuteSuccesses;
     private final Meter _numExecuteFailures;
     private final Histogram _executeBatchSize;
+    private final Histogram _batchSize;
 
     AsyncServicePool(Ticker ticker, ServicePool<S> pool, boolean shutdownPoolOnClose,
-                            ExecutorService executor, boolean shutdownExecutorOnClose, MetricRegistry metrics) {
+                     ExecutorService executor, boolean shutdownExecutorOnClose,
+                     ScheduledExecutorService retryScheduler, boolean shutdownRetrySchedulerOnClose,
+                     MetricRegistry metrics) {
         _ticker = checkNotNull(ticker);
         _pool = checkNotNull(pool);
         _shutdownPoolOnClose = shutdownPoolOnClose;
         _executor = checkNotNull(executor);
         _shutdownExecutorOnClose = shutdownExecutorOnClose;
+        _retryScheduler = checkNotNull(retryScheduler);
+        _shutdownRetrySchedulerOnClose = shutdownRetrySchedulerOnClose;
 
         _metrics = Metrics.forInstance(metrics, this, _pool.getServiceName());
         _executionTime = _metrics.timer("execution-time");
         _numExecuteSuccesses = _metrics.meter("num-execute-successes");
         _numExecuteFailures = _metrics.meter("num-execute-failures");
         _executeBatchSize = _metrics.histogram("execute-batch-size");
+        _batchSize = _metrics.histogram("batch-size");
     }
 
     @Override
@@ -69,6 +92,10 @@ class AsyncServicePool<S> implements com.bazaarvoice.ostrich.AsyncServicePool<S>
             _executor.shutdown();
         }
 
+        if (_shutdownRetrySchedulerOnClose) {
+            _retryScheduler.shutdown();
+        }
+
         if (_shutdownPoolOnClose) {
             _pool.close();
         }
@@ -97,6 +124,33 @@ class AsyncServicePool<S> implements com.bazaarvoice.ostrich.AsyncServicePool<S>
         });
     }
 
+    @Override
+    public <R> ListenableServiceFuture<R> executeAsync(RetryPolicy retryPolicy, AsyncServiceCallback<S, R> callback) {
+        return executeAsync(PartitionContextBuilder.empty(), retryPolicy, callback);
+    }
+
+    @Override
+    public <R> ListenableServiceFuture<R> executeAsync(PartitionContext partitionContext, RetryPolicy retryPolicy,
+                                                       AsyncServiceCallback<S, R> callback) {
+        checkNotNull(partitionContext);
+        checkNotNull(retryPolicy);
+        checkNotNull(callback);
+
+        AsyncExecution<R> execution = new AsyncExecution<>(partitionContext, retryPolicy, callback);
+        execution.submit();
+        return execution.getResult();
+    }
+
+    @Override
+    public <T, R> com.bazaarvoice.ostrich.ServiceBatcher<T, R> newBatcher(BatchingPolicy batchingPolicy,
+                                                                         RetryPolicy retryPolicy,
+                                                                         BatchServiceCallback<S, T, R> callback) {
+        checkNotNull(batchingPolicy);
+
+        return new ServiceBatcher<>(_ticker, _pool, _executor, _retryScheduler, batchingPolicy, retryPolicy, callback,
+                _batchSize);
+    }
+
     @Override
     public <R> Collection<Future<R>> executeOnAll(RetryPolicy retry, ServiceCallback<S, R> callback) {
         return executeOn(ALL_END_POINTS, retry, callback);
@@ -168,4 +222,188 @@ class AsyncServicePool<S> implements com.bazaarvoice.ostrich.AsyncServicePool<S>
     public int getNumBadEndPoints() {
         return _pool.getNumBadEndPoints();
     }
+
+    /**
+     * The state of a single {@link #executeAsync} call.  Each attempt runs on the executor only long enough to choose
+     * an end point and start the callback.  Its outcome is handled by whichever thread completes the callback's future,
+     * and retries that must wait are handed to the retry scheduler, so no thread is blocked while a call is in flight.
+     */
+    private class AsyncExecution<R> implements Runnable {
+        private final PartitionContext _partitionContext;
+        private final RetryPolicy _retryPolicy;
+        private final AsyncServiceCallback<S, R> _callback;
+        private final SettableServiceFuture<R> _result = new SettableServiceFuture<>();
+        private final Timer.Context _timer = _executionTime.time();
+        private final long _start = _ticker.read();
+        private int _numAttempts;
+        private Exception _lastException;
+        private volatile ListenableServiceFuture<R> _attempt;
+
+        AsyncExecution(PartitionContext partitionContext, RetryPolicy retryPolicy,
+                       AsyncServiceCallback<S, R> callback) {
+            _partitionContext = partitionContext;
+            _retryPolicy = retryPolicy;
+            _callback = callback;
+
+            _result.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    _timer.stop();
+
+                    ListenableServiceFuture<R> attempt = _attempt;
+                    if (_result.isCancelled() && attempt != null) {
+                        attempt.cancel(true);
+                    }
+                }
+            }, MoreExecutors.sameThreadExecutor());
+        }
+
+        ListenableServiceFuture<R> getResult() {
+            return _result;
+        }
+
+        void submit() {
+            submit(this);
+        }
+
+        private void submit(Runnable task) {
+            try {
+                _executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                _result.setException(e);
+            }
+        }
+
+        @Override
+        public void run() {
+            if (_result.isDone()) {
+                return;  // Cancelled while waiting to run.
+            }
+
+            long rateLimitWaitNanos;
+            try {
+                rateLimitWaitNanos = _pool.reserveRateLimit(_partitionContext);
+            } catch (Exception e) {
+                _result.setException(e);
+                return;
+            }
+            if (rateLimitWaitNanos <= 0) {
+                startAttempt();
+                return;
+            }
+
+            // Wait for the rate limit's permit on the scheduler rather than blocking the executor.
+            final Runnable startAttempt = new Runnable() {
+                @Override
+                public void run() {
+                    startAttempt();
+                }
+            };
+            try {
+                _retryScheduler.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        submit(startAttempt);
+                    }
+                }, rateLimitWaitNanos, TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException e) {
+                _result.setException(e);
+            }
+        }
+
+        private void startAttempt() {
+            if (_result.isDone()) {
+                return;  // Cancelled while waiting for the rate limit.
+            }
+
+            final ServiceEndPoint endPoint;
+            final ListenableServiceFuture<R> attempt;
+            try {
+                EndPointSnapshot validEndPoints = _pool.getValidEndPoints(_lastException);
+                endPoint = _pool.chooseEndPoint(validEndPoints, _partitionContext, _lastException);
+                attempt = _pool.executeOnEndPointAsync(endPoint, _callback);
+            } catch (Exception e) {
+                _result.setException(e);
+                return;
+            }
+
+            _attempt = attempt;
+            if (_result.isCancelled()) {
+                attempt.cancel(true);
+            }
+
+            attempt.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    attemptCompleted(endPoint, attempt);
+                }
+            }, MoreExecutors.sameThreadExecutor());
+        }
+
+        private void attemptCompleted(ServiceEndPoint endPoint, ListenableServiceFuture<R> attempt) {
+            try {
+                R result = Uninterruptibles.getUninterruptibly(attempt);
+                _numExecuteSuccesses.mark();
+                _result.set(result);
+            } catch (CancellationException e) {
+                _result.cancel(false);
+            } catch (ExecutionException e) {
+                _numExecuteFailures.mark();
+
+                // Don't retry if exception is too severe.
+                Throwable cause = e.getCause();
+                if (!(cause instanceof Exception) || !_pool.isRetriableException((Exception) cause)) {
+                    _result.setException(cause);
+                    return;
+                }
+
+                _lastException = (Exception) cause;
+                LOG.info("Retriable exception from end point id: " + endPoint.getId(), cause);
+                retry();
+            }
+        }
+
+        private void retry() {
+            final int numAttempts = ++_numAttempts;
+            final long elapsedTimeMs = TimeUnit.NANOSECONDS.toMillis(_ticker.read() - _start);
+
+            if (_retryPolicy instanceof ScheduledRetryPolicy) {
+                long delayMs = ((ScheduledRetryPolicy) _retryPolicy).getRetryDelayMs(numAttempts, elapsedTimeMs);
+                if (delayMs < 0) {
+                    _result.setException(new MaxRetriesException(_lastException));
+                } else if (delayMs == 0) {
+                    submit();
+                } else {
+                    try {
+                        _retryScheduler.schedule(new Runnable() {
+                            @Override
+                            public void run() {
+                                submit();
+                            }
+                        }, delayMs, TimeUnit.MILLISECONDS);
+                    } catch (RejectedExecutionException e) {
+                        _result.setException(e);
+                    }
+                }
+                return;
+            }
+
+            // Other retry policies may sleep in allowRetry, so ask them on the executor rather than on whichever thread
+            // completed the attempt.
+            try {
+                _executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (_retryPolicy.allowRetry(numAttempts, elapsedTimeMs)) {
+                            AsyncExecution.this.run();
+                        } else {
+                            _result.setException(new MaxRetriesException(_lastException));
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                _result.setException(e);
+            }
+        }
+    }
 }
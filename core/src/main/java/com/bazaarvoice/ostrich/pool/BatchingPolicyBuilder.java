@@ -0,0 +1,67 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.BatchingPolicy;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+public class BatchingPolicyBuilder {
+    private static final int DEFAULT_MAX_BATCH_SIZE = 100;
+    private static final long DEFAULT_MAX_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private int _maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+    private long _maxDelayNanos = DEFAULT_MAX_DELAY_NANOS;
+
+    /**
+     * Set the most items that are executed in one batch.  If never called, defaults to {@code 100}.
+     *
+     * @param maxBatchSize The batch size, at least 1.
+     * @return this
+     */
+    public BatchingPolicyBuilder withMaxBatchSize(int maxBatchSize) {
+        checkState(maxBatchSize > 0);
+
+        _maxBatchSize = maxBatchSize;
+        return this;
+    }
+
+    /**
+     * Set the longest the first item of a batch waits for the batch to fill up.  If never called, defaults to one
+     * millisecond.
+     *
+     * @param maxDelay The time, at least 0.
+     * @param unit     The unit of time the {@code maxDelay} is in.
+     * @return this
+     */
+    public BatchingPolicyBuilder withMaxDelay(long maxDelay, TimeUnit unit) {
+        checkState(maxDelay >= 0);
+        checkNotNull(unit);
+
+        _maxDelayNanos = unit.toNanos(maxDelay);
+        return this;
+    }
+
+    /**
+     * Build the {@code BatchingPolicy} specified by this builder.
+     *
+     * @return The {@code BatchingPolicy} that was constructed.
+     */
+    public BatchingPolicy build() {
+        final int maxBatchSize = _maxBatchSize;
+        final long maxDelayNanos = _maxDelayNanos;
+
+        return new BatchingPolicy() {
+            @Override
+            public int getMaxBatchSize() {
+                return maxBatchSize;
+            }
+
+            @Override
+            public long getMaxDelay(TimeUnit unit) {
+                return unit.convert(maxDelayNanos, TimeUnit.NANOSECONDS);
+            }
+        };
+    }
+}
@@ -0,0 +1,26 @@
+package com.bazaarvoice.ostrich.pool;
+
+/**
+ * A policy for limiting how many requests a {@link ServicePool} sends to each end point at once.  The limit adapts to
+ * each end point's capacity: it grows while the end point's response times stay close to the fastest seen, and shrinks
+ * as soon as they rise, which is a sign that requests are queueing up on the end point.
+ * <p/>
+ * Requests that would go over an end point's limit are sent to a different end point if possible, and otherwise fail
+ * right away with a {@link com.bazaarvoice.ostrich.exceptions.ConcurrencyLimitExceededException}.
+ */
+public interface ConcurrencyLimitPolicy {
+    /**
+     * The limit that each end point starts out with before anything is known about its capacity.
+     */
+    int getInitialLimit();
+
+    /**
+     * The lowest the limit of an end point may go.
+     */
+    int getMinLimit();
+
+    /**
+     * The highest the limit of an end point may go.
+     */
+    int getMaxLimit();
+}
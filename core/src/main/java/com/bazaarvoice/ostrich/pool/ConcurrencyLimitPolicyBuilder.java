@@ -0,0 +1,74 @@
+package com.bazaarvoice.ostrich.pool;
+
+import static com.google.common.base.Preconditions.checkState;
+
+public class ConcurrencyLimitPolicyBuilder {
+    private static final int DEFAULT_INITIAL_LIMIT = 20;
+    private static final int DEFAULT_MIN_LIMIT = 1;
+    private static final int DEFAULT_MAX_LIMIT = 1000;
+
+    private int _initialLimit = DEFAULT_INITIAL_LIMIT;
+    private int _minLimit = DEFAULT_MIN_LIMIT;
+    private int _maxLimit = DEFAULT_MAX_LIMIT;
+
+    /**
+     * Set the limit that each end point starts out with.  If never called, defaults to {@code 20}.
+     *
+     * @param initialLimit The initial limit, at least 1.
+     * @return this
+     */
+    public ConcurrencyLimitPolicyBuilder withInitialLimit(int initialLimit) {
+        checkState(initialLimit > 0);
+
+        _initialLimit = initialLimit;
+        return this;
+    }
+
+    /**
+     * Set the range that the limit of each end point is kept within.  If never called, defaults to between {@code 1}
+     * and {@code 1000}.
+     *
+     * @param minLimit The lowest limit, at least 1.
+     * @param maxLimit The highest limit, at least {@code minLimit}.
+     * @return this
+     */
+    public ConcurrencyLimitPolicyBuilder withLimitRange(int minLimit, int maxLimit) {
+        checkState(minLimit > 0);
+        checkState(maxLimit >= minLimit);
+
+        _minLimit = minLimit;
+        _maxLimit = maxLimit;
+        return this;
+    }
+
+    /**
+     * Build the {@code ConcurrencyLimitPolicy} specified by this builder.
+     *
+     * @return The {@code ConcurrencyLimitPolicy} that was constructed.
+     */
+    public ConcurrencyLimitPolicy build() {
+        checkState(_initialLimit >= _minLimit && _initialLimit <= _maxLimit,
+                "The initial limit must be within the limit range");
+
+        final int initialLimit = _initialLimit;
+        final int minLimit = _minLimit;
+        final int maxLimit = _maxLimit;
+
+        return new ConcurrencyLimitPolicy() {
+            @Override
+            public int getInitialLimit() {
+                return initialLimit;
+            }
+
+            @Override
+            public int getMinLimit() {
+                return minLimit;
+            }
+
+            @Override
+            public int getMaxLimit() {
+                return maxLimit;
+            }
+        };
+    }
+}
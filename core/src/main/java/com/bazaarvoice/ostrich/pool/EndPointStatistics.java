@@ -0,0 +1,237 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.codahale.metrics.Snapshot;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Live statistics that a {@link ServicePool} keeps about its own traffic to a single end point.  These back the
+ * per end point values reported through {@link com.bazaarvoice.ostrich.ExtendedServicePoolStatistics}.
+ * <p/>
+ * Response times are recorded by every callback that the pool executes, so they're kept without locks.  The response
+ * time average and the recent response times are recorded separately, since the pool only keeps the ones it uses.
+ */
+class EndPointStatistics {
+    /**
+     * The time constant of the response time average.  A sample this old has roughly a third of the weight of a
+     * brand new one, and an average that hasn't been updated for this long has decayed to roughly a third.
+     */
+    private static final double DECAY_TIME_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    /** The number of recent response times that percentiles are computed from. */
+    private static final int NUM_RESPONSE_TIME_SAMPLES = 128;
+
+    /** Percentiles of fewer response times than this aren't meaningful enough to act on. */
+    private static final int MIN_RESPONSE_TIME_SAMPLES = 16;
+
+    /** How long a computed percentile is reused for, since computing one means sorting all of the samples. */
+    private static final long PERCENTILE_REFRESH_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /** The number of recent attempt outcomes that the error rate is computed from. */
+    static final int NUM_OUTCOME_SAMPLES = 100;
+
+    /** The response time average before any responses have been timed.  Real averages are never negative. */
+    private static final long UNKNOWN_RESPONSE_TIME_BITS = Double.doubleToRawLongBits(-1);
+
+    private final AtomicInteger _numOutstandingRequests = new AtomicInteger();
+    private final AtomicLong _responseTimeBits = new AtomicLong(UNKNOWN_RESPONSE_TIME_BITS);
+    private volatile long _responseTimeUpdatedNanos;
+    private final AtomicLongArray _responseTimes = new AtomicLongArray(NUM_RESPONSE_TIME_SAMPLES);
+    private final AtomicLong _numResponseTimes = new AtomicLong();
+    private volatile Percentile _percentile;
+
+    // Guarded by this.
+    private final boolean[] _failedOutcomes = new boolean[NUM_OUTCOME_SAMPLES];
+    private int _nextOutcome;
+    private int _numOutcomes;
+    private int _numFailedOutcomes;
+    private int _numConsecutiveFailures;
+
+    /**
+     * Record that a callback has started executing against the end point.
+     */
+    void requestStarted() {
+        _numOutstandingRequests.incrementAndGet();
+    }
+
+    /**
+     * Record that a callback that was previously started has finished, whether it succeeded or not.
+     */
+    void requestFinished() {
+        _numOutstandingRequests.decrementAndGet();
+    }
+
+    int getNumOutstandingRequests() {
+        return _numOutstandingRequests.get();
+    }
+
+    /**
+     * Fold the execution time of a callback into the response time average.
+     * <p/>
+     * The time of the update is written after the average, so a concurrent update may decay the new average from the
+     * previous time.  That's off by no more than the time between two responses, which doesn't matter for choosing
+     * between end points.
+     *
+     * @param durationNanos How long the callback took.
+     * @param nowNanos      The current time according to the pool's ticker.
+     */
+    void recordResponseTime(long durationNanos, long nowNanos) {
+        while (true) {
+            long bits = _responseTimeBits.get();
+            double responseTimeNanos = Double.longBitsToDouble(bits);
+            double updatedNanos;
+            if (responseTimeNanos < 0 || durationNanos > responseTimeNanos) {
+                // Peak sensitive: react to a slow down immediately rather than waiting for the average to catch up.
+                updatedNanos = durationNanos;
+            } else {
+                double weight = decayWeight(nowNanos);
+                updatedNanos = responseTimeNanos * weight + durationNanos * (1 - weight);
+            }
+            if (_responseTimeBits.compareAndSet(bits, Double.doubleToRawLongBits(updatedNanos))) {
+                _responseTimeUpdatedNanos = nowNanos;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Use a health check's response time as the initial average, unless callbacks have already been timed.
+     *
+     * @param durationNanos How long the health check took.
+     * @param nowNanos      The current time according to the pool's ticker.
+     */
+    void seedResponseTime(long durationNanos, long nowNanos) {
+        if (_responseTimeBits.compareAndSet(UNKNOWN_RESPONSE_TIME_BITS, Double.doubleToRawLongBits(durationNanos))) {
+            _responseTimeUpdatedNanos = nowNanos;
+        }
+    }
+
+    /**
+     * @param nowNanos The current time according to the pool's ticker.
+     * @return The response time average, decayed by the time since it was last updated, or {@code 0} if unknown.
+     */
+    long getResponseTimeNanos(long nowNanos) {
+        double responseTimeNanos = Double.longBitsToDouble(_responseTimeBits.get());
+        if (responseTimeNanos < 0) {
+            return 0;
+        }
+        return (long) (responseTimeNanos * decayWeight(nowNanos));
+    }
+
+    /**
+     * Keep the execution time of a callback as one of the recent response times that percentiles are computed from.
+     *
+     * @param durationNanos How long the callback took.
+     */
+    void sampleResponseTime(long durationNanos) {
+        long sample = _numResponseTimes.getAndIncrement();
+        _responseTimes.set((int) (sample % NUM_RESPONSE_TIME_SAMPLES), durationNanos);
+    }
+
+    /**
+     * @param percentile The percentile to compute, between 0 and 1.
+     * @param nowNanos   The current time according to the pool's ticker.
+     * @return The given percentile of the recent response times, or {@code -1} if too few responses have been timed.
+     */
+    long getResponseTimePercentile(double percentile, long nowNanos) {
+        int numSamples = (int) Math.min(_numResponseTimes.get(), NUM_RESPONSE_TIME_SAMPLES);
+        if (numSamples < MIN_RESPONSE_TIME_SAMPLES) {
+            return -1;
+        }
+
+        // Racing callers may both compute the percentile.  Either result is recent enough to use.
+        Percentile cached = _percentile;
+        if (cached == null || percentile != cached._percentile
+                || nowNanos - cached._updatedNanos >= PERCENTILE_REFRESH_NANOS) {
+            long[] samples = new long[numSamples];
+            for (int i = 0; i < numSamples; i++) {
+                samples[i] = _responseTimes.get(i);
+            }
+            cached = new Percentile(percentile, (long) new Snapshot(samples).getValue(percentile), nowNanos);
+            _percentile = cached;
+        }
+        return cached._valueNanos;
+    }
+
+    /**
+     * Record that an attempt on the end point succeeded, or failed for a reason unrelated to the end point's health.
+     */
+    synchronized void recordSuccess() {
+        recordOutcome(false);
+        _numConsecutiveFailures = 0;
+    }
+
+    /**
+     * Record that an attempt on the end point failed with a retriable exception.
+     */
+    synchronized void recordFailure() {
+        recordOutcome(true);
+        _numConsecutiveFailures++;
+    }
+
+    private void recordOutcome(boolean failed) {
+        if (_numOutcomes < NUM_OUTCOME_SAMPLES) {
+            _numOutcomes++;
+        } else if (_failedOutcomes[_nextOutcome]) {
+            _numFailedOutcomes--;
+        }
+        _failedOutcomes[_nextOutcome] = failed;
+        if (failed) {
+            _numFailedOutcomes++;
+        }
+        _nextOutcome = (_nextOutcome + 1) % NUM_OUTCOME_SAMPLES;
+    }
+
+    /**
+     * Forget the outcomes of past attempts, for example once the end point has recovered from an outage.
+     */
+    synchronized void resetOutcomes() {
+        Arrays.fill(_failedOutcomes, false);
+        _nextOutcome = 0;
+        _numOutcomes = 0;
+        _numFailedOutcomes = 0;
+        _numConsecutiveFailures = 0;
+    }
+
+    /**
+     * @return The number of recent attempts that the {@link #getErrorRate error rate} is computed from.
+     */
+    synchronized int getNumOutcomes() {
+        return _numOutcomes;
+    }
+
+    /**
+     * @return The fraction of recent attempts that failed, or {@code 0} if there haven't been any.
+     */
+    synchronized double getErrorRate() {
+        return (_numOutcomes > 0) ? (double) _numFailedOutcomes / _numOutcomes : 0;
+    }
+
+    synchronized int getNumConsecutiveFailures() {
+        return _numConsecutiveFailures;
+    }
+
+    private double decayWeight(long nowNanos) {
+        long elapsedNanos = Math.max(nowNanos - _responseTimeUpdatedNanos, 0);
+        return Math.exp(-elapsedNanos / DECAY_TIME_NANOS);
+    }
+
+    /**
+     * A percentile of the recent response times, along with when it was computed.
+     */
+    private static final class Percentile {
+        private final double _percentile;
+        private final long _valueNanos;
+        private final long _updatedNanos;
+
+        Percentile(double percentile, long valueNanos, long updatedNanos) {
+            _percentile = percentile;
+            _valueNanos = valueNanos;
+            _updatedNanos = updatedNanos;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.bazaarvoice.ostrich.pool;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link ServiceCachingPolicy} with the caching settings that were added after it.  They live on this optional
+ * interface so that existing implementations of {@code ServiceCachingPolicy} keep working.  The policies built by
+ * {@link ServiceCachingPolicyBuilder} implement it.
+ * <p/>
+ * Service caches use these settings when their policy implements this interface.  Other policies get the defaults of
+ * {@code ServiceCachingPolicyBuilder}, which leave all of these settings off.
+ */
+public interface ExtendedServiceCachingPolicy extends ServiceCachingPolicy {
+    /**
+     * Returns the number of idle service instances to keep ready for each end point, so that checkouts don't have to
+     * create them.  Instances are created in the background when an end point is registered, and again whenever
+     * instances are recycled or fail validation, as long as there is room for them within the other limits, counting
+     * both active and idle instances.  Idle eviction keeps the most recently used instances up to this number.
+     * <p/>
+     * NOTE: A value of 0 indicates that service instances are only created when they're checked out.  Only caches for
+     * single threaded clients prewarm instances.
+     */
+    int getMinNumIdleServiceInstancesPerEndPoint();
+
+    /**
+     * Returns the maximum number of callers that may use a single service instance at the same time.  A value greater
+     * than one is for clients that can multiplex a limited number of concurrent calls, such as clients with a limit on
+     * concurrent streams per connection.  A new instance is only created once every instance for the end point is
+     * being used by this many callers.
+     * <p/>
+     * NOTE: A value of 1 or less indicates that a service instance is only ever used by one caller at a time.
+     */
+    int getMaxNumCallersPerServiceInstance();
+
+    /**
+     * How often idle service instances are validated, if the service factory is a
+     * {@link com.bazaarvoice.ostrich.ValidatingServiceFactory}.  Validation happens in the background, and instances
+     * that fail it are destroyed rather than handed out.
+     * <p/>
+     * NOTE: A non-positive value indicates service instances are never validated.
+     */
+    long getServiceInstanceValidationInterval(TimeUnit unit);
+
+    /**
+     * The amount of time that a service instance is allowed to live for before it is recycled, regardless of how
+     * often it's used.  Each instance is given a slightly shorter lifetime at random, so that instances created at the
+     * same time aren't all recycled at the same time.
+     * <p/>
+     * NOTE: A non-positive value indicates service instances are never recycled based on their age.
+     */
+    long getMaxServiceInstanceLifetime(TimeUnit unit);
+
+    /**
+     * Whether the cache should size itself to each end point's demand.  The limit on instances per end point and the
+     * idle time before eviction each start at their configured maximum, and are then adjusted per end point, between
+     * the adaptive minimum and the configured maximum, based on how many instances the end point has needed at once,
+     * how often checkouts found it at its limit, and how often idle instances were evicted only to be created again.
+     * <p/>
+     * NOTE: Only applies when each service instance is used by one caller at a time.
+     */
+    boolean useAdaptiveSizing();
+
+    /**
+     * The lowest that the adaptive limit on the number of service instances for a single end point may go.
+     */
+    int getAdaptiveMinNumServiceInstancesPerEndPoint();
+
+    /**
+     * The lowest that the adaptive idle time before a service instance may be evicted may go.
+     */
+    long getAdaptiveMinServiceInstanceIdleTime(TimeUnit unit);
+
+    /**
+     * Whether a thread that checks an instance in should get that same instance back the next time it checks out an
+     * instance for the end point, as long as no other thread has taken it in the meantime.  Idle instances are still
+     * shared by all threads, so this only changes which idle instance a thread gets, not how many instances there are.
+     * <p/>
+     * NOTE: This is most useful when the same threads make repeated calls to the same end points.  Each thread only
+     * remembers the last instance it checked in, and virtual threads don't remember any.
+     */
+    boolean useThreadAffinity();
+}
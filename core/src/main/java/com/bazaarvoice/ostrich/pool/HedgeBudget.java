@@ -0,0 +1,64 @@
+package com.bazaarvoice.ostrich.pool;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Limits hedged attempts to a fraction of all requests.  Every request earns a fraction of a hedge and every hedge
+ * spends a whole one.  Unspent hedges accumulate up to a small limit so that a short burst of slow responses can still
+ * be hedged, but a sustained slow down can't multiply the load on the service.
+ */
+class HedgeBudget {
+    /** Balances are kept in thousandths of a hedge so they can be updated atomically without floating point. */
+    private static final long SCALE = 1000;
+
+    private final long _earnedPerRequest;
+    private final long _maxBalance;
+    private final AtomicLong _balance = new AtomicLong();
+
+    /**
+     * @param maxHedgeRatio The maximum ratio of hedges to requests.
+     * @param maxBurst      The maximum number of unspent hedges that can accumulate.
+     */
+    HedgeBudget(double maxHedgeRatio, int maxBurst) {
+        checkArgument(maxHedgeRatio >= 0 && maxHedgeRatio <= 1);
+        checkArgument(maxBurst > 0);
+
+        _earnedPerRequest = Math.round(maxHedgeRatio * SCALE);
+        _maxBalance = maxBurst * SCALE;
+    }
+
+    /**
+     * Record that a request was made, earning part of a hedge.
+     */
+    void requestStarted() {
+        if (_earnedPerRequest == 0) {
+            return;
+        }
+
+        long balance;
+        do {
+            balance = _balance.get();
+            if (balance >= _maxBalance) {
+                return;  // Don't contend on the balance when it's already full.
+            }
+        } while (!_balance.compareAndSet(balance, Math.min(balance + _earnedPerRequest, _maxBalance)));
+    }
+
+    /**
+     * Spend a hedge if the budget allows it.
+     *
+     * @return {@code true} if a hedged attempt may be sent.
+     */
+    boolean tryAcquire() {
+        long balance;
+        do {
+            balance = _balance.get();
+            if (balance < SCALE) {
+                return false;
+            }
+        } while (!_balance.compareAndSet(balance, balance - SCALE));
+        return true;
+    }
+}
@@ -0,0 +1,35 @@
+package com.bazaarvoice.ostrich.pool;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A policy for sending hedged requests from a {@link ServicePool}.  When hedging is enabled and an attempt to execute
+ * a callback hasn't completed within the hedge delay, a second attempt is sent to a different end point.  Whichever
+ * attempt completes successfully first is used and the other one is cancelled.
+ * <p/>
+ * Hedging trades a little extra load for a much shorter tail latency, so it should only be used for callbacks that are
+ * safe to execute more than once, such as idempotent reads.
+ */
+public interface HedgingPolicy {
+    /**
+     * The amount of time to wait for an attempt to complete before sending a hedged attempt.  When a
+     * {@link #getLatencyPercentile latency percentile} is configured this is only used for end points that haven't
+     * executed enough callbacks yet to know their latency.
+     */
+    long getHedgeDelay(TimeUnit unit);
+
+    /**
+     * The percentile of an end point's recent callback execution times to wait for before sending a hedged attempt,
+     * for example {@code 0.95} to hedge the slowest 5% of attempts.
+     * <p/>
+     * NOTE: A non-positive value indicates that the {@link #getHedgeDelay hedge delay} is always used.
+     */
+    double getLatencyPercentile();
+
+    /**
+     * The maximum number of hedged attempts as a fraction of all requests, for example {@code 0.05} to allow at most
+     * 5% extra load.  Once the budget is used up no further attempts are hedged until enough new requests have been
+     * made to earn it back.
+     */
+    double getMaxHedgeRatio();
+}
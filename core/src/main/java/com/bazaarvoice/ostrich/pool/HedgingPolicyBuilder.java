@@ -0,0 +1,89 @@
+package com.bazaarvoice.ostrich.pool;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+public class HedgingPolicyBuilder {
+    private static final double DEFAULT_MAX_HEDGE_RATIO = 0.05;
+
+    private long _hedgeDelayNanos = -1;
+    private double _latencyPercentile;
+    private double _maxHedgeRatio = DEFAULT_MAX_HEDGE_RATIO;
+
+    /**
+     * Set how long to wait for an attempt to complete before sending a hedged attempt.  This must be called.  If a
+     * {@link #withLatencyPercentile latency percentile} is also set, this delay is only used for end points whose
+     * latency isn't known yet.
+     *
+     * @param hedgeDelay The time to wait before hedging.
+     * @param unit       The unit of time the {@code hedgeDelay} is in.
+     * @return this
+     */
+    public HedgingPolicyBuilder withHedgeDelay(long hedgeDelay, TimeUnit unit) {
+        checkState(hedgeDelay >= 0);
+        checkNotNull(unit);
+
+        _hedgeDelayNanos = unit.toNanos(hedgeDelay);
+        return this;
+    }
+
+    /**
+     * Hedge attempts that take longer than the given percentile of the end point's recent execution times.  If never
+     * called, the fixed {@link #withHedgeDelay hedge delay} is always used.
+     *
+     * @param latencyPercentile The percentile, between 0 and 1 exclusive, e.g. {@code 0.95}.
+     * @return this
+     */
+    public HedgingPolicyBuilder withLatencyPercentile(double latencyPercentile) {
+        checkState(latencyPercentile > 0 && latencyPercentile < 1);
+
+        _latencyPercentile = latencyPercentile;
+        return this;
+    }
+
+    /**
+     * Set the maximum fraction of requests that may be hedged.  If never called, defaults to {@code 0.05}, ie. at most
+     * 5% extra load.
+     *
+     * @param maxHedgeRatio The maximum ratio of hedged attempts to requests, between 0 and 1 inclusive.
+     * @return this
+     */
+    public HedgingPolicyBuilder withMaxHedgeRatio(double maxHedgeRatio) {
+        checkState(maxHedgeRatio >= 0 && maxHedgeRatio <= 1);
+
+        _maxHedgeRatio = maxHedgeRatio;
+        return this;
+    }
+
+    /**
+     * Build the {@code HedgingPolicy} specified by this builder.
+     *
+     * @return The {@code HedgingPolicy} that was constructed.
+     */
+    public HedgingPolicy build() {
+        checkState(_hedgeDelayNanos >= 0, "A hedge delay is required");
+
+        final long hedgeDelayNanos = _hedgeDelayNanos;
+        final double latencyPercentile = _latencyPercentile;
+        final double maxHedgeRatio = _maxHedgeRatio;
+
+        return new HedgingPolicy() {
+            @Override
+            public long getHedgeDelay(TimeUnit unit) {
+                return unit.convert(hedgeDelayNanos, TimeUnit.NANOSECONDS);
+            }
+
+            @Override
+            public double getLatencyPercentile() {
+                return latencyPercentile;
+            }
+
+            @Override
+            public double getMaxHedgeRatio() {
+                return maxHedgeRatio;
+            }
+        };
+    }
+}
@@ -0,0 +1,69 @@
+package com.bazaarvoice.ostrich.pool;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * The {@code ServiceCachingPolicy} built by {@link ServiceCachingPolicyBuilder} for the multi threaded client strategy,
+ * the {@link MultiThreadedClientServiceCache}.
+ * <p/>
+ * It returns true for useMultiThreadedClientPolicy() but throws {@link java.lang.UnsupportedOperationException} for
+ * everything else.  The settings that apply to shared clients are read directly by {@link ServiceCacheBuilder}.
+ */
+class MultiThreadedClientPolicy implements ServiceCachingPolicy {
+    /** Shares a single client per end point, and never validates or recycles it. */
+    static final MultiThreadedClientPolicy DEFAULT = new MultiThreadedClientPolicy(1, 0, 0);
+
+    private final int _maxNumClientsPerEndPoint;
+    private final long _clientValidationIntervalNanos;
+    private final long _maxClientLifetimeNanos;
+
+    MultiThreadedClientPolicy(int maxNumClientsPerEndPoint, long clientValidationIntervalNanos,
+                              long maxClientLifetimeNanos) {
+        checkArgument(maxNumClientsPerEndPoint > 0);
+        checkArgument(clientValidationIntervalNanos >= 0);
+        checkArgument(maxClientLifetimeNanos >= 0);
+
+        _maxNumClientsPerEndPoint = maxNumClientsPerEndPoint;
+        _clientValidationIntervalNanos = clientValidationIntervalNanos;
+        _maxClientLifetimeNanos = maxClientLifetimeNanos;
+    }
+
+    int getMaxNumClientsPerEndPoint() {
+        return _maxNumClientsPerEndPoint;
+    }
+
+    long getClientValidationInterval(TimeUnit unit) {
+        return unit.convert(_clientValidationIntervalNanos, TimeUnit.NANOSECONDS);
+    }
+
+    long getMaxClientLifetime(TimeUnit unit) {
+        return unit.convert(_maxClientLifetimeNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public int getMaxNumServiceInstances() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int getMaxNumServiceInstancesPerEndPoint() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long getMaxServiceInstanceIdleTime(TimeUnit unit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ExhaustionAction getCacheExhaustionAction() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean useMultiThreadedClientPolicy() {
+        return true;
+    }
+}
@@ -5,19 +5,29 @@ import com.bazaarvoice.ostrich.ServiceEndPoint;
 import com.bazaarvoice.ostrich.ServiceFactory;
 import com.bazaarvoice.ostrich.metrics.Metrics;
 import com.codahale.metrics.Counter;
+import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.LinkedList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.bazaarvoice.ostrich.pool.ServiceCacheBuilder.buildDefaultExecutor;
 import static com.google.common.base.Preconditions.checkArgument;
@@ -36,6 +46,20 @@ import static java.util.concurrent.TimeUnit.SECONDS;
  * <p/>
  * If your client library is multi-thread safe, this ServiceCache should provide better
  * performance than the {@link com.bazaarvoice.ostrich.pool.SingleThreadedClientServiceCache}.
+ * <p/>
+ * Creating a client can be slow, so each end point's client is created at most once at a time, by whichever caller
+ * needed it first, while other callers for that end point wait for it.  Creations for different end points happen
+ * concurrently, up to a limit, and never hold up checkouts of clients that already exist.
+ * <p/>
+ * A single client per end point can become a bottleneck in its own right, for example on the locks of its internal
+ * connection pool.  The cache can therefore be allowed more than one client per end point.  Another client is only
+ * created when a checkout finds all of the end point's existing clients busy, and then in the background by the
+ * cleanup executor, so that the checkout doesn't wait for it.  Each checkout is given the client with the fewest calls
+ * in flight.
+ * <p/>
+ * Clients that have lived for as long as the policy allows, or that the service factory finds aren't valid any more,
+ * are replaced by the cleanup task rather than on the request path.  The client being replaced is kept around for the
+ * eviction delay, so that calls already using it can finish.
  *
  * @param <S> the Service type
  */
@@ -47,42 +71,53 @@ public class MultiThreadedClientServiceCache<S> implements ServiceCache<S> {
     private static final long DUP_REGISTRATION_WINDOW_MILLIS = SECONDS.toMillis(1);
     private static final int DEFAULT_CLEANUP_DELAY_SECONDS = 15;
     private static final int DEFAULT_EVICTION_DELAY_SECONDS = (int) MINUTES.toSeconds(3);
+    private static final int DEFAULT_MAX_CONCURRENT_CREATIONS = 16;
 
     /**
-     * We want to be able to perform more than 300 checkOuts and checkIns per second.
-     * Thus we would like those methods to use an un-synchronized / non-blocking Map implementation.
-     * <p/>
-     * In order to do that we use a Copy-On-Write approach where all modifications
-     * (new EndPoint, EndPoint goes away, etc) will create a new Map instance.  This is acceptable as
-     * EndPoint addition / removal events are rare compared to checkIns and checkOuts.
-     * <p/>
-     * Because we are changing the pointer that is "_instancesPerEndpoint", we have to use the volatile
-     * keyword to force any thread that accesses the map to have the latest reference to it. There is a
-     * performance penalty associated with volatile, but it is better than synchronization.
+     * We want to be able to perform more than 300 checkOuts and checkIns per second, so checkOuts only ever read
+     * from a concurrent map.  Adding or removing an end point only touches that end point's entry, so registering
+     * many end points at once doesn't copy the map for each one.
      */
-    private volatile Map<ServiceEndPoint, HeavyServiceHandle<S>> _instancesPerEndpoint = Maps.newHashMap();
+    private final ConcurrentMap<ServiceEndPoint, EndPointClients> _instancesPerEndpoint = Maps.newConcurrentMap();
     private volatile boolean _isClosed;
+    private final int _maxNumInstancesPerEndPoint;
+    private final long _maxInstanceLifetimeInMilliSeconds;
+    // Zero if clients aren't validated, including when the service factory can't validate them.
+    private final long _validationIntervalInMilliSeconds;
+
+    // Lets callers that need a client for the same end point share one creation.
+    private final SingleFlight _creations;
+    // Bounds how many clients are created at once, across all end points.
+    private final Semaphore _creationPermits;
 
     private final Metrics.InstanceMetrics _metrics;
     private final Timer _registerTimer;
     private final Timer _evictionTimer;
     private final Counter _serviceCounter;
+    private final Meter _numRecycledInstances;
+    private final Meter _numInvalidInstances;
     private final ServiceFactory<S> _serviceFactory;
     private final Future<?> _cleanupFuture;
     private final ScheduledExecutorService _cleanupExecutor;
     private final long _evictionDelayInMilliSeconds;
 
     /**
-     * ServiceHandle that also tracks eviction and freshness status
+     * The clients of one end point, which also tracks eviction and freshness status
      */
-    private class HeavyServiceHandle<T extends S> extends ServiceHandle<S> {
-
+    private class EndPointClients {
+        private final ServiceEndPoint _endPoint;
         private final long _sellByDate;
         private volatile long _expireAfterDate = Long.MAX_VALUE;
-
-        public HeavyServiceHandle(T service, ServiceEndPoint endPoint) {
-            super(service, endPoint);
-
+        // Copy-on-write, since clients are only ever added a few times over the life of the end point.
+        private volatile List<HeavyServiceHandle<S>> _handles;
+        private final AtomicBoolean _isGrowing = new AtomicBoolean();
+        // Clients that have been replaced, but may still be in use.
+        private final List<HeavyServiceHandle<S>> _retired = Lists.newArrayList();
+        private boolean _isDestroyed;
+
+        public EndPointClients(HeavyServiceHandle<S> handle) {
+            _endPoint = handle.getEndPoint();
+            _handles = ImmutableList.of(handle);
             _sellByDate = System.currentTimeMillis() + DUP_REGISTRATION_WINDOW_MILLIS;
         }
 
@@ -104,6 +139,214 @@ public class MultiThreadedClientServiceCache<S> implements ServiceCache<S> {
                 _expireAfterDate = System.currentTimeMillis() + _evictionDelayInMilliSeconds;
             }
         }
+
+        public int getNumIdleInstances() {
+            if (_maxNumInstancesPerEndPoint == 1) {
+                // Calls in flight aren't tracked, and the client is always available to more of them.
+                return 1;
+            }
+            return countInFlight(false);
+        }
+
+        public int getNumActiveInstances() {
+            if (_maxNumInstancesPerEndPoint == 1) {
+                // Calls in flight aren't tracked, so assume the client is always being used.
+                return 1;
+            }
+            return countInFlight(true);
+        }
+
+        private int countInFlight(boolean inFlight) {
+            int count = 0;
+            for (HeavyServiceHandle<S> handle : _handles) {
+                if ((handle.getNumInFlight() > 0) == inFlight) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        public ServiceHandle<S> checkOut() {
+            List<HeavyServiceHandle<S>> handles = _handles;
+            if (_maxNumInstancesPerEndPoint == 1) {
+                // Nothing to choose between, so don't bother keeping track of calls in flight.
+                return handles.get(0);
+            }
+
+            HeavyServiceHandle<S> handle = leastBusy(handles);
+            if (handle.getNumInFlight() > 0 && handles.size() < _maxNumInstancesPerEndPoint
+                    && _isGrowing.compareAndSet(false, true)) {
+                // Every client is busy, so add another.  Only one is created at a time, and while it is everyone
+                // carries on with the clients there already are.
+                grow();
+            }
+            handle.checkOut();
+            return handle;
+        }
+
+        private void grow() {
+            try {
+                _cleanupExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            add(createServiceHandle(_endPoint));
+                        } catch (RuntimeException e) {
+                            LOG.warn("Unable to create additional service instance for end point: {}", _endPoint, e);
+                        } finally {
+                            _isGrowing.set(false);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // The cache was closed.
+                _isGrowing.set(false);
+            }
+        }
+
+        private HeavyServiceHandle<S> leastBusy(List<HeavyServiceHandle<S>> handles) {
+            // Start at a random client so that ties don't all go to the first one.
+            int numHandles = handles.size();
+            int start = (numHandles > 1) ? ThreadLocalRandom.current().nextInt(numHandles) : 0;
+            HeavyServiceHandle<S> leastBusy = null;
+            for (int i = 0; i < numHandles; i++) {
+                HeavyServiceHandle<S> handle = handles.get((start + i) % numHandles);
+                if (leastBusy == null || handle.getNumInFlight() < leastBusy.getNumInFlight()) {
+                    leastBusy = handle;
+                }
+            }
+            return leastBusy;
+        }
+
+        private synchronized void add(HeavyServiceHandle<S> handle) {
+            if (_isDestroyed) {
+                // The end point was evicted or replaced while the client was being created.
+                destroyService(handle);
+                return;
+            }
+            _handles = ImmutableList.<HeavyServiceHandle<S>>builder().addAll(_handles).add(handle).build();
+        }
+
+        /**
+         * Replaces the clients that have lived for as long as the policy allows, and the clients that are due for
+         * validation and fail it.  Only ever called by the cleanup task.
+         */
+        public void recycle() {
+            for (HeavyServiceHandle<S> handle : _handles) {
+                long now = System.currentTimeMillis();
+                if (handle.getExpiresAtMillis() <= now) {
+                    if (replace(handle)) {
+                        _numRecycledInstances.mark();
+                    }
+                } else if (_validationIntervalInMilliSeconds > 0
+                        && now - handle.getValidatedAtMillis() >= _validationIntervalInMilliSeconds) {
+                    handle.setValidatedAtMillis(now);
+                    if (!ServiceInstanceRecycling.isValid(_serviceFactory, _endPoint, handle.getService())) {
+                        _numInvalidInstances.mark();
+                        replace(handle);
+                    }
+                }
+            }
+        }
+
+        private boolean replace(HeavyServiceHandle<S> handle) {
+            HeavyServiceHandle<S> replacement;
+            try {
+                replacement = createServiceHandle(_endPoint);
+            } catch (RuntimeException e) {
+                // Keep the old client until the next cleanup run rather than have none.
+                LOG.warn("Unable to create replacement service instance for end point: {}", _endPoint, e);
+                return false;
+            }
+            return swap(handle, replacement);
+        }
+
+        private synchronized boolean swap(HeavyServiceHandle<S> handle, HeavyServiceHandle<S> replacement) {
+            int index = _handles.indexOf(handle);
+            if (_isDestroyed || index < 0) {
+                destroyService(replacement);
+                return false;
+            }
+            List<HeavyServiceHandle<S>> handles = Lists.newArrayList(_handles);
+            handles.set(index, replacement);
+            _handles = ImmutableList.copyOf(handles);
+
+            handle.setDestroyAfterMillis(System.currentTimeMillis() + _evictionDelayInMilliSeconds);
+            _retired.add(handle);
+            return true;
+        }
+
+        public synchronized void destroyRetired() {
+            long now = System.currentTimeMillis();
+            Iterator<HeavyServiceHandle<S>> iterator = _retired.iterator();
+            while (iterator.hasNext()) {
+                HeavyServiceHandle<S> handle = iterator.next();
+                if (handle.getDestroyAfterMillis() < now) {
+                    iterator.remove();
+                    destroyService(handle);
+                }
+            }
+        }
+
+        public synchronized void destroy() {
+            _isDestroyed = true;
+            for (HeavyServiceHandle<S> handle : _handles) {
+                destroyService(handle);
+            }
+            for (HeavyServiceHandle<S> handle : _retired) {
+                destroyService(handle);
+            }
+            _retired.clear();
+        }
+    }
+
+    /**
+     * ServiceHandle that also tracks how many calls are using it, when there is more than one client per end point,
+     * and when it's due to be recycled or validated
+     */
+    private static class HeavyServiceHandle<S> extends ServiceHandle<S> {
+        private final AtomicInteger _numInFlight = new AtomicInteger();
+        private final long _expiresAtMillis;
+        private volatile long _validatedAtMillis;
+        private volatile long _destroyAfterMillis;
+
+        public HeavyServiceHandle(S service, ServiceEndPoint endPoint, long createdAtMillis, long expiresAtMillis) {
+            super(service, endPoint);
+            _expiresAtMillis = expiresAtMillis;
+            _validatedAtMillis = createdAtMillis;
+        }
+
+        public long getExpiresAtMillis() {
+            return _expiresAtMillis;
+        }
+
+        public long getValidatedAtMillis() {
+            return _validatedAtMillis;
+        }
+
+        public void setValidatedAtMillis(long validatedAtMillis) {
+            _validatedAtMillis = validatedAtMillis;
+        }
+
+        public long getDestroyAfterMillis() {
+            return _destroyAfterMillis;
+        }
+
+        public void setDestroyAfterMillis(long destroyAfterMillis) {
+            _destroyAfterMillis = destroyAfterMillis;
+        }
+
+        public int getNumInFlight() {
+            return _numInFlight.get();
+        }
+
+        public void checkOut() {
+            _numInFlight.incrementAndGet();
+        }
+
+        public void checkIn() {
+            _numInFlight.decrementAndGet();
+        }
     }
 
     /**
@@ -114,7 +357,25 @@ public class MultiThreadedClientServiceCache<S> implements ServiceCache<S> {
      * @param metricRegistry The metric registry for reporting metrics
      */
     MultiThreadedClientServiceCache(MultiThreadedServiceFactory<S> serviceFactory, MetricRegistry metricRegistry) {
-        this(serviceFactory, buildDefaultExecutor(), DEFAULT_EVICTION_DELAY_SECONDS, DEFAULT_CLEANUP_DELAY_SECONDS, metricRegistry);
+        this(serviceFactory, 1, 0, 0, metricRegistry);
+    }
+
+    /**
+     * Builds a {@code MultiThreadedClientServiceCache} with a default executor and cleanup delay, that may keep more
+     * than one client per end point, and may recycle and validate them.  Used by the builder.
+     *
+     * @param serviceFactory                  The service factory for creating service handles
+     * @param maxNumInstancesPerEndPoint      The most clients to share between the callers of an end point
+     * @param validationIntervalInMilliSeconds how often to validate each client, or non-positive to never validate
+     * @param maxInstanceLifetimeInMilliSeconds how long each client may live, or non-positive to live forever
+     * @param metricRegistry                  The metric registry for reporting metrics
+     */
+    MultiThreadedClientServiceCache(MultiThreadedServiceFactory<S> serviceFactory, int maxNumInstancesPerEndPoint,
+                                    long validationIntervalInMilliSeconds, long maxInstanceLifetimeInMilliSeconds,
+                                    MetricRegistry metricRegistry) {
+        this(serviceFactory, buildDefaultExecutor(), DEFAULT_EVICTION_DELAY_SECONDS, DEFAULT_CLEANUP_DELAY_SECONDS,
+                DEFAULT_MAX_CONCURRENT_CREATIONS, maxNumInstancesPerEndPoint, validationIntervalInMilliSeconds,
+                maxInstanceLifetimeInMilliSeconds, metricRegistry);
     }
 
     /**
@@ -129,12 +390,64 @@ public class MultiThreadedClientServiceCache<S> implements ServiceCache<S> {
     @VisibleForTesting
     MultiThreadedClientServiceCache(MultiThreadedServiceFactory<S> serviceFactory, ScheduledExecutorService executor,
                                     int evictionDelayInSeconds, int cleanUpDelayInSeconds, MetricRegistry metricRegistry) {
+        this(serviceFactory, executor, evictionDelayInSeconds, cleanUpDelayInSeconds, DEFAULT_MAX_CONCURRENT_CREATIONS,
+                1, metricRegistry);
+    }
+
+    /**
+     * Builds a {@code MultiThreadedClientServiceCache} with configurable eviction and cleanUp delays, creation
+     * parallelism and number of clients per end point.
+     *
+     * @param serviceFactory             The service factory for creating service handles
+     * @param executor                   The executor for creating the eviction list (cache) cleanup thread
+     * @param evictionDelayInSeconds     how long to keep evicted handles around
+     * @param cleanUpDelayInSeconds      how long to wait before scheduled cleanup
+     * @param maxConcurrentCreations     how many service instances may be created at the same time
+     * @param maxNumInstancesPerEndPoint the most clients to share between the callers of an end point
+     * @param metricRegistry             The metric registry for reporting metrics
+     */
+    @VisibleForTesting
+    MultiThreadedClientServiceCache(MultiThreadedServiceFactory<S> serviceFactory, ScheduledExecutorService executor,
+                                    int evictionDelayInSeconds, int cleanUpDelayInSeconds, int maxConcurrentCreations,
+                                    int maxNumInstancesPerEndPoint, MetricRegistry metricRegistry) {
+        this(serviceFactory, executor, evictionDelayInSeconds, cleanUpDelayInSeconds, maxConcurrentCreations,
+                maxNumInstancesPerEndPoint, 0, 0, metricRegistry);
+    }
+
+    /**
+     * Builds a {@code MultiThreadedClientServiceCache} with configurable eviction and cleanUp delays, creation
+     * parallelism, number of clients per end point, and client validation and lifetime.  Clients are validated and
+     * recycled by the cleanup task, so no more precisely than the cleanup delay.
+     *
+     * @param serviceFactory                   The service factory for creating service handles
+     * @param executor                         The executor for creating the eviction list (cache) cleanup thread
+     * @param evictionDelayInSeconds           how long to keep evicted and replaced handles around
+     * @param cleanUpDelayInSeconds            how long to wait before scheduled cleanup
+     * @param maxConcurrentCreations           how many service instances may be created at the same time
+     * @param maxNumInstancesPerEndPoint       the most clients to share between the callers of an end point
+     * @param validationIntervalInMilliSeconds  how often to validate each client, or non-positive to never validate
+     * @param maxInstanceLifetimeInMilliSeconds how long each client may live, or non-positive to live forever
+     * @param metricRegistry                   The metric registry for reporting metrics
+     */
+    @VisibleForTesting
+    MultiThreadedClientServiceCache(MultiThreadedServiceFactory<S> serviceFactory, ScheduledExecutorService executor,
+                                    int evictionDelayInSeconds, int cleanUpDelayInSeconds, int maxConcurrentCreations,
+                                    int maxNumInstancesPerEndPoint, long validationIntervalInMilliSeconds,
+                                    long maxInstanceLifetimeInMilliSeconds, MetricRegistry metricRegistry) {
         checkNotNull(serviceFactory);
         checkNotNull(metricRegistry);
         checkArgument(evictionDelayInSeconds >= 0);
         checkArgument(cleanUpDelayInSeconds >= 0);
+        checkArgument(maxConcurrentCreations > 0);
+        checkArgument(maxNumInstancesPerEndPoint > 0);
 
         _serviceFactory = serviceFactory;
+        _maxNumInstancesPerEndPoint = maxNumInstancesPerEndPoint;
+        _maxInstanceLifetimeInMilliSeconds = maxInstanceLifetimeInMilliSeconds;
+        _validationIntervalInMilliSeconds =
+                ServiceInstanceRecycling.canValidate(serviceFactory, validationIntervalInMilliSeconds)
+                        ? validationIntervalInMilliSeconds
+                        : 0;
         _cleanupExecutor = executor;
         _evictionDelayInMilliSeconds = SECONDS.toMillis(evictionDelayInSeconds);
         _isClosed = false;
@@ -143,30 +456,27 @@ public class MultiThreadedClientServiceCache<S> implements ServiceCache<S> {
         _registerTimer = _metrics.timer("register-time");
         _evictionTimer = _metrics.timer("eviction-time");
         _serviceCounter = _metrics.counter("service-counter");
+        _creations = new SingleFlight(_metrics.meter("num-coalesced-creations"));
+        _numRecycledInstances = _metrics.meter("num-recycled-instances");
+        _numInvalidInstances = _metrics.meter("num-invalid-instances");
+        _creationPermits = new Semaphore(maxConcurrentCreations);
 
         _cleanupFuture = _cleanupExecutor.scheduleAtFixedRate(
                 new Runnable() {
                     @Override
                     public void run() {
-                        List<HeavyServiceHandle<S>> handlesToDelete = new LinkedList<>();
-                        // Don't synchronize on just 'this', as 'this' is a anonymous inner Runnable class.
-                        // Instead synchronize on our parent class instance of MultiThreadedClientServiceCache so that
-                        // this code will be synchronized with evict() and doRegister().
-                        synchronized (MultiThreadedClientServiceCache.this) {
-                            Map<ServiceEndPoint, HeavyServiceHandle<S>> sourceCopy = Maps.newHashMap(_instancesPerEndpoint);
-                            // Purge evicted instances from the copy-on-write map
-                            for (HeavyServiceHandle<S> handle : _instancesPerEndpoint.values()) {
-                                if (handle.timeToEvict()) {
-                                    handlesToDelete.add(sourceCopy.remove(handle.getEndPoint()));
+                        for (Map.Entry<ServiceEndPoint, EndPointClients> entry : _instancesPerEndpoint.entrySet()) {
+                            EndPointClients clients = entry.getValue();
+                            // Only remove the clients if they weren't replaced by newer ones in the meantime.
+                            if (clients.timeToEvict() && _instancesPerEndpoint.remove(entry.getKey(), clients)) {
+                                clients.destroy();
+                            } else {
+                                clients.destroyRetired();
+                                if (!clients.hasBeenFlaggedForEviction()) {
+                                    recycle(clients);
                                 }
                             }
-                            _instancesPerEndpoint = sourceCopy;
-                        }
-                        // Outside the synchronization loop, schedule the ServiceHandles for deletion
-                        for (HeavyServiceHandle<S> handle : handlesToDelete) {
-                            destroyService(handle);
                         }
-                        _serviceCounter.dec(handlesToDelete.size());
                     }
                 },
                 // In our unit tests we want to set the cleanup timeout to "zero", but executorService
@@ -177,9 +487,9 @@ public class MultiThreadedClientServiceCache<S> implements ServiceCache<S> {
     }
 
     /**
-     * Mimics the behavior of a cache check in, actually a NO-OP.
+     * Mimics the behavior of a cache check in, which only records that the call using the handle is done.
      * <p/>
-     * Since the {@code MultiThreadedClientServiceCache} does not have multiple service handles for an endPoint
+     * Since the {@code MultiThreadedClientServiceCache} shares its service handles, nothing is returned to the cache
      *
      * @param handle The service handle that is being checked in.
      * @throws NullPointerException if the handle is null
@@ -187,6 +497,9 @@ public class MultiThreadedClientServiceCache<S> implements ServiceCache<S> {
     @Override
     public void checkIn(ServiceHandle<S> handle) throws Exception {
         checkNotNull(handle);
+        if (_maxNumInstancesPerEndPoint > 1 && handle instanceof HeavyServiceHandle) {
+            ((HeavyServiceHandle<S>) handle).checkIn();
+        }
     }
 
     /**
@@ -204,79 +517,109 @@ public class MultiThreadedClientServiceCache<S> implements ServiceCache<S> {
     public ServiceHandle<S> checkOut(ServiceEndPoint endPoint) throws Exception {
         checkNotNull(endPoint);
         checkState(!_isClosed, "cache is closed");
-        ServiceHandle<S> serviceHandle = _instancesPerEndpoint.get(endPoint);
-        if (serviceHandle == null) {
-            // This is the non-ideal state, as we now have to call a synchronized
-            // method to create the ServiceHandle and update the copy-on-write map.
+        EndPointClients clients = _instancesPerEndpoint.get(endPoint);
+        if (clients == null) {
+            // This is the non-ideal state, as we now have to create the ServiceHandle, or wait for whoever is
+            // already creating it.
             //
             // Note this can/will happen when new Endpoints are discovered due to the
             // inherent race conditions in ServicePool and HostDiscovery.
-            return doRegister(endPoint);
+            clients = doRegister(endPoint);
         }
 
-        // Note we are not checking if the serviceHandle has been flagged for Eviction, as
+        // Note we are not checking if the clients have been flagged for Eviction, as
         //  there are race conditions between checkOut() and ServiceCache.evict().
-        return serviceHandle;
+        return clients.checkOut();
     }
 
     /**
      * Private registration method that is used by checkout() and register().
      *
      * @param endPoint the end point
-     * @return the service handle
+     * @return the end point's clients
      */
-    private ServiceHandle<S> doRegister(ServiceEndPoint endPoint) {
+    private EndPointClients doRegister(final ServiceEndPoint endPoint) {
         checkNotNull(endPoint);
 
-        ServiceHandle<S> toDelete = null;
-        ServiceHandle<S> toReturn;
-
-        synchronized (this) {
-            HeavyServiceHandle<S> existingServiceHandle = _instancesPerEndpoint.get(endPoint);
-            if (existingServiceHandle == null || existingServiceHandle.hasBeenFlaggedForEviction() || existingServiceHandle.isOld()) {
-
-                // If there was not an existingServiceHandle, then make a new one.
-                //
-                // If existingServiceHandle.hasBeenFlaggedForEviction() is true, that means this EndPoint
-                //  has been "evicted" for being "bad" but has recovered before the Eviction timeout
-                //  process has gotten around to cleaning up this serviceHandle.  In this case, we assume
-                //  the "safest" thing to do is to create a new Client for that EndPoint, in case the
-                //  problem was with the "old" client.
-                //
-                // If the existingServiceHandle is "new" don't create a new client object due to the
-                //  race condition in HostDiscovery and ServicePool, which can cause a checkOut() to
-                //  occur before its associated ServiceCache.register().
-                // Thus we want have a short period of time where duplicate "checkouts" and a register
-                //  will not thrash the system creating a series of Client instances.
-                //
-                // _serviceFactory.create(endPoint) is a potentially expensive operation, memory, file handles, etc.
-                // hence we really only want to do it when we have to, preferably via the out-of-band
-                // ServiceCache.register() method, instead of the high traffic checkOut method.
-                S service = _serviceFactory.create(endPoint);
-                _serviceCounter.inc();
-
-                HeavyServiceHandle<S> newServiceHandle = new HeavyServiceHandle<>(service, endPoint);
-
-                // add the newServiceHandle to a new copy of the _instancesPerEndpoint map
-                Map<ServiceEndPoint, HeavyServiceHandle<S>> sourceCopy = Maps.newHashMap(_instancesPerEndpoint);
-                sourceCopy.put(endPoint, newServiceHandle);
-                _instancesPerEndpoint = sourceCopy;
-
-                toDelete = existingServiceHandle;
-                toReturn = newServiceHandle;
-            } else {
-                // The existingServiceHandle was not null, not evicted, and not old, thus we did not recreate it.
-                toReturn = existingServiceHandle;
+        return _creations.execute(endPoint, new Supplier<EndPointClients>() {
+            @Override
+            public EndPointClients get() {
+                return createIfNeeded(endPoint);
             }
+        });
+    }
+
+    /**
+     * Creates a new client for an end point unless it already has usable ones.  Only ever called by one thread at a
+     * time for a given end point.
+     */
+    private EndPointClients createIfNeeded(ServiceEndPoint endPoint) {
+        EndPointClients existingClients = _instancesPerEndpoint.get(endPoint);
+        if (existingClients != null && !existingClients.hasBeenFlaggedForEviction() && !existingClients.isOld()) {
+            // The existingClients were not null, not evicted, and not old, thus we do not recreate them.
+            return existingClients;
         }
 
-        // Destroy instances outside the synchronization, with the idea being it may be an expensive operation
+        // If there were not existingClients, then make a new one.
+        //
+        // If existingClients.hasBeenFlaggedForEviction() is true, that means this EndPoint
+        //  has been "evicted" for being "bad" but has recovered before the Eviction timeout
+        //  process has gotten around to cleaning up these clients.  In this case, we assume
+        //  the "safest" thing to do is to create a new Client for that EndPoint, in case the
+        //  problem was with the "old" client.
+        //
+        // If the existingClients are "new" don't create a new client object due to the
+        //  race condition in HostDiscovery and ServicePool, which can cause a checkOut() to
+        //  occur before its associated ServiceCache.register().
+        // Thus we want have a short period of time where duplicate "checkouts" and a register
+        //  will not thrash the system creating a series of Client instances.
+        //
+        // _serviceFactory.create(endPoint) is a potentially expensive operation, memory, file handles, etc.
+        // hence we really only want to do it when we have to, preferably via the out-of-band
+        // ServiceCache.register() method, instead of the high traffic checkOut method.
+        EndPointClients newClients = new EndPointClients(createServiceHandle(endPoint));
+        EndPointClients toDelete = _instancesPerEndpoint.put(endPoint, newClients);
+
+        // Destroy instances outside of the map, with the idea being it may be an expensive operation
         if (toDelete != null) {
-            destroyService(toDelete);
-            _serviceCounter.dec();
+            toDelete.destroy();
+        }
+
+        // The cache may have been closed while the instance was being created, in which case nobody else will destroy it.
+        if (_isClosed && _instancesPerEndpoint.remove(endPoint, newClients)) {
+            newClients.destroy();
         }
 
-        return toReturn;
+        return newClients;
+    }
+
+    private void recycle(EndPointClients clients) {
+        if (_maxInstanceLifetimeInMilliSeconds <= 0 && _validationIntervalInMilliSeconds <= 0) {
+            return;
+        }
+        try {
+            clients.recycle();
+        } catch (Exception e) {
+            // Swallow the exception so that the cleanup of other end points still happens.
+            LOG.warn("Error recycling service instances for end point: {}", clients._endPoint, e);
+        }
+    }
+
+    private HeavyServiceHandle<S> createServiceHandle(ServiceEndPoint endPoint) {
+        S service;
+        _creationPermits.acquireUninterruptibly();
+        try {
+            service = _serviceFactory.create(endPoint);
+        } finally {
+            _creationPermits.release();
+        }
+        _serviceCounter.inc();
+
+        long now = System.currentTimeMillis();
+        long expiresAt = (_maxInstanceLifetimeInMilliSeconds > 0)
+                ? now + ServiceInstanceRecycling.jitteredLifetime(_maxInstanceLifetimeInMilliSeconds)
+                : Long.MAX_VALUE;
+        return new HeavyServiceHandle<>(service, endPoint, now, expiresAt);
     }
 
     @Override
@@ -294,15 +637,13 @@ public class MultiThreadedClientServiceCache<S> implements ServiceCache<S> {
     }
 
     @Override
-    public synchronized void evict(ServiceEndPoint endPoint) {
+    public void evict(ServiceEndPoint endPoint) {
         checkNotNull(endPoint);
         Timer.Context context = _evictionTimer.time();
 
-        // This method is synchronized, as even though we are not swapping the copy-on-write map,
-        // we are still modifying its contents a bit.
-        HeavyServiceHandle serviceHandle = _instancesPerEndpoint.get(endPoint);
-        if (serviceHandle != null) {
-            serviceHandle.flagAsEvicted();
+        EndPointClients clients = _instancesPerEndpoint.get(endPoint);
+        if (clients != null) {
+            clients.flagAsEvicted();
         }
         context.stop();
     }
@@ -311,38 +652,44 @@ public class MultiThreadedClientServiceCache<S> implements ServiceCache<S> {
     public synchronized void close() {
         _isClosed = true;
 
-        for (ServiceHandle<S> serviceHandle : _instancesPerEndpoint.values()) {
-            _serviceFactory.destroy(serviceHandle.getEndPoint(), serviceHandle.getService());
+        for (Map.Entry<ServiceEndPoint, EndPointClients> entry : _instancesPerEndpoint.entrySet()) {
+            EndPointClients clients = entry.getValue();
+            if (_instancesPerEndpoint.remove(entry.getKey(), clients)) {
+                clients.destroy();
+            }
         }
-        _instancesPerEndpoint = Maps.newHashMap();
         _cleanupFuture.cancel(false);
         _cleanupExecutor.shutdownNow();
         _metrics.close();
     }
 
     /**
-     * As these clients are multi threaded single instance, there's always one available
+     * When there may be more than one client per end point, the number of them that have no calls in flight.  As a
+     * single client per end point is multi threaded, it is always available.
      *
      * @param endPoint to find idle instance count
-     * @return 1 if endPoint is registered, 0 otherwise
+     * @return the number of idle clients, or 1 for a single client, if endPoint is registered, 0 otherwise
      */
     @Override
     public int getNumIdleInstances(ServiceEndPoint endPoint) {
         checkNotNull(endPoint);
-        return _instancesPerEndpoint.containsKey(endPoint) ? 1 : 0;
+        EndPointClients clients = _instancesPerEndpoint.get(endPoint);
+        return (clients != null) ? clients.getNumIdleInstances() : 0;
     }
 
     /**
-     * This does not track if an instance is actively being used, however given its
-     * singleton nature but it is safe to assume it is always being used
+     * When there may be more than one client per end point, the number of them that have calls in flight.  A single
+     * client per end point doesn't track its calls, however as it is shared it is safe to assume it is always being
+     * used.
      *
      * @param endPoint to find active instance count
-     * @return 1 if endPoint is registered, 0 otherwise
+     * @return the number of active clients, or 1 for a single client, if endPoint is registered, 0 otherwise
      */
     @Override
     public int getNumActiveInstances(ServiceEndPoint endPoint) {
         checkNotNull(endPoint);
-        return _instancesPerEndpoint.containsKey(endPoint) ? 1 : 0;
+        EndPointClients clients = _instancesPerEndpoint.get(endPoint);
+        return (clients != null) ? clients.getNumActiveInstances() : 0;
     }
 
     /**
@@ -351,6 +698,7 @@ public class MultiThreadedClientServiceCache<S> implements ServiceCache<S> {
      * @param serviceHandle to destroy
      */
     private void destroyService(ServiceHandle<S> serviceHandle) {
+        _serviceCounter.dec();
         try {
             _serviceFactory.destroy(serviceHandle.getEndPoint(), serviceHandle.getService());
         } catch (Exception e) {
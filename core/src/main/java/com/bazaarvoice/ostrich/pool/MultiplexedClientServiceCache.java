@@ -0,0 +1,707 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.bazaarvoice.ostrich.ServiceFactory;
+import com.bazaarvoice.ostrich.exceptions.NoCachedInstancesAvailableException;
+import com.bazaarvoice.ostrich.metrics.Metrics;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.bazaarvoice.ostrich.pool.ServiceCacheBuilder.buildDefaultExecutor;
+import static com.bazaarvoice.ostrich.pool.ServiceCachingPolicyBuilder.toExtendedPolicy;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * A cache for service instances that can each be used by a limited number of callers at the same time, such as
+ * clients with a limit on concurrent streams per connection.  It sits between the
+ * {@link SingleThreadedClientServiceCache}, which lends an instance to one caller at a time, and the
+ * {@link MultiThreadedClientServiceCache}, which lends one instance to any number of callers.
+ * <p/>
+ * Checkouts fill up the end point's instances in the order they were created, and a new instance is only created once
+ * every existing one is being used by {@link ExtendedServiceCachingPolicy#getMaxNumCallersPerServiceInstance()}
+ * callers.  That lets instances that are no longer needed go idle long enough to be evicted.  The limits on the number
+ * of instances and the exhaustion action of the {@link ServiceCachingPolicy} apply to instances, not callers.
+ * <p/>
+ * Instances that have lived for as long as the policy allows, or that the service factory finds aren't valid any more
+ * while they have no callers, stop taking on new callers unless there's nothing else to use.  They're destroyed once
+ * their last caller checks them in.
+ */
+class MultiplexedClientServiceCache<S> implements ServiceCache<S> {
+    private static final Logger LOG = LoggerFactory.getLogger(MultiplexedClientServiceCache.class);
+
+    /** How often to try to evict old service instances. */
+    @VisibleForTesting
+    static final long EVICTION_DURATION_IN_SECONDS = 300;
+
+    private final ServiceFactory<S> _serviceFactory;
+    private final Ticker _ticker;
+    private final int _maxNumCallersPerServiceInstance;
+    private final int _maxNumServiceInstances;
+    private final int _maxNumServiceInstancesPerEndPoint;
+    private final long _maxServiceInstanceIdleTimeNanos;
+    private final long _maxServiceInstanceLifetimeNanos;
+    // Zero if instances aren't validated, including when the service factory can't validate them.
+    private final long _serviceInstanceValidationIntervalNanos;
+    private final ServiceCachingPolicy.ExhaustionAction _exhaustionAction;
+    private final ConcurrentMap<ServiceEndPoint, EndPointInstances> _endPoints = Maps.newConcurrentMap();
+    private final AtomicInteger _numInstances = new AtomicInteger();
+    private final Future<?> _evictionFuture;
+    private final Future<?> _validationFuture;
+    private volatile boolean _isClosed = false;
+
+    // Checkouts waiting for an instance under the WAIT exhaustion action wait on this.
+    private final Object _waitLock = new Object();
+    private final AtomicInteger _numWaiters = new AtomicInteger();
+
+    private final Metrics.InstanceMetrics _metrics;
+    private final Timer _loadTimer;
+    private final Meter _numRecycledInstances;
+    private final Meter _numInvalidInstances;
+
+    /**
+     * Builds a multiplexed service cache.
+     *
+     * @param policy         The configuration for this cache.
+     * @param serviceFactory The factory to fall back to on cache misses.
+     * @param metrics        The metric registry.
+     */
+    MultiplexedClientServiceCache(ServiceCachingPolicy policy, ServiceFactory<S> serviceFactory, MetricRegistry metrics) {
+        this(policy, serviceFactory, buildDefaultExecutor(), Ticker.systemTicker(), metrics);
+    }
+
+    @VisibleForTesting
+    MultiplexedClientServiceCache(ServiceCachingPolicy policy, ServiceFactory<S> serviceFactory,
+                                  ScheduledExecutorService executor, Ticker ticker, MetricRegistry metrics) {
+        checkNotNull(policy);
+        checkNotNull(serviceFactory);
+        checkNotNull(executor);
+        ExtendedServiceCachingPolicy extendedPolicy = toExtendedPolicy(policy);
+        checkArgument(extendedPolicy.getMaxNumCallersPerServiceInstance() > 0);
+
+        _serviceFactory = serviceFactory;
+        _ticker = checkNotNull(ticker);
+        _maxNumCallersPerServiceInstance = extendedPolicy.getMaxNumCallersPerServiceInstance();
+        _maxNumServiceInstances = policy.getMaxNumServiceInstances();
+        _maxNumServiceInstancesPerEndPoint = policy.getMaxNumServiceInstancesPerEndPoint();
+        _maxServiceInstanceIdleTimeNanos = policy.getMaxServiceInstanceIdleTime(TimeUnit.NANOSECONDS);
+        _maxServiceInstanceLifetimeNanos = extendedPolicy.getMaxServiceInstanceLifetime(TimeUnit.NANOSECONDS);
+        long validationIntervalNanos = extendedPolicy.getServiceInstanceValidationInterval(TimeUnit.NANOSECONDS);
+        _serviceInstanceValidationIntervalNanos =
+                ServiceInstanceRecycling.canValidate(serviceFactory, validationIntervalNanos)
+                        ? validationIntervalNanos
+                        : 0;
+        _exhaustionAction = checkNotNull(policy.getCacheExhaustionAction());
+
+        _metrics = Metrics.forInstance(metrics, this, serviceFactory.getServiceName());
+        _loadTimer = _metrics.timer("load-time");
+        _numRecycledInstances = _metrics.meter("num-recycled-instances");
+        _numInvalidInstances = _metrics.meter("num-invalid-instances");
+
+        // Don't schedule eviction if not expiring stale instances.
+        _evictionFuture = (_maxServiceInstanceIdleTimeNanos > 0 || _maxServiceInstanceLifetimeNanos > 0)
+                ? executor.scheduleAtFixedRate(new Runnable() {
+                      @Override
+                      public void run() {
+                          try {
+                              evictIdleInstances();
+                          } catch (Exception e) {
+                              // Should never happen, but log just in case. Swallow exception so thread doesn't die.
+                              LOG.error("ServiceCache eviction run failed.", e);
+                          }
+                      }
+                  }, EVICTION_DURATION_IN_SECONDS, EVICTION_DURATION_IN_SECONDS, TimeUnit.SECONDS)
+                : null;
+
+        _validationFuture = (_serviceInstanceValidationIntervalNanos > 0)
+                ? executor.scheduleWithFixedDelay(new Runnable() {
+                      @Override
+                      public void run() {
+                          try {
+                              validateIdleInstances();
+                          } catch (Exception e) {
+                              // Should never happen, but log just in case. Swallow exception so thread doesn't die.
+                              LOG.error("ServiceCache validation run failed.", e);
+                          }
+                      }
+                  }, _serviceInstanceValidationIntervalNanos, _serviceInstanceValidationIntervalNanos,
+                        TimeUnit.NANOSECONDS)
+                : null;
+    }
+
+    /**
+     * Retrieves a cached service instance for an end point that has fewer than the maximum number of callers.  If
+     * every cached instance is saturated and the cache is not full, a new one will be created, added to the cache,
+     * and then checked out.  Once the checked out instance is no longer in use, it should be returned by calling
+     * {@link #checkIn}.
+     *
+     * @param endPoint The end point to retrieve a cached service instance for.
+     * @return A service handle that contains a cached service instance for the requested end point.
+     * @throws NoCachedInstancesAvailableException If the cache has reached total maximum capacity, or maximum capacity
+     *         for the requested end point, and every instance already has the maximum number of callers.
+     */
+    @Override
+    public ServiceHandle<S> checkOut(ServiceEndPoint endPoint) throws Exception {
+        checkNotNull(endPoint);
+        checkState(!_isClosed, "Cache is closed");
+
+        while (true) {
+            // Look the end point up each time around, in case it was evicted while waiting.
+            EndPointInstances instances = getEndPointInstances(endPoint);
+
+            MultiplexedServiceHandle<S> handle = instances.acquireExisting(_ticker.read(), false);
+            if (handle != null) {
+                return handle;
+            }
+
+            if (instances.tryReserveInstance()) {
+                if (tryReserveInstance()) {
+                    return create(instances);
+                }
+                instances.releaseInstance();
+            }
+
+            // Rather than going without, keep using instances that are due to be recycled.
+            handle = instances.acquireExisting(_ticker.read(), true);
+            if (handle != null) {
+                return handle;
+            }
+
+            switch (_exhaustionAction) {
+                case FAIL:
+                    throw new NoCachedInstancesAvailableException();
+                case GROW:
+                    // Temporarily hold more instances than the limits allow.  They're destroyed once their last caller
+                    // checks them in if there isn't room for them.
+                    instances.forceReserveInstance();
+                    _numInstances.incrementAndGet();
+                    return create(instances);
+                case WAIT:
+                    awaitCapacity(instances);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Releases a caller's use of a service instance, so that it may be used by other callers.
+     *
+     * @param handle The service handle that is being checked in.
+     * @throws Exception Never.
+     */
+    @Override
+    public void checkIn(ServiceHandle<S> handle) throws Exception {
+        checkNotNull(handle);
+        checkArgument(handle instanceof MultiplexedServiceHandle, "Service handle was not checked out of this cache");
+
+        @SuppressWarnings("unchecked") MultiplexedServiceHandle<S> multiplexedHandle = (MultiplexedServiceHandle<S>) handle;
+        EndPointInstances instances = multiplexedHandle.getEndPointInstances();
+        long now = _ticker.read();
+        if (multiplexedHandle.release(now) == 0) {
+            // Instances of evicted end points, instances left over after the cache was closed, instances there isn't
+            // room for, and instances due to be recycled are destroyed once nobody is using them.
+            if (_isClosed || instances.isEvicted() || instances.isOverLimit() || isOverLimit()) {
+                instances.destroyIfIdle(multiplexedHandle);
+            } else {
+                instances.destroyIfRecyclable(multiplexedHandle, now);
+            }
+        }
+        signalWaiters();
+    }
+
+    /**
+     * Returns the number of instances for an end point that nobody is using.
+     */
+    @Override
+    public int getNumIdleInstances(ServiceEndPoint endPoint) {
+        checkNotNull(endPoint);
+        EndPointInstances instances = _endPoints.get(endPoint);
+        return (instances != null) ? instances.getNumIdle() : 0;
+    }
+
+    /**
+     * Returns the number of instances for an end point that are being used by at least one caller.
+     */
+    @Override
+    public int getNumActiveInstances(ServiceEndPoint endPoint) {
+        checkNotNull(endPoint);
+        EndPointInstances instances = _endPoints.get(endPoint);
+        return (instances != null) ? instances.getNumActive() : 0;
+    }
+
+    @Override
+    public void close() {
+        _isClosed = true;
+
+        if (_evictionFuture != null) {
+            _evictionFuture.cancel(false);
+        }
+        if (_validationFuture != null) {
+            _validationFuture.cancel(false);
+        }
+
+        for (EndPointInstances instances : _endPoints.values()) {
+            instances.destroyIdle();
+        }
+        signalWaiters();
+        _metrics.close();
+    }
+
+    @Override
+    public void register(ServiceEndPoint endPoint) {
+        // implementation of the ServiceCache creates clients lazily
+    }
+
+    @Override
+    public void evict(ServiceEndPoint endPoint) {
+        checkNotNull(endPoint);
+
+        // Instances that are in use right now are destroyed when their last caller checks them in, and new checkouts
+        // for the end point start over with no instances.
+        EndPointInstances instances = _endPoints.remove(endPoint);
+        if (instances != null) {
+            instances.evict();
+            instances.destroyIdle();
+            signalWaiters();
+        }
+    }
+
+    /**
+     * Destroys instances that have had no callers, or lived, for longer than the policy allows.
+     */
+    @VisibleForTesting
+    void evictIdleInstances() {
+        if (_maxServiceInstanceIdleTimeNanos <= 0 && _maxServiceInstanceLifetimeNanos <= 0) {
+            return;
+        }
+
+        long now = _ticker.read();
+        for (EndPointInstances instances : _endPoints.values()) {
+            instances.destroyStaleIdle(now);
+        }
+        signalWaiters();
+    }
+
+    /**
+     * Validates instances without callers that haven't been validated for as long as the policy allows.  Instances
+     * that aren't valid any more are destroyed, or stop taking on new callers if some arrived during the validation.
+     */
+    @VisibleForTesting
+    void validateIdleInstances() {
+        if (_serviceInstanceValidationIntervalNanos <= 0) {
+            return;
+        }
+
+        for (EndPointInstances instances : _endPoints.values()) {
+            instances.validateIdle();
+        }
+        signalWaiters();
+    }
+
+    private EndPointInstances getEndPointInstances(ServiceEndPoint endPoint) {
+        EndPointInstances instances = _endPoints.get(endPoint);
+        if (instances == null) {
+            EndPointInstances newInstances = new EndPointInstances(endPoint);
+            instances = _endPoints.putIfAbsent(endPoint, newInstances);
+            if (instances == null) {
+                instances = newInstances;
+            }
+        }
+        return instances;
+    }
+
+    /**
+     * Reserves room for a new instance in the cache, destroying idle instances of other end points if necessary to
+     * make room.
+     */
+    private boolean tryReserveInstance() {
+        while (true) {
+            int numInstances = _numInstances.get();
+            if (_maxNumServiceInstances >= 0 && numInstances >= _maxNumServiceInstances) {
+                if (!destroyAnyIdle()) {
+                    return false;
+                }
+            } else if (_numInstances.compareAndSet(numInstances, numInstances + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private boolean isOverLimit() {
+        return _maxNumServiceInstances >= 0 && _numInstances.get() > _maxNumServiceInstances;
+    }
+
+    private boolean destroyAnyIdle() {
+        for (EndPointInstances instances : _endPoints.values()) {
+            if (instances.destroyAnyIdle()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private MultiplexedServiceHandle<S> create(EndPointInstances instances) {
+        Timer.Context timer = _loadTimer.time();
+        try {
+            S service = _serviceFactory.create(instances.getEndPoint());
+            long now = _ticker.read();
+            long lifetimeNanos = (_maxServiceInstanceLifetimeNanos > 0)
+                    ? ServiceInstanceRecycling.jitteredLifetime(_maxServiceInstanceLifetimeNanos)
+                    : 0;
+            MultiplexedServiceHandle<S> handle = new MultiplexedServiceHandle<>(service, instances, now,
+                    now + lifetimeNanos);
+            instances.add(handle);
+            return handle;
+        } catch (RuntimeException | Error e) {
+            instances.releaseInstance();
+            _numInstances.decrementAndGet();
+            signalWaiters();
+            throw e;
+        } finally {
+            timer.stop();
+        }
+    }
+
+    /**
+     * Returns whether an instance has lived for as long as the policy allows, or has failed validation.
+     */
+    private boolean isRecyclable(MultiplexedServiceHandle<S> handle, long nowNanos) {
+        return handle.isInvalid()
+                || (_maxServiceInstanceLifetimeNanos > 0 && nowNanos - handle.getExpiresAtNanos() >= 0);
+    }
+
+    private void destroy(MultiplexedServiceHandle<S> handle) {
+        _numInstances.decrementAndGet();
+        try {
+            _serviceFactory.destroy(handle.getEndPoint(), handle.getService());
+        } catch (Exception e) {
+            LOG.warn("Unable to destroy service instance for end point: {}", handle.getEndPoint(), e);
+        }
+    }
+
+    /**
+     * Waits until a caller has checked an instance in or an instance has been destroyed somewhere in the cache, which
+     * may have made room for the end point.
+     */
+    private void awaitCapacity(EndPointInstances instances) throws InterruptedException {
+        synchronized (_waitLock) {
+            _numWaiters.incrementAndGet();
+            try {
+                // Check again now that signals can't be missed.
+                while (!_isClosed && !instances.isEvicted() && !hasCapacity(instances)) {
+                    _waitLock.wait();
+                }
+            } finally {
+                _numWaiters.decrementAndGet();
+            }
+        }
+        checkState(!_isClosed, "Cache is closed");
+    }
+
+    private boolean hasCapacity(EndPointInstances instances) {
+        return instances.hasUnsaturated()
+                || (instances.hasInstanceCapacity()
+                    && (_maxNumServiceInstances < 0 || _numInstances.get() < _maxNumServiceInstances || hasAnyIdle()));
+    }
+
+    private boolean hasAnyIdle() {
+        for (EndPointInstances instances : _endPoints.values()) {
+            if (instances.getNumIdle() > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void signalWaiters() {
+        // Waiting is rare, so only take the lock when someone is.
+        if (_numWaiters.get() > 0) {
+            synchronized (_waitLock) {
+                _waitLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * The instances of a single end point, in the order they were created.
+     */
+    private class EndPointInstances {
+        private final ServiceEndPoint _endPoint;
+        // Copy-on-write, since instances are created and destroyed far less often than they're checked out.
+        private final List<MultiplexedServiceHandle<S>> _handles = new CopyOnWriteArrayList<>();
+        private final AtomicInteger _numInstances = new AtomicInteger();
+        private volatile boolean _evicted;
+
+        EndPointInstances(ServiceEndPoint endPoint) {
+            _endPoint = endPoint;
+        }
+
+        ServiceEndPoint getEndPoint() {
+            return _endPoint;
+        }
+
+        boolean isEvicted() {
+            return _evicted;
+        }
+
+        void evict() {
+            _evicted = true;
+        }
+
+        /**
+         * Adds a caller to the first instance that has room for one, skipping instances due to be recycled unless
+         * asked not to.
+         */
+        MultiplexedServiceHandle<S> acquireExisting(long nowNanos, boolean includeRecyclable) {
+            for (MultiplexedServiceHandle<S> handle : _handles) {
+                if ((includeRecyclable || !isRecyclable(handle, nowNanos))
+                        && handle.tryAcquire(_maxNumCallersPerServiceInstance)) {
+                    return handle;
+                }
+            }
+            return null;
+        }
+
+        boolean hasUnsaturated() {
+            for (MultiplexedServiceHandle<S> handle : _handles) {
+                int numCallers = handle.getNumCallers();
+                if (numCallers >= 0 && numCallers < _maxNumCallersPerServiceInstance) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        int getNumIdle() {
+            int numIdle = 0;
+            for (MultiplexedServiceHandle<S> handle : _handles) {
+                if (handle.getNumCallers() == 0) {
+                    numIdle++;
+                }
+            }
+            return numIdle;
+        }
+
+        int getNumActive() {
+            int numActive = 0;
+            for (MultiplexedServiceHandle<S> handle : _handles) {
+                if (handle.getNumCallers() > 0) {
+                    numActive++;
+                }
+            }
+            return numActive;
+        }
+
+        boolean hasInstanceCapacity() {
+            return _maxNumServiceInstancesPerEndPoint < 0 || _numInstances.get() < _maxNumServiceInstancesPerEndPoint;
+        }
+
+        boolean isOverLimit() {
+            return _maxNumServiceInstancesPerEndPoint >= 0 && _numInstances.get() > _maxNumServiceInstancesPerEndPoint;
+        }
+
+        boolean tryReserveInstance() {
+            while (true) {
+                int numInstances = _numInstances.get();
+                if (_maxNumServiceInstancesPerEndPoint >= 0 && numInstances >= _maxNumServiceInstancesPerEndPoint) {
+                    return false;
+                }
+                if (_numInstances.compareAndSet(numInstances, numInstances + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        void forceReserveInstance() {
+            _numInstances.incrementAndGet();
+        }
+
+        void releaseInstance() {
+            _numInstances.decrementAndGet();
+        }
+
+        void add(MultiplexedServiceHandle<S> handle) {
+            _handles.add(handle);
+        }
+
+        void destroyIdle() {
+            for (MultiplexedServiceHandle<S> handle : _handles) {
+                destroyIfIdle(handle);
+            }
+        }
+
+        boolean destroyAnyIdle() {
+            // The most recently created instances are the least used, so try them first.
+            for (MultiplexedServiceHandle<S> handle : Lists.reverse(Lists.newArrayList(_handles))) {
+                if (destroyIfIdle(handle)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void destroyStaleIdle(long nowNanos) {
+            for (MultiplexedServiceHandle<S> handle : _handles) {
+                if (!destroyIfRecyclable(handle, nowNanos) && _maxServiceInstanceIdleTimeNanos > 0
+                        && nowNanos - handle.getIdleSinceNanos() > _maxServiceInstanceIdleTimeNanos) {
+                    destroyIfIdle(handle);
+                }
+            }
+        }
+
+        /**
+         * Validates the instances without callers that are due for it.  Each instance is given a caller while it's
+         * being validated, so that it isn't destroyed in the meantime, though others may still use it.
+         */
+        void validateIdle() {
+            for (MultiplexedServiceHandle<S> handle : _handles) {
+                long now = _ticker.read();
+                if (handle.getNumCallers() != 0
+                        || now - handle.getValidatedAtNanos() < _serviceInstanceValidationIntervalNanos
+                        || !handle.tryAcquire(_maxNumCallersPerServiceInstance)) {
+                    continue;
+                }
+
+                handle.setValidatedAtNanos(now);
+                if (!ServiceInstanceRecycling.isValid(_serviceFactory, _endPoint, handle.getService())) {
+                    _numInvalidInstances.mark();
+                    handle.invalidate();
+                }
+                // Whoever removes the last caller destroys an invalid instance.
+                if (handle.releaseWithoutUse() == 0) {
+                    destroyIfRecyclable(handle, now);
+                }
+            }
+        }
+
+        /**
+         * Destroys an instance that has lived for as long as the policy allows, or has failed validation, unless it
+         * has gained a caller in the meantime.
+         */
+        boolean destroyIfRecyclable(MultiplexedServiceHandle<S> handle, long nowNanos) {
+            if (!isRecyclable(handle, nowNanos) || !destroyIfIdle(handle)) {
+                return false;
+            }
+            // Invalid instances were already counted when they failed validation.
+            if (!handle.isInvalid()) {
+                _numRecycledInstances.mark();
+            }
+            return true;
+        }
+
+        /**
+         * Destroys an instance, unless it has gained a caller in the meantime.
+         */
+        boolean destroyIfIdle(MultiplexedServiceHandle<S> handle) {
+            if (!handle.retire()) {
+                return false;
+            }
+            _handles.remove(handle);
+            releaseInstance();
+            destroy(handle);
+            return true;
+        }
+    }
+
+    /**
+     * A service handle that counts its callers.  Once retired, it can't gain any more.
+     */
+    private static class MultiplexedServiceHandle<S> extends ServiceHandle<S> {
+        private static final int RETIRED = -1;
+
+        private final MultiplexedClientServiceCache<S>.EndPointInstances _endPointInstances;
+        private final AtomicInteger _numCallers = new AtomicInteger(1);
+        private final long _expiresAtNanos;
+        private volatile long _idleSinceNanos;
+        private volatile long _validatedAtNanos;
+        private volatile boolean _isInvalid;
+
+        MultiplexedServiceHandle(S service, MultiplexedClientServiceCache<S>.EndPointInstances endPointInstances,
+                                 long createdAtNanos, long expiresAtNanos) {
+            super(service, endPointInstances.getEndPoint());
+            _endPointInstances = endPointInstances;
+            _expiresAtNanos = expiresAtNanos;
+            _validatedAtNanos = createdAtNanos;
+        }
+
+        MultiplexedClientServiceCache<S>.EndPointInstances getEndPointInstances() {
+            return _endPointInstances;
+        }
+
+        int getNumCallers() {
+            return _numCallers.get();
+        }
+
+        long getIdleSinceNanos() {
+            return _idleSinceNanos;
+        }
+
+        long getExpiresAtNanos() {
+            return _expiresAtNanos;
+        }
+
+        long getValidatedAtNanos() {
+            return _validatedAtNanos;
+        }
+
+        void setValidatedAtNanos(long validatedAtNanos) {
+            _validatedAtNanos = validatedAtNanos;
+        }
+
+        boolean isInvalid() {
+            return _isInvalid;
+        }
+
+        void invalidate() {
+            _isInvalid = true;
+        }
+
+        boolean tryAcquire(int maxNumCallers) {
+            while (true) {
+                int numCallers = _numCallers.get();
+                if (numCallers == RETIRED || numCallers >= maxNumCallers) {
+                    return false;
+                }
+                if (_numCallers.compareAndSet(numCallers, numCallers + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Removes a caller, returning how many callers are left.
+         */
+        int release(long nowNanos) {
+            // Record the time first, so that an instance is never seen idle with a stale time.
+            _idleSinceNanos = nowNanos;
+            return _numCallers.decrementAndGet();
+        }
+
+        /**
+         * Removes a caller that didn't actually use the instance, so without changing its idle time.
+         */
+        int releaseWithoutUse() {
+            return _numCallers.decrementAndGet();
+        }
+
+        boolean retire() {
+            return _numCallers.compareAndSet(0, RETIRED);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.bazaarvoice.ostrich.pool;
+
+/**
+ * A policy for deciding when a {@link ServicePool} should stop sending traffic to an end point.  Without one, an end
+ * point is ejected from the pool by the first retriable exception it throws and gets all of its traffic back as soon as
+ * a health check passes.  With one, an end point is only ejected once it stands out from the rest of the pool, and it
+ * is readmitted gradually.
+ * <p/>
+ * An ejected end point is health checked until it's healthy again.  It then enters a half-open phase where it only
+ * receives a small share of its normal traffic.  Once enough of those requests succeed it's fully readmitted, but if any
+ * of them fail it's ejected again straight away.
+ */
+public interface OutlierDetectionPolicy {
+    /**
+     * The number of retriable exceptions in a row after which an end point is ejected.
+     */
+    int getMaxConsecutiveFailures();
+
+    /**
+     * The fraction of an end point's recent attempts that may fail with a retriable exception before it's ejected, for
+     * example {@code 0.5} to eject end points once half of their attempts fail.
+     * <p/>
+     * NOTE: A value greater than 1 indicates that end points are never ejected based on their error rate.
+     */
+    double getMaxErrorRate();
+
+    /**
+     * The number of recent attempts an end point must have made before its {@link #getMaxErrorRate error rate} is
+     * considered.
+     */
+    int getMinRequestVolume();
+
+    /**
+     * How many times slower than the median end point an end point's median response time must be for it to be
+     * ejected, for example {@code 3} to eject end points that are three times slower than is typical for the pool.
+     * <p/>
+     * NOTE: A non-positive value indicates that end points are never ejected based on their latency.
+     */
+    double getLatencyOutlierFactor();
+
+    /**
+     * The maximum fraction of the pool's end points that may be ejected at once.  Ejecting more end points than this
+     * would concentrate traffic on the remaining ones and risk a cascading failure, so outliers beyond this limit keep
+     * receiving traffic.
+     */
+    double getMaxEjectionRatio();
+
+    /**
+     * The fraction of its normal traffic that a half-open end point receives, for example {@code 0.1} for 10%.
+     * Requests that only a half-open end point can service, such as those pinned to it by a partition filter, are
+     * always sent to it.
+     */
+    double getHalfOpenTrafficRatio();
+
+    /**
+     * The number of successful attempts a half-open end point must make before it's fully readmitted.
+     * <p/>
+     * NOTE: A value of zero indicates that end points are fully readmitted as soon as a health check passes.
+     */
+    int getHalfOpenSuccesses();
+}
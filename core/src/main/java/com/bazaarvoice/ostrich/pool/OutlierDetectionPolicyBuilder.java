@@ -0,0 +1,152 @@
+package com.bazaarvoice.ostrich.pool;
+
+import static com.google.common.base.Preconditions.checkState;
+
+public class OutlierDetectionPolicyBuilder {
+    private static final int DEFAULT_MAX_CONSECUTIVE_FAILURES = 5;
+    private static final double DEFAULT_MAX_ERROR_RATE = 0.5;
+    private static final int DEFAULT_MIN_REQUEST_VOLUME = 20;
+    private static final double DEFAULT_MAX_EJECTION_RATIO = 0.5;
+    private static final double DEFAULT_HALF_OPEN_TRAFFIC_RATIO = 0.1;
+    private static final int DEFAULT_HALF_OPEN_SUCCESSES = 5;
+
+    private int _maxConsecutiveFailures = DEFAULT_MAX_CONSECUTIVE_FAILURES;
+    private double _maxErrorRate = DEFAULT_MAX_ERROR_RATE;
+    private int _minRequestVolume = DEFAULT_MIN_REQUEST_VOLUME;
+    private double _latencyOutlierFactor;
+    private double _maxEjectionRatio = DEFAULT_MAX_EJECTION_RATIO;
+    private double _halfOpenTrafficRatio = DEFAULT_HALF_OPEN_TRAFFIC_RATIO;
+    private int _halfOpenSuccesses = DEFAULT_HALF_OPEN_SUCCESSES;
+
+    /**
+     * Set the number of retriable exceptions in a row after which an end point is ejected.  If never called, defaults
+     * to {@code 5}.
+     *
+     * @param maxConsecutiveFailures The number of failures, at least 1.
+     * @return this
+     */
+    public OutlierDetectionPolicyBuilder withMaxConsecutiveFailures(int maxConsecutiveFailures) {
+        checkState(maxConsecutiveFailures > 0);
+
+        _maxConsecutiveFailures = maxConsecutiveFailures;
+        return this;
+    }
+
+    /**
+     * Eject end points once the given fraction of their recent attempts fail with a retriable exception, provided they
+     * have made at least {@code minRequestVolume} attempts.  Up to the last 100 attempts are considered.  If never
+     * called, end points are ejected once half of at least 20 recent attempts fail.
+     *
+     * @param maxErrorRate     The maximum error rate, greater than 0.  Values above 1 disable error rate ejection.
+     * @param minRequestVolume The number of recent attempts needed for the error rate to count, at least 1.
+     * @return this
+     */
+    public OutlierDetectionPolicyBuilder withMaxErrorRate(double maxErrorRate, int minRequestVolume) {
+        checkState(maxErrorRate > 0);
+        checkState(minRequestVolume > 0 && minRequestVolume <= EndPointStatistics.NUM_OUTCOME_SAMPLES);
+
+        _maxErrorRate = maxErrorRate;
+        _minRequestVolume = minRequestVolume;
+        return this;
+    }
+
+    /**
+     * Eject end points whose median response time is more than the given factor times the median of all the end points
+     * in the pool.  If never called, end points are never ejected based on their latency.
+     *
+     * @param latencyOutlierFactor The factor, greater than 1, e.g. {@code 3}.
+     * @return this
+     */
+    public OutlierDetectionPolicyBuilder withLatencyOutlierFactor(double latencyOutlierFactor) {
+        checkState(latencyOutlierFactor > 1);
+
+        _latencyOutlierFactor = latencyOutlierFactor;
+        return this;
+    }
+
+    /**
+     * Set the maximum fraction of end points that may be ejected at once.  If never called, defaults to {@code 0.5}.
+     *
+     * @param maxEjectionRatio The maximum ratio of ejected end points to all end points, between 0 and 1 inclusive.
+     * @return this
+     */
+    public OutlierDetectionPolicyBuilder withMaxEjectionRatio(double maxEjectionRatio) {
+        checkState(maxEjectionRatio >= 0 && maxEjectionRatio <= 1);
+
+        _maxEjectionRatio = maxEjectionRatio;
+        return this;
+    }
+
+    /**
+     * Set how much of its normal traffic an end point receives after a health check passes, and how many of those
+     * requests must succeed before it's fully readmitted.  If never called, half-open end points receive 10% of their
+     * traffic until 5 requests succeed.
+     *
+     * @param trafficRatio The fraction of normal traffic, between 0 and 1 inclusive.  It may only be {@code 0} when
+     *                     {@code numSuccesses} is too, since otherwise the end point could never be readmitted.
+     * @param numSuccesses The number of successes needed for full readmission, or {@code 0} to skip the half-open
+     *                     phase.
+     * @return this
+     */
+    public OutlierDetectionPolicyBuilder withHalfOpen(double trafficRatio, int numSuccesses) {
+        checkState(trafficRatio >= 0 && trafficRatio <= 1);
+        checkState(numSuccesses >= 0);
+        checkState(trafficRatio > 0 || numSuccesses == 0, "Half-open end points need traffic to be readmitted");
+
+        _halfOpenTrafficRatio = trafficRatio;
+        _halfOpenSuccesses = numSuccesses;
+        return this;
+    }
+
+    /**
+     * Build the {@code OutlierDetectionPolicy} specified by this builder.
+     *
+     * @return The {@code OutlierDetectionPolicy} that was constructed.
+     */
+    public OutlierDetectionPolicy build() {
+        final int maxConsecutiveFailures = _maxConsecutiveFailures;
+        final double maxErrorRate = _maxErrorRate;
+        final int minRequestVolume = _minRequestVolume;
+        final double latencyOutlierFactor = _latencyOutlierFactor;
+        final double maxEjectionRatio = _maxEjectionRatio;
+        final double halfOpenTrafficRatio = _halfOpenTrafficRatio;
+        final int halfOpenSuccesses = _halfOpenSuccesses;
+
+        return new OutlierDetectionPolicy() {
+            @Override
+            public int getMaxConsecutiveFailures() {
+                return maxConsecutiveFailures;
+            }
+
+            @Override
+            public double getMaxErrorRate() {
+                return maxErrorRate;
+            }
+
+            @Override
+            public int getMinRequestVolume() {
+                return minRequestVolume;
+            }
+
+            @Override
+            public double getLatencyOutlierFactor() {
+                return latencyOutlierFactor;
+            }
+
+            @Override
+            public double getMaxEjectionRatio() {
+                return maxEjectionRatio;
+            }
+
+            @Override
+            public double getHalfOpenTrafficRatio() {
+                return halfOpenTrafficRatio;
+            }
+
+            @Override
+            public int getHalfOpenSuccesses() {
+                return halfOpenSuccesses;
+            }
+        };
+    }
+}
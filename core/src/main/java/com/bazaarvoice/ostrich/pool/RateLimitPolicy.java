@@ -0,0 +1,45 @@
+package com.bazaarvoice.ostrich.pool;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A policy for limiting the rate at which a {@link ServicePool} sends requests, so that bursts of work such as batch
+ * jobs can't overload the service.  Every attempt to execute a callback, including retries, needs a permit.  Permits
+ * are handed out at a steady rate by a token bucket for the whole pool and, optionally, by a separate token bucket for
+ * each value of a {@link com.bazaarvoice.ostrich.PartitionContext} key.
+ * <p/>
+ * An attempt that can't get a permit right away waits for one, up to the {@link #getMaxWait maximum wait}, after
+ * which it fails with a {@link com.bazaarvoice.ostrich.exceptions.RateLimitExceededException}.  Synchronous executions
+ * block while they wait, asynchronous ones are scheduled to start once the permit is available.
+ */
+public interface RateLimitPolicy {
+    /**
+     * The number of requests per second the whole pool may send.
+     * <p/>
+     * NOTE: A non-positive value indicates that the pool as a whole isn't limited.
+     */
+    double getPermitsPerSecond();
+
+    /**
+     * The partition context key whose values each get their own limit, or {@code null} if requests aren't limited per
+     * partition.  Requests whose partition context doesn't have a value for the key are only subject to the pool's
+     * limit.
+     */
+    String getPartitionKey();
+
+    /**
+     * The number of requests per second that may be sent for each value of the {@link #getPartitionKey partition key}.
+     */
+    double getPartitionPermitsPerSecond();
+
+    /**
+     * How long permits can be saved up for while the pool is idle.  Saved up permits let a burst of requests through
+     * at once, for example one second's worth of permits with a max burst of one second.
+     */
+    long getMaxBurst(TimeUnit unit);
+
+    /**
+     * The longest an attempt may wait for a permit before it's rejected.  Zero means attempts never wait.
+     */
+    long getMaxWait(TimeUnit unit);
+}
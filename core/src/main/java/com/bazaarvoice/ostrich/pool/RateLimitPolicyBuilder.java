@@ -0,0 +1,121 @@
+package com.bazaarvoice.ostrich.pool;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+public class RateLimitPolicyBuilder {
+    private static final long DEFAULT_MAX_BURST_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private double _permitsPerSecond;
+    private String _partitionKey;
+    private double _partitionPermitsPerSecond;
+    private long _maxBurstNanos = DEFAULT_MAX_BURST_NANOS;
+    private long _maxWaitNanos;
+
+    /**
+     * Set the number of requests per second the whole pool may send.  If never called, the pool as a whole isn't
+     * limited and a {@link #withPartitionPermitsPerSecond partition limit} is required.
+     *
+     * @param permitsPerSecond The rate, greater than 0.
+     * @return this
+     */
+    public RateLimitPolicyBuilder withPermitsPerSecond(double permitsPerSecond) {
+        checkState(permitsPerSecond > 0);
+
+        _permitsPerSecond = permitsPerSecond;
+        return this;
+    }
+
+    /**
+     * Limit the number of requests per second separately for each value of a partition context key.  If never called,
+     * requests aren't limited per partition.
+     *
+     * @param partitionKey     The partition context key, for example {@link com.bazaarvoice.ostrich.PartitionContext}'s
+     *                         default key {@code ""}.
+     * @param permitsPerSecond The rate for each value of the key, greater than 0.
+     * @return this
+     */
+    public RateLimitPolicyBuilder withPartitionPermitsPerSecond(String partitionKey, double permitsPerSecond) {
+        checkNotNull(partitionKey);
+        checkState(permitsPerSecond > 0);
+
+        _partitionKey = partitionKey;
+        _partitionPermitsPerSecond = permitsPerSecond;
+        return this;
+    }
+
+    /**
+     * Set how long permits can be saved up for while the pool is idle.  If never called, defaults to one second.
+     *
+     * @param maxBurst The time, greater than 0.
+     * @param unit     The unit of time the {@code maxBurst} is in.
+     * @return this
+     */
+    public RateLimitPolicyBuilder withMaxBurst(long maxBurst, TimeUnit unit) {
+        checkState(maxBurst > 0);
+        checkNotNull(unit);
+
+        _maxBurstNanos = unit.toNanos(maxBurst);
+        return this;
+    }
+
+    /**
+     * Set the longest an attempt may wait for a permit before it's rejected.  If never called, defaults to zero so
+     * that attempts over the limit are rejected right away.
+     *
+     * @param maxWait The time, at least 0.
+     * @param unit    The unit of time the {@code maxWait} is in.
+     * @return this
+     */
+    public RateLimitPolicyBuilder withMaxWait(long maxWait, TimeUnit unit) {
+        checkState(maxWait >= 0);
+        checkNotNull(unit);
+
+        _maxWaitNanos = unit.toNanos(maxWait);
+        return this;
+    }
+
+    /**
+     * Build the {@code RateLimitPolicy} specified by this builder.
+     *
+     * @return The {@code RateLimitPolicy} that was constructed.
+     */
+    public RateLimitPolicy build() {
+        checkState(_permitsPerSecond > 0 || _partitionKey != null, "A pool or partition rate is required");
+
+        final double permitsPerSecond = _permitsPerSecond;
+        final String partitionKey = _partitionKey;
+        final double partitionPermitsPerSecond = _partitionPermitsPerSecond;
+        final long maxBurstNanos = _maxBurstNanos;
+        final long maxWaitNanos = _maxWaitNanos;
+
+        return new RateLimitPolicy() {
+            @Override
+            public double getPermitsPerSecond() {
+                return permitsPerSecond;
+            }
+
+            @Override
+            public String getPartitionKey() {
+                return partitionKey;
+            }
+
+            @Override
+            public double getPartitionPermitsPerSecond() {
+                return partitionPermitsPerSecond;
+            }
+
+            @Override
+            public long getMaxBurst(TimeUnit unit) {
+                return unit.convert(maxBurstNanos, TimeUnit.NANOSECONDS);
+            }
+
+            @Override
+            public long getMaxWait(TimeUnit unit) {
+                return unit.convert(maxWaitNanos, TimeUnit.NANOSECONDS);
+            }
+        };
+    }
+}
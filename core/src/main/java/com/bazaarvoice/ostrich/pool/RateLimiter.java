@@ -0,0 +1,103 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.PartitionContext;
+import com.google.common.base.Ticker;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Enforces a {@link RateLimitPolicy} with a token bucket for the whole pool and one per partition.
+ */
+class RateLimiter {
+    private final Ticker _ticker;
+    private final long _maxWaitNanos;
+    private final TokenBucket _poolBucket;
+    private final String _partitionKey;
+    private final LoadingCache<Object, TokenBucket> _partitionBuckets;
+
+    RateLimiter(RateLimitPolicy policy, Ticker ticker) {
+        checkNotNull(policy);
+        _ticker = checkNotNull(ticker);
+        _maxWaitNanos = policy.getMaxWait(TimeUnit.NANOSECONDS);
+
+        final long maxBurstNanos = policy.getMaxBurst(TimeUnit.NANOSECONDS);
+        _poolBucket = (policy.getPermitsPerSecond() > 0)
+                ? new TokenBucket(policy.getPermitsPerSecond(), maxBurstNanos, ticker.read())
+                : null;
+
+        _partitionKey = policy.getPartitionKey();
+        if (_partitionKey == null) {
+            _partitionBuckets = null;
+        } else {
+            final double partitionPermitsPerSecond = policy.getPartitionPermitsPerSecond();
+
+            // A bucket that hasn't been used for as long as it takes to fill up is full, which is no different from a
+            // brand new one, so it can be dropped.  This keeps partitions that are no longer used from piling up.
+            long refillNanos = new TokenBucket(partitionPermitsPerSecond, maxBurstNanos, 0).getRefillNanos();
+            _partitionBuckets = CacheBuilder.newBuilder()
+                    .ticker(ticker)
+                    .expireAfterAccess(refillNanos, TimeUnit.NANOSECONDS)
+                    .build(new CacheLoader<Object, TokenBucket>() {
+                        @Override
+                        public TokenBucket load(Object partition) {
+                            return new TokenBucket(partitionPermitsPerSecond, maxBurstNanos, _ticker.read());
+                        }
+                    });
+        }
+    }
+
+    /**
+     * Reserve a permit for an attempt in the given partition.
+     *
+     * @return How long to wait before starting the attempt, or {@code -1} if it would have to wait longer than the
+     *         policy allows, in which case no permit was reserved.
+     */
+    long reserve(PartitionContext partitionContext) {
+        long now = _ticker.read();
+
+        long poolWaitNanos = 0;
+        if (_poolBucket != null) {
+            poolWaitNanos = _poolBucket.reserve(now, _maxWaitNanos);
+            if (poolWaitNanos < 0) {
+                return -1;
+            }
+        }
+
+        Object partition = (_partitionKey != null) ? partitionContext.get(_partitionKey) : null;
+        if (partition == null) {
+            return poolWaitNanos;
+        }
+
+        long partitionWaitNanos = _partitionBuckets.getUnchecked(partition).reserve(now, _maxWaitNanos);
+        if (partitionWaitNanos < 0) {
+            if (_poolBucket != null) {
+                _poolBucket.cancel();
+            }
+            return -1;
+        }
+        return Math.max(poolWaitNanos, partitionWaitNanos);
+    }
+
+    /**
+     * Give back a permit that was reserved for an attempt in the given partition, but won't be used after all.
+     */
+    void cancel(PartitionContext partitionContext) {
+        if (_poolBucket != null) {
+            _poolBucket.cancel();
+        }
+
+        Object partition = (_partitionKey != null) ? partitionContext.get(_partitionKey) : null;
+        if (partition != null) {
+            // A bucket that expired in the meantime was full, so there's nothing to give back.
+            TokenBucket partitionBucket = _partitionBuckets.getIfPresent(partition);
+            if (partitionBucket != null) {
+                partitionBucket.cancel();
+            }
+        }
+    }
+}
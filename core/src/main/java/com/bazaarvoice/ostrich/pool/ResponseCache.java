@@ -0,0 +1,213 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.Cacheable;
+import com.bazaarvoice.ostrich.metrics.Metrics;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Caches the responses of the {@link Cacheable} methods of a service interface for a service pool proxy.  Each method
+ * has its own bounded cache, keyed on the arguments of calls.
+ * <p/>
+ * Concurrent calls that miss the cache with equal arguments share a single call of the service.  A response that's
+ * used after three quarters of its time to live can be refreshed in the background, and until the refresh completes
+ * the old response continues to be used.
+ */
+class ResponseCache implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(ResponseCache.class);
+
+    /** The fraction of a response's time to live after which using it triggers a refresh. */
+    private static final double REFRESH_AHEAD_FRACTION = 0.75;
+
+    private final Ticker _ticker;
+    private final ExecutorService _refreshExecutor;
+    private final Map<Method, MethodCache> _methodCaches;
+    private final Metrics.InstanceMetrics _metrics;
+    private final Meter _numHits;
+    private final Meter _numMisses;
+    private final Meter _numRefreshes;
+
+    /**
+     * @return Whether the service type has any methods whose responses can be cached.
+     */
+    static boolean isCacheable(Class<?> serviceType) {
+        for (Method method : serviceType.getMethods()) {
+            if (method.isAnnotationPresent(Cacheable.class)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    ResponseCache(Class<?> serviceType, String serviceName, Ticker ticker, ExecutorService refreshExecutor,
+                  MetricRegistry metrics) {
+        checkNotNull(serviceType);
+        checkNotNull(serviceName);
+        _ticker = checkNotNull(ticker);
+        _refreshExecutor = checkNotNull(refreshExecutor);
+        checkNotNull(metrics);
+
+        ImmutableMap.Builder<Method, MethodCache> methodCaches = ImmutableMap.builder();
+        for (Method method : serviceType.getMethods()) {
+            Cacheable cacheable = method.getAnnotation(Cacheable.class);
+            if (cacheable != null) {
+                methodCaches.put(method, new MethodCache(method, cacheable));
+            }
+        }
+        _methodCaches = methodCaches.build();
+
+        _metrics = Metrics.forInstance(metrics, this, serviceName);
+        _numHits = _metrics.meter("num-cache-hits");
+        _numMisses = _metrics.meter("num-cache-misses");
+        _numRefreshes = _metrics.meter("num-cache-refreshes");
+    }
+
+    boolean isCacheable(Method method) {
+        return _methodCaches.containsKey(method);
+    }
+
+    /**
+     * Returns the cached response of a call, or makes the call if there isn't one.
+     *
+     * @param method The {@link Cacheable} method being called.
+     * @param args   The arguments of the call.
+     * @param call   Calls the service, both on a miss and to refresh the response.
+     * @return The response of the call.
+     */
+    Object get(Method method, Object[] args, Callable<Object> call) {
+        MethodCache methodCache = _methodCaches.get(method);
+        checkArgument(methodCache != null, "Responses of %s are not cacheable", method);
+        return methodCache.get(args, call);
+    }
+
+    @Override
+    public void close() {
+        _refreshExecutor.shutdownNow();
+        _metrics.close();
+    }
+
+    private class MethodCache {
+        private final Method _method;
+        private final Cache<List<Object>, CachedResponse> _responses;
+        private final long _refreshAfterNanos;
+
+        MethodCache(Method method, Cacheable cacheable) {
+            checkArgument(cacheable.ttl() > 0, "Cache TTL of %s must be positive", method);
+            checkArgument(cacheable.maxSize() > 0, "Cache size of %s must be positive", method);
+
+            long ttlNanos = cacheable.unit().toNanos(cacheable.ttl());
+            _method = method;
+            _responses = CacheBuilder.newBuilder()
+                    .ticker(_ticker)
+                    .expireAfterWrite(ttlNanos, TimeUnit.NANOSECONDS)
+                    .maximumSize(cacheable.maxSize())
+                    .build();
+            _refreshAfterNanos = cacheable.refreshAhead() ? (long) (ttlNanos * REFRESH_AHEAD_FRACTION) : -1;
+        }
+
+        Object get(Object[] args, final Callable<Object> call) {
+            // Copy the arguments so that the caller can't change the key afterwards.
+            List<Object> key = Arrays.asList(args.clone());
+
+            CachedResponse response = _responses.getIfPresent(key);
+            if (response != null) {
+                _numHits.mark();
+                maybeRefresh(key, response, call);
+                return response.getValue();
+            }
+
+            _numMisses.mark();
+            try {
+                // Concurrent misses for the same key wait for the first one to load it.
+                return _responses.get(key, new Callable<CachedResponse>() {
+                    @Override
+                    public CachedResponse call() throws Exception {
+                        return new CachedResponse(call.call(), _ticker.read());
+                    }
+                }).getValue();
+            } catch (ExecutionException | UncheckedExecutionException | ExecutionError e) {
+                throw Throwables.propagate(e.getCause());
+            }
+        }
+
+        private void maybeRefresh(final List<Object> key, final CachedResponse response, final Callable<Object> call) {
+            if (_refreshAfterNanos < 0 || _ticker.read() - response.getCreatedNanos() < _refreshAfterNanos) {
+                return;
+            }
+            if (!response.startRefresh()) {
+                return;  // Someone else is already refreshing it.
+            }
+
+            try {
+                _refreshExecutor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            _responses.put(key, new CachedResponse(call.call(), _ticker.read()));
+                            _numRefreshes.mark();
+                        } catch (Throwable t) {
+                            // The old response is used until it expires, and the next use will try again.
+                            LOG.debug("Unable to refresh cached response of {}", _method, t);
+                            response.refreshFailed();
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // The cache has been closed.
+                response.refreshFailed();
+            }
+        }
+    }
+
+    private static class CachedResponse {
+        private final Optional<Object> _value;
+        private final long _createdNanos;
+        private final AtomicBoolean _refreshing = new AtomicBoolean();
+
+        CachedResponse(Object value, long createdNanos) {
+            _value = Optional.fromNullable(value);
+            _createdNanos = createdNanos;
+        }
+
+        Object getValue() {
+            return _value.orNull();
+        }
+
+        long getCreatedNanos() {
+            return _createdNanos;
+        }
+
+        boolean startRefresh() {
+            return _refreshing.compareAndSet(false, true);
+        }
+
+        void refreshFailed() {
+            _refreshing.set(false);
+        }
+    }
+}
@@ -0,0 +1,361 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.BatchServiceCallback;
+import com.bazaarvoice.ostrich.BatchingPolicy;
+import com.bazaarvoice.ostrich.ListenableServiceFuture;
+import com.bazaarvoice.ostrich.PartitionContext;
+import com.bazaarvoice.ostrich.PartitionContextBuilder;
+import com.bazaarvoice.ostrich.RetryPolicy;
+import com.bazaarvoice.ostrich.ServiceCallback;
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.bazaarvoice.ostrich.SettableServiceFuture;
+import com.bazaarvoice.ostrich.exceptions.MaxRetriesException;
+import com.bazaarvoice.ostrich.exceptions.ServiceException;
+import com.codahale.metrics.Histogram;
+import com.google.common.base.Ticker;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Accumulates items per end point and executes each batch on the executor of an {@link AsyncServicePool}.
+ * <p/>
+ * Items are routed to an end point when they're submitted.  If a batch fails with a retriable exception its items are
+ * routed again, since the end point may have been marked as bad, and the batches they end up in are retried together
+ * according to the retry policy.
+ */
+class ServiceBatcher<S, T, R> implements com.bazaarvoice.ostrich.ServiceBatcher<T, R> {
+    private static final Logger LOG = LoggerFactory.getLogger(ServiceBatcher.class);
+
+    private final Ticker _ticker;
+    private final ServicePool<S> _pool;
+    private final ExecutorService _executor;
+    private final ScheduledExecutorService _scheduler;
+    private final int _maxBatchSize;
+    private final long _maxDelayNanos;
+    private final RetryPolicy _retryPolicy;
+    private final BatchServiceCallback<S, T, R> _callback;
+    private final Histogram _batchSize;
+
+    // Guarded by this.
+    private final Map<ServiceEndPoint, PendingBatch> _pendingBatches = Maps.newHashMap();
+    private boolean _closed;
+
+    ServiceBatcher(Ticker ticker, ServicePool<S> pool, ExecutorService executor, ScheduledExecutorService scheduler,
+                   BatchingPolicy batchingPolicy, RetryPolicy retryPolicy, BatchServiceCallback<S, T, R> callback,
+                   Histogram batchSize) {
+        _ticker = checkNotNull(ticker);
+        _pool = checkNotNull(pool);
+        _executor = checkNotNull(executor);
+        _scheduler = checkNotNull(scheduler);
+        _maxBatchSize = batchingPolicy.getMaxBatchSize();
+        _maxDelayNanos = batchingPolicy.getMaxDelay(TimeUnit.NANOSECONDS);
+        _retryPolicy = checkNotNull(retryPolicy);
+        _callback = checkNotNull(callback);
+        _batchSize = checkNotNull(batchSize);
+    }
+
+    @Override
+    public ListenableServiceFuture<R> submit(T item) {
+        return submit(PartitionContextBuilder.empty(), item);
+    }
+
+    @Override
+    public ListenableServiceFuture<R> submit(PartitionContext partitionContext, T item) {
+        checkNotNull(partitionContext);
+
+        PendingItem<T, R> pendingItem = new PendingItem<>(partitionContext, item);
+        ServiceEndPoint endPoint;
+        try {
+            endPoint = chooseEndPoint(partitionContext, null);
+        } catch (Exception e) {
+            pendingItem.fail(e);
+            return pendingItem.getResult();
+        }
+
+        PendingBatch fullBatch = null;
+        synchronized (this) {
+            checkState(!_closed, "Batcher is closed");
+
+            PendingBatch batch = _pendingBatches.get(endPoint);
+            if (batch == null) {
+                batch = new PendingBatch(endPoint);
+                _pendingBatches.put(endPoint, batch);
+            }
+            batch.add(pendingItem);
+
+            if (batch.size() >= _maxBatchSize) {
+                _pendingBatches.remove(endPoint);
+                batch.cancelFlush();
+                fullBatch = batch;
+            } else if (batch.size() == 1) {
+                batch.scheduleFlush();
+            }
+        }
+
+        if (fullBatch != null) {
+            dispatch(fullBatch);
+        }
+        return pendingItem.getResult();
+    }
+
+    @Override
+    public void close() {
+        List<PendingBatch> batches;
+        synchronized (this) {
+            _closed = true;
+            batches = Lists.newArrayList(_pendingBatches.values());
+            _pendingBatches.clear();
+        }
+
+        for (PendingBatch batch : batches) {
+            batch.cancelFlush();
+            dispatch(batch);
+        }
+    }
+
+    /**
+     * Execute a batch that has waited for the maximum delay, unless it has already been executed because it filled up.
+     */
+    private void flush(PendingBatch batch) {
+        synchronized (this) {
+            if (_pendingBatches.get(batch.getEndPoint()) != batch) {
+                return;
+            }
+            _pendingBatches.remove(batch.getEndPoint());
+        }
+        dispatch(batch);
+    }
+
+    private void dispatch(PendingBatch batch) {
+        BatchExecution execution = new BatchExecution(batch.getEndPoint(), batch.getItems());
+        try {
+            _executor.execute(execution);
+        } catch (RejectedExecutionException e) {
+            fail(batch.getItems(), e);
+        }
+    }
+
+    private ServiceEndPoint chooseEndPoint(PartitionContext partitionContext, Exception lastException) {
+        return _pool.chooseEndPoint(_pool.getValidEndPoints(lastException), partitionContext, lastException);
+    }
+
+    private static <T, R> void fail(List<PendingItem<T, R>> items, Exception e) {
+        for (PendingItem<T, R> item : items) {
+            item.fail(e);
+        }
+    }
+
+    /**
+     * The items waiting to be executed on an end point.  Guarded by the batcher.
+     */
+    private final class PendingBatch implements Runnable {
+        private final ServiceEndPoint _endPoint;
+        private final List<PendingItem<T, R>> _items = Lists.newArrayList();
+        private Future<?> _scheduledFlush;
+
+        PendingBatch(ServiceEndPoint endPoint) {
+            _endPoint = endPoint;
+        }
+
+        ServiceEndPoint getEndPoint() {
+            return _endPoint;
+        }
+
+        List<PendingItem<T, R>> getItems() {
+            return _items;
+        }
+
+        void add(PendingItem<T, R> item) {
+            _items.add(item);
+        }
+
+        int size() {
+            return _items.size();
+        }
+
+        void scheduleFlush() {
+            try {
+                _scheduledFlush = _scheduler.schedule(this, _maxDelayNanos, TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException e) {
+                // Without a scheduler the batch is only executed once it fills up or the batcher is closed.
+                LOG.warn("Unable to schedule batch flush. End point ID: {}, {}", _endPoint.getId(), e.toString());
+            }
+        }
+
+        void cancelFlush() {
+            if (_scheduledFlush != null) {
+                _scheduledFlush.cancel(false);
+            }
+        }
+
+        @Override
+        public void run() {
+            flush(this);
+        }
+    }
+
+    /**
+     * Executes a batch, retrying the items of any batch that fails with a retriable exception.
+     */
+    private final class BatchExecution implements Runnable {
+        private final ServiceEndPoint _endPoint;
+        private final List<PendingItem<T, R>> _items;
+
+        BatchExecution(ServiceEndPoint endPoint, List<PendingItem<T, R>> items) {
+            _endPoint = endPoint;
+            _items = items;
+        }
+
+        @Override
+        public void run() {
+            final long start = _ticker.read();
+            int numAttempts = 0;
+            Map<ServiceEndPoint, List<PendingItem<T, R>>> batches = Collections.singletonMap(_endPoint, _items);
+
+            while (true) {
+                List<PendingItem<T, R>> failedItems = Lists.newArrayList();
+                Exception lastException = null;
+
+                for (Map.Entry<ServiceEndPoint, List<PendingItem<T, R>>> entry : batches.entrySet()) {
+                    ServiceEndPoint endPoint = entry.getKey();
+                    for (List<PendingItem<T, R>> items : Lists.partition(entry.getValue(), _maxBatchSize)) {
+                        try {
+                            execute(endPoint, items);
+                        } catch (Exception e) {
+                            // Don't retry if exception is too severe.
+                            if (!_pool.isRetriableException(e)) {
+                                fail(items, e);
+                                continue;
+                            }
+
+                            LOG.info("Retriable exception from end point id: {}, {}", endPoint.getId(), e.toString());
+                            LOG.debug("Exception", e);
+                            failedItems.addAll(items);
+                            lastException = e;
+                        }
+                    }
+                }
+
+                if (failedItems.isEmpty()) {
+                    return;
+                }
+                if (!_retryPolicy.allowRetry(++numAttempts, TimeUnit.NANOSECONDS.toMillis(_ticker.read() - start))) {
+                    fail(failedItems, new MaxRetriesException(lastException));
+                    return;
+                }
+                batches = route(failedItems, lastException);
+            }
+        }
+
+        /**
+         * Execute one batch on an end point, completing the futures of its items with the results.
+         */
+        private void execute(ServiceEndPoint endPoint, List<PendingItem<T, R>> items) throws Exception {
+            List<PendingItem<T, R>> liveItems = Lists.newArrayListWithCapacity(items.size());
+            final List<T> values = Lists.newArrayListWithCapacity(items.size());
+            for (PendingItem<T, R> item : items) {
+                if (!item.getResult().isDone()) {  // Skip items that were cancelled.
+                    liveItems.add(item);
+                    values.add(item.getItem());
+                }
+            }
+            if (liveItems.isEmpty()) {
+                return;
+            }
+
+            // The items of a batch can belong to many partitions, so only the pool's overall rate limit applies.
+            _pool.awaitRateLimit(PartitionContextBuilder.empty());
+
+            _batchSize.update(values.size());
+            List<R> results = _pool.executeOnEndPoint(endPoint, new ServiceCallback<S, List<R>>() {
+                @Override
+                public List<R> call(S service) throws ServiceException {
+                    return _callback.call(service, values);
+                }
+            });
+
+            if (results == null || results.size() != values.size()) {
+                fail(liveItems, new IllegalStateException("Batch callback returned " +
+                        ((results == null) ? "null" : results.size() + " results") + " for " + values.size() +
+                        " items"));
+                return;
+            }
+            for (int i = 0; i < liveItems.size(); i++) {
+                liveItems.get(i).getResult().set(results.get(i));
+            }
+        }
+
+        /**
+         * Route the items of failed batches to end points again, failing any that can no longer be routed.
+         */
+        private Map<ServiceEndPoint, List<PendingItem<T, R>>> route(List<PendingItem<T, R>> items,
+                                                                    Exception lastException) {
+            Map<ServiceEndPoint, List<PendingItem<T, R>>> batches = Maps.newLinkedHashMap();
+            for (PendingItem<T, R> item : items) {
+                if (item.getResult().isDone()) {
+                    continue;
+                }
+
+                ServiceEndPoint endPoint;
+                try {
+                    endPoint = chooseEndPoint(item.getPartitionContext(), lastException);
+                } catch (Exception e) {
+                    item.fail(e);
+                    continue;
+                }
+
+                List<PendingItem<T, R>> batch = batches.get(endPoint);
+                if (batch == null) {
+                    batch = Lists.newArrayList();
+                    batches.put(endPoint, batch);
+                }
+                batch.add(item);
+            }
+            return batches;
+        }
+    }
+
+    /**
+     * An item waiting to be executed as part of a batch.
+     */
+    private static final class PendingItem<T, R> {
+        private final PartitionContext _partitionContext;
+        private final T _item;
+        private final SettableServiceFuture<R> _result = new SettableServiceFuture<>();
+
+        PendingItem(PartitionContext partitionContext, T item) {
+            _partitionContext = partitionContext;
+            _item = item;
+        }
+
+        PartitionContext getPartitionContext() {
+            return _partitionContext;
+        }
+
+        T getItem() {
+            return _item;
+        }
+
+        SettableServiceFuture<R> getResult() {
+            return _result;
+        }
+
+        void fail(Exception e) {
+            _result.setException(e);
+        }
+    }
+}
@@ -7,7 +7,9 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
+import static com.bazaarvoice.ostrich.pool.ServiceCachingPolicyBuilder.toExtendedPolicy;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -37,7 +39,18 @@ public class ServiceCacheBuilder<S> {
         if (_cachingPolicy.useMultiThreadedClientPolicy()) {
             checkNotNull(_serviceFactory, "serviceFactory");
             checkArgument((_serviceFactory instanceof MultiThreadedServiceFactory), "Please implement MultiThreadedServiceFactory to construct MultiThreadedClientServiceCache");
-            return new MultiThreadedClientServiceCache<>((MultiThreadedServiceFactory<S>) _serviceFactory, _metricRegistry);
+            // Policies that weren't built by ServiceCachingPolicyBuilder share a single client per end point.
+            MultiThreadedClientPolicy policy = (_cachingPolicy instanceof MultiThreadedClientPolicy)
+                    ? (MultiThreadedClientPolicy) _cachingPolicy
+                    : MultiThreadedClientPolicy.DEFAULT;
+            return new MultiThreadedClientServiceCache<>((MultiThreadedServiceFactory<S>) _serviceFactory,
+                    policy.getMaxNumClientsPerEndPoint(), policy.getClientValidationInterval(TimeUnit.MILLISECONDS),
+                    policy.getMaxClientLifetime(TimeUnit.MILLISECONDS), _metricRegistry);
+        }
+        else if (toExtendedPolicy(_cachingPolicy).getMaxNumCallersPerServiceInstance() > 1) {
+            checkNotNull(_serviceFactory, "serviceFactory");
+            checkNotNull(_metricRegistry, "metricRegistry");
+            return new MultiplexedClientServiceCache<>(_cachingPolicy, _serviceFactory, _metricRegistry);
         }
         else {
             checkNotNull(_serviceFactory, "serviceFactory");
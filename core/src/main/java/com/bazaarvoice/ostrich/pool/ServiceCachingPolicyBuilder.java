@@ -3,6 +3,7 @@ package com.bazaarvoice.ostrich.pool;
 import java.util.concurrent.TimeUnit;
 
 import static com.bazaarvoice.ostrich.pool.ServiceCachingPolicy.ExhaustionAction;
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
@@ -20,46 +21,41 @@ public class ServiceCachingPolicyBuilder {
      * This policy returns true for useMultiThreadedClientPolicy() but throws
      * {@link java.lang.UnsupportedOperationException} for everything else
      *
+     * @return ServiceCachingPolicy configured to build a {@code MultiThreadedClientServiceCache}
      */
-    private static final ServiceCachingPolicy DEFAULT_MULTI_THREADED_CLIENTS_POLICY = new ServiceCachingPolicy() {
-        @Override
-        public int getMaxNumServiceInstances() {
-            throw new UnsupportedOperationException();
-        }
-
-        @Override
-        public int getMaxNumServiceInstancesPerEndPoint() {
-            throw new UnsupportedOperationException();
-        }
-
-        @Override
-        public long getMaxServiceInstanceIdleTime(TimeUnit unit) {
-            throw new UnsupportedOperationException();
-        }
-
-        @Override
-        public ExhaustionAction getCacheExhaustionAction() {
-            throw new UnsupportedOperationException();
-        }
-
-        @Override
-        public boolean useMultiThreadedClientPolicy() {
-            return true;
-        }
-    };
+    public static ServiceCachingPolicy getMultiThreadedClientPolicy() {
+        return MultiThreadedClientPolicy.DEFAULT;
+    }
 
     /**
+     * Creates a ServiceCachingPolicy configured for multi threaded client strategy that may share more than one client
+     * per end point.  Another client is only created when all of an end point's existing clients are busy, and is
+     * created in the background rather than by the call that found them busy.
+     * <p/>
+     * This policy returns true for useMultiThreadedClientPolicy() but throws
+     * {@link java.lang.UnsupportedOperationException} for everything else
      *
+     * @param maxNumServiceInstancesPerEndPoint The most clients to share between the callers of an end point.
      * @return ServiceCachingPolicy configured to build a {@code MultiThreadedClientServiceCache}
      */
-    public static ServiceCachingPolicy getMultiThreadedClientPolicy() {
-        return DEFAULT_MULTI_THREADED_CLIENTS_POLICY;
+    public static ServiceCachingPolicy getMultiThreadedClientPolicy(int maxNumServiceInstancesPerEndPoint) {
+        checkArgument(maxNumServiceInstancesPerEndPoint > 0);
+
+        return new MultiThreadedClientPolicy(maxNumServiceInstancesPerEndPoint, 0, 0);
     }
 
     private int _maxNumServiceInstances = -1;
     private int _maxNumServiceInstancesPerEndPoint = -1;
+    private int _minNumIdleServiceInstancesPerEndPoint;
+    private int _maxNumCallersPerServiceInstance = 1;
     private long _maxServiceInstanceIdleTimeNanos;
+    private long _serviceInstanceValidationIntervalNanos;
+    private long _maxServiceInstanceLifetimeNanos;
     private ExhaustionAction _cacheExhaustionAction = ExhaustionAction.GROW;
+    private boolean _threadAffinity;
+    private boolean _adaptiveSizing;
+    private int _adaptiveMinNumServiceInstancesPerEndPoint;
+    private long _adaptiveMinServiceInstanceIdleTimeNanos;
 
     /**
      * Set the maximum number of cached service instances for the built policy.  If never called, the policy will allow
@@ -91,6 +87,40 @@ public class ServiceCachingPolicyBuilder {
         return this;
     }
 
+    /**
+     * Set the number of idle service instances to keep ready for each end point in the built policy.  If never called,
+     * service instances are only created when they're checked out.
+     * <p/>
+     * NOTE: The minimum must be less than or equal to both the per end point and the total maximum, unless they're
+     * unbounded.
+     *
+     * @param minNumIdleServiceInstancesPerEndPoint The number of idle service instances to keep for one end point.
+     * @return this
+     */
+    public ServiceCachingPolicyBuilder withMinNumIdleServiceInstancesPerEndPoint(int minNumIdleServiceInstancesPerEndPoint) {
+        checkState(minNumIdleServiceInstancesPerEndPoint >= 0);
+
+        _minNumIdleServiceInstancesPerEndPoint = minNumIdleServiceInstancesPerEndPoint;
+        return this;
+    }
+
+    /**
+     * Set the maximum number of callers that may use a single cached service instance at the same time in the built
+     * policy.  If never called, each instance is only used by one caller at a time.
+     * <p/>
+     * NOTE: Only set this above one for clients that are able to handle that many concurrent calls, but not an
+     * unlimited number of them.
+     *
+     * @param maxNumCallersPerServiceInstance The maximum number of concurrent callers of one service instance.
+     * @return this
+     */
+    public ServiceCachingPolicyBuilder withMaxNumCallersPerServiceInstance(int maxNumCallersPerServiceInstance) {
+        checkState(maxNumCallersPerServiceInstance > 0);
+
+        _maxNumCallersPerServiceInstance = maxNumCallersPerServiceInstance;
+        return this;
+    }
+
     /**
      * Set the amount of time a cached instance is allowed to sit idle in the cache before being eligible for
      * expiration.  If never called, cached instances will not expire solely due to idle time.
@@ -107,6 +137,39 @@ public class ServiceCachingPolicyBuilder {
         return this;
     }
 
+    /**
+     * Set how often idle cached instances are validated in the background, if the service factory is a
+     * {@link com.bazaarvoice.ostrich.ValidatingServiceFactory}.  If never called, cached instances are not validated.
+     *
+     * @param serviceInstanceValidationInterval The time between validations of the same instance.
+     * @param unit                              The unit of time the {@code serviceInstanceValidationInterval} is in.
+     * @return this
+     */
+    public ServiceCachingPolicyBuilder withServiceInstanceValidationInterval(int serviceInstanceValidationInterval,
+                                                                             TimeUnit unit) {
+        checkState(serviceInstanceValidationInterval > 0);
+        checkNotNull(unit);
+
+        _serviceInstanceValidationIntervalNanos = unit.toNanos(serviceInstanceValidationInterval);
+        return this;
+    }
+
+    /**
+     * Set the amount of time a cached instance is allowed to live before it is recycled, even if it's in regular use.
+     * If never called, cached instances will not be recycled solely due to their age.
+     *
+     * @param maxServiceInstanceLifetime The time an instance may live before it is recycled.
+     * @param unit                       The unit of time the {@code maxServiceInstanceLifetime} is in.
+     * @return this
+     */
+    public ServiceCachingPolicyBuilder withMaxServiceInstanceLifetime(int maxServiceInstanceLifetime, TimeUnit unit) {
+        checkState(maxServiceInstanceLifetime > 0);
+        checkNotNull(unit);
+
+        _maxServiceInstanceLifetimeNanos = unit.toNanos(maxServiceInstanceLifetime);
+        return this;
+    }
+
     /**
      * Set the {@code ExhaustionAction} for the built caching policy.  If never called, will default to
      * {@code ExhaustionAction.GROW}.
@@ -122,19 +185,77 @@ public class ServiceCachingPolicyBuilder {
     }
 
     /**
-     * Build the {@code ServiceCachingPolicy} specified by this builder.
+     * Set whether threads should get back the instance they most recently checked in for an end point, if it's still
+     * idle.  If never called, threads get whichever idle instance was most recently checked in by any thread.
+     * <p/>
+     * NOTE: Virtual threads always get the most recently checked in instance, since they're usually only used for a
+     * single task.
+     *
+     * @param threadAffinity Whether instances should prefer the thread that last used them.
+     * @return this
+     */
+    public ServiceCachingPolicyBuilder withThreadAffinity(boolean threadAffinity) {
+        _threadAffinity = threadAffinity;
+        return this;
+    }
+
+    /**
+     * Let the cache adjust the maximum number of service instances per end point and the idle time before eviction to
+     * each end point's demand.  The {@link #withMaxNumServiceInstancesPerEndPoint maxNumServiceInstancesPerEndPoint}
+     * and {@link #withMaxServiceInstanceIdleTime maxServiceInstanceIdleTime} must both be set, and become the upper
+     * bounds of the adjustments.  If never called, the configured values are used as they are.
+     * <p/>
+     * NOTE: Only applies when each service instance is used by one caller at a time.  The minimum number of instances
+     * must be at least the {@link #withMinNumIdleServiceInstancesPerEndPoint minNumIdleServiceInstancesPerEndPoint}.
+     *
+     * @param minNumServiceInstancesPerEndPoint The lowest the per end point maximum may be adjusted to.
+     * @param minServiceInstanceIdleTime        The lowest the idle time before eviction may be adjusted to.
+     * @param unit                              The unit of time the {@code minServiceInstanceIdleTime} is in.
+     * @return this
+     */
+    public ServiceCachingPolicyBuilder withAdaptiveSizing(int minNumServiceInstancesPerEndPoint,
+                                                          int minServiceInstanceIdleTime, TimeUnit unit) {
+        checkState(minNumServiceInstancesPerEndPoint > 0);
+        checkState(minServiceInstanceIdleTime > 0);
+        checkNotNull(unit);
+
+        _adaptiveSizing = true;
+        _adaptiveMinNumServiceInstancesPerEndPoint = minNumServiceInstancesPerEndPoint;
+        _adaptiveMinServiceInstanceIdleTimeNanos = unit.toNanos(minServiceInstanceIdleTime);
+        return this;
+    }
+
+    /**
+     * Build the {@code ServiceCachingPolicy} specified by this builder.  It is an {@link ExtendedServiceCachingPolicy}.
      *
      * @return The {@code ServiceCachingPolicy} that was constructed.
      */
     public ServiceCachingPolicy build() {
         checkState(_maxNumServiceInstances == -1 || _maxNumServiceInstancesPerEndPoint <= _maxNumServiceInstances);
+        checkState(_maxNumServiceInstancesPerEndPoint == -1
+                || _minNumIdleServiceInstancesPerEndPoint <= _maxNumServiceInstancesPerEndPoint);
+        checkState(_maxNumServiceInstances == -1 || _minNumIdleServiceInstancesPerEndPoint <= _maxNumServiceInstances);
+        checkState(!_adaptiveSizing
+                || _adaptiveMinNumServiceInstancesPerEndPoint <= _maxNumServiceInstancesPerEndPoint);
+        checkState(!_adaptiveSizing
+                || _adaptiveMinServiceInstanceIdleTimeNanos <= _maxServiceInstanceIdleTimeNanos);
+        checkState(!_adaptiveSizing
+                || _minNumIdleServiceInstancesPerEndPoint <= _adaptiveMinNumServiceInstancesPerEndPoint);
 
         final int maxNumServiceInstances = _maxNumServiceInstances;
         final int maxNumServiceInstancesPerEndPoint = _maxNumServiceInstancesPerEndPoint;
+        final int minNumIdleServiceInstancesPerEndPoint = _minNumIdleServiceInstancesPerEndPoint;
+        final int maxNumCallersPerServiceInstance = _maxNumCallersPerServiceInstance;
         final long maxServiceInstanceIdleTimeNanos = _maxServiceInstanceIdleTimeNanos;
+        final long serviceInstanceValidationIntervalNanos = _serviceInstanceValidationIntervalNanos;
+        final long maxServiceInstanceLifetimeNanos = _maxServiceInstanceLifetimeNanos;
         final ExhaustionAction cacheExhaustionAction = _cacheExhaustionAction;
+        final boolean threadAffinity = _threadAffinity;
+        final boolean adaptiveSizing = _adaptiveSizing;
+        final int adaptiveMinNumServiceInstancesPerEndPoint = _adaptiveMinNumServiceInstancesPerEndPoint;
+        final long adaptiveMinServiceInstanceIdleTimeNanos = _adaptiveMinServiceInstanceIdleTimeNanos;
 
-        return new ServiceCachingPolicy() {
+        return new ExtendedServiceCachingPolicy() {
             @Override
             public int getMaxNumServiceInstances() {
                 return maxNumServiceInstances;
@@ -145,20 +266,155 @@ public class ServiceCachingPolicyBuilder {
                 return maxNumServiceInstancesPerEndPoint;
             }
 
+            @Override
+            public int getMinNumIdleServiceInstancesPerEndPoint() {
+                return minNumIdleServiceInstancesPerEndPoint;
+            }
+
+            @Override
+            public int getMaxNumCallersPerServiceInstance() {
+                return maxNumCallersPerServiceInstance;
+            }
+
             @Override
             public long getMaxServiceInstanceIdleTime(TimeUnit unit) {
                 return unit.convert(maxServiceInstanceIdleTimeNanos, TimeUnit.NANOSECONDS);
             }
 
+            @Override
+            public long getServiceInstanceValidationInterval(TimeUnit unit) {
+                return unit.convert(serviceInstanceValidationIntervalNanos, TimeUnit.NANOSECONDS);
+            }
+
+            @Override
+            public long getMaxServiceInstanceLifetime(TimeUnit unit) {
+                return unit.convert(maxServiceInstanceLifetimeNanos, TimeUnit.NANOSECONDS);
+            }
+
             @Override
             public ExhaustionAction getCacheExhaustionAction() {
                 return cacheExhaustionAction;
             }
 
+            @Override
+            public boolean useThreadAffinity() {
+                return threadAffinity;
+            }
+
+            @Override
+            public boolean useAdaptiveSizing() {
+                return adaptiveSizing;
+            }
+
+            @Override
+            public int getAdaptiveMinNumServiceInstancesPerEndPoint() {
+                return adaptiveMinNumServiceInstancesPerEndPoint;
+            }
+
+            @Override
+            public long getAdaptiveMinServiceInstanceIdleTime(TimeUnit unit) {
+                return unit.convert(adaptiveMinServiceInstanceIdleTimeNanos, TimeUnit.NANOSECONDS);
+            }
+
             @Override
             public boolean useMultiThreadedClientPolicy() {
                 return false;
             }
         };
     }
+
+    /**
+     * Build a {@code ServiceCachingPolicy} for the multi threaded client strategy from this builder.  Only the
+     * {@link #withMaxNumServiceInstancesPerEndPoint maxNumServiceInstancesPerEndPoint} (defaulting to a single client
+     * per end point), {@link #withServiceInstanceValidationInterval serviceInstanceValidationInterval} and
+     * {@link #withMaxServiceInstanceLifetime maxServiceInstanceLifetime} settings apply to shared clients.
+     * <p/>
+     * The built policy returns true for useMultiThreadedClientPolicy() but throws
+     * {@link java.lang.UnsupportedOperationException} for everything else.
+     *
+     * @return ServiceCachingPolicy configured to build a {@code MultiThreadedClientServiceCache}
+     */
+    public ServiceCachingPolicy buildMultiThreadedClientPolicy() {
+        checkState(_maxNumServiceInstancesPerEndPoint != 0);
+
+        return new MultiThreadedClientPolicy(Math.max(_maxNumServiceInstancesPerEndPoint, 1),
+                _serviceInstanceValidationIntervalNanos, _maxServiceInstanceLifetimeNanos);
+    }
+
+    /**
+     * Returns the policy as an {@code ExtendedServiceCachingPolicy}.  Policies that don't implement it get the defaults
+     * of this builder for the extended settings.
+     */
+    static ExtendedServiceCachingPolicy toExtendedPolicy(final ServiceCachingPolicy policy) {
+        if (policy instanceof ExtendedServiceCachingPolicy) {
+            return (ExtendedServiceCachingPolicy) policy;
+        }
+
+        return new ExtendedServiceCachingPolicy() {
+            @Override
+            public int getMaxNumServiceInstances() {
+                return policy.getMaxNumServiceInstances();
+            }
+
+            @Override
+            public int getMaxNumServiceInstancesPerEndPoint() {
+                return policy.getMaxNumServiceInstancesPerEndPoint();
+            }
+
+            @Override
+            public int getMinNumIdleServiceInstancesPerEndPoint() {
+                return 0;
+            }
+
+            @Override
+            public int getMaxNumCallersPerServiceInstance() {
+                return 1;
+            }
+
+            @Override
+            public long getMaxServiceInstanceIdleTime(TimeUnit unit) {
+                return policy.getMaxServiceInstanceIdleTime(unit);
+            }
+
+            @Override
+            public long getServiceInstanceValidationInterval(TimeUnit unit) {
+                return 0;
+            }
+
+            @Override
+            public long getMaxServiceInstanceLifetime(TimeUnit unit) {
+                return 0;
+            }
+
+            @Override
+            public ExhaustionAction getCacheExhaustionAction() {
+                return policy.getCacheExhaustionAction();
+            }
+
+            @Override
+            public boolean useThreadAffinity() {
+                return false;
+            }
+
+            @Override
+            public boolean useAdaptiveSizing() {
+                return false;
+            }
+
+            @Override
+            public int getAdaptiveMinNumServiceInstancesPerEndPoint() {
+                return 0;
+            }
+
+            @Override
+            public long getAdaptiveMinServiceInstanceIdleTime(TimeUnit unit) {
+                return 0;
+            }
+
+            @Override
+            public boolean useMultiThreadedClientPolicy() {
+                return policy.useMultiThreadedClientPolicy();
+            }
+        };
+    }
 }
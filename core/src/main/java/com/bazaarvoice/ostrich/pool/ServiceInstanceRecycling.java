@@ -0,0 +1,56 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.bazaarvoice.ostrich.ServiceFactory;
+import com.bazaarvoice.ostrich.ValidatingServiceFactory;
+import com.google.common.annotations.VisibleForTesting;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides when the service caches replace instances they've been holding on to, either because an instance has lived
+ * for as long as the {@link ServiceCachingPolicy} allows, or because its {@link ValidatingServiceFactory} says it's no
+ * longer usable.
+ */
+final class ServiceInstanceRecycling {
+    private static final Logger LOG = LoggerFactory.getLogger(ServiceInstanceRecycling.class);
+
+    /**
+     * The most an instance's lifetime is shortened by, as a fraction of the maximum lifetime.  Instances are often
+     * created together, for example when an end point is registered, and would otherwise all be recycled together.
+     */
+    @VisibleForTesting
+    static final double MAX_LIFETIME_JITTER = 0.1;
+
+    private ServiceInstanceRecycling() {}
+
+    /**
+     * Returns how long a new instance may live, which is somewhere between the maximum lifetime less the jitter and the
+     * maximum lifetime itself.
+     */
+    static long jitteredLifetime(long maxLifetime) {
+        long maxJitter = (long) (maxLifetime * MAX_LIFETIME_JITTER);
+        return (maxJitter > 0) ? maxLifetime - ThreadLocalRandom.current().nextLong(maxJitter + 1) : maxLifetime;
+    }
+
+    /**
+     * Returns whether service instances made by a factory can be validated at all.
+     */
+    static boolean canValidate(ServiceFactory<?> serviceFactory, long validationInterval) {
+        return validationInterval > 0 && serviceFactory instanceof ValidatingServiceFactory;
+    }
+
+    /**
+     * Validates a service instance, treating any exception thrown by the factory as meaning it isn't valid.
+     */
+    static <S> boolean isValid(ServiceFactory<S> serviceFactory, ServiceEndPoint endPoint, S service) {
+        try {
+            return ((ValidatingServiceFactory<S>) serviceFactory).isValid(endPoint, service);
+        } catch (Exception e) {
+            LOG.debug("Unable to validate service instance for end point: {}", endPoint, e);
+            return false;
+        }
+    }
+}
@@ -1,8 +1,14 @@
 package com.bazaarvoice.ostrich.pool;
 
+import com.bazaarvoice.ostrich.AsyncServiceCallback;
+import com.bazaarvoice.ostrich.EndPointSnapshot;
+import com.bazaarvoice.ostrich.ExtendedServicePool;
+import com.bazaarvoice.ostrich.ExtendedServicePoolStatistics;
 import com.bazaarvoice.ostrich.HealthCheckResult;
 import com.bazaarvoice.ostrich.HealthCheckResults;
 import com.bazaarvoice.ostrich.HostDiscovery;
+import com.bazaarvoice.ostrich.IndexedLoadBalanceAlgorithm;
+import com.bazaarvoice.ostrich.ListenableServiceFuture;
 import com.bazaarvoice.ostrich.LoadBalanceAlgorithm;
 import com.bazaarvoice.ostrich.PartitionContext;
 import com.bazaarvoice.ostrich.PartitionContextBuilder;
@@ -10,15 +16,19 @@ import com.bazaarvoice.ostrich.RetryPolicy;
 import com.bazaarvoice.ostrich.ServiceCallback;
 import com.bazaarvoice.ostrich.ServiceEndPoint;
 import com.bazaarvoice.ostrich.ServiceFactory;
-import com.bazaarvoice.ostrich.ServicePoolStatistics;
+import com.bazaarvoice.ostrich.SettableServiceFuture;
+import com.bazaarvoice.ostrich.exceptions.ConcurrencyLimitExceededException;
 import com.bazaarvoice.ostrich.exceptions.MaxRetriesException;
 import com.bazaarvoice.ostrich.exceptions.NoAvailableHostsException;
 import com.bazaarvoice.ostrich.exceptions.NoCachedInstancesAvailableException;
 import com.bazaarvoice.ostrich.exceptions.NoSuitableHostsException;
 import com.bazaarvoice.ostrich.exceptions.OnlyBadHostsException;
+import com.bazaarvoice.ostrich.exceptions.RateLimitExceededException;
 import com.bazaarvoice.ostrich.healthcheck.DefaultHealthCheckResults;
 import com.bazaarvoice.ostrich.healthcheck.HealthCheckRetryDelay;
 import com.bazaarvoice.ostrich.metrics.Metrics;
+import com.bazaarvoice.ostrich.partition.IndexedPartitionFilter;
+import com.bazaarvoice.ostrich.partition.LoadAwarePartitionFilter;
 import com.bazaarvoice.ostrich.partition.PartitionFilter;
 import com.codahale.metrics.Gauge;
 import com.codahale.metrics.Meter;
@@ -26,30 +36,46 @@ import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Objects;
-import com.google.common.base.Predicate;
-import com.google.common.base.Predicates;
+import com.google.common.base.Supplier;
 import com.google.common.base.Throwables;
 import com.google.common.base.Ticker;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
-class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
+class ServicePool<S> implements ExtendedServicePool<S> {
     private static final Logger LOG = LoggerFactory.getLogger(ServicePool.class);
 
     /**
@@ -57,6 +83,33 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
      */
     private static final int HEALTH_CHECK_VERIFY_SECS = 30;
 
+    /**
+     * The maximum number of hedged attempts that can be saved up while responses are fast.
+     */
+    private static final int MAX_HEDGE_BURST = 10;
+
+    /**
+     * How many times to ask the partition filter and load balancer for an end point other than the one a slow attempt
+     * is executing on before giving up on hedging the attempt.
+     */
+    private static final int MAX_HEDGE_END_POINT_CHOICES = 3;
+
+    /**
+     * How many times to ask the partition filter and load balancer for an end point that isn't half-open, or that isn't
+     * at its concurrency limit, before sending the request to the end point that was chosen first anyway.
+     */
+    private static final int MAX_ALTERNATIVE_END_POINT_CHOICES = 3;
+
+    /**
+     * Number of seconds between checks for end points whose latency makes them outliers.
+     */
+    private static final int LATENCY_OUTLIER_CHECK_SECS = 10;
+
+    /**
+     * The fewest end points with known latencies for which a typical latency is meaningful.
+     */
+    private static final int MIN_LATENCY_OUTLIER_END_POINTS = 3;
+
     private final Ticker _ticker;
     private final HostDiscovery _hostDiscovery;
     private final boolean _cleanupHostDiscoveryOnClose;
@@ -65,10 +118,18 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
     private final ScheduledExecutorService _healthCheckExecutor;
     private final boolean _shutdownHealthCheckExecutorOnClose;
     private final PartitionFilter _partitionFilter;
+    private final IndexedPartitionFilter _indexedPartitionFilter;
+    private final LoadAwarePartitionFilter _loadAwarePartitionFilter;
     private final LoadBalanceAlgorithm _loadBalanceAlgorithm;
-    private final ServicePoolStatistics _servicePoolStatistics;
+    private final IndexedLoadBalanceAlgorithm _indexedLoadBalanceAlgorithm;
+    private final ExtendedServicePoolStatistics _servicePoolStatistics;
     private final ConcurrentMap<ServiceEndPoint, HealthCheck> _badEndPoints;
-    private final Predicate<ServiceEndPoint> _badEndPointFilter;
+    private final ConcurrentMap<ServiceEndPoint, EndPointStatistics> _endPointStatistics;
+    private final AtomicInteger _numOutstandingRequests = new AtomicInteger();
+    private final boolean _samplesResponseTimes;
+    private volatile boolean _averagesResponseTimes;
+    private final AtomicLong _endPointsVersion = new AtomicLong();
+    private volatile EndPointState _endPointState;
     private final Set<ServiceEndPoint> _recentlyRemovedEndPoints;
     private final ServiceCache<S> _serviceCache;
     private final Metrics.InstanceMetrics _metrics;
@@ -77,12 +138,51 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
     private final Meter _numExecuteSuccesses;
     private final Meter _numExecuteAttemptFailures;
     private final HealthCheckRetryDelay _healthCheckRetryDelay;
+    private final HedgingPolicy _hedgingPolicy;
+    private final HedgeBudget _hedgeBudget;
+    private final ExecutorService _hedgeExecutor;
+    private final boolean _shutdownHedgeExecutorOnClose;
+    private final Meter _numHedgedAttempts;
+    private final Meter _numHedgedAttemptWins;
+    private final OutlierDetectionPolicy _outlierDetectionPolicy;
+    private final ConcurrentMap<ServiceEndPoint, AtomicInteger> _halfOpenEndPoints;
+    private final Meter _numOutlierEjections;
+    private final Future<?> _latencyOutlierCheck;
+    private final ConcurrencyLimitPolicy _concurrencyLimitPolicy;
+    private final ConcurrentMap<ServiceEndPoint, AdaptiveConcurrencyLimit> _concurrencyLimits;
+    private final Meter _numConcurrencyLimitRejections;
+    private final RateLimiter _rateLimiter;
+    private final Meter _numRateLimitRejections;
+    private final SingleFlight _singleFlight;
+    private final List<Closeable> _closeables = new CopyOnWriteArrayList<>();
 
     ServicePool(Ticker ticker, HostDiscovery hostDiscovery, boolean cleanupHostDiscoveryOnClose,
                 ServiceFactory<S> serviceFactory, ServiceCachingPolicy cachingPolicy,
                 PartitionFilter partitionFilter, LoadBalanceAlgorithm loadBalanceAlgorithm,
                 ScheduledExecutorService healthCheckExecutor, boolean shutdownHealthCheckExecutorOnClose,
                 HealthCheckRetryDelay healthCheckRetryDelay, MetricRegistry metrics) {
+        this(ticker, hostDiscovery, cleanupHostDiscoveryOnClose, serviceFactory, cachingPolicy, partitionFilter,
+                loadBalanceAlgorithm, healthCheckExecutor, shutdownHealthCheckExecutorOnClose, healthCheckRetryDelay,
+                null, null, false, null, null, null, metrics);
+    }
+
+    /**
+     * @param hedgingPolicy The policy for hedging slow attempts, or {@code null} to disable hedging.
+     * @param hedgeExecutor The executor that runs attempts when hedging is enabled.  Unused if hedging is disabled.
+     * @param outlierDetectionPolicy The policy for ejecting misbehaving end points, or {@code null} to eject end points
+     *                               on their first retriable exception.
+     * @param concurrencyLimitPolicy The policy for limiting the number of requests in flight to each end point, or
+     *                               {@code null} to not limit them.
+     * @param rateLimitPolicy The policy for limiting the rate of requests, or {@code null} to not limit it.
+     */
+    ServicePool(Ticker ticker, HostDiscovery hostDiscovery, boolean cleanupHostDiscoveryOnClose,
+                ServiceFactory<S> serviceFactory, ServiceCachingPolicy cachingPolicy,
+                PartitionFilter partitionFilter, LoadBalanceAlgorithm loadBalanceAlgorithm,
+                ScheduledExecutorService healthCheckExecutor, boolean shutdownHealthCheckExecutorOnClose,
+                HealthCheckRetryDelay healthCheckRetryDelay, HedgingPolicy hedgingPolicy,
+                ExecutorService hedgeExecutor, boolean shutdownHedgeExecutorOnClose,
+                OutlierDetectionPolicy outlierDetectionPolicy, ConcurrencyLimitPolicy concurrencyLimitPolicy,
+                RateLimitPolicy rateLimitPolicy, MetricRegistry metrics) {
         _healthCheckRetryDelay = checkNotNull(healthCheckRetryDelay);
         _ticker = checkNotNull(ticker);
         _hostDiscovery = checkNotNull(hostDiscovery);
@@ -91,7 +191,7 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
         _healthCheckExecutor = checkNotNull(healthCheckExecutor);
         _shutdownHealthCheckExecutorOnClose = shutdownHealthCheckExecutorOnClose;
         _badEndPoints = Maps.newConcurrentMap();
-        _badEndPointFilter = Predicates.not(Predicates.in(_badEndPoints.keySet()));
+        _endPointStatistics = Maps.newConcurrentMap();
         _recentlyRemovedEndPoints = Sets.newSetFromMap(CacheBuilder.newBuilder()
                 .ticker(_ticker)
                 .expireAfterWrite(10, TimeUnit.MINUTES)  // TODO: Make this a constant
@@ -104,9 +204,32 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
                 .withMetricRegistry(metrics)
                 .build();
         _partitionFilter = checkNotNull(partitionFilter);
+        _indexedPartitionFilter = (partitionFilter instanceof IndexedPartitionFilter)
+                ? (IndexedPartitionFilter) partitionFilter
+                : null;
+        _loadAwarePartitionFilter = (partitionFilter instanceof LoadAwarePartitionFilter)
+                ? (LoadAwarePartitionFilter) partitionFilter
+                : null;
         _loadBalanceAlgorithm = checkNotNull(loadBalanceAlgorithm);
-
-        _servicePoolStatistics = new ServicePoolStatistics() {
+        _indexedLoadBalanceAlgorithm = (loadBalanceAlgorithm instanceof IndexedLoadBalanceAlgorithm)
+                ? (IndexedLoadBalanceAlgorithm) loadBalanceAlgorithm
+                : null;
+        _hedgingPolicy = hedgingPolicy;
+        _hedgeBudget = (hedgingPolicy != null)
+                ? new HedgeBudget(hedgingPolicy.getMaxHedgeRatio(), MAX_HEDGE_BURST)
+                : null;
+        _hedgeExecutor = (hedgingPolicy != null) ? checkNotNull(hedgeExecutor) : hedgeExecutor;
+        _shutdownHedgeExecutorOnClose = shutdownHedgeExecutorOnClose;
+        _outlierDetectionPolicy = outlierDetectionPolicy;
+        _halfOpenEndPoints = Maps.newConcurrentMap();
+        _concurrencyLimitPolicy = concurrencyLimitPolicy;
+        _concurrencyLimits = Maps.newConcurrentMap();
+        _rateLimiter = (rateLimitPolicy != null) ? new RateLimiter(rateLimitPolicy, _ticker) : null;
+        // Percentiles of recent response times are only needed to time hedges and to find latency outliers.
+        _samplesResponseTimes = (hedgingPolicy != null && hedgingPolicy.getLatencyPercentile() > 0)
+                || (outlierDetectionPolicy != null && outlierDetectionPolicy.getLatencyOutlierFactor() > 0);
+
+        _servicePoolStatistics = new ExtendedServicePoolStatistics() {
             @Override
             public int getNumIdleCachedInstances(ServiceEndPoint endPoint) {
                 return _serviceCache.getNumIdleInstances(endPoint);
@@ -116,6 +239,29 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
             public int getNumActiveInstances(ServiceEndPoint endPoint) {
                 return _serviceCache.getNumActiveInstances(endPoint);
             }
+
+            @Override
+            public int getNumOutstandingRequests(ServiceEndPoint endPoint) {
+                EndPointStatistics statistics = _endPointStatistics.get(endPoint);
+                return (statistics != null) ? statistics.getNumOutstandingRequests() : 0;
+            }
+
+            @Override
+            public int getTotalNumOutstandingRequests() {
+                return _numOutstandingRequests.get();
+            }
+
+            @Override
+            public long getAverageResponseTime(ServiceEndPoint endPoint, TimeUnit unit) {
+                // Callbacks only update the average once something, usually the load balancer, has asked for it.
+                if (!_averagesResponseTimes) {
+                    _averagesResponseTimes = true;
+                }
+                EndPointStatistics statistics = _endPointStatistics.get(endPoint);
+                return (statistics != null)
+                        ? unit.convert(statistics.getResponseTimeNanos(_ticker.read()), TimeUnit.NANOSECONDS)
+                        : 0;
+            }
         };
 
         // Watch end points as they are removed from host discovery so that we can remove them from our set of bad
@@ -145,6 +291,12 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
         _healthCheckTime = _metrics.timer("health-check-time");
         _numExecuteSuccesses = _metrics.meter("num-execute-successes");
         _numExecuteAttemptFailures = _metrics.meter("num-execute-attempt-failures");
+        _numHedgedAttempts = _metrics.meter("num-hedged-attempts");
+        _numHedgedAttemptWins = _metrics.meter("num-hedged-attempt-wins");
+        _numOutlierEjections = _metrics.meter("num-outlier-ejections");
+        _numConcurrencyLimitRejections = _metrics.meter("num-concurrency-limit-rejections");
+        _numRateLimitRejections = _metrics.meter("num-rate-limit-rejections");
+        _singleFlight = new SingleFlight(_metrics.meter("num-coalesced-executions"));
         _metrics.gauge("num-valid-end-points", new Gauge<Integer>() {
             @Override
             public Integer getValue() {
@@ -164,6 +316,14 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
                 HEALTH_CHECK_VERIFY_SECS,
                 HEALTH_CHECK_VERIFY_SECS,
                 TimeUnit.SECONDS);
+
+        _latencyOutlierCheck = (outlierDetectionPolicy != null && outlierDetectionPolicy.getLatencyOutlierFactor() > 0)
+                ? _healthCheckExecutor.scheduleAtFixedRate(
+                        new LatencyOutlierCheck(),
+                        LATENCY_OUTLIER_CHECK_SECS,
+                        LATENCY_OUTLIER_CHECK_SECS,
+                        TimeUnit.SECONDS)
+                : null;
     }
 
     @Override
@@ -172,6 +332,10 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
             healthCheck.cancel(true);
         }
 
+        if (_latencyOutlierCheck != null) {
+            _latencyOutlierCheck.cancel(false);
+        }
+
         _hostDiscovery.removeListener(_hostDiscoveryListener);
         if (_cleanupHostDiscoveryOnClose) {
             try {
@@ -184,9 +348,31 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
         _serviceCache.close();
         _metrics.close();
 
+        for (Closeable closeable : _closeables) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // NOP
+            }
+        }
+
         if (_shutdownHealthCheckExecutorOnClose) {
             _healthCheckExecutor.shutdownNow();
         }
+
+        if (_shutdownHedgeExecutorOnClose && _hedgeExecutor != null) {
+            _hedgeExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Register a resource that belongs to this pool, such as the response cache of a proxy built for it, so that it's
+     * closed along with the pool.
+     * <p/>
+     * NOTE: This method is package private specifically so that {@link ServicePoolBuilder} can call it.
+     */
+    void closeWithPool(Closeable closeable) {
+        _closeables.add(checkNotNull(closeable));
     }
 
     @Override
@@ -201,29 +387,15 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
         Exception lastException = null;
 
         do {
-            Iterable<ServiceEndPoint> allEndPoints = getAllEndPoints();
-            if (Iterables.isEmpty(allEndPoints)) {
-                throw (lastException == null)
-                        ? new NoAvailableHostsException()
-                        : new NoAvailableHostsException(lastException);
-            }
-
-            Iterable<ServiceEndPoint> validEndPoints = getValidEndPoints(allEndPoints);
-            if (Iterables.isEmpty(validEndPoints)) {
-                throw (lastException == null)
-                        ? new OnlyBadHostsException()
-                        : new OnlyBadHostsException(lastException);
-            }
+            awaitRateLimit(partitionContext);
 
-            ServiceEndPoint endPoint = chooseEndPoint(validEndPoints, partitionContext);
-            if (endPoint == null) {
-                throw (lastException == null)
-                        ? new NoSuitableHostsException()
-                        : new NoSuitableHostsException(lastException);
-            }
+            EndPointSnapshot validEndPoints = getValidEndPoints(lastException);
+            ServiceEndPoint endPoint = chooseEndPoint(validEndPoints, partitionContext, lastException);
 
             try {
-                R result = executeOnEndPoint(endPoint, callback);
+                R result = (_hedgingPolicy != null)
+                        ? executeHedged(endPoint, validEndPoints, partitionContext, callback)
+                        : executeOnEndPoint(endPoint, callback);
                 _numExecuteSuccesses.mark();
                 return result;
             } catch (Exception e) {
@@ -244,6 +416,20 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
         throw new MaxRetriesException(lastException);
     }
 
+    @Override
+    public <R> R executeCoalesced(final PartitionContext partitionContext, Object key, final RetryPolicy retry,
+                                  final ServiceCallback<S, R> callback) {
+        checkNotNull(partitionContext);
+        checkNotNull(key);
+
+        return _singleFlight.execute(Arrays.asList(partitionContext, key), new Supplier<R>() {
+            @Override
+            public R get() {
+                return execute(partitionContext, retry, callback);
+            }
+        });
+    }
+
     @Override
     public int getNumValidEndPoints() {
         return Iterables.size(_hostDiscovery.getHosts()) - _badEndPoints.size();
@@ -254,6 +440,139 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
         return _badEndPoints.size();
     }
 
+    /**
+     * Reserve a permit under the rate limit for an attempt.
+     * <p/>
+     * NOTE: This method is package private specifically so that {@link AsyncServicePool} can call it.
+     *
+     * @return How long to wait before starting the attempt, {@code 0} if it may start right away.
+     * @throws RateLimitExceededException If the attempt would have to wait longer than the rate limit policy allows.
+     */
+    long reserveRateLimit(PartitionContext partitionContext) {
+        if (_rateLimiter == null) {
+            return 0;
+        }
+
+        long waitNanos = _rateLimiter.reserve(partitionContext);
+        if (waitNanos < 0) {
+            _numRateLimitRejections.mark();
+            throw new RateLimitExceededException("Rate limit exceeded. Service: " + getServiceName());
+        }
+        return waitNanos;
+    }
+
+    /**
+     * Reserve a permit under the rate limit for an attempt, and wait until it may be used.  If the thread is
+     * interrupted while waiting the permit is given back, and the attempt fails with the thread's interrupt flag still
+     * set.
+     * <p/>
+     * NOTE: This method is package private specifically so that {@link ServiceBatcher} can call it.
+     *
+     * @throws RateLimitExceededException If the attempt would have to wait longer than the rate limit policy allows.
+     */
+    void awaitRateLimit(PartitionContext partitionContext) {
+        long waitNanos = reserveRateLimit(partitionContext);
+        if (waitNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                _rateLimiter.cancel(partitionContext);
+                Thread.currentThread().interrupt();
+                throw Throwables.propagate(e);
+            }
+        }
+    }
+
+    /**
+     * Determine the end points that an attempt may be executed on.
+     * <p/>
+     * NOTE: This method is package private specifically so that {@link AsyncServicePool} can call it.
+     *
+     * @param lastException The exception of the previous attempt, if any, to use as the cause of a failure.
+     * @throws NoAvailableHostsException If there are no end points.
+     * @throws OnlyBadHostsException If all of the end points are bad.
+     */
+    EndPointSnapshot getValidEndPoints(Exception lastException) {
+        EndPointState endPointState = getEndPointState();
+        if (endPointState.getNumEndPoints() == 0) {
+            throw (lastException == null)
+                    ? new NoAvailableHostsException()
+                    : new NoAvailableHostsException(lastException);
+        }
+
+        EndPointSnapshot validEndPoints = endPointState.getValidEndPoints();
+        if (validEndPoints.isEmpty()) {
+            throw (lastException == null)
+                    ? new OnlyBadHostsException()
+                    : new OnlyBadHostsException(lastException);
+        }
+        return validEndPoints;
+    }
+
+    /**
+     * Choose the end point to execute an attempt on using the partition filter and load balancer.
+     * <p/>
+     * NOTE: This method is package private specifically so that {@link AsyncServicePool} can call it.
+     *
+     * @param lastException The exception of the previous attempt, if any, to use as the cause of a failure.
+     * @throws NoSuitableHostsException If none of the end points can service the partition.
+     */
+    ServiceEndPoint chooseEndPoint(EndPointSnapshot validEndPoints, PartitionContext partitionContext,
+                                   Exception lastException) {
+        ServiceEndPoint endPoint = chooseEndPoint(validEndPoints, partitionContext);
+        if (endPoint == null) {
+            throw (lastException == null)
+                    ? new NoSuitableHostsException()
+                    : new NoSuitableHostsException(lastException);
+        }
+        if (!_halfOpenEndPoints.isEmpty()) {
+            endPoint = limitHalfOpenTraffic(endPoint, validEndPoints, partitionContext);
+        }
+        if (_concurrencyLimitPolicy != null && !hasConcurrencyCapacity(endPoint)) {
+            endPoint = avoidConcurrencyLimit(endPoint, validEndPoints, partitionContext);
+        }
+        return endPoint;
+    }
+
+    /**
+     * Send only a share of the requests that would go to a half-open end point to it, choosing another end point for
+     * the rest.  If no other end point can service the request it's sent to the half-open end point anyway.
+     */
+    private ServiceEndPoint limitHalfOpenTraffic(ServiceEndPoint endPoint, EndPointSnapshot validEndPoints,
+                                                 PartitionContext partitionContext) {
+        if (!_halfOpenEndPoints.containsKey(endPoint)
+                || ThreadLocalRandom.current().nextDouble() < _outlierDetectionPolicy.getHalfOpenTrafficRatio()) {
+            return endPoint;
+        }
+        for (int i = 0; i < MAX_ALTERNATIVE_END_POINT_CHOICES; i++) {
+            ServiceEndPoint otherEndPoint = chooseEndPoint(validEndPoints, partitionContext);
+            if (otherEndPoint != null && !_halfOpenEndPoints.containsKey(otherEndPoint)) {
+                return otherEndPoint;
+            }
+        }
+        return endPoint;
+    }
+
+    /**
+     * Choose another end point for a request that would go over the concurrency limit of the end point that was chosen.
+     * If no other end point has room for the request it's sent to the chosen end point anyway, where it's rejected.
+     */
+    private ServiceEndPoint avoidConcurrencyLimit(ServiceEndPoint endPoint, EndPointSnapshot validEndPoints,
+                                                  PartitionContext partitionContext) {
+        for (int i = 0; i < MAX_ALTERNATIVE_END_POINT_CHOICES; i++) {
+            ServiceEndPoint otherEndPoint = chooseEndPoint(validEndPoints, partitionContext);
+            if (otherEndPoint != null && hasConcurrencyCapacity(otherEndPoint)) {
+                return otherEndPoint;
+            }
+        }
+        return endPoint;
+    }
+
+    private boolean hasConcurrencyCapacity(ServiceEndPoint endPoint) {
+        AdaptiveConcurrencyLimit concurrencyLimit = _concurrencyLimits.get(endPoint);
+        return concurrencyLimit == null || concurrencyLimit.hasCapacity();
+    }
+
     /**
      * Determine the set of all {@link ServiceEndPoint}s.
      * <p/>
@@ -264,10 +583,66 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
     }
 
     /**
-     * Determine the set of usable {@link ServiceEndPoint}s.
+     * Determine the current {@link EndPointState}, rebuilding it if the set of end points has changed since it was
+     * last built.  The state is rebuilt when host discovery hands out a different collection of end points or when
+     * the pool has seen an end point get added, removed, marked as bad or recover since the last rebuild.  Otherwise
+     * the existing immutable state is returned as-is, so this is cheap enough to call on every execute attempt.
      */
-    private Iterable<ServiceEndPoint> getValidEndPoints(Iterable<ServiceEndPoint> endPoints) {
-        return Iterables.filter(endPoints, _badEndPointFilter);
+    @VisibleForTesting
+    EndPointState getEndPointState() {
+        // Read the version before looking at the end points.  If a change happens while we're rebuilding then the
+        // snapshot will be labeled with a stale version and simply be rebuilt again on the next call.
+        long version = _endPointsVersion.get();
+        Iterable<ServiceEndPoint> hosts = _hostDiscovery.getHosts();
+
+        EndPointState state = _endPointState;
+        if (state != null && state.getHosts() == hosts && state.getValidEndPoints().getVersion() == version) {
+            return state;
+        }
+
+        int numEndPoints = 0;
+        List<ServiceEndPoint> validEndPoints = Lists.newArrayList();
+        for (ServiceEndPoint endPoint : hosts) {
+            numEndPoints++;
+            if (!_badEndPoints.containsKey(endPoint)) {
+                validEndPoints.add(endPoint);
+            }
+        }
+
+        state = new EndPointState(hosts, numEndPoints, new EndPointSnapshot(version, validEndPoints));
+        _endPointState = state;
+        return state;
+    }
+
+    /**
+     * Note that the set of end points has changed so that the next call to {@link #getEndPointState()} rebuilds it.
+     */
+    private void endPointsChanged() {
+        _endPointsVersion.incrementAndGet();
+    }
+
+    private ServiceEndPoint chooseEndPoint(EndPointSnapshot endPoints, PartitionContext partitionContext) {
+        if (_indexedPartitionFilter == null) {
+            return chooseEndPoint(endPoints.asList(), partitionContext);
+        }
+
+        int index = (_loadAwarePartitionFilter != null)
+                ? _loadAwarePartitionFilter.filterIndex(endPoints, partitionContext, _servicePoolStatistics)
+                : _indexedPartitionFilter.filterIndex(endPoints, partitionContext);
+        if (index >= 0) {
+            // The partition filter narrowed things down to a single end point, there's nothing left to balance.
+            return endPoints.get(index);
+        }
+        if (index != IndexedPartitionFilter.ALL_END_POINTS) {
+            return null;
+        }
+
+        if (_indexedLoadBalanceAlgorithm == null) {
+            return _loadBalanceAlgorithm.choose(endPoints.asList(), _servicePoolStatistics);
+        }
+
+        index = _indexedLoadBalanceAlgorithm.chooseIndex(endPoints, _servicePoolStatistics);
+        return (index >= 0) ? endPoints.get(index) : null;
     }
 
     private ServiceEndPoint chooseEndPoint(Iterable<ServiceEndPoint> endPoints, PartitionContext partitionContext) {
@@ -292,42 +667,437 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
      */
     <R> R executeOnEndPoint(ServiceEndPoint endPoint, ServiceCallback<S, R> callback)
             throws Exception {
+        return executeOnEndPoint(endPoint, callback, null);
+    }
+
+    /**
+     * Execute a callback on a specific end point as one of the attempts of a hedged request.
+     *
+     * @param attempt The hedged attempt, or {@code null} if the request isn't hedged.
+     */
+    private <R> R executeOnEndPoint(ServiceEndPoint endPoint, ServiceCallback<S, R> callback,
+                                    HedgedAttempt<R> attempt) throws Exception {
+        AdaptiveConcurrencyLimit concurrencyLimit = acquireConcurrencyLimit(endPoint);
+        EndPointStatistics statistics = getEndPointStatistics(endPoint);
+        requestStarted(statistics);
         ServiceHandle<S> handle = null;
+        long durationNanos = -1;
+        Exception failure = null;
 
         try {
             handle = _serviceCache.checkOut(endPoint);
 
             Timer.Context timer = _callbackExecutionTime.time();
+            R result;
             try {
-                return callback.call(handle.getService());
+                result = callback.call(handle.getService());
             } finally {
-                timer.stop();
+                durationNanos = timer.stop();
+                recordResponseTime(statistics, durationNanos);
             }
-        } catch (NoCachedInstancesAvailableException e) {
-            LOG.debug("Service cache exhausted. End point ID: {}", endPoint.getId(), e);
-            // Don't mark an end point as bad just because there are no cached end points for it.
+            attemptSucceeded(endPoint, statistics);
+            return result;
+        } catch (Exception e) {
+            if (attempt != null && attempt.isAbandoned()) {
+                // The other attempt of a hedged request won and this one was cancelled, which is likely the cause of
+                // the failure.  It says nothing about the health of the end point.
+                LOG.debug("Abandoned hedged attempt failed. End point ID: {}", endPoint.getId(), e);
+                durationNanos = -1;
+            } else {
+                attemptFailed(endPoint, e);
+            }
+            failure = e;
             throw e;
+        } finally {
+            checkIn(endPoint, handle);
+            requestFinished(statistics);
+            releaseConcurrencyLimit(concurrencyLimit, durationNanos, failure);
+        }
+    }
+
+    /**
+     * Execute an asynchronous callback on a specific end point.  The service instance stays checked out until the
+     * future returned by the callback completes.
+     * <p/>
+     * NOTE: This method is package private specifically so that {@link AsyncServicePool} can call it.
+     *
+     * @return A future for the result of the callback.  Cancelling it cancels the future returned by the callback.
+     */
+    <R> ListenableServiceFuture<R> executeOnEndPointAsync(final ServiceEndPoint endPoint,
+                                                          AsyncServiceCallback<S, R> callback) {
+        final SettableServiceFuture<R> result = new SettableServiceFuture<>();
+        final AdaptiveConcurrencyLimit concurrencyLimit;
+        try {
+            concurrencyLimit = acquireConcurrencyLimit(endPoint);
+        } catch (ConcurrencyLimitExceededException e) {
+            result.setException(e);
+            return result;
+        }
+        final EndPointStatistics statistics = getEndPointStatistics(endPoint);
+        requestStarted(statistics);
+
+        final ServiceHandle<S> handle;
+        final Timer.Context timer;
+        final ListenableServiceFuture<R> future;
+        try {
+            handle = _serviceCache.checkOut(endPoint);
+        } catch (Exception e) {
+            attemptFailed(endPoint, e);
+            requestFinished(statistics);
+            releaseConcurrencyLimit(concurrencyLimit, -1, e);
+            result.setException(e);
+            return result;
+        }
+        try {
+            timer = _callbackExecutionTime.time();
+            future = checkNotNull(callback.call(handle.getService()), "future");
         } catch (Exception e) {
-            if (_serviceFactory.isRetriableException(e)) {
-                // This is a known and supported exception indicating that something went wrong somewhere in the service
-                // layer while trying to communicate with the end point.  These errors are often transient, so we
-                // enqueue a health check for the end point and mark it as unavailable for the time being.
+            attemptFailed(endPoint, e);
+            checkIn(endPoint, handle);
+            requestFinished(statistics);
+            releaseConcurrencyLimit(concurrencyLimit, -1, e);
+            result.setException(e);
+            return result;
+        }
+
+        future.addListener(new Runnable() {
+            @Override
+            public void run() {
+                long durationNanos = timer.stop();
+                recordResponseTime(statistics, durationNanos);
+                checkIn(endPoint, handle);
+                requestFinished(statistics);
+
+                try {
+                    R value = Uninterruptibles.getUninterruptibly(future);
+                    releaseConcurrencyLimit(concurrencyLimit, durationNanos, null);
+                    attemptSucceeded(endPoint, statistics);
+                    result.set(value);
+                } catch (CancellationException e) {
+                    releaseConcurrencyLimit(concurrencyLimit, -1, null);
+                    result.cancel(false);
+                } catch (ExecutionException e) {
+                    Exception failure = (e.getCause() instanceof Exception) ? (Exception) e.getCause() : null;
+                    if (failure != null) {
+                        attemptFailed(endPoint, failure);
+                    }
+                    releaseConcurrencyLimit(concurrencyLimit, durationNanos, failure);
+                    result.setException(e.getCause());
+                }
+            }
+        }, MoreExecutors.sameThreadExecutor());
+
+        result.addListener(new Runnable() {
+            @Override
+            public void run() {
+                if (result.isCancelled()) {
+                    future.cancel(true);
+                }
+            }
+        }, MoreExecutors.sameThreadExecutor());
+
+        return result;
+    }
+
+    /**
+     * Reserve room for a request under the concurrency limit of an end point.
+     *
+     * @return The end point's concurrency limit, or {@code null} if requests aren't limited.
+     * @throws ConcurrencyLimitExceededException If the end point is already at its concurrency limit.
+     */
+    private AdaptiveConcurrencyLimit acquireConcurrencyLimit(ServiceEndPoint endPoint) {
+        if (_concurrencyLimitPolicy == null) {
+            return null;
+        }
+
+        AdaptiveConcurrencyLimit concurrencyLimit = getConcurrencyLimit(endPoint);
+        if (!concurrencyLimit.tryAcquire()) {
+            _numConcurrencyLimitRejections.mark();
+            throw new ConcurrencyLimitExceededException("Concurrency limit of " + concurrencyLimit.getLimit()
+                    + " reached. End point ID: " + endPoint.getId());
+        }
+        return concurrencyLimit;
+    }
+
+    /**
+     * Give back the room a request reserved under the concurrency limit of an end point, adjusting the limit by how
+     * the request went.
+     *
+     * @param durationNanos How long the end point took to respond, or {@code -1} if it never got the request or its
+     *                      response doesn't matter.
+     * @param failure       The exception the request failed with, or {@code null} if it succeeded.
+     */
+    private void releaseConcurrencyLimit(AdaptiveConcurrencyLimit concurrencyLimit, long durationNanos,
+                                         Exception failure) {
+        if (concurrencyLimit == null) {
+            return;
+        }
+
+        if (durationNanos < 0) {
+            concurrencyLimit.onIgnored();
+        } else if (failure != null && isRetriableException(failure)) {
+            concurrencyLimit.onDropped();
+        } else {
+            concurrencyLimit.onSuccess(durationNanos);
+        }
+    }
+
+    /**
+     * Record that an attempt to execute a callback on an end point failed, marking the end point as bad if the failure
+     * suggests that something is wrong with it.
+     */
+    private void attemptFailed(ServiceEndPoint endPoint, Exception e) {
+        if (e instanceof NoCachedInstancesAvailableException) {
+            LOG.debug("Service cache exhausted. End point ID: {}", endPoint.getId(), e);
+            // Don't mark an end point as bad just because there are no cached end points for it.
+        } else if (_serviceFactory.isRetriableException(e)) {
+            // This is a known and supported exception indicating that something went wrong somewhere in the service
+            // layer while trying to communicate with the end point.  These errors are often transient, so we
+            // enqueue a health check for the end point and mark it as unavailable for the time being.
+            if (_outlierDetectionPolicy == null) {
                 markEndPointAsBad(endPoint);
                 LOG.debug("Bad end point discovered. End point ID: {}", endPoint.getId(), e);
+            } else {
+                LOG.debug("End point failed. End point ID: {}", endPoint.getId(), e);
+                recordFailure(endPoint);
             }
+        } else if (_outlierDetectionPolicy != null) {
+            // The end point responded, it just didn't like the request.
+            attemptSucceeded(endPoint, getEndPointStatistics(endPoint));
+        }
+    }
+
+    /**
+     * Record that an attempt to execute a callback on an end point succeeded, fully readmitting the end point if it
+     * was half-open and has now succeeded enough times.
+     */
+    private void attemptSucceeded(ServiceEndPoint endPoint, EndPointStatistics statistics) {
+        if (_outlierDetectionPolicy == null) {
+            return;
+        }
+
+        statistics.recordSuccess();
+
+        AtomicInteger remainingSuccesses = _halfOpenEndPoints.get(endPoint);
+        if (remainingSuccesses != null && remainingSuccesses.decrementAndGet() <= 0
+                && _halfOpenEndPoints.remove(endPoint, remainingSuccesses)) {
+            LOG.debug("End point fully readmitted. End point ID: {}", endPoint.getId());
+        }
+    }
+
+    /**
+     * Record that an attempt to execute a callback on an end point failed with a retriable exception, ejecting the end
+     * point if it's now an outlier.
+     */
+    private void recordFailure(ServiceEndPoint endPoint) {
+        EndPointStatistics statistics = getEndPointStatistics(endPoint);
+        statistics.recordFailure();
+
+        if (_halfOpenEndPoints.containsKey(endPoint)) {
+            // The end point hasn't recovered after all.
+            ejectOutlier(endPoint, "failed while half-open");
+        } else if (statistics.getNumConsecutiveFailures() >= _outlierDetectionPolicy.getMaxConsecutiveFailures()) {
+            ejectOutlier(endPoint, "too many consecutive failures");
+        } else if (statistics.getNumOutcomes() >= _outlierDetectionPolicy.getMinRequestVolume()
+                && statistics.getErrorRate() >= _outlierDetectionPolicy.getMaxErrorRate()) {
+            ejectOutlier(endPoint, "error rate too high");
+        }
+    }
+
+    /**
+     * Mark an outlier end point as bad, unless too many end points have been ejected already.
+     */
+    private void ejectOutlier(ServiceEndPoint endPoint, String reason) {
+        if (_badEndPoints.containsKey(endPoint)) {
+            return;
+        }
+
+        int numEndPoints = getEndPointState().getNumEndPoints();
+        double maxEjectionRatio = _outlierDetectionPolicy.getMaxEjectionRatio();
+        int maxEjected = (maxEjectionRatio > 0) ? Math.max((int) (maxEjectionRatio * numEndPoints), 1) : 0;
+        if (_badEndPoints.size() >= maxEjected) {
+            LOG.debug("Not ejecting outlier end point, too many end points are ejected already. End point ID: {}, " +
+                    "reason: {}", endPoint.getId(), reason);
+            return;
+        }
+
+        LOG.debug("Ejecting outlier end point. End point ID: {}, reason: {}", endPoint.getId(), reason);
+        _numOutlierEjections.mark();
+        markEndPointAsBad(endPoint);
+    }
+
+    private void checkIn(ServiceEndPoint endPoint, ServiceHandle<S> handle) {
+        if (handle != null) {
+            try {
+                _serviceCache.checkIn(handle);
+            } catch (Exception e) {
+                // This should never happen, but log just in case.
+                LOG.warn("Error returning end point to cache. End point ID: {}, {}",
+                        endPoint.getId(), e.toString());
+                LOG.debug("Exception", e);
+            }
+        }
+    }
+
+    /**
+     * Execute a callback on an end point, sending a second, hedged attempt to a different end point if the first one is
+     * slow.  The result of whichever attempt succeeds first is returned and the other attempt is cancelled.  If both
+     * attempts fail, the exception of the one that failed last is thrown.
+     */
+    private <R> R executeHedged(ServiceEndPoint endPoint, EndPointSnapshot validEndPoints,
+                                PartitionContext partitionContext, ServiceCallback<S, R> callback) throws Exception {
+        _hedgeBudget.requestStarted();
+
+        CompletionService<R> completionService = new ExecutorCompletionService<>(_hedgeExecutor);
+        HedgedAttempt<R> primary = new HedgedAttempt<>(endPoint, callback);
+        primary.submitTo(completionService);
+        HedgedAttempt<R> hedge = null;
+
+        try {
+            Future<R> completed = completionService.poll(getHedgeDelayNanos(endPoint), TimeUnit.NANOSECONDS);
+            if (completed == null) {
+                ServiceEndPoint hedgeEndPoint = chooseHedgeEndPoint(endPoint, validEndPoints, partitionContext);
+                if (hedgeEndPoint != null && _hedgeBudget.tryAcquire()) {
+                    hedge = new HedgedAttempt<>(hedgeEndPoint, callback);
+                    hedge.submitTo(completionService);
+                    _numHedgedAttempts.mark();
+                }
+                completed = completionService.take();
+            }
+
+            try {
+                return getHedgedResult(completed, hedge);
+            } catch (Exception e) {
+                if (hedge == null) {
+                    throw e;
+                }
+                // The other attempt may still succeed.
+                return getHedgedResult(completionService.take(), hedge);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             throw e;
         } finally {
-            if (handle != null) {
-                try {
-                    _serviceCache.checkIn(handle);
-                } catch (Exception e) {
-                    // This should never happen, but log just in case.
-                    LOG.warn("Error returning end point to cache. End point ID: {}, {}",
-                            endPoint.getId(), e.toString());
-                    LOG.debug("Exception", e);
-                }
+            // Cancel whichever attempt lost.  Attempts that already completed are unaffected.
+            primary.abandon();
+            if (hedge != null) {
+                hedge.abandon();
+            }
+        }
+    }
+
+    private <R> R getHedgedResult(Future<R> completed, HedgedAttempt<R> hedge) throws Exception {
+        try {
+            R result = completed.get();
+            if (hedge != null && hedge.isFuture(completed)) {
+                _numHedgedAttemptWins.mark();
+            }
+            return result;
+        } catch (ExecutionException e) {
+            Throwables.propagateIfInstanceOf(e.getCause(), Exception.class);
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    /**
+     * Determine how long to wait for an attempt on an end point before hedging it.
+     */
+    private long getHedgeDelayNanos(ServiceEndPoint endPoint) {
+        double latencyPercentile = _hedgingPolicy.getLatencyPercentile();
+        if (latencyPercentile > 0) {
+            EndPointStatistics statistics = _endPointStatistics.get(endPoint);
+            long percentileNanos = (statistics != null)
+                    ? statistics.getResponseTimePercentile(latencyPercentile, _ticker.read())
+                    : -1;
+            if (percentileNanos >= 0) {
+                return percentileNanos;
             }
         }
+        return _hedgingPolicy.getHedgeDelay(TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Choose an end point other than the one a slow attempt is executing on, or {@code null} if there isn't one.  If
+     * the partition filter pins the request to a single end point then the request isn't hedged.
+     */
+    private ServiceEndPoint chooseHedgeEndPoint(ServiceEndPoint endPoint, EndPointSnapshot validEndPoints,
+                                                PartitionContext partitionContext) {
+        if (validEndPoints.size() < 2) {
+            return null;
+        }
+        for (int i = 0; i < MAX_HEDGE_END_POINT_CHOICES; i++) {
+            ServiceEndPoint hedgeEndPoint = chooseEndPoint(validEndPoints, partitionContext);
+            if (hedgeEndPoint == null) {
+                return null;
+            }
+            if (!hedgeEndPoint.equals(endPoint)) {
+                return hedgeEndPoint;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Count a callback as in flight, both against its end point and against the pool as a whole.
+     */
+    private void requestStarted(EndPointStatistics statistics) {
+        statistics.requestStarted();
+        _numOutstandingRequests.incrementAndGet();
+    }
+
+    private void requestFinished(EndPointStatistics statistics) {
+        statistics.requestFinished();
+        _numOutstandingRequests.decrementAndGet();
+    }
+
+    /**
+     * Record how long a callback took, in whichever of the response time statistics the pool uses.
+     */
+    private void recordResponseTime(EndPointStatistics statistics, long durationNanos) {
+        if (_averagesResponseTimes) {
+            statistics.recordResponseTime(durationNanos, _ticker.read());
+        }
+        if (_samplesResponseTimes) {
+            statistics.sampleResponseTime(durationNanos);
+        }
+    }
+
+    /**
+     * Find the statistics for an end point, creating them if this is the first time the end point has been used.
+     */
+    private EndPointStatistics getEndPointStatistics(ServiceEndPoint endPoint) {
+        EndPointStatistics statistics = _endPointStatistics.get(endPoint);
+        if (statistics != null) {
+            return statistics;
+        }
+
+        statistics = new EndPointStatistics();
+        if (_recentlyRemovedEndPoints.contains(endPoint)) {
+            // Don't track an end point that host discovery already removed, otherwise its entry would never go away.
+            return statistics;
+        }
+
+        EndPointStatistics existing = _endPointStatistics.putIfAbsent(endPoint, statistics);
+        return (existing != null) ? existing : statistics;
+    }
+
+    /**
+     * Find the concurrency limit for an end point, creating it if this is the first time the end point has been used.
+     */
+    private AdaptiveConcurrencyLimit getConcurrencyLimit(ServiceEndPoint endPoint) {
+        AdaptiveConcurrencyLimit concurrencyLimit = _concurrencyLimits.get(endPoint);
+        if (concurrencyLimit != null) {
+            return concurrencyLimit;
+        }
+
+        concurrencyLimit = new AdaptiveConcurrencyLimit(_concurrencyLimitPolicy);
+        if (_recentlyRemovedEndPoints.contains(endPoint)) {
+            // Don't track an end point that host discovery already removed, otherwise its entry would never go away.
+            return concurrencyLimit;
+        }
+
+        AdaptiveConcurrencyLimit existing = _concurrencyLimits.putIfAbsent(endPoint, concurrencyLimit);
+        return (existing != null) ? existing : concurrencyLimit;
     }
 
     /**
@@ -364,7 +1134,7 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
     }
 
     @VisibleForTesting
-    ServicePoolStatistics getServicePoolStatistics() {
+    ExtendedServicePoolStatistics getServicePoolStatistics() {
         return _servicePoolStatistics;
     }
 
@@ -373,23 +1143,37 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
         return ImmutableSet.copyOf(_badEndPoints.keySet());
     }
 
+    @VisibleForTesting
+    Set<ServiceEndPoint> getHalfOpenEndPoints() {
+        return ImmutableSet.copyOf(_halfOpenEndPoints.keySet());
+    }
+
+    /**
+     * @return The current concurrency limit of an end point, or {@code -1} if it isn't known.
+     */
+    @VisibleForTesting
+    int getEndPointConcurrencyLimit(ServiceEndPoint endPoint) {
+        AdaptiveConcurrencyLimit concurrencyLimit = _concurrencyLimits.get(endPoint);
+        return (concurrencyLimit != null) ? concurrencyLimit.getLimit() : -1;
+    }
+
     @Override
     public HealthCheckResults checkForHealthyEndPoint() {
         DefaultHealthCheckResults aggregate = new DefaultHealthCheckResults();
 
-        Iterable<ServiceEndPoint> allEndPoints = getAllEndPoints();
-        if (Iterables.isEmpty(allEndPoints)) {
+        EndPointState endPointState = getEndPointState();
+        if (endPointState.getNumEndPoints() == 0) {
             // There were no end points
             return aggregate;
         }
 
-        Iterable<ServiceEndPoint> validEndPoints = getValidEndPoints(allEndPoints);
-        if (Iterables.isEmpty(validEndPoints)) {
+        EndPointSnapshot validEndPoints = endPointState.getValidEndPoints();
+        if (validEndPoints.isEmpty()) {
             // There were no valid end points
             return aggregate;
         }
 
-        Set<ServiceEndPoint> endPoints = Sets.newHashSet(validEndPoints);
+        Set<ServiceEndPoint> endPoints = Sets.newHashSet(validEndPoints.asList());
         while (!endPoints.isEmpty()) {
             // Prefer end points in the order the load balancer recommends.
             ServiceEndPoint endPoint = chooseEndPoint(endPoints, PartitionContextBuilder.empty());
@@ -432,6 +1216,8 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
         _serviceCache.register(endPoint);
         _recentlyRemovedEndPoints.remove(endPoint);
         _badEndPoints.remove(endPoint);
+        _halfOpenEndPoints.remove(endPoint);
+        endPointsChanged();
         LOG.debug("End point added to service pool. End point ID: {}", endPoint.getId());
     }
 
@@ -444,6 +1230,10 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
         // end points ensures that this memory leak doesn't happen.
         _recentlyRemovedEndPoints.add(endPoint);
         _badEndPoints.remove(endPoint);
+        _halfOpenEndPoints.remove(endPoint);
+        _endPointStatistics.remove(endPoint);
+        _concurrencyLimits.remove(endPoint);
+        endPointsChanged();
         _serviceCache.evict(endPoint);
         LOG.debug("End point removed from service pool. End point ID: {}", endPoint.getId());
     }
@@ -455,10 +1245,12 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
         }
 
         _serviceCache.evict(endPoint);
+        _halfOpenEndPoints.remove(endPoint);
 
         // Only schedule a health check if this is the first time we've seen this end point as bad...
         HealthCheck healthCheck = new HealthCheck(endPoint);
         if (_badEndPoints.putIfAbsent(endPoint, healthCheck) == null) {
+            endPointsChanged();
             healthCheck.start();
         }
     }
@@ -479,13 +1271,77 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
             exception = e;
         }
 
-        final long duration = _ticker.read() - start;
+        final long end = _ticker.read();
+        final long duration = end - start;
         _healthCheckTime.update(duration, TimeUnit.NANOSECONDS);
+        if (isHealthy) {
+            // Give load balancers a rough idea of how responsive the end point is before any callbacks have run on it.
+            getEndPointStatistics(endPoint).seedResponseTime(duration, end);
+        }
         return isHealthy
                 ? new SuccessfulHealthCheckResult(endPoint.getId(), duration)
                 : new FailedHealthCheckResult(endPoint.getId(), duration, exception);
     }
 
+    /**
+     * Start sending traffic to an end point again after its health check passed.  With outlier detection the end point
+     * starts out half-open.
+     */
+    private void readmitEndPoint(ServiceEndPoint endPoint) {
+        if (_outlierDetectionPolicy == null) {
+            return;
+        }
+
+        // Failures from before the end point was ejected shouldn't count against it now that it's healthy again.
+        getEndPointStatistics(endPoint).resetOutcomes();
+
+        int halfOpenSuccesses = _outlierDetectionPolicy.getHalfOpenSuccesses();
+        if (halfOpenSuccesses > 0) {
+            _halfOpenEndPoints.put(endPoint, new AtomicInteger(halfOpenSuccesses));
+        }
+    }
+
+    /**
+     * Eject end points whose median response time is far above the median of all the end points.
+     */
+    @VisibleForTesting
+    void checkForLatencyOutliers() {
+        long now = _ticker.read();
+        List<ServiceEndPoint> endPoints = Lists.newArrayList();
+        List<Long> medians = Lists.newArrayList();
+        for (ServiceEndPoint endPoint : getEndPointState().getValidEndPoints().asList()) {
+            EndPointStatistics statistics = _endPointStatistics.get(endPoint);
+            long median = (statistics != null) ? statistics.getResponseTimePercentile(0.5, now) : -1;
+            if (median >= 0) {
+                endPoints.add(endPoint);
+                medians.add(median);
+            }
+        }
+        if (endPoints.size() < MIN_LATENCY_OUTLIER_END_POINTS) {
+            return;
+        }
+
+        List<Long> sortedMedians = Ordering.natural().sortedCopy(medians);
+        double maxMedian = sortedMedians.get(sortedMedians.size() / 2)
+                * _outlierDetectionPolicy.getLatencyOutlierFactor();
+        for (int i = 0; i < endPoints.size(); i++) {
+            if (medians.get(i) > maxMedian) {
+                ejectOutlier(endPoints.get(i), "response time too high");
+            }
+        }
+    }
+
+    private final class LatencyOutlierCheck implements Runnable {
+        @Override
+        public void run() {
+            try {
+                checkForLatencyOutliers();
+            } catch (Throwable t) {
+                LOG.warn("Error checking for latency outliers", t);
+            }
+        }
+    }
+
     @VisibleForTesting
     final class HealthCheckVerifier implements Runnable {
         @Override
@@ -576,7 +1432,10 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
 
                 if (result.isHealthy()) {
                     _serviceCache.register(_endPoint);
-                    _badEndPoints.remove(_endPoint, this);
+                    if (_badEndPoints.remove(_endPoint, this)) {
+                        readmitEndPoint(_endPoint);
+                        endPointsChanged();
+                    }
                     this.cancel(false);
                 } else {
                     long delayMillis = _healthCheckRetryDelay.getDelay(_count, result);
@@ -595,6 +1454,77 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
         }
     }
 
+    /**
+     * One of the attempts of a hedged request.
+     */
+    private final class HedgedAttempt<R> implements Callable<R> {
+        private final ServiceEndPoint _endPoint;
+        private final ServiceCallback<S, R> _callback;
+        private volatile boolean _abandoned;
+        private Future<R> _future;
+
+        HedgedAttempt(ServiceEndPoint endPoint, ServiceCallback<S, R> callback) {
+            _endPoint = endPoint;
+            _callback = callback;
+        }
+
+        void submitTo(CompletionService<R> completionService) {
+            _future = completionService.submit(this);
+        }
+
+        boolean isFuture(Future<R> future) {
+            return _future == future;
+        }
+
+        boolean isAbandoned() {
+            return _abandoned;
+        }
+
+        /**
+         * Cancel the attempt if it's still running.  Any failure caused by the cancellation is ignored.
+         */
+        void abandon() {
+            _abandoned = true;
+            _future.cancel(true);
+        }
+
+        @Override
+        public R call() throws Exception {
+            return executeOnEndPoint(_endPoint, _callback, this);
+        }
+    }
+
+    /**
+     * The end points known to the pool as of the last time they changed.
+     */
+    @VisibleForTesting
+    static final class EndPointState {
+        private final Iterable<ServiceEndPoint> _hosts;
+        private final int _numEndPoints;
+        private final EndPointSnapshot _validEndPoints;
+
+        EndPointState(Iterable<ServiceEndPoint> hosts, int numEndPoints, EndPointSnapshot validEndPoints) {
+            _hosts = hosts;
+            _numEndPoints = numEndPoints;
+            _validEndPoints = validEndPoints;
+        }
+
+        /** The collection host discovery returned when this state was built. */
+        Iterable<ServiceEndPoint> getHosts() {
+            return _hosts;
+        }
+
+        /** The number of end points host discovery knows about, including bad ones. */
+        int getNumEndPoints() {
+            return _numEndPoints;
+        }
+
+        /** The end points that aren't known (or suspected) to be bad. */
+        EndPointSnapshot getValidEndPoints() {
+            return _validEndPoints;
+        }
+    }
+
     private static final class SuccessfulHealthCheckResult implements HealthCheckResult {
         private final String _endPointId;
         private final long _responseTimeInNanos;
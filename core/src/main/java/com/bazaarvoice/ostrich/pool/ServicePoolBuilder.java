@@ -33,6 +33,7 @@ import static java.lang.String.format;
 
 public class ServicePoolBuilder<S> {
     private static final int DEFAULT_NUM_HEALTH_CHECK_THREADS = 1;
+    private static final int NUM_VIRTUAL_HEALTH_CHECK_THREADS = 16;
     private static final HealthCheckRetryDelay DEFAULT_HEALTH_CHECK_RETRY_POLICY = new ExponentialBackoffHealthCheckRetryDelay(100, 10_000, TimeUnit.MILLISECONDS);
 
     private final Class<S> _serviceType;
@@ -48,6 +49,12 @@ public class ServicePoolBuilder<S> {
     private MetricRegistry _metrics;
     private ExecutorService _asyncExecutor;
     private HealthCheckRetryDelay _healthCheckRetryDelay = DEFAULT_HEALTH_CHECK_RETRY_POLICY;
+    private HedgingPolicy _hedgingPolicy;
+    private ExecutorService _hedgeExecutor;
+    private boolean _useVirtualThreads;
+    private OutlierDetectionPolicy _outlierDetectionPolicy;
+    private ConcurrencyLimitPolicy _concurrencyLimitPolicy;
+    private RateLimitPolicy _rateLimitPolicy;
 
     public static <S> ServicePoolBuilder<S> create(Class<S> serviceType) {
         return new ServicePoolBuilder<>(serviceType);
@@ -153,6 +160,101 @@ public class ServicePoolBuilder<S> {
         return this;
     }
 
+    /**
+     * Enables hedging of slow requests in the built {@link ServicePool}.  Only enable hedging for services whose
+     * callbacks are safe to execute more than once, such as idempotent reads.
+     * <p/>
+     * Specifying a hedging policy is optional.  If one isn't specified then requests are never hedged.
+     *
+     * @param policy The {@code HedgingPolicy} to use
+     * @return this
+     */
+    public ServicePoolBuilder<S> withHedgingPolicy(HedgingPolicy policy) {
+        _hedgingPolicy = checkNotNull(policy);
+        return this;
+    }
+
+    /**
+     * Adds an {@code ExecutorService} instance to the builder for use in executing the attempts of hedged requests.
+     * The executor is not used unless a {@link #withHedgingPolicy hedging policy} is specified.
+     * <p/>
+     * Adding an executor is optional.  If one isn't specified then one will be created and used automatically when
+     * hedging is enabled.
+     *
+     * @param executor The {@code ExecutorService} to use
+     * @return this
+     */
+    public ServicePoolBuilder<S> withHedgeExecutor(ExecutorService executor) {
+        _hedgeExecutor = checkNotNull(executor);
+        return this;
+    }
+
+    /**
+     * Ejects end points from the built {@link ServicePool} only once they stand out from the rest of the pool, and
+     * readmits them gradually once they're healthy again.
+     * <p/>
+     * Specifying an outlier detection policy is optional.  If one isn't specified then an end point is ejected by the
+     * first retriable exception it throws and fully readmitted as soon as a health check passes.
+     *
+     * @param policy The {@code OutlierDetectionPolicy} to use
+     * @return this
+     */
+    public ServicePoolBuilder<S> withOutlierDetectionPolicy(OutlierDetectionPolicy policy) {
+        _outlierDetectionPolicy = checkNotNull(policy);
+        return this;
+    }
+
+    /**
+     * Limits the number of requests the built {@link ServicePool} has in flight to each end point, adapting each limit
+     * to how the end point's response times react to load.  Requests over an end point's limit are sent to another end
+     * point when possible and otherwise fail right away with a
+     * {@link com.bazaarvoice.ostrich.exceptions.ConcurrencyLimitExceededException}.
+     * <p/>
+     * Specifying a concurrency limit policy is optional.  If one isn't specified then requests are only limited by the
+     * {@link ServiceCachingPolicy}.
+     *
+     * @param policy The {@code ConcurrencyLimitPolicy} to use
+     * @return this
+     */
+    public ServicePoolBuilder<S> withConcurrencyLimitPolicy(ConcurrencyLimitPolicy policy) {
+        _concurrencyLimitPolicy = checkNotNull(policy);
+        return this;
+    }
+
+    /**
+     * Limits the rate at which the built {@link ServicePool} sends requests, for the pool as a whole and optionally per
+     * partition.  Requests over the limit wait for a permit, up to the policy's maximum wait, and otherwise fail with a
+     * {@link com.bazaarvoice.ostrich.exceptions.RateLimitExceededException}.
+     * <p/>
+     * Specifying a rate limit is optional.  If one isn't specified then the rate of requests isn't limited.
+     *
+     * @param policy The {@code RateLimitPolicy} to use
+     * @return this
+     */
+    public ServicePoolBuilder<S> withRateLimit(RateLimitPolicy policy) {
+        _rateLimitPolicy = checkNotNull(policy);
+        return this;
+    }
+
+    /**
+     * Runs callbacks and health checks on virtual threads when the runtime supports them (Java 21 and later).  This
+     * applies to the executors that the builder creates itself: the async executor used by {@link #buildAsync}, the
+     * health check executor and the hedge executor.  Executors passed to the builder are used as is.
+     * <p/>
+     * Virtual threads make it cheap to have many blocking callbacks in flight at once, for example the fan out of
+     * {@link com.bazaarvoice.ostrich.AsyncServicePool#executeOnAll}.  On older runtimes this setting is ignored and
+     * platform threads are used.
+     * <p/>
+     * Virtual threads are not used by default.
+     *
+     * @param useVirtualThreads Whether to use virtual threads when the runtime supports them.
+     * @return this
+     */
+    public ServicePoolBuilder<S> withVirtualThreads(boolean useVirtualThreads) {
+        _useVirtualThreads = useVirtualThreads;
+        return this;
+    }
+
     /**
      * Enables caching of service instances in the built {@link ServicePool}.
      * <p/>
@@ -247,7 +349,8 @@ public class ServicePoolBuilder<S> {
     }
 
     /**
-     * Builds a {@code com.bazaarvoice.ostrich.ServicePool}.
+     * Builds a {@code com.bazaarvoice.ostrich.ServicePool}.  It is a
+     * {@link com.bazaarvoice.ostrich.ExtendedServicePool}.
      *
      * @return The {@code com.bazaarvoice.ostrich.ServicePool} that was constructed.
      */
@@ -256,7 +359,8 @@ public class ServicePoolBuilder<S> {
     }
 
     /**
-     * Builds a {@code com.bazaarvoice.ostrich.AsyncServicePool}.
+     * Builds a {@code com.bazaarvoice.ostrich.AsyncServicePool}.  It is a
+     * {@link com.bazaarvoice.ostrich.ExtendedAsyncServicePool}.
      *
      * @return The {@code com.bazaarvoice.ostrich.AsyncServicePool} that was constructed.
      */
@@ -265,15 +369,15 @@ public class ServicePoolBuilder<S> {
 
         boolean shutdownAsyncExecutorOnClose = (_asyncExecutor == null);
         if (_asyncExecutor == null) {
-            ThreadFactory threadFactory = new ThreadFactoryBuilder()
-                    .setNameFormat(_serviceName + "-AsyncExecutorThread-%d")
-                    .setDaemon(true)
-                    .build();
-            _asyncExecutor = Executors.newCachedThreadPool(threadFactory);
+            _asyncExecutor = newCachedExecutor(_serviceName + "-AsyncExecutorThread-");
         }
 
+        // The retry scheduler only hands retries off to the async executor, so it never needs more than one thread.
+        ScheduledExecutorService retryScheduler = Executors.newScheduledThreadPool(1,
+                newPlatformThreadFactory(_serviceName + "-AsyncRetryThread-"));
+
         return new AsyncServicePool<>(Ticker.systemTicker(), pool, true, _asyncExecutor,
-                shutdownAsyncExecutorOnClose, _metrics);
+                shutdownAsyncExecutorOnClose, retryScheduler, true, _metrics);
     }
 
     /**
@@ -282,13 +386,39 @@ public class ServicePoolBuilder<S> {
      * <p/>
      * It is the caller's responsibility to shutdown the service pool when they're done with it by casting the proxy
      * to {@link java.io.Closeable} and calling the {@link java.io.Closeable#close()} method.
+     * <p/>
+     * Responses of methods annotated with {@link com.bazaarvoice.ostrich.Cacheable} are cached by the proxy, and
+     * concurrent calls of methods annotated with {@link com.bazaarvoice.ostrich.Idempotent} are coalesced.
      *
      * @param retryPolicy The retry policy to apply for every service call.
      * @return The dynamic proxy instance that implements the service interface {@code S} and the
      *         {@link java.io.Closeable} interface.
      */
     public S buildProxy(RetryPolicy retryPolicy) {
-        return ServicePoolProxy.create(_serviceType, retryPolicy, build(), _partitionContextSupplier, true);
+        checkNotNull(_metrics);
+
+        ResponseCache responseCache = null;
+        if (ResponseCache.isCacheable(_serviceType)) {
+            responseCache = new ResponseCache(_serviceType, _serviceName, Ticker.systemTicker(),
+                    newCachedExecutor(_serviceName + "-CacheRefreshThread-"), _metrics);
+        }
+
+        ServicePool<S> pool;
+        try {
+            pool = buildInternal();
+        } catch (Throwable t) {
+            if (responseCache != null) {
+                responseCache.close();
+            }
+            throw Throwables.propagate(t);
+        }
+
+        // The pool owns the cache, so that it's closed however the pool is, e.g. by ServicePoolProxies.close.
+        if (responseCache != null) {
+            pool.closeWithPool(responseCache);
+        }
+        return ServicePoolProxy.create(_serviceType, retryPolicy, pool, _partitionContextSupplier, true,
+                responseCache);
     }
 
     @VisibleForTesting
@@ -299,6 +429,7 @@ public class ServicePoolBuilder<S> {
         HostDiscovery hostDiscovery = findHostDiscovery(_serviceName);
 
         boolean shutdownHealthCheckExecutorOnClose = (_healthCheckExecutor == null);
+        boolean shutdownHedgeExecutorOnClose = (_hedgeExecutor == null);
 
         try {
             if (_cachingPolicy == null) {
@@ -306,16 +437,25 @@ public class ServicePoolBuilder<S> {
             }
 
             if (_healthCheckExecutor == null) {
-                _healthCheckExecutor = Executors.newScheduledThreadPool(DEFAULT_NUM_HEALTH_CHECK_THREADS,
-                        new ThreadFactoryBuilder()
-                                .setNameFormat(_serviceName + "-HealthCheckThread-%d")
-                                .setDaemon(true)
-                                .build());
+                String namePrefix = _serviceName + "-HealthCheckThread-";
+                // A scheduled executor has a fixed number of threads.  Virtual threads are cheap enough that several
+                // can be kept around so that one slow health check doesn't hold up the others.
+                _healthCheckExecutor = useVirtualThreads()
+                        ? Executors.newScheduledThreadPool(NUM_VIRTUAL_HEALTH_CHECK_THREADS,
+                                VirtualThreads.newThreadFactory(namePrefix))
+                        : Executors.newScheduledThreadPool(DEFAULT_NUM_HEALTH_CHECK_THREADS,
+                                newPlatformThreadFactory(namePrefix));
+            }
+
+            if (_hedgingPolicy != null && _hedgeExecutor == null) {
+                _hedgeExecutor = newCachedExecutor(_serviceName + "-HedgeThread-");
             }
 
             ServicePool<S> servicePool = new ServicePool<>(Ticker.systemTicker(), hostDiscovery, _closeHostDiscovery,
                     _serviceFactory, _cachingPolicy, _partitionFilter, _loadBalanceAlgorithm, _healthCheckExecutor,
-                    shutdownHealthCheckExecutorOnClose, _healthCheckRetryDelay, _metrics);
+                    shutdownHealthCheckExecutorOnClose, _healthCheckRetryDelay, _hedgingPolicy, _hedgeExecutor,
+                    shutdownHedgeExecutorOnClose, _outlierDetectionPolicy, _concurrencyLimitPolicy,
+                    _rateLimitPolicy, _metrics);
 
             _closeHostDiscovery = false;
 
@@ -326,6 +466,11 @@ public class ServicePoolBuilder<S> {
                 _healthCheckExecutor = null;
             }
 
+            if (shutdownHedgeExecutorOnClose && _hedgeExecutor != null) {
+                _hedgeExecutor.shutdownNow();
+                _hedgeExecutor = null;
+            }
+
             try {
                 if (_closeHostDiscovery) {
                     hostDiscovery.close();
@@ -340,6 +485,28 @@ public class ServicePoolBuilder<S> {
         }
     }
 
+    @VisibleForTesting
+    boolean useVirtualThreads() {
+        return _useVirtualThreads && VirtualThreads.isSupported();
+    }
+
+    /**
+     * Creates an executor for blocking tasks that runs each on a new virtual thread if enabled, and otherwise on a
+     * cached pool of platform threads.
+     */
+    private ExecutorService newCachedExecutor(String namePrefix) {
+        return useVirtualThreads()
+                ? VirtualThreads.newThreadPerTaskExecutor(namePrefix)
+                : Executors.newCachedThreadPool(newPlatformThreadFactory(namePrefix));
+    }
+
+    private static ThreadFactory newPlatformThreadFactory(String namePrefix) {
+        return new ThreadFactoryBuilder()
+                .setNameFormat(namePrefix + "%d")
+                .setDaemon(true)
+                .build();
+    }
+
     private HostDiscovery findHostDiscovery(String serviceName) {
         for (HostDiscoverySource source : _hostDiscoverySources) {
             HostDiscovery hostDiscovery = source.forService(serviceName);
@@ -1,17 +1,23 @@
 package com.bazaarvoice.ostrich.pool;
 
+import com.bazaarvoice.ostrich.ExtendedServicePool;
+import com.bazaarvoice.ostrich.Idempotent;
 import com.bazaarvoice.ostrich.PartitionContext;
 import com.bazaarvoice.ostrich.RetryPolicy;
 import com.bazaarvoice.ostrich.ServiceCallback;
 import com.bazaarvoice.ostrich.ServicePool;
 import com.bazaarvoice.ostrich.exceptions.ServiceException;
 import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import com.google.common.reflect.AbstractInvocationHandler;
 
 import java.io.Closeable;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
+import java.util.Set;
+import java.util.concurrent.Callable;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
@@ -22,21 +28,40 @@ class ServicePoolProxy<S> extends AbstractInvocationHandler {
     private final ServicePool<S> _servicePool;
     private final PartitionContextSupplier _partitionContextSupplier;
     private final boolean _shutdownPoolOnClose;
+    private final Set<Method> _idempotentMethods;
+    private final ResponseCache _responseCache;
 
     static <S> S create(Class<S> serviceType, RetryPolicy retryPolicy, ServicePool<S> pool,
                         PartitionContextSupplier partitionContextSupplier, boolean shutdownPoolOnClose) {
+        return create(serviceType, retryPolicy, pool, partitionContextSupplier, shutdownPoolOnClose, null);
+    }
+
+    static <S> S create(Class<S> serviceType, RetryPolicy retryPolicy, ServicePool<S> pool,
+                        PartitionContextSupplier partitionContextSupplier, boolean shutdownPoolOnClose,
+                        ResponseCache responseCache) {
         ClassLoader loader = Thread.currentThread().getContextClassLoader();
         Class<?>[] interfaces = shutdownPoolOnClose
                 ? new Class<?>[] {serviceType, Closeable.class}
                 : new Class<?>[] {serviceType};
 
         ServicePoolProxy<S> proxy = new ServicePoolProxy<S>(
-                serviceType, retryPolicy, pool, partitionContextSupplier, shutdownPoolOnClose);
+                serviceType, retryPolicy, pool, partitionContextSupplier, shutdownPoolOnClose, responseCache);
         return serviceType.cast(Proxy.newProxyInstance(loader, interfaces, proxy));
     }
 
     ServicePoolProxy(Class<S> serviceType, RetryPolicy retryPolicy, ServicePool<S> servicePool,
                      PartitionContextSupplier partitionContextSupplier, boolean shutdownPoolOnClose) {
+        this(serviceType, retryPolicy, servicePool, partitionContextSupplier, shutdownPoolOnClose, null);
+    }
+
+    /**
+     * @param responseCache Caches the responses of {@link com.bazaarvoice.ostrich.Cacheable} methods, or
+     *                      {@code null} to always call the service.  The proxy doesn't close it, so it should be
+     *                      closed along with the pool.
+     */
+    ServicePoolProxy(Class<S> serviceType, RetryPolicy retryPolicy, ServicePool<S> servicePool,
+                     PartitionContextSupplier partitionContextSupplier, boolean shutdownPoolOnClose,
+                     ResponseCache responseCache) {
         checkState(serviceType.isInterface(), "Proxy functionality is only available for interface service types.");
 
         _serviceType = checkNotNull(serviceType);
@@ -44,6 +69,15 @@ class ServicePoolProxy<S> extends AbstractInvocationHandler {
         _servicePool = checkNotNull(servicePool);
         _partitionContextSupplier = checkNotNull(partitionContextSupplier);
         _shutdownPoolOnClose = shutdownPoolOnClose;
+        _responseCache = responseCache;
+
+        ImmutableSet.Builder<Method> idempotentMethods = ImmutableSet.builder();
+        for (Method method : serviceType.getMethods()) {
+            if (method.isAnnotationPresent(Idempotent.class)) {
+                idempotentMethods.add(method);
+            }
+        }
+        _idempotentMethods = idempotentMethods.build();
     }
 
     /**
@@ -61,10 +95,22 @@ class ServicePoolProxy<S> extends AbstractInvocationHandler {
             return null;
         }
 
+        if (_responseCache != null && _responseCache.isCacheable(method)) {
+            return _responseCache.get(method, args, new Callable<Object>() {
+                @Override
+                public Object call() {
+                    return invoke(method, args);
+                }
+            });
+        }
+        return invoke(method, args);
+    }
+
+    private Object invoke(final Method method, final Object[] args) {
         PartitionContext partitionContext = _partitionContextSupplier.forCall(method, args);
 
         // Delegate the method through to a service provider in the pool.
-        return _servicePool.execute(partitionContext, _retryPolicy, new ServiceCallback<S, Object>() {
+        ServiceCallback<S, Object> callback = new ServiceCallback<S, Object>() {
             @Override
             public Object call(S service) throws ServiceException {
                 try {
@@ -75,7 +121,14 @@ class ServicePoolProxy<S> extends AbstractInvocationHandler {
                     throw Throwables.propagate(e.getTargetException());
                 }
             }
-        });
+        };
+
+        // Concurrent calls of an idempotent method with equal arguments can share a single execution.
+        if (_idempotentMethods.contains(method) && _servicePool instanceof ExtendedServicePool) {
+            return ((ExtendedServicePool<S>) _servicePool).executeCoalesced(partitionContext,
+                    Lists.asList(method, args), _retryPolicy, callback);
+        }
+        return _servicePool.execute(partitionContext, _retryPolicy, callback);
     }
 
     @Override
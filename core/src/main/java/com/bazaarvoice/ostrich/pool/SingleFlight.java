@@ -0,0 +1,61 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.codahale.metrics.Meter;
+import com.google.common.base.Supplier;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Lets concurrent callers with equal keys share a single execution.  The first caller executes and the others wait
+ * for its outcome.  The key is forgotten as soon as the execution completes, so nothing is cached beyond the callers
+ * that overlapped with it.
+ */
+class SingleFlight {
+    private final ConcurrentMap<Object, SettableFuture<Object>> _inFlight = Maps.newConcurrentMap();
+    private final Meter _numJoinedExecutions;
+
+    /**
+     * @param numJoinedExecutions Marked for each caller that shares another caller's execution.
+     */
+    SingleFlight(Meter numJoinedExecutions) {
+        _numJoinedExecutions = checkNotNull(numJoinedExecutions);
+    }
+
+    @SuppressWarnings("unchecked")
+    <R> R execute(Object key, Supplier<R> supplier) {
+        checkNotNull(key);
+
+        SettableFuture<Object> execution = SettableFuture.create();
+        SettableFuture<Object> existing = _inFlight.putIfAbsent(key, execution);
+        if (existing != null) {
+            _numJoinedExecutions.mark();
+            try {
+                return (R) Uninterruptibles.getUninterruptibly(existing);
+            } catch (ExecutionException e) {
+                throw Throwables.propagate(e.getCause());
+            }
+        }
+
+        try {
+            R result = supplier.get();
+            execution.set(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            execution.setException(e);
+            throw e;
+        } finally {
+            _inFlight.remove(key, execution);
+        }
+    }
+
+    int getNumInFlight() {
+        return _inFlight.size();
+    }
+}
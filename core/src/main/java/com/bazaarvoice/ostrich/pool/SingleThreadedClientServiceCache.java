@@ -4,30 +4,66 @@ import com.bazaarvoice.ostrich.ServiceEndPoint;
 import com.bazaarvoice.ostrich.ServiceFactory;
 import com.bazaarvoice.ostrich.exceptions.NoCachedInstancesAvailableException;
 import com.bazaarvoice.ostrich.metrics.Metrics;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.RatioGauge;
 import com.codahale.metrics.Timer;
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.collect.MapMaker;
-import org.apache.commons.pool.BaseKeyedPoolableObjectFactory;
-import org.apache.commons.pool.impl.GenericKeyedObjectPool;
+import com.google.common.base.Ticker;
+import com.google.common.collect.Maps;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Map;
-import java.util.NoSuchElementException;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.bazaarvoice.ostrich.pool.ServiceCacheBuilder.buildDefaultExecutor;
+import static com.bazaarvoice.ostrich.pool.ServiceCachingPolicyBuilder.toExtendedPolicy;
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
 
 /**
  * A cache for service instances. Useful if there's more than insignificant overhead in creating service connections
  * from a {@link com.bazaarvoice.ostrich.ServiceEndPoint}.  Will spawn one thread (shared by all
- * {@link com.bazaarvoice.ostrich.pool.ServiceCache}s) to handle evictions of
+ * {@link com.bazaarvoice.ostrich.pool.ServiceCache}s) to handle evictions of idle service instances.
+ * <p/>
+ * Each end point has its own lock-free stack of idle service instances, so checking instances out and in for
+ * different end points never contends, and for the same end point only contends on a compare-and-set.  The most
+ * recently used instance is checked out first, which lets instances that are no longer needed go idle long enough to
+ * be evicted.  Only checkouts that have to wait for an instance under {@link ServiceCachingPolicy.ExhaustionAction#WAIT}
+ * take a lock.
+ * <p/>
+ * When the policy asks for thread affinity, each thread remembers the instance it last checked in and claims it straight
+ * back on its next checkout for the same end point, without going through the stack.  The instance stays on the stack
+ * while it's idle, so other threads can still take it when they need it.  Threads only hold a weak reference to the
+ * instance, and forget it as soon as it can't be claimed, so destroyed instances aren't kept alive.  Virtual threads
+ * don't remember instances, since they're usually only used for a single task.
+ * <p/>
+ * When the policy asks for a minimum number of idle instances per end point, instances are created on the eviction
+ * executor when an end point is registered, and again whenever instances of the end point are recycled or fail
+ * validation, so that checkouts rarely have to create them.  Prewarming stays within the limits on instances, counting
+ * both active and idle ones.  Instances that have been idle for too long, or that adaptive sizing no longer has room
+ * for, are only destroyed down to the minimum, newest first to be kept, and aren't replaced.
+ * <p/>
+ * Instances that have lived for as long as the policy allows are destroyed when they're checked in, or while they're
+ * idle.  When the service factory can validate instances, idle instances are also validated on the eviction executor,
+ * and the ones that fail are destroyed, so that checkouts don't have to find out the hard way.
+ * <p/>
+ * When the policy asks for adaptive sizing, each end point has its own limit on instances and its own idle time before
+ * eviction, which the eviction executor adjusts every so often within the policy's bounds.  The limit grows when
+ * checkouts find the end point at its limit, and otherwise shrinks gradually towards the most instances the end point
+ * has had in use at once, plus some headroom.  The idle time doubles when idle instances are evicted only to be
+ * created again, and otherwise shrinks gradually while instances sit idle without being evicted.
  */
 class SingleThreadedClientServiceCache<S> implements ServiceCache<S> {
     private static final Logger LOG = LoggerFactory.getLogger(SingleThreadedClientServiceCache.class);
@@ -36,18 +72,45 @@ class SingleThreadedClientServiceCache<S> implements ServiceCache<S> {
     @VisibleForTesting
     static final long EVICTION_DURATION_IN_SECONDS = 300;
 
-    private final GenericKeyedObjectPool<ServiceEndPoint, S> _pool;
-    private final AtomicLong _revisionNumber = new AtomicLong();
-    private final Map<ServiceEndPoint, Long> _invalidRevisions = new MapMaker().weakKeys().makeMap();
-    private final Map<ServiceHandle<S>, Long> _checkedOutRevisions = new MapMaker().makeMap();
+    /** How often to adjust the sizes of end points, and evict old service instances, under adaptive sizing. */
+    @VisibleForTesting
+    static final long ADAPTIVE_SIZING_DURATION_IN_SECONDS = 30;
+
+    private final ServiceFactory<S> _serviceFactory;
+    private final Ticker _ticker;
+    private final int _maxNumServiceInstances;
+    private final int _maxNumServiceInstancesPerEndPoint;
+    private final long _maxServiceInstanceIdleTimeNanos;
+    private final int _minNumIdleServiceInstancesPerEndPoint;
+    private final boolean _isAdaptive;
+    private final int _adaptiveMinNumServiceInstancesPerEndPoint;
+    private final long _adaptiveMinServiceInstanceIdleTimeNanos;
+    private final long _maxServiceInstanceLifetimeNanos;
+    // Zero if instances aren't validated, including when the service factory can't validate them.
+    private final long _serviceInstanceValidationIntervalNanos;
+    private final ServiceCachingPolicy.ExhaustionAction _exhaustionAction;
+    private final ThreadLocal<WeakReference<PooledServiceHandle<S>>> _affineHandle;
+    private final ConcurrentMap<ServiceEndPoint, EndPointInstances> _endPoints = Maps.newConcurrentMap();
+    private final AtomicInteger _numInstances = new AtomicInteger();
+    private final ScheduledExecutorService _executor;
     private final Future<?> _evictionFuture;
+    private final Future<?> _validationFuture;
     private volatile boolean _isClosed = false;
+
+    // Checkouts waiting for an instance under the WAIT exhaustion action wait on this.
+    private final Object _waitLock = new Object();
+    private final AtomicInteger _numWaiters = new AtomicInteger();
+
     private final Metrics.InstanceMetrics _metrics;
     private final Timer _loadTimer;
-    private final AtomicLong _requestCount = new AtomicLong();
-    private final AtomicLong _missCount = new AtomicLong();
-    private final AtomicLong _loadSuccessCount = new AtomicLong();
-    private final AtomicLong _loadFailureCount = new AtomicLong();
+    private final Timer _waitTimer;
+    private final Meter _numRecycledInstances;
+    private final Meter _numInvalidInstances;
+    // Striped counters, since these are updated by every checkout.
+    private final Counter _requestCount = new Counter();
+    private final Counter _missCount = new Counter();
+    private final Counter _loadSuccessCount = new Counter();
+    private final Counter _loadFailureCount = new Counter();
 
     /**
      * Builds a basic service cache.
@@ -70,70 +133,83 @@ class SingleThreadedClientServiceCache<S> implements ServiceCache<S> {
     @VisibleForTesting
     SingleThreadedClientServiceCache(ServiceCachingPolicy policy, ServiceFactory<S> serviceFactory, ScheduledExecutorService executor,
                                      MetricRegistry metrics) {
+        this(policy, serviceFactory, executor, Ticker.systemTicker(), metrics);
+    }
+
+    @VisibleForTesting
+    SingleThreadedClientServiceCache(ServiceCachingPolicy policy, ServiceFactory<S> serviceFactory, ScheduledExecutorService executor,
+                                     Ticker ticker, MetricRegistry metrics) {
         checkNotNull(policy);
         checkNotNull(serviceFactory);
         checkNotNull(executor);
+        ExtendedServiceCachingPolicy extendedPolicy = toExtendedPolicy(policy);
+
+        _serviceFactory = serviceFactory;
+        _ticker = checkNotNull(ticker);
+        _maxNumServiceInstances = policy.getMaxNumServiceInstances();
+        _maxNumServiceInstancesPerEndPoint = policy.getMaxNumServiceInstancesPerEndPoint();
+        _maxServiceInstanceIdleTimeNanos = policy.getMaxServiceInstanceIdleTime(TimeUnit.NANOSECONDS);
+        _minNumIdleServiceInstancesPerEndPoint = extendedPolicy.getMinNumIdleServiceInstancesPerEndPoint();
+        _isAdaptive = extendedPolicy.useAdaptiveSizing();
+        _adaptiveMinNumServiceInstancesPerEndPoint = extendedPolicy.getAdaptiveMinNumServiceInstancesPerEndPoint();
+        _adaptiveMinServiceInstanceIdleTimeNanos =
+                extendedPolicy.getAdaptiveMinServiceInstanceIdleTime(TimeUnit.NANOSECONDS);
+        checkArgument(!_isAdaptive || (_adaptiveMinNumServiceInstancesPerEndPoint > 0
+                && _adaptiveMinNumServiceInstancesPerEndPoint >= _minNumIdleServiceInstancesPerEndPoint
+                && _adaptiveMinNumServiceInstancesPerEndPoint <= _maxNumServiceInstancesPerEndPoint));
+        checkArgument(!_isAdaptive || (_adaptiveMinServiceInstanceIdleTimeNanos > 0
+                && _adaptiveMinServiceInstanceIdleTimeNanos <= _maxServiceInstanceIdleTimeNanos));
+        _maxServiceInstanceLifetimeNanos = extendedPolicy.getMaxServiceInstanceLifetime(TimeUnit.NANOSECONDS);
+        long validationIntervalNanos = extendedPolicy.getServiceInstanceValidationInterval(TimeUnit.NANOSECONDS);
+        _serviceInstanceValidationIntervalNanos =
+                ServiceInstanceRecycling.canValidate(serviceFactory, validationIntervalNanos)
+                        ? validationIntervalNanos
+                        : 0;
+        _exhaustionAction = checkNotNull(policy.getCacheExhaustionAction());
+        _executor = executor;
+        _affineHandle = extendedPolicy.useThreadAffinity() ? new ThreadLocal<WeakReference<PooledServiceHandle<S>>>() : null;
 
         String serviceName = serviceFactory.getServiceName();
         _metrics = Metrics.forInstance(metrics, this, serviceName);
         _loadTimer = _metrics.timer("load-time");
+        _waitTimer = _metrics.timer("checkout-wait-time");
+        _numRecycledInstances = _metrics.meter("num-recycled-instances");
+        _numInvalidInstances = _metrics.meter("num-invalid-instances");
 
         _metrics.gauge("cache-hit-ratio", new RatioGauge() {
             @Override
             protected Ratio getRatio() {
-                return Ratio.of(_requestCount.get() - _missCount.get(), _requestCount.get());
+                return Ratio.of(_requestCount.getCount() - _missCount.getCount(), _requestCount.getCount());
             }
         });
 
         _metrics.gauge("cache-miss-ratio", new RatioGauge() {
             @Override
             protected Ratio getRatio() {
-                return Ratio.of(_missCount.get(), _requestCount.get());
+                return Ratio.of(_missCount.getCount(), _requestCount.getCount());
             }
         });
 
         _metrics.gauge("load-success-ratio", new RatioGauge() {
             @Override
             protected Ratio getRatio() {
-                return Ratio.of(_loadSuccessCount.get(), _loadSuccessCount.get() + _loadFailureCount.get());
+                return Ratio.of(_loadSuccessCount.getCount(),
+                        _loadSuccessCount.getCount() + _loadFailureCount.getCount());
             }
         });
         _metrics.gauge("load-failure-ratio", new RatioGauge() {
             @Override
             protected Ratio getRatio() {
-                return Ratio.of(_loadFailureCount.get(), _loadSuccessCount.get() + _loadFailureCount.get());
+                return Ratio.of(_loadFailureCount.getCount(),
+                        _loadSuccessCount.getCount() + _loadFailureCount.getCount());
             }
         });
 
-        GenericKeyedObjectPool.Config poolConfig = new GenericKeyedObjectPool.Config();
-
-        // Global configuration
-        poolConfig.maxTotal = policy.getMaxNumServiceInstances();
-        poolConfig.numTestsPerEvictionRun = policy.getMaxNumServiceInstances();
-        poolConfig.minEvictableIdleTimeMillis = policy.getMaxServiceInstanceIdleTime(TimeUnit.MILLISECONDS);
-
-        switch (policy.getCacheExhaustionAction()) {
-            case FAIL:
-                poolConfig.whenExhaustedAction = GenericKeyedObjectPool.WHEN_EXHAUSTED_FAIL;
-                break;
-            case GROW:
-                poolConfig.whenExhaustedAction = GenericKeyedObjectPool.WHEN_EXHAUSTED_GROW;
-                break;
-            case WAIT:
-                poolConfig.whenExhaustedAction = GenericKeyedObjectPool.WHEN_EXHAUSTED_BLOCK;
-                break;
-        }
-
-        // Per end point configuration
-        poolConfig.maxActive = policy.getMaxNumServiceInstancesPerEndPoint();
-        poolConfig.maxIdle = policy.getMaxNumServiceInstancesPerEndPoint();
-
-        // Make sure all instances in the pool are checked for staleness during eviction runs.
-        poolConfig.numTestsPerEvictionRun = policy.getMaxNumServiceInstances();
-
-        _pool = new GenericKeyedObjectPool<>(new PoolServiceFactory<>(serviceFactory), poolConfig);
-
-        // Don't schedule eviction if not caching or not expiring stale instances.
+        // Don't schedule eviction if not caching or not expiring stale instances.  Under adaptive sizing, sizes are
+        // adjusted just before evicting, so that evictions are counted against the next adjustment.
+        long evictionDurationInSeconds = _isAdaptive
+                ? ADAPTIVE_SIZING_DURATION_IN_SECONDS
+                : EVICTION_DURATION_IN_SECONDS;
         _evictionFuture = (policy.getMaxNumServiceInstances() != 0)
                 || (policy.getMaxNumServiceInstancesPerEndPoint() != 0)
                 || (policy.getMaxServiceInstanceIdleTime(TimeUnit.MILLISECONDS) > 0)
@@ -141,19 +217,30 @@ class SingleThreadedClientServiceCache<S> implements ServiceCache<S> {
                       @Override
                       public void run() {
                           try {
-                              _pool.evict();
+                              adjustSizes();
+                              evictIdleInstances();
                           } catch (Exception e) {
                               // Should never happen, but log just in case. Swallow exception so thread doesn't die.
                               LOG.error("ServiceCache eviction run failed.", e);
                           }
                       }
-                  }, EVICTION_DURATION_IN_SECONDS, EVICTION_DURATION_IN_SECONDS, TimeUnit.SECONDS)
+                  }, evictionDurationInSeconds, evictionDurationInSeconds, TimeUnit.SECONDS)
                 : null;
-    }
 
-    @VisibleForTesting
-    GenericKeyedObjectPool<ServiceEndPoint, S> getPool() {
-        return _pool;
+        _validationFuture = (_serviceInstanceValidationIntervalNanos > 0)
+                ? executor.scheduleWithFixedDelay(new Runnable() {
+                      @Override
+                      public void run() {
+                          try {
+                              validateIdleInstances();
+                          } catch (Exception e) {
+                              // Should never happen, but log just in case. Swallow exception so thread doesn't die.
+                              LOG.error("ServiceCache validation run failed.", e);
+                          }
+                      }
+                  }, _serviceInstanceValidationIntervalNanos, _serviceInstanceValidationIntervalNanos,
+                        TimeUnit.NANOSECONDS)
+                : null;
     }
 
     /**
@@ -168,23 +255,49 @@ class SingleThreadedClientServiceCache<S> implements ServiceCache<S> {
      */
     public ServiceHandle<S> checkOut(ServiceEndPoint endPoint) throws Exception {
         checkNotNull(endPoint);
-        _requestCount.incrementAndGet();
-
-        try {
-            long revision = _revisionNumber.incrementAndGet();
-            S service = _pool.borrowObject(endPoint);
-            ServiceHandle<S> handle = new ServiceHandle<>(service, endPoint);
+        checkState(!_isClosed, "Cache is closed");
+        _requestCount.inc();
 
-            // Remember the revision that we've checked this service out on in case we need to invalidate it later
-            _checkedOutRevisions.put(handle, revision);
+        while (true) {
+            // Look the end point up each time around, in case it was evicted while waiting.
+            EndPointInstances instances = getEndPointInstances(endPoint);
 
-            return handle;
-        } catch (NoSuchElementException e) {
-            _missCount.incrementAndGet();
+            // Count the instance as active before looking for an idle one, so that nobody else sees room for another
+            // instance while this one is on its way out of the stack.
+            if (instances.reserveActive()) {
+                PooledServiceHandle<S> handle = claimAffineHandle(instances);
+                if (handle == null) {
+                    handle = instances.pollIdle();
+                }
+                if (handle != null) {
+                    return handle;
+                }
+                if (tryReserveInstance()) {
+                    return create(instances);
+                }
+            }
+            instances.releaseActive();
+            instances.recordExhausted();
+            signalWaiters();
 
-            // This will happen if there are no available connections and there is no room for a new one,
-            // or if a newly created connection is not valid.
-            throw new NoCachedInstancesAvailableException();
+            switch (_exhaustionAction) {
+                case FAIL:
+                    _missCount.inc();
+                    throw new NoCachedInstancesAvailableException();
+                case GROW:
+                    // Temporarily hold more instances than the limits allow.  They're destroyed on check in if there
+                    // isn't room for them.
+                    instances.forceReserveActive();
+                    PooledServiceHandle<S> handle = instances.pollIdle();
+                    if (handle != null) {
+                        return handle;
+                    }
+                    _numInstances.incrementAndGet();
+                    return create(instances);
+                case WAIT:
+                    awaitCapacity(instances);
+                    break;
+            }
         }
     }
 
@@ -197,32 +310,50 @@ class SingleThreadedClientServiceCache<S> implements ServiceCache<S> {
     @Override
     public void checkIn(ServiceHandle<S> handle) throws Exception {
         checkNotNull(handle);
+        checkArgument(handle instanceof PooledServiceHandle, "Service handle was not checked out of this cache");
 
-        S service = handle.getService();
-        ServiceEndPoint endPoint = handle.getEndPoint();
+        @SuppressWarnings("unchecked") PooledServiceHandle<S> pooledHandle = (PooledServiceHandle<S>) handle;
+        EndPointInstances instances = pooledHandle.getEndPointInstances();
+        long now = _ticker.read();
+        boolean isRecycled = isExpired(pooledHandle, now);
 
-        // Figure out if we should check this revision in.  If it was created before the last known invalid revision
-        // for this particular end point, or the cache is closed, then we shouldn't check it in.
-        Long invalidRevision = _invalidRevisions.get(endPoint);
-        Long serviceRevision = _checkedOutRevisions.remove(handle);
+        if (isRecycled) {
+            // The instance has lived for as long as the policy allows, so it's replaced by a new one.
+            _numRecycledInstances.mark();
+            destroy(pooledHandle);
+        } else if (_isClosed || instances.isEvicted() || !instances.offerIdle(pooledHandle, now)) {
+            // Instances that were checked out before their end point was evicted, or before the cache was closed, are
+            // destroyed rather than checked in.  So are instances that there isn't room for.
+            destroy(pooledHandle);
+        } else if (instances.isEvicted() || _isClosed) {
+            // The end point was evicted, or the cache closed, while the instance was being checked in.
+            instances.destroyIdle();
+        } else if (_affineHandle != null && !VirtualThreads.isVirtual(Thread.currentThread())) {
+            _affineHandle.set(new WeakReference<>(pooledHandle));
+        }
 
-        if (_isClosed || (invalidRevision != null && serviceRevision < invalidRevision)) {
-            _pool.invalidateObject(endPoint, service);
-        } else {
-            _pool.returnObject(endPoint, service);
+        // Only give up the active slot once the instance is idle, so that a concurrent checkout that finds the slot
+        // free also finds the instance rather than creating another one.
+        instances.releaseActive();
+        signalWaiters();
+        if (isRecycled) {
+            // Only once the instance no longer counts as active, so that its replacement has room.
+            requestTopUp(instances);
         }
     }
 
     @Override
     public int getNumIdleInstances(ServiceEndPoint endPoint) {
         checkNotNull(endPoint);
-        return _pool.getNumIdle(endPoint);
+        EndPointInstances instances = _endPoints.get(endPoint);
+        return (instances != null) ? instances.getNumIdle() : 0;
     }
 
     @Override
     public int getNumActiveInstances(ServiceEndPoint endPoint) {
         checkNotNull(endPoint);
-        return _pool.getNumActive(endPoint);
+        EndPointInstances instances = _endPoints.get(endPoint);
+        return (instances != null) ? instances.getNumActive() : 0;
     }
 
     @Override
@@ -232,57 +363,731 @@ class SingleThreadedClientServiceCache<S> implements ServiceCache<S> {
         if (_evictionFuture != null) {
             _evictionFuture.cancel(false);
         }
-
-        try {
-            _pool.close();
+        if (_validationFuture != null) {
+            _validationFuture.cancel(false);
         }
-        catch(Exception e) {
-            LOG.error("Error closing pool", e);
+
+        for (EndPointInstances instances : _endPoints.values()) {
+            instances.destroyIdle();
         }
+        signalWaiters();
         _metrics.close();
     }
 
     @Override
     public void register(ServiceEndPoint endPoint) {
-        // implementation of the ServiceCache creates clients lazily
+        checkNotNull(endPoint);
+
+        // Without a minimum number of idle instances, implementation of the ServiceCache creates clients lazily
+        if (_minNumIdleServiceInstancesPerEndPoint > 0 && !_isClosed) {
+            requestTopUp(getEndPointInstances(endPoint));
+        }
     }
 
     @Override
     public void evict(ServiceEndPoint endPoint) {
         checkNotNull(endPoint);
 
-        // Mark all service instances created prior to now as invalid so that we don't inadvertently check them back in
-        _invalidRevisions.put(endPoint, _revisionNumber.incrementAndGet());
-        _pool.clear(endPoint);
+        // Instances that are checked out right now are destroyed when they're checked back in, and new checkouts for
+        // the end point start over with no instances.
+        EndPointInstances instances = _endPoints.remove(endPoint);
+        if (instances != null) {
+            instances.evict();
+            instances.destroyIdle();
+            signalWaiters();
+        }
+    }
+
+    /**
+     * Destroys idle instances that have been idle, or lived, for longer than the policy allows.
+     */
+    @VisibleForTesting
+    void evictIdleInstances() {
+        if (_maxServiceInstanceIdleTimeNanos <= 0 && _maxServiceInstanceLifetimeNanos <= 0) {
+            return;
+        }
+
+        long now = _ticker.read();
+        for (EndPointInstances instances : _endPoints.values()) {
+            instances.destroyStaleIdle(now);
+        }
+        signalWaiters();
+    }
+
+    /**
+     * Adjusts the limit on instances and the idle time of each end point to its demand since the last adjustment, if
+     * the policy asks for adaptive sizing.
+     */
+    @VisibleForTesting
+    void adjustSizes() {
+        if (!_isAdaptive) {
+            return;
+        }
+
+        for (EndPointInstances instances : _endPoints.values()) {
+            instances.adjustSizes();
+        }
+        signalWaiters();
+    }
+
+    /**
+     * Validates idle instances that haven't been validated for as long as the policy allows, and destroys the ones
+     * that aren't valid any more.  Stale idle instances are destroyed first, so that they aren't validated for nothing.
+     */
+    @VisibleForTesting
+    void validateIdleInstances() {
+        if (_serviceInstanceValidationIntervalNanos <= 0) {
+            return;
+        }
+
+        for (EndPointInstances instances : _endPoints.values()) {
+            instances.destroyStaleIdle(_ticker.read());
+            instances.validateIdle();
+        }
+        signalWaiters();
     }
 
-    private class PoolServiceFactory<S> extends BaseKeyedPoolableObjectFactory<ServiceEndPoint, S> {
-        private final ServiceFactory<S> _serviceFactory;
+    /**
+     * Asks the executor to create idle instances for an end point until it has the minimum number, unless it's
+     * already doing so.
+     */
+    private void requestTopUp(final EndPointInstances instances) {
+        if (_minNumIdleServiceInstancesPerEndPoint <= 0 || _isClosed || instances.isEvicted()
+                || instances.getNumIdle() >= _minNumIdleServiceInstancesPerEndPoint
+                || !instances.startTopUp()) {
+            return;
+        }
 
-        public PoolServiceFactory(ServiceFactory<S> serviceFactory) {
-            _serviceFactory = serviceFactory;
+        try {
+            _executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        topUp(instances);
+                    } finally {
+                        instances.finishTopUp();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // The executor was shut down, so the instances will be created on demand.
+            instances.finishTopUp();
         }
+    }
 
-        @Override
-        public S makeObject(final ServiceEndPoint endPoint) throws Exception {
-            _missCount.incrementAndGet();
+    private void topUp(EndPointInstances instances) {
+        while (!_isClosed && !instances.isEvicted()
+                && instances.getNumIdle() < _minNumIdleServiceInstancesPerEndPoint) {
+            // The new instance counts as active while it's being created, like one that's checked out.  Unlike
+            // checkouts, prewarming never destroys instances of other end points to make room.
+            if (!instances.reservePrewarm()) {
+                return;
+            }
+            if (!tryReserveInstanceWithoutEviction()) {
+                instances.releaseActive();
+                signalWaiters();
+                return;
+            }
 
+            PooledServiceHandle<S> handle;
             Timer.Context timer = _loadTimer.time();
             try {
-                S service = _serviceFactory.create(endPoint);
-                _loadSuccessCount.incrementAndGet();
-                return service;
+                handle = newHandle(_serviceFactory.create(instances.getEndPoint()), instances);
+                _loadSuccessCount.inc();
             } catch (Exception e) {
-                _loadFailureCount.incrementAndGet();
-                throw e;
+                _loadFailureCount.inc();
+                instances.releaseActive();
+                _numInstances.decrementAndGet();
+                signalWaiters();
+                LOG.warn("Unable to prewarm service instance for end point: {}", instances.getEndPoint(), e);
+                return;
             } finally {
                 timer.stop();
             }
+
+            boolean isIdle = instances.offerIdle(handle, _ticker.read());
+            if (!isIdle) {
+                destroy(handle);
+            } else if (instances.isEvicted() || _isClosed) {
+                // The end point was evicted, or the cache closed, while the instance was being created.
+                instances.destroyIdle();
+                isIdle = false;
+            }
+            instances.releaseActive();
+            signalWaiters();
+            if (!isIdle) {
+                return;
+            }
+        }
+    }
+
+    private boolean tryReserveInstanceWithoutEviction() {
+        while (true) {
+            int numInstances = _numInstances.get();
+            if (_maxNumServiceInstances >= 0 && numInstances >= _maxNumServiceInstances) {
+                return false;
+            }
+            if (_numInstances.compareAndSet(numInstances, numInstances + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private EndPointInstances getEndPointInstances(ServiceEndPoint endPoint) {
+        EndPointInstances instances = _endPoints.get(endPoint);
+        if (instances == null) {
+            EndPointInstances newInstances = new EndPointInstances(endPoint);
+            instances = _endPoints.putIfAbsent(endPoint, newInstances);
+            if (instances == null) {
+                instances = newInstances;
+            }
+        }
+        return instances;
+    }
+
+    /**
+     * Claims the instance that the current thread last checked in, if it's for the same end point and nobody else has
+     * taken it since.  Otherwise the thread forgets the instance.
+     */
+    private PooledServiceHandle<S> claimAffineHandle(EndPointInstances instances) {
+        if (_affineHandle == null) {
+            return null;
+        }
+
+        WeakReference<PooledServiceHandle<S>> reference = _affineHandle.get();
+        if (reference == null) {
+            return null;
+        }
+
+        _affineHandle.remove();
+        PooledServiceHandle<S> handle = reference.get();
+        if (handle != null && handle.getEndPointInstances() == instances && instances.claim(handle)) {
+            return handle;
+        }
+        return null;
+    }
+
+    /**
+     * Reserves room for a new instance in the cache, destroying idle instances of other end points if necessary to
+     * make room.
+     */
+    private boolean tryReserveInstance() {
+        while (true) {
+            int numInstances = _numInstances.get();
+            if (_maxNumServiceInstances >= 0 && numInstances >= _maxNumServiceInstances) {
+                if (!destroyAnyIdle()) {
+                    return false;
+                }
+            } else if (_numInstances.compareAndSet(numInstances, numInstances + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Destroys the least recently used idle instance of some end point to make room in the cache.
+     */
+    private boolean destroyAnyIdle() {
+        for (EndPointInstances instances : _endPoints.values()) {
+            if (instances.destroyOldestIdle()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private PooledServiceHandle<S> create(EndPointInstances instances) {
+        _missCount.inc();
+
+        Timer.Context timer = _loadTimer.time();
+        try {
+            S service = _serviceFactory.create(instances.getEndPoint());
+            _loadSuccessCount.inc();
+            instances.recordCreated();
+            return newHandle(service, instances);
+        } catch (RuntimeException | Error e) {
+            _loadFailureCount.inc();
+            instances.releaseActive();
+            _numInstances.decrementAndGet();
+            signalWaiters();
+            throw e;
+        } finally {
+            timer.stop();
+        }
+    }
+
+    private PooledServiceHandle<S> newHandle(S service, EndPointInstances instances) {
+        long now = _ticker.read();
+        long lifetimeNanos = (_maxServiceInstanceLifetimeNanos > 0)
+                ? ServiceInstanceRecycling.jitteredLifetime(_maxServiceInstanceLifetimeNanos)
+                : 0;
+        return new PooledServiceHandle<>(service, instances, now, now + lifetimeNanos);
+    }
+
+    private boolean isExpired(PooledServiceHandle<S> handle, long nowNanos) {
+        return _maxServiceInstanceLifetimeNanos > 0 && nowNanos - handle.getExpiresAtNanos() >= 0;
+    }
+
+    private boolean isIdleTooLong(PooledServiceHandle<S> handle, long nowNanos) {
+        long maxIdleTimeNanos = handle.getEndPointInstances().getMaxIdleTimeNanos();
+        return maxIdleTimeNanos > 0 && nowNanos - handle.getIdleSinceNanos() > maxIdleTimeNanos;
+    }
+
+    private void destroy(PooledServiceHandle<S> handle) {
+        _numInstances.decrementAndGet();
+        try {
+            _serviceFactory.destroy(handle.getEndPoint(), handle.getService());
+        } catch (Exception e) {
+            LOG.warn("Unable to destroy service instance for end point: {}", handle.getEndPoint(), e);
+        }
+    }
+
+    /**
+     * Waits until an instance has been checked in or destroyed somewhere in the cache, which may have made room for
+     * the end point.
+     */
+    private void awaitCapacity(EndPointInstances instances) throws InterruptedException {
+        Timer.Context timer = _waitTimer.time();
+        try {
+            doAwaitCapacity(instances);
+        } finally {
+            timer.stop();
+        }
+    }
+
+    private void doAwaitCapacity(EndPointInstances instances) throws InterruptedException {
+        synchronized (_waitLock) {
+            _numWaiters.incrementAndGet();
+            try {
+                // Check again now that signals can't be missed.
+                while (!_isClosed && !hasCapacity(instances)) {
+                    _waitLock.wait();
+                }
+            } finally {
+                _numWaiters.decrementAndGet();
+            }
+        }
+        checkState(!_isClosed, "Cache is closed");
+    }
+
+    private boolean hasCapacity(EndPointInstances instances) {
+        return instances.hasActiveCapacity()
+                && (_maxNumServiceInstances < 0 || _numInstances.get() < _maxNumServiceInstances
+                    || hasAnyIdle());
+    }
+
+    private boolean hasAnyIdle() {
+        for (EndPointInstances instances : _endPoints.values()) {
+            if (instances.hasIdle()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void signalWaiters() {
+        // Waiting is rare, so only take the lock when someone is.
+        if (_numWaiters.get() > 0) {
+            synchronized (_waitLock) {
+                _waitLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * The instances of a single end point.  Idle instances are kept on a stack, most recently checked in first.
+     * <p/>
+     * Whether an instance is idle is decided by its state rather than by its presence on the stack, so that a thread
+     * with affinity for an instance can claim it without removing it from the stack.  The stack can therefore hold
+     * instances that have since been claimed; they're discarded when they reach the top.
+     */
+    private class EndPointInstances {
+        private final ServiceEndPoint _endPoint;
+        private final ConcurrentLinkedDeque<PooledServiceHandle<S>> _idle = new ConcurrentLinkedDeque<>();
+        private final AtomicInteger _numIdle = new AtomicInteger();
+        private final AtomicInteger _numActive = new AtomicInteger();
+        private final AtomicBoolean _isToppingUp = new AtomicBoolean();
+        private volatile boolean _evicted;
+
+        // The policy's limits, unless they're adjusted by adaptive sizing.
+        private volatile int _maxNumInstances = _maxNumServiceInstancesPerEndPoint;
+        private volatile long _maxIdleTimeNanos = _maxServiceInstanceIdleTimeNanos;
+
+        // What the end point needed since the last adjustment.  Only kept under adaptive sizing.
+        private final AtomicInteger _peakNumActive = new AtomicInteger();
+        private final AtomicInteger _numExhausted = new AtomicInteger();
+        private final AtomicInteger _numCreated = new AtomicInteger();
+        private final AtomicInteger _numIdleEvicted = new AtomicInteger();
+
+        EndPointInstances(ServiceEndPoint endPoint) {
+            _endPoint = endPoint;
+        }
+
+        ServiceEndPoint getEndPoint() {
+            return _endPoint;
+        }
+
+        int getNumIdle() {
+            return _numIdle.get();
+        }
+
+        int getNumActive() {
+            return _numActive.get();
+        }
+
+        int getMaxNumInstances() {
+            return _maxNumInstances;
+        }
+
+        long getMaxIdleTimeNanos() {
+            return _maxIdleTimeNanos;
+        }
+
+        boolean hasIdle() {
+            return _numIdle.get() > 0;
+        }
+
+        boolean isEvicted() {
+            return _evicted;
+        }
+
+        /**
+         * Once evicted, instances are no longer checked in, and any that were being checked in at the time are
+         * destroyed by whoever sees the eviction last.
+         */
+        void evict() {
+            _evicted = true;
+        }
+
+        /**
+         * Takes the most recently used idle instance, if there is one.  The caller is responsible for counting it as
+         * active.
+         */
+        PooledServiceHandle<S> pollIdle() {
+            PooledServiceHandle<S> handle;
+            while ((handle = _idle.pollFirst()) != null) {
+                handle.setQueued(false);
+                if (claim(handle)) {
+                    return handle;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Takes a specific idle instance, wherever it is on the stack.  The caller is responsible for counting it as
+         * active.
+         */
+        boolean claim(PooledServiceHandle<S> handle) {
+            if (!handle.transition(PooledServiceHandle.IDLE, PooledServiceHandle.IN_USE)) {
+                return false;
+            }
+            _numIdle.decrementAndGet();
+            return true;
+        }
+
+        /**
+         * Checks in an instance, unless the end point already has as many idle instances as the policy allows.
+         */
+        boolean offerIdle(PooledServiceHandle<S> handle, long nowNanos) {
+            while (true) {
+                int numIdle = _numIdle.get();
+                int maxNumInstances = _maxNumInstances;
+                if (maxNumInstances >= 0 && numIdle >= maxNumInstances) {
+                    return false;
+                }
+                if (_numIdle.compareAndSet(numIdle, numIdle + 1)) {
+                    break;
+                }
+            }
+            handle.setIdleSinceNanos(nowNanos);
+            handle.transition(PooledServiceHandle.IN_USE, PooledServiceHandle.IDLE);
+
+            // An instance that was claimed by affinity may still be on the stack, in which case it's already where
+            // other threads can find it.
+            if (handle.setQueued(true)) {
+                _idle.offerFirst(handle);
+            }
+            return true;
+        }
+
+        boolean hasActiveCapacity() {
+            int maxNumInstances = _maxNumInstances;
+            return maxNumInstances < 0 || _numActive.get() < maxNumInstances;
+        }
+
+        /**
+         * Counts one more instance as active, returning whether that is within the limit for the end point.  Either
+         * way the caller must release it again if it doesn't end up with an instance.
+         */
+        boolean reserveActive() {
+            int numActive = _numActive.incrementAndGet();
+            int maxNumInstances = _maxNumInstances;
+            if (maxNumInstances >= 0 && numActive > maxNumInstances) {
+                return false;
+            }
+            recordActive(numActive);
+            return true;
+        }
+
+        /**
+         * Counts one more instance as active for prewarming, as long as the end point's active and idle instances
+         * together stay within its limit.  The caller must release it again once the instance is idle.
+         */
+        boolean reservePrewarm() {
+            int maxNumInstances = _maxNumInstances;
+            if (maxNumInstances < 0) {
+                _numActive.incrementAndGet();
+                return true;
+            }
+            while (true) {
+                int numActive = _numActive.get();
+                if (numActive + _numIdle.get() >= maxNumInstances) {
+                    return false;
+                }
+                if (_numActive.compareAndSet(numActive, numActive + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        void forceReserveActive() {
+            recordActive(_numActive.incrementAndGet());
+        }
+
+        private void recordActive(int numActive) {
+            if (!_isAdaptive) {
+                return;
+            }
+            int peakNumActive;
+            while (numActive > (peakNumActive = _peakNumActive.get())) {
+                if (_peakNumActive.compareAndSet(peakNumActive, numActive)) {
+                    return;
+                }
+            }
+        }
+
+        void recordExhausted() {
+            if (_isAdaptive) {
+                _numExhausted.incrementAndGet();
+            }
+        }
+
+        void recordCreated() {
+            if (_isAdaptive) {
+                _numCreated.incrementAndGet();
+            }
+        }
+
+        /**
+         * Adjusts the limit on instances and the idle time to what the end point needed since the last adjustment.
+         */
+        void adjustSizes() {
+            int peakNumActive = _peakNumActive.getAndSet(_numActive.get());
+            int numExhausted = _numExhausted.getAndSet(0);
+            int numCreated = _numCreated.getAndSet(0);
+            int numIdleEvicted = _numIdleEvicted.getAndSet(0);
+
+            int maxNumInstances = _maxNumInstances;
+            if (numExhausted > 0) {
+                // Checkouts had to wait, fail or grow past the limit, so make room for up to as many of them as there
+                // were, but grow by at most half at a time.
+                int step = Math.max(1, Math.min(numExhausted, maxNumInstances / 2));
+                maxNumInstances = Math.min(_maxNumServiceInstancesPerEndPoint, maxNumInstances + step);
+            } else {
+                // Give back room that wasn't needed a bit at a time, keeping a quarter more than the peak as headroom.
+                int target = Math.max(_adaptiveMinNumServiceInstancesPerEndPoint,
+                        peakNumActive + (peakNumActive + 3) / 4);
+                if (maxNumInstances > target) {
+                    maxNumInstances -= Math.max(1, (maxNumInstances - target) / 2);
+                }
+            }
+            _maxNumInstances = maxNumInstances;
+
+            long maxIdleTimeNanos = _maxIdleTimeNanos;
+            if (numIdleEvicted > 0 && numCreated > 0) {
+                // Instances were evicted only to be created again, so keep them around for longer.
+                maxIdleTimeNanos = Math.min(_maxServiceInstanceIdleTimeNanos, maxIdleTimeNanos * 2);
+            } else if (numIdleEvicted == 0 && hasIdle()) {
+                // Instances are sitting idle without being evicted, so let them go sooner.
+                maxIdleTimeNanos = Math.max(_adaptiveMinServiceInstanceIdleTimeNanos,
+                        maxIdleTimeNanos - maxIdleTimeNanos / 4);
+            }
+            _maxIdleTimeNanos = maxIdleTimeNanos;
+
+            // Don't keep more idle instances than the new limit allows.  The limit never goes below the minimum number
+            // of idle instances, so the newest of those are kept.
+            while (_numIdle.get() > maxNumInstances && destroyOldestIdle()) {
+                // Keep going.
+            }
+        }
+
+        void releaseActive() {
+            _numActive.decrementAndGet();
+        }
+
+        void destroyIdle() {
+            PooledServiceHandle<S> handle;
+            while ((handle = _idle.pollFirst()) != null) {
+                handle.setQueued(false);
+                destroyIfIdle(handle);
+            }
+        }
+
+        boolean destroyOldestIdle() {
+            PooledServiceHandle<S> handle;
+            while ((handle = _idle.pollLast()) != null) {
+                handle.setQueued(false);
+                if (destroyIfIdle(handle)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Destroys the instances that have been idle, or lived, for longer than the policy allows.  They're usually at
+         * the bottom of the stack, but an instance claimed by affinity keeps its place, so the whole stack is checked.
+         * <p/>
+         * Instances that have lived too long are replaced.  Instances that have been idle too long aren't, and the
+         * newest of them are kept when destroying them would leave fewer than the minimum number of idle instances.
+         */
+        void destroyStaleIdle(long nowNanos) {
+            boolean isRecycled = false;
+            Iterator<PooledServiceHandle<S>> iterator = _idle.descendingIterator();
+            while (iterator.hasNext()) {
+                PooledServiceHandle<S> handle = iterator.next();
+                boolean isExpired = isExpired(handle, nowNanos);
+                boolean isEvictable = !isExpired && isIdleTooLong(handle, nowNanos)
+                        && _numIdle.get() > _minNumIdleServiceInstancesPerEndPoint;
+                // Only destroy the instance if it wasn't checked out in the meantime.
+                if ((isExpired || isEvictable) && destroyIfIdle(handle)) {
+                    iterator.remove();
+                    if (isExpired) {
+                        _numRecycledInstances.mark();
+                        isRecycled = true;
+                    } else if (_isAdaptive) {
+                        _numIdleEvicted.incrementAndGet();
+                    }
+                }
+            }
+            if (isRecycled) {
+                requestTopUp(this);
+            }
+        }
+
+        /**
+         * Validates the idle instances that are due for it.  Each instance is claimed while it's being validated, so
+         * that it can't be checked out in the meantime, but it keeps its place on the stack and its idle time.
+         */
+        void validateIdle() {
+            for (PooledServiceHandle<S> handle : _idle) {
+                long now = _ticker.read();
+                if (now - handle.getValidatedAtNanos() < _serviceInstanceValidationIntervalNanos || !claim(handle)) {
+                    continue;
+                }
+
+                handle.setValidatedAtNanos(now);
+                if (!ServiceInstanceRecycling.isValid(_serviceFactory, _endPoint, handle.getService())) {
+                    _numInvalidInstances.mark();
+                    discard(handle);
+                } else if (!offerIdle(handle, handle.getIdleSinceNanos())) {
+                    discard(handle);
+                } else if (_evicted || _isClosed) {
+                    // The end point was evicted, or the cache closed, while the instance was being validated.
+                    destroyIdle();
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Destroys an instance that was claimed from the stack without being checked out.
+         */
+        private void discard(PooledServiceHandle<S> handle) {
+            handle.transition(PooledServiceHandle.IN_USE, PooledServiceHandle.DESTROYED);
+            if (handle.setQueued(false)) {
+                _idle.removeFirstOccurrence(handle);
+            }
+            destroy(handle);
+            requestTopUp(this);
+        }
+
+        private boolean destroyIfIdle(PooledServiceHandle<S> handle) {
+            if (!handle.transition(PooledServiceHandle.IDLE, PooledServiceHandle.DESTROYED)) {
+                return false;
+            }
+            _numIdle.decrementAndGet();
+            destroy(handle);
+            return true;
+        }
+
+        boolean startTopUp() {
+            return _isToppingUp.compareAndSet(false, true);
+        }
+
+        void finishTopUp() {
+            _isToppingUp.set(false);
+        }
+    }
+
+    /**
+     * A service handle that remembers which end point instances it belongs to, so that an instance checked out before
+     * its end point was evicted can be recognized when it's checked in without any bookkeeping at check out.
+     */
+    private static class PooledServiceHandle<S> extends ServiceHandle<S> {
+        static final int IN_USE = 0;
+        static final int IDLE = 1;
+        static final int DESTROYED = 2;
+
+        private final SingleThreadedClientServiceCache<S>.EndPointInstances _endPointInstances;
+        private final AtomicInteger _state = new AtomicInteger(IN_USE);
+        private final AtomicBoolean _queued = new AtomicBoolean();
+        private final long _expiresAtNanos;
+        private volatile long _idleSinceNanos;
+        private volatile long _validatedAtNanos;
+
+        PooledServiceHandle(S service, SingleThreadedClientServiceCache<S>.EndPointInstances endPointInstances,
+                            long createdAtNanos, long expiresAtNanos) {
+            super(service, endPointInstances.getEndPoint());
+            _endPointInstances = endPointInstances;
+            _expiresAtNanos = expiresAtNanos;
+            _validatedAtNanos = createdAtNanos;
+        }
+
+        SingleThreadedClientServiceCache<S>.EndPointInstances getEndPointInstances() {
+            return _endPointInstances;
+        }
+
+        long getIdleSinceNanos() {
+            return _idleSinceNanos;
+        }
+
+        void setIdleSinceNanos(long idleSinceNanos) {
+            _idleSinceNanos = idleSinceNanos;
+        }
+
+        long getExpiresAtNanos() {
+            return _expiresAtNanos;
+        }
+
+        long getValidatedAtNanos() {
+            return _validatedAtNanos;
+        }
+
+        void setValidatedAtNanos(long validatedAtNanos) {
+            _validatedAtNanos = validatedAtNanos;
+        }
+
+        boolean transition(int expectedState, int newState) {
+            return _state.compareAndSet(expectedState, newState);
         }
 
-        @Override
-        public void destroyObject(ServiceEndPoint endPoint, S service) throws Exception {
-            _serviceFactory.destroy(endPoint, service);
+        /**
+         * Records whether the instance is on its end point's stack of idle instances, returning whether that changed.
+         */
+        boolean setQueued(boolean queued) {
+            return _queued.compareAndSet(!queued, queued);
         }
     }
 }
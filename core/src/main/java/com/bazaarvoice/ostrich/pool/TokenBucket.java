@@ -0,0 +1,70 @@
+package com.bazaarvoice.ostrich.pool;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out permits at a steady rate, letting up to a bucket's worth of unused permits be saved up for a burst.
+ * <p/>
+ * A permit can be reserved before it's available, in which case the caller is told how long to wait before using it.
+ * Reserved permits are taken out of the bucket right away, so later callers queue up behind earlier ones.
+ */
+class TokenBucket {
+    private final long _nanosPerPermit;
+    private final long _capacityNanos;
+
+    // The time at which the bucket was, or will be once the permits reserved so far are taken out, empty.  From then on
+    // the bucket gains a permit every _nanosPerPermit, up to _capacityNanos worth of permits.  Keeping the whole state
+    // in one value lets permits be reserved without a lock.
+    private final AtomicLong _emptyNanos;
+
+    /**
+     * @param permitsPerSecond The rate permits are handed out at.
+     * @param maxBurstNanos    How long unused permits are saved up for.
+     * @param nowNanos         The current time according to the pool's ticker.
+     */
+    TokenBucket(double permitsPerSecond, long maxBurstNanos, long nowNanos) {
+        _nanosPerPermit = Math.max(Math.round(TimeUnit.SECONDS.toNanos(1) / permitsPerSecond), 1);
+        _capacityNanos = Math.max(maxBurstNanos, _nanosPerPermit);
+        _emptyNanos = new AtomicLong(nowNanos - _capacityNanos);
+    }
+
+    /**
+     * Reserve a permit if one will be available in time.
+     *
+     * @param nowNanos     The current time according to the pool's ticker.
+     * @param maxWaitNanos The longest the caller is willing to wait for the permit.
+     * @return How long to wait before using the permit, or {@code -1} if no permit was reserved because it would take
+     *         longer than {@code maxWaitNanos} to become available.
+     */
+    long reserve(long nowNanos, long maxWaitNanos) {
+        while (true) {
+            long emptyNanos = _emptyNanos.get();
+
+            // Permits beyond the bucket's capacity aren't saved up.
+            long reservedNanos = Math.max(emptyNanos, nowNanos - _capacityNanos) + _nanosPerPermit;
+            long waitNanos = Math.max(reservedNanos - nowNanos, 0);
+            if (waitNanos > maxWaitNanos) {
+                return -1;
+            }
+            if (_emptyNanos.compareAndSet(emptyNanos, reservedNanos)) {
+                return waitNanos;
+            }
+        }
+    }
+
+    /**
+     * Give back a reserved permit that won't be used after all.
+     */
+    void cancel() {
+        // A bucket that ends up holding more than its capacity is capped the next time a permit is reserved.
+        _emptyNanos.addAndGet(-_nanosPerPermit);
+    }
+
+    /**
+     * @return How long it takes an empty bucket to fill up completely.
+     */
+    long getRefillNanos() {
+        return _capacityNanos;
+    }
+}
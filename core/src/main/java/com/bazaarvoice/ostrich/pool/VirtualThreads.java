@@ -0,0 +1,123 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Creates virtual threads when the runtime supports them.  Virtual threads only exist on Java 21 and later while
+ * Ostrich is built for older runtimes, so they're found with reflection.  Java 19 and 20 have the same methods as a
+ * preview feature, but they throw unless preview features are enabled, so support is decided by actually creating a
+ * virtual thread.
+ */
+final class VirtualThreads {
+    private static final Method OF_VIRTUAL;
+    private static final Method NAME;
+    private static final Method FACTORY;
+    private static final Method NEW_THREAD_PER_TASK_EXECUTOR;
+    private static final Method IS_VIRTUAL;
+
+    static {
+        Method ofVirtual = null;
+        Method name = null;
+        Method factory = null;
+        Method newThreadPerTaskExecutor = null;
+        Method isVirtual = null;
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            name = builderClass.getMethod("name", String.class, long.class);
+            factory = builderClass.getMethod("factory");
+            newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            isVirtual = Thread.class.getMethod("isVirtual");
+            if (!canCreateThread(ofVirtual, builderClass.getMethod("unstarted", Runnable.class))) {
+                ofVirtual = null;
+            }
+        } catch (ReflectiveOperationException e) {
+            // Virtual threads aren't supported by this runtime.
+            ofVirtual = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        NAME = name;
+        FACTORY = factory;
+        NEW_THREAD_PER_TASK_EXECUTOR = newThreadPerTaskExecutor;
+        // Without support there can't be any virtual threads to recognize.
+        IS_VIRTUAL = (ofVirtual != null) ? isVirtual : null;
+    }
+
+    private VirtualThreads() {}
+
+    /**
+     * Checks that {@code unstarted} can create a thread from the builder that {@code ofVirtual} returns, treating any
+     * failure as meaning virtual threads aren't supported.
+     */
+    @VisibleForTesting
+    static boolean canCreateThread(Method ofVirtual, Method unstarted) {
+        try {
+            unstarted.invoke(ofVirtual.invoke(null), new Runnable() {
+                @Override
+                public void run() {
+                }
+            });
+            return true;
+        } catch (Exception | LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return Whether the runtime supports virtual threads.
+     */
+    static boolean isSupported() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * @return Whether the thread is a virtual thread.  Always false when the runtime doesn't support virtual threads.
+     */
+    static boolean isVirtual(Thread thread) {
+        checkNotNull(thread);
+        return IS_VIRTUAL != null && (Boolean) invoke(IS_VIRTUAL, thread);
+    }
+
+    /**
+     * Creates a factory for virtual threads named with the specified prefix followed by a counter.
+     *
+     * @throws IllegalStateException If the runtime doesn't support virtual threads.
+     */
+    static ThreadFactory newThreadFactory(String namePrefix) {
+        checkNotNull(namePrefix);
+        checkState(isSupported(), "Virtual threads are not supported by this runtime");
+
+        Object builder = invoke(OF_VIRTUAL, null);
+        builder = invoke(NAME, builder, namePrefix, 0L);
+        return (ThreadFactory) invoke(FACTORY, builder);
+    }
+
+    /**
+     * Creates an executor that starts a new virtual thread for each task.
+     *
+     * @throws IllegalStateException If the runtime doesn't support virtual threads.
+     */
+    static ExecutorService newThreadPerTaskExecutor(String namePrefix) {
+        return (ExecutorService) invoke(NEW_THREAD_PER_TASK_EXECUTOR, null, newThreadFactory(namePrefix));
+    }
+
+    private static Object invoke(Method method, Object target, Object... args) {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw Throwables.propagate(e.getCause());
+        } catch (IllegalAccessException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+}
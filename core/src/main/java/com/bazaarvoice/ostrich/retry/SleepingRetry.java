@@ -1,10 +1,10 @@
 package com.bazaarvoice.ostrich.retry;
 
-import com.bazaarvoice.ostrich.RetryPolicy;
+import com.bazaarvoice.ostrich.ScheduledRetryPolicy;
 
 import static com.google.common.base.Preconditions.checkArgument;
 
-public abstract class SleepingRetry implements RetryPolicy {
+public abstract class SleepingRetry implements ScheduledRetryPolicy {
     private final int _maxNumAttempts;
 
     protected SleepingRetry(int maxNumAttempts) {
@@ -29,5 +29,15 @@ public abstract class SleepingRetry implements RetryPolicy {
         return true;
     }
 
+    @Override
+    public long getRetryDelayMs(int numAttempts, long elapsedTimeMs) {
+        checkArgument(numAttempts >= 1);
+        if (numAttempts >= _maxNumAttempts) {
+            return -1;
+        }
+
+        return getSleepTimeMs(numAttempts, elapsedTimeMs);
+    }
+
     protected abstract long getSleepTimeMs(int numAttempts, long elapsedTimeMs);
 }
@@ -6,6 +6,7 @@ import org.junit.Test;
 import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
@@ -65,4 +66,45 @@ public class PartitionContextBuilderTest {
         assertSame(BAR_OBJECT, context.get(BAR_KEY));
         assertEquals(ImmutableMap.of(FOO_KEY, FOO_OBJECT, BAR_KEY, BAR_OBJECT), context.asMap());
     }
+
+    @Test
+    public void testGetMissingKey() {
+        assertNull(PartitionContextBuilder.of(FOO_KEY, FOO_OBJECT).get(BAR_KEY));
+        assertNull(PartitionContextBuilder.of(FOO_KEY, FOO_OBJECT).get());
+        assertNull(PartitionContextBuilder.of(FOO_KEY, FOO_OBJECT, BAR_KEY, BAR_OBJECT).get("baz"));
+        assertNull(new PartitionContextBuilder().put(FOO_KEY, FOO_OBJECT).build().get(BAR_KEY));
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testOfNullValue() {
+        PartitionContextBuilder.of(FOO_KEY, null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOfDuplicateKeys() {
+        PartitionContextBuilder.of(FOO_KEY, FOO_OBJECT, FOO_KEY, BAR_OBJECT);
+    }
+
+    @Test
+    public void testEqualsRegardlessOfRepresentation() {
+        PartitionContext single = PartitionContextBuilder.of(FOO_KEY, FOO_OBJECT);
+        PartitionContext singleBuilt = new PartitionContextBuilder().put(FOO_KEY, FOO_OBJECT).build();
+        PartitionContext pair = PartitionContextBuilder.of(FOO_KEY, FOO_OBJECT, BAR_KEY, BAR_OBJECT);
+        PartitionContext pairReversed = PartitionContextBuilder.of(BAR_KEY, BAR_OBJECT, FOO_KEY, FOO_OBJECT);
+        PartitionContext pairBuilt = new PartitionContextBuilder().put(BAR_KEY, BAR_OBJECT).put(FOO_KEY, FOO_OBJECT)
+                .build();
+
+        assertEquals(single, singleBuilt);
+        assertEquals(singleBuilt, single);
+        assertEquals(single.hashCode(), singleBuilt.hashCode());
+        assertEquals(pair, pairReversed);
+        assertEquals(pair, pairBuilt);
+        assertEquals(pairBuilt, pair);
+        assertEquals(pair.hashCode(), pairReversed.hashCode());
+        assertEquals(pair.hashCode(), pairBuilt.hashCode());
+        assertNotEquals(single, pair);
+        assertNotEquals(pair, single);
+        assertNotEquals(single, PartitionContextBuilder.of(FOO_KEY, BAR_OBJECT));
+        assertNotEquals(single, PartitionContextBuilder.empty());
+    }
 }
@@ -0,0 +1,75 @@
+package com.bazaarvoice.ostrich.loadbalance;
+
+import com.bazaarvoice.ostrich.ExtendedServicePoolStatistics;
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.bazaarvoice.ostrich.ServicePoolStatistics;
+import com.google.common.collect.ImmutableList;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class PeakEwmaAlgorithmTest {
+    private ServiceEndPoint _fast;
+    private ServiceEndPoint _slow;
+    private List<ServiceEndPoint> _endPoints;
+    private ExtendedServicePoolStatistics _statistics;
+
+    @Before
+    public void setup() {
+        _fast = mock(ServiceEndPoint.class);
+        _slow = mock(ServiceEndPoint.class);
+        _endPoints = ImmutableList.of(_fast, _slow);
+        _statistics = mock(ExtendedServicePoolStatistics.class);
+        when(_statistics.getNumOutstandingRequests(any(ServiceEndPoint.class))).thenReturn(0);
+    }
+
+    @Test
+    public void testPrefersFasterEndPoint() {
+        when(_statistics.getAverageResponseTime(_fast, TimeUnit.NANOSECONDS)).thenReturn(100L);
+        when(_statistics.getAverageResponseTime(_slow, TimeUnit.NANOSECONDS)).thenReturn(200L);
+
+        assertSame(_fast, new PeakEwmaAlgorithm().choose(_endPoints, _statistics));
+    }
+
+    @Test
+    public void testAccountsForOutstandingRequests() {
+        // The fast end point is half the latency but already has two requests queued up.
+        when(_statistics.getAverageResponseTime(_fast, TimeUnit.NANOSECONDS)).thenReturn(100L);
+        when(_statistics.getAverageResponseTime(_slow, TimeUnit.NANOSECONDS)).thenReturn(200L);
+        when(_statistics.getNumOutstandingRequests(_fast)).thenReturn(2);
+
+        assertSame(_slow, new PeakEwmaAlgorithm().choose(_endPoints, _statistics));
+    }
+
+    @Test
+    public void testUnknownEndPointIsTriedWhenIdle() {
+        when(_statistics.getAverageResponseTime(_fast, TimeUnit.NANOSECONDS)).thenReturn(100L);
+        when(_statistics.getAverageResponseTime(_slow, TimeUnit.NANOSECONDS)).thenReturn(0L);
+
+        assertSame(_slow, new PeakEwmaAlgorithm().choose(_endPoints, _statistics));
+    }
+
+    @Test
+    public void testUnknownEndPointIsAvoidedWhileBusy() {
+        when(_statistics.getAverageResponseTime(_fast, TimeUnit.NANOSECONDS)).thenReturn(100L);
+        when(_statistics.getAverageResponseTime(_slow, TimeUnit.NANOSECONDS)).thenReturn(0L);
+        when(_statistics.getNumOutstandingRequests(_slow)).thenReturn(1);
+
+        assertSame(_fast, new PeakEwmaAlgorithm().choose(_endPoints, _statistics));
+    }
+
+    @Test
+    public void testUsesActiveInstancesWithoutResponseTimes() {
+        ServicePoolStatistics statistics = mock(ServicePoolStatistics.class);
+        when(statistics.getNumActiveInstances(_fast)).thenReturn(2);
+
+        assertSame(_slow, new PeakEwmaAlgorithm().choose(_endPoints, statistics));
+    }
+}
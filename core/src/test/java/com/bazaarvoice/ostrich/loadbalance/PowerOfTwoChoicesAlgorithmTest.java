@@ -0,0 +1,117 @@
+package com.bazaarvoice.ostrich.loadbalance;
+
+import com.bazaarvoice.ostrich.EndPointSnapshot;
+import com.bazaarvoice.ostrich.ExtendedServicePoolStatistics;
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.bazaarvoice.ostrich.ServicePoolStatistics;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class PowerOfTwoChoicesAlgorithmTest {
+    private ExtendedServicePoolStatistics _statistics;
+
+    @Before
+    public void setup() {
+        _statistics = mock(ExtendedServicePoolStatistics.class);
+        when(_statistics.getNumOutstandingRequests(any(ServiceEndPoint.class))).thenReturn(0);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullIterable() {
+        new PowerOfTwoChoicesAlgorithm().choose(null, _statistics);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullStatistics() {
+        new PowerOfTwoChoicesAlgorithm().choose(Collections.<ServiceEndPoint>emptyList(), null);
+    }
+
+    @Test
+    public void testEmptyIterable() {
+        assertNull(new PowerOfTwoChoicesAlgorithm().choose(Collections.<ServiceEndPoint>emptyList(), _statistics));
+    }
+
+    @Test
+    public void testEmptySnapshot() {
+        EndPointSnapshot snapshot = new EndPointSnapshot(0, Collections.<ServiceEndPoint>emptyList());
+        assertTrue(new PowerOfTwoChoicesAlgorithm().chooseIndex(snapshot, _statistics) < 0);
+    }
+
+    @Test
+    public void testSingleEndPoint() {
+        ServiceEndPoint endPoint = mock(ServiceEndPoint.class);
+        assertSame(endPoint, new PowerOfTwoChoicesAlgorithm().choose(Collections.singletonList(endPoint), _statistics));
+    }
+
+    @Test
+    public void testAvoidsMostLoadedEndPoint() {
+        PowerOfTwoChoicesAlgorithm algorithm = new PowerOfTwoChoicesAlgorithm();
+
+        List<ServiceEndPoint> endPoints = Lists.newArrayList(
+                mock(ServiceEndPoint.class),
+                mock(ServiceEndPoint.class),
+                mock(ServiceEndPoint.class)
+        );
+        ServiceEndPoint busy = endPoints.get(1);
+        when(_statistics.getNumOutstandingRequests(busy)).thenReturn(10);
+
+        // Whichever pair gets sampled, the busy end point always loses the comparison.
+        for (int i = 0; i < 1000; i++) {
+            assertNotSame(busy, algorithm.choose(endPoints, _statistics));
+        }
+    }
+
+    @Test
+    public void testAvoidsMostActiveEndPointWithoutOutstandingRequests() {
+        PowerOfTwoChoicesAlgorithm algorithm = new PowerOfTwoChoicesAlgorithm();
+
+        List<ServiceEndPoint> endPoints = Lists.newArrayList(
+                mock(ServiceEndPoint.class),
+                mock(ServiceEndPoint.class),
+                mock(ServiceEndPoint.class)
+        );
+        ServiceEndPoint busy = endPoints.get(1);
+        ServicePoolStatistics statistics = mock(ServicePoolStatistics.class);
+        when(statistics.getNumActiveInstances(busy)).thenReturn(10);
+
+        for (int i = 0; i < 1000; i++) {
+            assertNotSame(busy, algorithm.choose(endPoints, statistics));
+        }
+    }
+
+    @Test
+    public void testAllIndexesCanBeSelected() {
+        PowerOfTwoChoicesAlgorithm algorithm = new PowerOfTwoChoicesAlgorithm();
+
+        EndPointSnapshot snapshot = new EndPointSnapshot(0, Lists.newArrayList(
+                mock(ServiceEndPoint.class),
+                mock(ServiceEndPoint.class),
+                mock(ServiceEndPoint.class),
+                mock(ServiceEndPoint.class),
+                mock(ServiceEndPoint.class)
+        ));
+
+        // With equal load every end point is chosen with equal probability, see RandomAlgorithmTest for the odds.
+        Set<Integer> seen = Sets.newHashSet();
+        for (int i = 0; i < 1000; i++) {
+            seen.add(algorithm.chooseIndex(snapshot, _statistics));
+        }
+
+        assertEquals(Sets.newHashSet(0, 1, 2, 3, 4), seen);
+    }
+}
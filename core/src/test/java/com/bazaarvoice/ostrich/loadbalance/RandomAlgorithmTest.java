@@ -1,5 +1,6 @@
 package com.bazaarvoice.ostrich.loadbalance;
 
+import com.bazaarvoice.ostrich.EndPointSnapshot;
 import com.bazaarvoice.ostrich.ServiceEndPoint;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
@@ -11,6 +12,7 @@ import java.util.Set;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 
 public class RandomAlgorithmTest {
@@ -47,4 +49,31 @@ public class RandomAlgorithmTest {
 
         assertEquals(endPoints.size(), seen.size());
     }
+
+    @Test
+    public void testEmptySnapshot() {
+        EndPointSnapshot snapshot = new EndPointSnapshot(0, Collections.<ServiceEndPoint>emptyList());
+        assertTrue(new RandomAlgorithm().chooseIndex(snapshot, null) < 0);
+    }
+
+    @Test
+    public void testAllIndexesCanBeSelected() {
+        RandomAlgorithm algorithm = new RandomAlgorithm();
+
+        EndPointSnapshot snapshot = new EndPointSnapshot(0, Lists.newArrayList(
+                mock(ServiceEndPoint.class),
+                mock(ServiceEndPoint.class),
+                mock(ServiceEndPoint.class),
+                mock(ServiceEndPoint.class),
+                mock(ServiceEndPoint.class)
+        ));
+
+        // Same odds as testAllElementsCanBeSelected.
+        Set<Integer> seen = Sets.newHashSet();
+        for (int i = 0; i < 1000; i++) {
+            seen.add(algorithm.chooseIndex(snapshot, null));
+        }
+
+        assertEquals(Sets.newHashSet(0, 1, 2, 3, 4), seen);
+    }
 }
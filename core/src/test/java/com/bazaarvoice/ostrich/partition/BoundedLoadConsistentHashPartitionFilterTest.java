@@ -0,0 +1,139 @@
+package com.bazaarvoice.ostrich.partition;
+
+import com.bazaarvoice.ostrich.EndPointSnapshot;
+import com.bazaarvoice.ostrich.ExtendedServicePoolStatistics;
+import com.bazaarvoice.ostrich.PartitionContext;
+import com.bazaarvoice.ostrich.PartitionContextBuilder;
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.google.common.collect.ImmutableList;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static java.util.Collections.singleton;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class BoundedLoadConsistentHashPartitionFilterTest {
+    private ServiceEndPoint FOO, BAR, BAZ;
+    private EndPointSnapshot _endPoints;
+    private ExtendedServicePoolStatistics _statistics;
+
+    @Before
+    public void setup() {
+        FOO = mock(ServiceEndPoint.class);
+        when(FOO.getId()).thenReturn("foo");
+
+        BAR = mock(ServiceEndPoint.class);
+        when(BAR.getId()).thenReturn("bar");
+
+        BAZ = mock(ServiceEndPoint.class);
+        when(BAZ.getId()).thenReturn("baz");
+
+        _endPoints = new EndPointSnapshot(1, ImmutableList.of(FOO, BAR, BAZ));
+        _statistics = mock(ExtendedServicePoolStatistics.class);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeEpsilon() {
+        new BoundedLoadConsistentHashPartitionFilter(-0.1);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullStatistics() {
+        new BoundedLoadConsistentHashPartitionFilter(0.25).filterIndex(_endPoints, PartitionContextBuilder.of("a"), null);
+    }
+
+    @Test
+    public void testEmptyContext() {
+        BoundedLoadConsistentHashPartitionFilter filter = new BoundedLoadConsistentHashPartitionFilter(0.25);
+
+        assertEquals(IndexedPartitionFilter.ALL_END_POINTS,
+                filter.filterIndex(_endPoints, PartitionContextBuilder.empty(), _statistics));
+    }
+
+    @Test
+    public void testUnloadedMatchesConsistentHash() {
+        BoundedLoadConsistentHashPartitionFilter filter = new BoundedLoadConsistentHashPartitionFilter(0.25);
+        ConsistentHashPartitionFilter unbounded = new ConsistentHashPartitionFilter();
+
+        for (int i = 0; i < 100; i++) {
+            PartitionContext context = PartitionContextBuilder.of(UUID.randomUUID().toString());
+            assertEquals(unbounded.filterIndex(_endPoints, context),
+                    filter.filterIndex(_endPoints, context, _statistics));
+        }
+    }
+
+    @Test
+    public void testFilterIgnoresLoad() {
+        BoundedLoadConsistentHashPartitionFilter filter = new BoundedLoadConsistentHashPartitionFilter(0.25);
+
+        // "a" hashes to FOO, see ConsistentHashPartitionFilterTest.
+        assertEquals(singleton(FOO), filter.filter(ImmutableList.of(FOO, BAR), PartitionContextBuilder.of("a")));
+    }
+
+    @Test
+    public void testOverloadedEndPointIsSkipped() {
+        BoundedLoadConsistentHashPartitionFilter filter = new BoundedLoadConsistentHashPartitionFilter(0.25);
+        PartitionContext context = PartitionContextBuilder.of("a");
+        int preferred = filter.filterIndex(_endPoints, context, _statistics);
+
+        // Total load including this request is 10, so capacity is ceil(1.25 * 10 / 3) = 5.
+        when(_statistics.getNumOutstandingRequests(_endPoints.get(preferred))).thenReturn(9);
+        when(_statistics.getTotalNumOutstandingRequests()).thenReturn(9);
+
+        int chosen = filter.filterIndex(_endPoints, context, _statistics);
+        assertFalse(chosen == preferred);
+
+        // Routing is still deterministic, so the same partition keeps spilling over to the same end point.
+        assertEquals(chosen, filter.filterIndex(_endPoints, context, _statistics));
+    }
+
+    @Test
+    public void testEndPointBelowCapacityIsKept() {
+        BoundedLoadConsistentHashPartitionFilter filter = new BoundedLoadConsistentHashPartitionFilter(0.25);
+        PartitionContext context = PartitionContextBuilder.of("a");
+        int preferred = filter.filterIndex(_endPoints, context, _statistics);
+
+        // Total load including this request is 8, so capacity is ceil(1.25 * 8 / 3) = 4.
+        when(_statistics.getNumOutstandingRequests(FOO)).thenReturn(2);
+        when(_statistics.getNumOutstandingRequests(BAR)).thenReturn(2);
+        when(_statistics.getNumOutstandingRequests(BAZ)).thenReturn(2);
+        when(_statistics.getNumOutstandingRequests(_endPoints.get(preferred))).thenReturn(3);
+        when(_statistics.getTotalNumOutstandingRequests()).thenReturn(7);
+
+        assertEquals(preferred, filter.filterIndex(_endPoints, context, _statistics));
+    }
+
+    @Test
+    public void testZeroEpsilonKeepsLoadsEven() {
+        BoundedLoadConsistentHashPartitionFilter filter = new BoundedLoadConsistentHashPartitionFilter(0);
+        PartitionContext context = PartitionContextBuilder.of("a");
+
+        // Every end point but one is at capacity, so the request must go to the least loaded one.
+        when(_statistics.getNumOutstandingRequests(FOO)).thenReturn(3);
+        when(_statistics.getNumOutstandingRequests(BAR)).thenReturn(3);
+        when(_statistics.getNumOutstandingRequests(BAZ)).thenReturn(2);
+        when(_statistics.getTotalNumOutstandingRequests()).thenReturn(8);
+
+        assertEquals(2, filter.filterIndex(_endPoints, context, _statistics));
+    }
+
+    @Test
+    public void testOnlyPreferredEndPointLoadIsRead() {
+        BoundedLoadConsistentHashPartitionFilter filter = new BoundedLoadConsistentHashPartitionFilter(0.25);
+        PartitionContext context = PartitionContextBuilder.of("a");
+        int preferred = filter.filterIndex(_endPoints, context, _statistics);
+        when(_statistics.getTotalNumOutstandingRequests()).thenReturn(6);
+        when(_statistics.getNumOutstandingRequests(_endPoints.get(preferred))).thenReturn(2);
+
+        assertEquals(preferred, filter.filterIndex(_endPoints, context, _statistics));
+        verify(_statistics, times(2)).getNumOutstandingRequests(any(ServiceEndPoint.class));
+    }
+}
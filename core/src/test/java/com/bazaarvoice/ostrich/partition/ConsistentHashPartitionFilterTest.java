@@ -1,5 +1,6 @@
 package com.bazaarvoice.ostrich.partition;
 
+import com.bazaarvoice.ostrich.EndPointSnapshot;
 import com.bazaarvoice.ostrich.PartitionContext;
 import com.bazaarvoice.ostrich.PartitionContextBuilder;
 import com.bazaarvoice.ostrich.ServiceEndPoint;
@@ -7,11 +8,13 @@ import com.google.common.collect.ImmutableList;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
 
 import static java.util.Collections.singleton;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -102,4 +105,93 @@ public class ConsistentHashPartitionFilterTest {
         // Doesn't ignore the PartitionContext because it has an entry for at least one of cluster, ensemble or group.
         assertEquals(singleton(FOO), filter.filter(endPoints, PartitionContextBuilder.of("ensemble", "aaa")));
     }
+
+    @Test
+    public void testFilterIndexEmptyContext() {
+        ConsistentHashPartitionFilter filter = new ConsistentHashPartitionFilter();
+        EndPointSnapshot endPoints = new EndPointSnapshot(1, ImmutableList.of(FOO, BAR));
+
+        assertEquals(IndexedPartitionFilter.ALL_END_POINTS, filter.filterIndex(endPoints, PartitionContextBuilder.empty()));
+    }
+
+    @Test
+    public void testFilterIndexHashToFoo() {
+        ConsistentHashPartitionFilter filter = new ConsistentHashPartitionFilter();
+        EndPointSnapshot endPoints = new EndPointSnapshot(1, ImmutableList.of(BAR, FOO));
+
+        assertEquals(1, filter.filterIndex(endPoints, PartitionContextBuilder.of("a")));
+    }
+
+    @Test
+    public void testFilterIndexHashToBar() {
+        ConsistentHashPartitionFilter filter = new ConsistentHashPartitionFilter();
+        EndPointSnapshot endPoints = new EndPointSnapshot(1, ImmutableList.of(BAR, FOO));
+
+        assertEquals(0, filter.filterIndex(endPoints, PartitionContextBuilder.of("c")));
+    }
+
+    @Test
+    public void testFilterIndexEmptySnapshot() {
+        ConsistentHashPartitionFilter filter = new ConsistentHashPartitionFilter();
+        EndPointSnapshot endPoints = new EndPointSnapshot(1, Collections.<ServiceEndPoint>emptyList());
+
+        assertEquals(IndexedPartitionFilter.NO_END_POINTS, filter.filterIndex(endPoints, PartitionContextBuilder.of("a")));
+    }
+
+    @Test
+    public void testFilterIndexServiceIdConflict() {
+        ConsistentHashPartitionFilter filter = new ConsistentHashPartitionFilter();
+
+        // FOO comes last in the snapshot so it wins over FOO2.
+        EndPointSnapshot endPoints = new EndPointSnapshot(1, ImmutableList.of(FOO2, FOO, BAR));
+        assertEquals(1, filter.filterIndex(endPoints, PartitionContextBuilder.of("a")));
+
+        // A new snapshot without FOO must resolve to FOO2 even though the set of end point IDs is unchanged.
+        endPoints = new EndPointSnapshot(2, ImmutableList.of(FOO2, BAR));
+        assertEquals(0, filter.filterIndex(endPoints, PartitionContextBuilder.of("a")));
+    }
+
+    @Test
+    public void testFilterAndFilterIndexAgree() {
+        ConsistentHashPartitionFilter filter = new ConsistentHashPartitionFilter();
+        List<ServiceEndPoint> list = ImmutableList.of(FOO, BAR);
+        EndPointSnapshot snapshot = new EndPointSnapshot(1, list);
+
+        for (int i = 0; i < 100; i++) {
+            PartitionContext context = PartitionContextBuilder.of(UUID.randomUUID().toString());
+            ServiceEndPoint expected = snapshot.get(filter.filterIndex(snapshot, context));
+            assertEquals(singleton(expected), filter.filter(list, context));
+        }
+    }
+
+    @Test
+    public void testMurmurConsistency() {
+        ConsistentHashPartitionFilter filter = new ConsistentHashPartitionFilter(
+                Collections.<String>emptyList(), ConsistentHashPartitionFilter.PartitionHashFunction.MURMUR3_32);
+        List<ServiceEndPoint> endPoints = ImmutableList.of(FOO, BAR);
+
+        PartitionContext context = PartitionContextBuilder.of(UUID.randomUUID().toString());
+
+        Iterable<ServiceEndPoint> filtered = filter.filter(endPoints, context);
+        assertTrue(filtered.equals(singleton(FOO)) || filtered.equals(singleton(BAR)));
+        assertEquals(filtered, filter.filter(endPoints, context));
+    }
+
+    @Test
+    public void testRemovingEndPointOnlyMovesItsPartitions() {
+        ConsistentHashPartitionFilter filter = new ConsistentHashPartitionFilter();
+        ServiceEndPoint baz = mock(ServiceEndPoint.class);
+        when(baz.getId()).thenReturn("baz");
+        List<ServiceEndPoint> all = ImmutableList.of(FOO, BAR, baz);
+        List<ServiceEndPoint> withoutBaz = ImmutableList.of(FOO, BAR);
+
+        for (int i = 0; i < 100; i++) {
+            PartitionContext context = PartitionContextBuilder.of(UUID.randomUUID().toString());
+            Iterable<ServiceEndPoint> before = filter.filter(all, context);
+            Iterable<ServiceEndPoint> after = filter.filter(withoutBaz, context);
+            if (!before.equals(singleton(baz))) {
+                assertEquals(before, after);
+            }
+        }
+    }
 }
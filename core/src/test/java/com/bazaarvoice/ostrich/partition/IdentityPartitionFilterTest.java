@@ -1,9 +1,12 @@
 package com.bazaarvoice.ostrich.partition;
 
+import com.bazaarvoice.ostrich.EndPointSnapshot;
 import com.bazaarvoice.ostrich.PartitionContext;
 import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.google.common.collect.ImmutableList;
 import org.junit.Test;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertSame;
 import static org.mockito.Mockito.mock;
 
@@ -16,4 +19,12 @@ public class IdentityPartitionFilterTest {
 
         assertSame(iterable, filter.filter(iterable, mock(PartitionContext.class)));
     }
+
+    @Test
+    public void testIdentityFilterIndex() {
+        EndPointSnapshot snapshot = new EndPointSnapshot(0, ImmutableList.of(mock(ServiceEndPoint.class)));
+        IdentityPartitionFilter filter = new IdentityPartitionFilter();
+
+        assertEquals(IndexedPartitionFilter.ALL_END_POINTS, filter.filterIndex(snapshot, mock(PartitionContext.class)));
+    }
 }
@@ -0,0 +1,189 @@
+package com.bazaarvoice.ostrich.partition;
+
+import com.bazaarvoice.ostrich.EndPointSnapshot;
+import com.bazaarvoice.ostrich.PartitionContext;
+import com.bazaarvoice.ostrich.PartitionContextBuilder;
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static java.util.Collections.singleton;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class JumpHashPartitionFilterTest {
+    private ServiceEndPoint FOO, FOO2, BAR;
+
+    @Before
+    public void setup() {
+        FOO = endPoint("foo");
+
+        FOO2 = endPoint("foo");
+        when(FOO2.getPayload()).thenReturn("2");
+
+        BAR = endPoint("bar");
+    }
+
+    @Test
+    public void testEmptyContext() {
+        JumpHashPartitionFilter filter = new JumpHashPartitionFilter();
+        List<ServiceEndPoint> endPoints = ImmutableList.of(FOO, BAR);
+
+        assertEquals(endPoints, filter.filter(endPoints, PartitionContextBuilder.empty()));
+    }
+
+    @Test
+    public void testFilterIndexEmptyContext() {
+        JumpHashPartitionFilter filter = new JumpHashPartitionFilter();
+        EndPointSnapshot endPoints = new EndPointSnapshot(1, ImmutableList.of(FOO, BAR));
+
+        assertEquals(IndexedPartitionFilter.ALL_END_POINTS, filter.filterIndex(endPoints, PartitionContextBuilder.empty()));
+    }
+
+    @Test
+    public void testFilterIndexEmptySnapshot() {
+        JumpHashPartitionFilter filter = new JumpHashPartitionFilter();
+        EndPointSnapshot endPoints = new EndPointSnapshot(1, Collections.<ServiceEndPoint>emptyList());
+
+        assertEquals(IndexedPartitionFilter.NO_END_POINTS, filter.filterIndex(endPoints, PartitionContextBuilder.of("a")));
+    }
+
+    @Test
+    public void testConsistency() {
+        JumpHashPartitionFilter filter = new JumpHashPartitionFilter();
+        List<ServiceEndPoint> endPoints = ImmutableList.of(FOO, BAR);
+
+        PartitionContext context = PartitionContextBuilder.of(UUID.randomUUID().toString());
+
+        Iterable<ServiceEndPoint> filtered = filter.filter(endPoints, context);
+        assertTrue(filtered.equals(singleton(FOO)) || filtered.equals(singleton(BAR)));
+        assertEquals(filtered, filter.filter(endPoints, context));
+    }
+
+    @Test
+    public void testIndependentOfEndPointOrder() {
+        JumpHashPartitionFilter filter = new JumpHashPartitionFilter();
+        List<ServiceEndPoint> endPoints = ImmutableList.of(FOO, BAR);
+        List<ServiceEndPoint> reversed = ImmutableList.of(BAR, FOO);
+
+        for (int i = 0; i < 100; i++) {
+            PartitionContext context = PartitionContextBuilder.of(UUID.randomUUID().toString());
+            assertEquals(filter.filter(endPoints, context), filter.filter(reversed, context));
+        }
+    }
+
+    @Test
+    public void testFilterAndFilterIndexAgree() {
+        JumpHashPartitionFilter filter = new JumpHashPartitionFilter();
+        List<ServiceEndPoint> list = ImmutableList.of(FOO, BAR);
+        EndPointSnapshot snapshot = new EndPointSnapshot(1, list);
+
+        for (int i = 0; i < 100; i++) {
+            PartitionContext context = PartitionContextBuilder.of(UUID.randomUUID().toString());
+            ServiceEndPoint expected = snapshot.get(filter.filterIndex(snapshot, context));
+            assertEquals(singleton(expected), filter.filter(list, context));
+        }
+    }
+
+    @Test
+    public void testServiceIdConflict() {
+        JumpHashPartitionFilter filter = new JumpHashPartitionFilter();
+        PartitionContext context = PartitionContextBuilder.of(UUID.randomUUID().toString());
+
+        // With a single distinct ID every partition maps to it, and the last end point with that ID wins.
+        assertEquals(singleton(FOO), filter.filter(ImmutableList.of(FOO2, FOO), context));
+
+        // Removing the original FOO doesn't change the set of end point IDs, but FOO2 must still be discovered.
+        assertEquals(singleton(FOO2), filter.filter(ImmutableList.of(FOO2), context));
+    }
+
+    @Test
+    public void testRelevantPartitionContext() {
+        JumpHashPartitionFilter filter = new JumpHashPartitionFilter("cluster", "ensemble", "group");
+        List<ServiceEndPoint> endPoints = ImmutableList.of(FOO, BAR);
+
+        // Ignores the PartitionContext because it doesn't have an entry for cluster, ensemble or group.
+        assertEquals(endPoints, filter.filter(endPoints, PartitionContextBuilder.of("partition", "aaa")));
+
+        // Doesn't ignore the PartitionContext because it has an entry for at least one of cluster, ensemble or group.
+        Iterable<ServiceEndPoint> filtered = filter.filter(endPoints, PartitionContextBuilder.of("ensemble", "aaa"));
+        assertTrue(filtered.equals(singleton(FOO)) || filtered.equals(singleton(BAR)));
+    }
+
+    @Test
+    public void testEvenDistribution() {
+        JumpHashPartitionFilter filter = new JumpHashPartitionFilter();
+        List<ServiceEndPoint> endPoints = endPoints(10);
+
+        Map<ServiceEndPoint, Integer> counts = countPartitions(filter, endPoints, 100000);
+
+        // Every end point should get within 10% of its fair share of 10000 partitions.
+        for (ServiceEndPoint endPoint : endPoints) {
+            int count = counts.get(endPoint);
+            assertTrue(endPoint.getId() + " got " + count, count > 9000 && count < 11000);
+        }
+    }
+
+    @Test
+    public void testAppendingEndPointOnlyMovesPartitionsToIt() {
+        JumpHashPartitionFilter filter = new JumpHashPartitionFilter();
+        List<ServiceEndPoint> before = endPoints(9);
+        List<ServiceEndPoint> after = endPoints(9);
+        ServiceEndPoint added = endPoint("server-9");
+        after.add(added);
+
+        for (int i = 0; i < 1000; i++) {
+            PartitionContext context = PartitionContextBuilder.of(i);
+            Iterable<ServiceEndPoint> filteredAfter = filter.filter(after, context);
+            if (!filteredAfter.equals(singleton(added))) {
+                assertEquals(ids(filter.filter(before, context)), ids(filteredAfter));
+            }
+        }
+    }
+
+    private List<String> ids(Iterable<ServiceEndPoint> endPoints) {
+        List<String> ids = Lists.newArrayList();
+        for (ServiceEndPoint endPoint : endPoints) {
+            ids.add(endPoint.getId());
+        }
+        return ids;
+    }
+
+    private ServiceEndPoint endPoint(String id) {
+        ServiceEndPoint endPoint = mock(ServiceEndPoint.class);
+        when(endPoint.getId()).thenReturn(id);
+        return endPoint;
+    }
+
+    private List<ServiceEndPoint> endPoints(int count) {
+        List<ServiceEndPoint> endPoints = Lists.newArrayList();
+        for (int i = 0; i < count; i++) {
+            endPoints.add(endPoint("server-" + i));
+        }
+        return endPoints;
+    }
+
+    private Map<ServiceEndPoint, Integer> countPartitions(JumpHashPartitionFilter filter, List<ServiceEndPoint> endPoints,
+                                                          int numPartitions) {
+        EndPointSnapshot snapshot = new EndPointSnapshot(1, endPoints);
+        Map<ServiceEndPoint, Integer> counts = Maps.newHashMap();
+        for (ServiceEndPoint endPoint : endPoints) {
+            counts.put(endPoint, 0);
+        }
+        for (int i = 0; i < numPartitions; i++) {
+            ServiceEndPoint endPoint = snapshot.get(filter.filterIndex(snapshot, PartitionContextBuilder.of(i)));
+            counts.put(endPoint, counts.get(endPoint) + 1);
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,214 @@
+package com.bazaarvoice.ostrich.partition;
+
+import com.bazaarvoice.ostrich.EndPointSnapshot;
+import com.bazaarvoice.ostrich.PartitionContext;
+import com.bazaarvoice.ostrich.PartitionContextBuilder;
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static java.util.Collections.singleton;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class MaglevPartitionFilterTest {
+    private ServiceEndPoint FOO, FOO2, BAR;
+
+    @Before
+    public void setup() {
+        FOO = endPoint("foo");
+
+        FOO2 = endPoint("foo");
+        when(FOO2.getPayload()).thenReturn("2");
+
+        BAR = endPoint("bar");
+    }
+
+    @Test
+    public void testEmptyContext() {
+        MaglevPartitionFilter filter = new MaglevPartitionFilter();
+        List<ServiceEndPoint> endPoints = ImmutableList.of(FOO, BAR);
+
+        assertEquals(endPoints, filter.filter(endPoints, PartitionContextBuilder.empty()));
+    }
+
+    @Test
+    public void testFilterIndexEmptyContext() {
+        MaglevPartitionFilter filter = new MaglevPartitionFilter();
+        EndPointSnapshot endPoints = new EndPointSnapshot(1, ImmutableList.of(FOO, BAR));
+
+        assertEquals(IndexedPartitionFilter.ALL_END_POINTS, filter.filterIndex(endPoints, PartitionContextBuilder.empty()));
+    }
+
+    @Test
+    public void testFilterIndexEmptySnapshot() {
+        MaglevPartitionFilter filter = new MaglevPartitionFilter();
+        EndPointSnapshot endPoints = new EndPointSnapshot(1, Collections.<ServiceEndPoint>emptyList());
+
+        assertEquals(IndexedPartitionFilter.NO_END_POINTS, filter.filterIndex(endPoints, PartitionContextBuilder.of("a")));
+    }
+
+    @Test
+    public void testConsistency() {
+        MaglevPartitionFilter filter = new MaglevPartitionFilter();
+        List<ServiceEndPoint> endPoints = ImmutableList.of(FOO, BAR);
+
+        PartitionContext context = PartitionContextBuilder.of(UUID.randomUUID().toString());
+
+        Iterable<ServiceEndPoint> filtered = filter.filter(endPoints, context);
+        assertTrue(filtered.equals(singleton(FOO)) || filtered.equals(singleton(BAR)));
+        assertEquals(filtered, filter.filter(endPoints, context));
+    }
+
+    @Test
+    public void testIndependentOfEndPointOrder() {
+        MaglevPartitionFilter filter = new MaglevPartitionFilter();
+        List<ServiceEndPoint> endPoints = ImmutableList.of(FOO, BAR);
+        List<ServiceEndPoint> reversed = ImmutableList.of(BAR, FOO);
+
+        for (int i = 0; i < 100; i++) {
+            PartitionContext context = PartitionContextBuilder.of(UUID.randomUUID().toString());
+            assertEquals(filter.filter(endPoints, context), filter.filter(reversed, context));
+        }
+    }
+
+    @Test
+    public void testFilterAndFilterIndexAgree() {
+        MaglevPartitionFilter filter = new MaglevPartitionFilter();
+        List<ServiceEndPoint> list = ImmutableList.of(FOO, BAR);
+        EndPointSnapshot snapshot = new EndPointSnapshot(1, list);
+
+        for (int i = 0; i < 100; i++) {
+            PartitionContext context = PartitionContextBuilder.of(UUID.randomUUID().toString());
+            ServiceEndPoint expected = snapshot.get(filter.filterIndex(snapshot, context));
+            assertEquals(singleton(expected), filter.filter(list, context));
+        }
+    }
+
+    @Test
+    public void testServiceIdConflict() {
+        MaglevPartitionFilter filter = new MaglevPartitionFilter();
+        PartitionContext context = PartitionContextBuilder.of(UUID.randomUUID().toString());
+
+        // With a single distinct ID every partition maps to it, and the last end point with that ID wins.
+        assertEquals(singleton(FOO), filter.filter(ImmutableList.of(FOO2, FOO), context));
+
+        // Removing the original FOO doesn't change the set of end point IDs, but FOO2 must still be discovered.
+        assertEquals(singleton(FOO2), filter.filter(ImmutableList.of(FOO2), context));
+    }
+
+    @Test
+    public void testRelevantPartitionContext() {
+        MaglevPartitionFilter filter = new MaglevPartitionFilter("cluster", "ensemble", "group");
+        List<ServiceEndPoint> endPoints = ImmutableList.of(FOO, BAR);
+
+        // Ignores the PartitionContext because it doesn't have an entry for cluster, ensemble or group.
+        assertEquals(endPoints, filter.filter(endPoints, PartitionContextBuilder.of("partition", "aaa")));
+
+        // Doesn't ignore the PartitionContext because it has an entry for at least one of cluster, ensemble or group.
+        Iterable<ServiceEndPoint> filtered = filter.filter(endPoints, PartitionContextBuilder.of("ensemble", "aaa"));
+        assertTrue(filtered.equals(singleton(FOO)) || filtered.equals(singleton(BAR)));
+    }
+
+    @Test
+    public void testEvenDistribution() {
+        MaglevPartitionFilter filter = new MaglevPartitionFilter();
+        List<ServiceEndPoint> endPoints = endPoints(10);
+
+        Map<ServiceEndPoint, Integer> counts = countPartitions(filter, endPoints, 100000);
+
+        // Every end point should get within 10% of its fair share of 10000 partitions.
+        for (ServiceEndPoint endPoint : endPoints) {
+            int count = counts.get(endPoint);
+            assertTrue(endPoint.getId() + " got " + count, count > 9000 && count < 11000);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTableSizeMustBePrime() {
+        new MaglevPartitionFilter(Collections.<String>emptyList(), 65536);
+    }
+
+    @Test
+    public void testRemovingEndPointMovesFewPartitions() {
+        MaglevPartitionFilter filterBefore = new MaglevPartitionFilter();
+        MaglevPartitionFilter filterAfter = new MaglevPartitionFilter();
+        List<ServiceEndPoint> before = endPoints(10);
+        List<ServiceEndPoint> after = Lists.newArrayList(before);
+        ServiceEndPoint removed = after.remove(3);
+        EndPointSnapshot snapshotBefore = new EndPointSnapshot(1, before);
+        EndPointSnapshot snapshotAfter = new EndPointSnapshot(2, after);
+
+        int moved = 0;
+        for (int i = 0; i < 10000; i++) {
+            PartitionContext context = PartitionContextBuilder.of(i);
+            ServiceEndPoint endPointBefore = snapshotBefore.get(filterBefore.filterIndex(snapshotBefore, context));
+            ServiceEndPoint endPointAfter = snapshotAfter.get(filterAfter.filterIndex(snapshotAfter, context));
+            if (endPointBefore != removed && endPointBefore != endPointAfter) {
+                moved++;
+            }
+        }
+
+        // Maglev isn't perfectly minimal, but only a small fraction of the other partitions should move.
+        assertTrue("moved " + moved, moved < 500);
+    }
+
+    @Test
+    public void testAlternatingEndPointSets() {
+        MaglevPartitionFilter filter = new MaglevPartitionFilter();
+        List<ServiceEndPoint> first = endPoints(10);
+        List<ServiceEndPoint> second = first.subList(0, 9);
+        EndPointSnapshot firstSnapshot = new EndPointSnapshot(1, first);
+        EndPointSnapshot secondSnapshot = new EndPointSnapshot(2, second);
+
+        PartitionContext context = PartitionContextBuilder.of("key");
+        Iterable<ServiceEndPoint> filteredFirst = filter.filter(first, context);
+        Iterable<ServiceEndPoint> filteredSecond = filter.filter(second, context);
+        int indexFirst = filter.filterIndex(firstSnapshot, context);
+        int indexSecond = filter.filterIndex(secondSnapshot, context);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(filteredFirst, filter.filter(first, context));
+            assertEquals(filteredSecond, filter.filter(second, context));
+            assertEquals(indexFirst, filter.filterIndex(firstSnapshot, context));
+            assertEquals(indexSecond, filter.filterIndex(secondSnapshot, context));
+        }
+    }
+
+    private ServiceEndPoint endPoint(String id) {
+        ServiceEndPoint endPoint = mock(ServiceEndPoint.class);
+        when(endPoint.getId()).thenReturn(id);
+        return endPoint;
+    }
+
+    private List<ServiceEndPoint> endPoints(int count) {
+        List<ServiceEndPoint> endPoints = Lists.newArrayList();
+        for (int i = 0; i < count; i++) {
+            endPoints.add(endPoint("server-" + i));
+        }
+        return endPoints;
+    }
+
+    private Map<ServiceEndPoint, Integer> countPartitions(MaglevPartitionFilter filter, List<ServiceEndPoint> endPoints,
+                                                          int numPartitions) {
+        EndPointSnapshot snapshot = new EndPointSnapshot(1, endPoints);
+        Map<ServiceEndPoint, Integer> counts = Maps.newHashMap();
+        for (ServiceEndPoint endPoint : endPoints) {
+            counts.put(endPoint, 0);
+        }
+        for (int i = 0; i < numPartitions; i++) {
+            ServiceEndPoint endPoint = snapshot.get(filter.filterIndex(snapshot, PartitionContextBuilder.of(i)));
+            counts.put(endPoint, counts.get(endPoint) + 1);
+        }
+        return counts;
+    }
+}
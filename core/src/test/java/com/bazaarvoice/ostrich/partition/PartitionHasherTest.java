@@ -0,0 +1,71 @@
+package com.bazaarvoice.ostrich.partition;
+
+import com.bazaarvoice.ostrich.PartitionContext;
+import com.bazaarvoice.ostrich.PartitionContextBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class PartitionHasherTest {
+    private final PartitionHasher _hasher = new PartitionHasher(Collections.<String>emptyList(), Hashing.md5());
+
+    @Test
+    public void testHashMatchesHashFunction() {
+        Hasher expected = Hashing.md5().newHasher();
+        PartitionHasher.putUnencodedChars(expected, "a");
+        HashCode expectedHash = expected.hash();
+
+        PartitionHash hash = _hasher.hash(PartitionContextBuilder.of("a"));
+
+        assertEquals(expectedHash.asInt(), hash.asInt());
+        assertEquals(expectedHash.padToLong(), hash.asLong());
+    }
+
+    @Test
+    public void testHashIsReused() {
+        PartitionContext context = PartitionContextBuilder.of("a");
+
+        assertSame(_hasher.hash(context), _hasher.hash(context));
+    }
+
+    @Test
+    public void testEqualContextsHashTheSame() {
+        PartitionHash hash = _hasher.hash(PartitionContextBuilder.of("a"));
+        PartitionHash equalHash = _hasher.hash(PartitionContextBuilder.of("a"));
+
+        assertNotSame(hash, equalHash);
+        assertEquals(hash.asLong(), equalHash.asLong());
+    }
+
+    @Test
+    public void testHashesAreNotSharedBetweenHashers() {
+        PartitionHasher otherHasher = new PartitionHasher(Collections.<String>emptyList(), Hashing.murmur3_32());
+        PartitionContext context = PartitionContextBuilder.of("a");
+
+        PartitionHash hash = _hasher.hash(context);
+        PartitionHash otherHash = otherHasher.hash(context);
+
+        assertNotEquals(hash.asLong(), otherHash.asLong());
+        assertSame(hash, _hasher.hash(context));
+        assertSame(otherHash, otherHasher.hash(context));
+    }
+
+    @Test
+    public void testIrrelevantPartitionContext() {
+        PartitionHasher hasher = new PartitionHasher(ImmutableList.of("foo"), Hashing.md5());
+
+        assertNull(hasher.hash(PartitionContextBuilder.of("bar", "a")));
+        assertNull(hasher.hash(PartitionContextBuilder.empty()));
+        assertNull(hasher.hash(PartitionContextBuilder.empty()));
+    }
+}
@@ -1,26 +1,39 @@
 package com.bazaarvoice.ostrich.pool;
 
+import com.bazaarvoice.ostrich.AsyncServiceCallback;
+import com.bazaarvoice.ostrich.EndPointSnapshot;
+import com.bazaarvoice.ostrich.ExtendedServicePoolStatistics;
 import com.bazaarvoice.ostrich.HealthCheckResults;
 import com.bazaarvoice.ostrich.HostDiscovery;
+import com.bazaarvoice.ostrich.ListenableServiceFuture;
 import com.bazaarvoice.ostrich.LoadBalanceAlgorithm;
 import com.bazaarvoice.ostrich.PartitionContext;
+import com.bazaarvoice.ostrich.PartitionContextBuilder;
 import com.bazaarvoice.ostrich.RetryPolicy;
 import com.bazaarvoice.ostrich.ServiceCallback;
 import com.bazaarvoice.ostrich.ServiceEndPoint;
 import com.bazaarvoice.ostrich.ServiceFactory;
 import com.bazaarvoice.ostrich.ServicePoolStatistics;
+import com.bazaarvoice.ostrich.SettableServiceFuture;
+import com.bazaarvoice.ostrich.exceptions.ConcurrencyLimitExceededException;
 import com.bazaarvoice.ostrich.exceptions.MaxRetriesException;
 import com.bazaarvoice.ostrich.exceptions.NoAvailableHostsException;
 import com.bazaarvoice.ostrich.exceptions.NoSuitableHostsException;
 import com.bazaarvoice.ostrich.exceptions.OnlyBadHostsException;
+import com.bazaarvoice.ostrich.exceptions.RateLimitExceededException;
 import com.bazaarvoice.ostrich.exceptions.ServiceException;
 import com.bazaarvoice.ostrich.healthcheck.FixedHealthCheckRetryDelay;
+import com.bazaarvoice.ostrich.partition.IndexedPartitionFilter;
+import com.bazaarvoice.ostrich.partition.LoadAwarePartitionFilter;
 import com.bazaarvoice.ostrich.partition.PartitionFilter;
 import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Throwables;
 import com.google.common.base.Ticker;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Uninterruptibles;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -29,15 +42,18 @@ import org.mockito.Matchers;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.util.Collections;
 import java.util.Set;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -526,6 +542,768 @@ public abstract class AbstractServicePoolTestingHarness {
         assertEquals(numActiveInitially + 1, numActiveDuringExecute);
     }
 
+    @Test
+    public void testStatsNumOutstandingRequestsIncrementsDuringExecute() {
+        // Make sure we only get FOO_ENDPOINT.
+        reset(_loadBalanceAlgorithm);
+        when(_loadBalanceAlgorithm.choose(Matchers.<Iterable<ServiceEndPoint>>any(), any(ServicePoolStatistics.class)))
+                .thenReturn(FOO_ENDPOINT);
+
+        final ExtendedServicePoolStatistics servicePoolStatistics = _pool.getServicePoolStatistics();
+
+        int numOutstandingDuringExecute = _pool.execute(NEVER_RETRY, new ServiceCallback<Service, Integer>() {
+            @Override
+            public Integer call(Service service) throws ServiceException {
+                return servicePoolStatistics.getNumOutstandingRequests(FOO_ENDPOINT);
+            }
+        });
+
+        assertEquals(1, numOutstandingDuringExecute);
+        assertEquals(0, servicePoolStatistics.getNumOutstandingRequests(FOO_ENDPOINT));
+        assertEquals(0, servicePoolStatistics.getNumOutstandingRequests(BAR_ENDPOINT));
+    }
+
+    @Test
+    public void testStatsTotalNumOutstandingRequestsIncrementsDuringExecute() {
+        final ExtendedServicePoolStatistics servicePoolStatistics = _pool.getServicePoolStatistics();
+
+        int numOutstandingDuringExecute = _pool.execute(NEVER_RETRY, new ServiceCallback<Service, Integer>() {
+            @Override
+            public Integer call(Service service) throws ServiceException {
+                return servicePoolStatistics.getTotalNumOutstandingRequests();
+            }
+        });
+
+        assertEquals(1, numOutstandingDuringExecute);
+        assertEquals(0, servicePoolStatistics.getTotalNumOutstandingRequests());
+    }
+
+    @Test
+    public void testSlowAttemptIsHedged() throws Exception {
+        reset(_loadBalanceAlgorithm);
+        when(_loadBalanceAlgorithm.choose(Matchers.<Iterable<ServiceEndPoint>>any(), any(ServicePoolStatistics.class)))
+                .thenReturn(FOO_ENDPOINT, BAR_ENDPOINT);
+
+        ExecutorService hedgeExecutor = Executors.newCachedThreadPool();
+        ServicePool<Service> pool = newHedgingPool(new HedgingPolicyBuilder()
+                .withHedgeDelay(10, TimeUnit.MILLISECONDS)
+                .withMaxHedgeRatio(1)
+                .build(), hedgeExecutor);
+
+        final CountDownLatch interruptedLatch = new CountDownLatch(1);
+        Service result = pool.execute(NEVER_RETRY, new ServiceCallback<Service, Service>() {
+            @Override
+            public Service call(Service service) throws ServiceException {
+                if (service == FOO_SERVICE) {
+                    try {
+                        Thread.sleep(TimeUnit.SECONDS.toMillis(10));
+                    } catch (InterruptedException e) {
+                        interruptedLatch.countDown();
+                        throw new ServiceException(e);
+                    }
+                }
+                return service;
+            }
+        });
+
+        assertSame(BAR_SERVICE, result);
+
+        // The slow attempt should have been cancelled, and failing because of that doesn't make FOO a bad end point.
+        assertTrue(interruptedLatch.await(10, TimeUnit.SECONDS));
+        hedgeExecutor.shutdown();
+        assertTrue(hedgeExecutor.awaitTermination(10, TimeUnit.SECONDS));
+        assertTrue(pool.getBadEndPoints().isEmpty());
+
+        pool.close();
+    }
+
+    @Test
+    public void testFastAttemptIsNotHedged() {
+        ExecutorService hedgeExecutor = Executors.newCachedThreadPool();
+        ServicePool<Service> pool = newHedgingPool(new HedgingPolicyBuilder()
+                .withHedgeDelay(10, TimeUnit.SECONDS)
+                .withMaxHedgeRatio(1)
+                .build(), hedgeExecutor);
+
+        Service result = pool.execute(NEVER_RETRY, new ServiceCallback<Service, Service>() {
+            @Override
+            public Service call(Service service) throws ServiceException {
+                return service;
+            }
+        });
+
+        assertSame(FOO_SERVICE, result);
+        verify(_loadBalanceAlgorithm).choose(Matchers.<Iterable<ServiceEndPoint>>any(),
+                any(ServicePoolStatistics.class));
+
+        pool.close();
+        hedgeExecutor.shutdownNow();
+    }
+
+    @Test
+    public void testHedgeBudgetIsRespected() {
+        reset(_loadBalanceAlgorithm);
+        when(_loadBalanceAlgorithm.choose(Matchers.<Iterable<ServiceEndPoint>>any(), any(ServicePoolStatistics.class)))
+                .thenReturn(FOO_ENDPOINT, BAR_ENDPOINT);
+
+        ExecutorService hedgeExecutor = Executors.newCachedThreadPool();
+        ServicePool<Service> pool = newHedgingPool(new HedgingPolicyBuilder()
+                .withHedgeDelay(1, TimeUnit.MILLISECONDS)
+                .withMaxHedgeRatio(0)
+                .build(), hedgeExecutor);
+
+        final Set<Service> services = Sets.newConcurrentHashSet();
+        Service result = pool.execute(NEVER_RETRY, new ServiceCallback<Service, Service>() {
+            @Override
+            public Service call(Service service) throws ServiceException {
+                services.add(service);
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    throw new ServiceException(e);
+                }
+                return service;
+            }
+        });
+
+        assertSame(FOO_SERVICE, result);
+        assertEquals(Collections.singleton(FOO_SERVICE), services);
+
+        pool.close();
+        hedgeExecutor.shutdownNow();
+    }
+
+    @Test
+    public void testNoHedgeWithoutAnotherEndPoint() {
+        when(_hostDiscovery.getHosts()).thenReturn(ImmutableList.of(FOO_ENDPOINT));
+
+        ExecutorService hedgeExecutor = Executors.newCachedThreadPool();
+        ServicePool<Service> pool = newHedgingPool(new HedgingPolicyBuilder()
+                .withHedgeDelay(1, TimeUnit.MILLISECONDS)
+                .withMaxHedgeRatio(1)
+                .build(), hedgeExecutor);
+
+        Service result = pool.execute(NEVER_RETRY, new ServiceCallback<Service, Service>() {
+            @Override
+            public Service call(Service service) throws ServiceException {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    throw new ServiceException(e);
+                }
+                return service;
+            }
+        });
+
+        assertSame(FOO_SERVICE, result);
+        verify(_loadBalanceAlgorithm).choose(Matchers.<Iterable<ServiceEndPoint>>any(),
+                any(ServicePoolStatistics.class));
+
+        pool.close();
+        hedgeExecutor.shutdownNow();
+    }
+
+    private ServicePool<Service> newHedgingPool(HedgingPolicy hedgingPolicy, ExecutorService hedgeExecutor) {
+        return new ServicePool<>(_ticker, _hostDiscovery, false, _serviceFactory, UNLIMITED_CACHING, _partitionFilter,
+                _loadBalanceAlgorithm, _healthCheckExecutor, false, FixedHealthCheckRetryDelay.ZERO, hedgingPolicy,
+                hedgeExecutor, false, null, null, null, _registry);
+    }
+
+    @Test
+    public void testSingleFailureDoesNotEjectOutlier() {
+        ServicePool<Service> pool = newOutlierDetectionPool(new OutlierDetectionPolicyBuilder()
+                .withMaxConsecutiveFailures(3)
+                .build());
+
+        executeFailing(pool, FOO_ENDPOINT);
+
+        assertTrue(pool.getBadEndPoints().isEmpty());
+        pool.close();
+    }
+
+    @Test
+    public void testConsecutiveFailuresEjectOutlier() {
+        ServicePool<Service> pool = newOutlierDetectionPool(new OutlierDetectionPolicyBuilder()
+                .withMaxConsecutiveFailures(3)
+                .build());
+
+        executeFailing(pool, FOO_ENDPOINT);
+        executeFailing(pool, FOO_ENDPOINT);
+        assertTrue(pool.getBadEndPoints().isEmpty());
+
+        executeFailing(pool, FOO_ENDPOINT);
+        assertEquals(ImmutableSet.of(FOO_ENDPOINT), pool.getBadEndPoints());
+        pool.close();
+    }
+
+    @Test
+    public void testSuccessResetsConsecutiveFailures() {
+        ServicePool<Service> pool = newOutlierDetectionPool(new OutlierDetectionPolicyBuilder()
+                .withMaxConsecutiveFailures(2)
+                .build());
+
+        executeFailing(pool, FOO_ENDPOINT);
+        executeSucceeding(pool, FOO_ENDPOINT);
+        executeFailing(pool, FOO_ENDPOINT);
+
+        assertTrue(pool.getBadEndPoints().isEmpty());
+        pool.close();
+    }
+
+    @Test
+    public void testErrorRateEjectsOutlier() {
+        ServicePool<Service> pool = newOutlierDetectionPool(new OutlierDetectionPolicyBuilder()
+                .withMaxConsecutiveFailures(100)
+                .withMaxErrorRate(0.5, 4)
+                .build());
+
+        executeFailing(pool, FOO_ENDPOINT);
+        executeSucceeding(pool, FOO_ENDPOINT);
+        executeFailing(pool, FOO_ENDPOINT);
+        executeSucceeding(pool, FOO_ENDPOINT);
+        assertTrue(pool.getBadEndPoints().isEmpty());
+
+        executeFailing(pool, FOO_ENDPOINT);
+        assertEquals(ImmutableSet.of(FOO_ENDPOINT), pool.getBadEndPoints());
+        pool.close();
+    }
+
+    @Test
+    public void testMaxEjectionRatioIsRespected() {
+        ServicePool<Service> pool = newOutlierDetectionPool(new OutlierDetectionPolicyBuilder()
+                .withMaxConsecutiveFailures(1)
+                .withMaxEjectionRatio(0.4)
+                .build());
+
+        executeFailing(pool, FOO_ENDPOINT);
+        executeFailing(pool, BAR_ENDPOINT);
+
+        // Only one of the three end points may be ejected.
+        assertEquals(ImmutableSet.of(FOO_ENDPOINT), pool.getBadEndPoints());
+        pool.close();
+    }
+
+    @Test
+    public void testRecoveredOutlierIsHalfOpen() {
+        ServicePool<Service> pool = newOutlierDetectionPool(new OutlierDetectionPolicyBuilder()
+                .withMaxConsecutiveFailures(1)
+                .withHalfOpen(Double.MIN_VALUE, 2)
+                .build());
+        ejectAndRecover(pool, FOO_ENDPOINT);
+
+        assertTrue(pool.getBadEndPoints().isEmpty());
+        assertEquals(ImmutableSet.of(FOO_ENDPOINT), pool.getHalfOpenEndPoints());
+        pool.close();
+    }
+
+    @Test
+    public void testHalfOpenEndPointTrafficIsLimited() {
+        ServicePool<Service> pool = newOutlierDetectionPool(new OutlierDetectionPolicyBuilder()
+                .withMaxConsecutiveFailures(1)
+                .withHalfOpen(Double.MIN_VALUE, 2)
+                .build());
+        ejectAndRecover(pool, FOO_ENDPOINT);
+
+        reset(_loadBalanceAlgorithm);
+        when(_loadBalanceAlgorithm.choose(Matchers.<Iterable<ServiceEndPoint>>any(), any(ServicePoolStatistics.class)))
+                .thenReturn(FOO_ENDPOINT, BAR_ENDPOINT);
+
+        Service service = pool.execute(NEVER_RETRY, new ServiceCallback<Service, Service>() {
+            @Override
+            public Service call(Service service) throws ServiceException {
+                return service;
+            }
+        });
+        assertSame(BAR_SERVICE, service);
+        pool.close();
+    }
+
+    @Test
+    public void testHalfOpenEndPointUsedWhenOnlyChoice() {
+        ServicePool<Service> pool = newOutlierDetectionPool(new OutlierDetectionPolicyBuilder()
+                .withMaxConsecutiveFailures(1)
+                .withHalfOpen(Double.MIN_VALUE, 2)
+                .build());
+        ejectAndRecover(pool, FOO_ENDPOINT);
+
+        // The load balancer always prefers FOO, which is like a partition filter pinning requests to it.
+        Service service = pool.execute(NEVER_RETRY, new ServiceCallback<Service, Service>() {
+            @Override
+            public Service call(Service service) throws ServiceException {
+                return service;
+            }
+        });
+        assertSame(FOO_SERVICE, service);
+        pool.close();
+    }
+
+    @Test
+    public void testHalfOpenSuccessesReadmitEndPoint() {
+        ServicePool<Service> pool = newOutlierDetectionPool(new OutlierDetectionPolicyBuilder()
+                .withMaxConsecutiveFailures(1)
+                .withHalfOpen(1, 2)
+                .build());
+        ejectAndRecover(pool, FOO_ENDPOINT);
+
+        executeSucceeding(pool, FOO_ENDPOINT);
+        assertEquals(ImmutableSet.of(FOO_ENDPOINT), pool.getHalfOpenEndPoints());
+
+        executeSucceeding(pool, FOO_ENDPOINT);
+        assertTrue(pool.getHalfOpenEndPoints().isEmpty());
+        assertTrue(pool.getBadEndPoints().isEmpty());
+        pool.close();
+    }
+
+    @Test
+    public void testHalfOpenFailureEjectsEndPoint() {
+        ServicePool<Service> pool = newOutlierDetectionPool(new OutlierDetectionPolicyBuilder()
+                .withMaxConsecutiveFailures(3)
+                .withHalfOpen(1, 2)
+                .build());
+        executeFailing(pool, FOO_ENDPOINT);
+        executeFailing(pool, FOO_ENDPOINT);
+        ejectAndRecover(pool, FOO_ENDPOINT);
+
+        executeFailing(pool, FOO_ENDPOINT);
+
+        assertTrue(pool.getHalfOpenEndPoints().isEmpty());
+        assertEquals(ImmutableSet.of(FOO_ENDPOINT), pool.getBadEndPoints());
+        pool.close();
+    }
+
+    @Test
+    public void testLatencyOutlierIsEjected() throws Exception {
+        ServicePool<Service> pool = newOutlierDetectionPool(new OutlierDetectionPolicyBuilder()
+                .withLatencyOutlierFactor(3)
+                .build());
+
+        ServiceCallback<Service, Void> fastCallback = new ServiceCallback<Service, Void>() {
+            @Override
+            public Void call(Service service) throws ServiceException {
+                return null;
+            }
+        };
+        ServiceCallback<Service, Void> slowCallback = new ServiceCallback<Service, Void>() {
+            @Override
+            public Void call(Service service) throws ServiceException {
+                Uninterruptibles.sleepUninterruptibly(5, TimeUnit.MILLISECONDS);
+                return null;
+            }
+        };
+        for (int i = 0; i < 20; i++) {
+            pool.executeOnEndPoint(FOO_ENDPOINT, slowCallback);
+            pool.executeOnEndPoint(BAR_ENDPOINT, fastCallback);
+            pool.executeOnEndPoint(BAZ_ENDPOINT, fastCallback);
+        }
+
+        pool.checkForLatencyOutliers();
+
+        assertEquals(ImmutableSet.of(FOO_ENDPOINT), pool.getBadEndPoints());
+        pool.close();
+    }
+
+    @Test
+    public void testConcurrencyLimitRejectsRequestOverLimit() throws Exception {
+        final ServicePool<Service> pool = newConcurrencyLimitPool(new ConcurrencyLimitPolicyBuilder()
+                .withInitialLimit(1)
+                .withLimitRange(1, 1)
+                .build());
+
+        pool.executeOnEndPoint(FOO_ENDPOINT, new ServiceCallback<Service, Void>() {
+            @Override
+            public Void call(Service service) throws ServiceException {
+                try {
+                    executeSucceeding(pool, FOO_ENDPOINT);
+                    fail();
+                } catch (ConcurrencyLimitExceededException e) {
+                    // Expected
+                }
+                return null;
+            }
+        });
+
+        assertTrue(pool.getBadEndPoints().isEmpty());
+        pool.close();
+    }
+
+    @Test
+    public void testConcurrencyLimitRoutesAroundSaturatedEndPoint() throws Exception {
+        final ServicePool<Service> pool = newConcurrencyLimitPool(new ConcurrencyLimitPolicyBuilder()
+                .withInitialLimit(1)
+                .withLimitRange(1, 1)
+                .build());
+
+        Service service = pool.executeOnEndPoint(FOO_ENDPOINT, new ServiceCallback<Service, Service>() {
+            @Override
+            public Service call(Service service) throws ServiceException {
+                reset(_loadBalanceAlgorithm);
+                when(_loadBalanceAlgorithm.choose(Matchers.<Iterable<ServiceEndPoint>>any(),
+                        any(ServicePoolStatistics.class))).thenReturn(FOO_ENDPOINT, BAR_ENDPOINT);
+
+                return pool.execute(NEVER_RETRY, new ServiceCallback<Service, Service>() {
+                    @Override
+                    public Service call(Service service) throws ServiceException {
+                        return service;
+                    }
+                });
+            }
+        });
+
+        assertSame(BAR_SERVICE, service);
+        pool.close();
+    }
+
+    @Test
+    public void testConcurrencyLimitReleasedAfterFailure() {
+        ServicePool<Service> pool = newConcurrencyLimitPool(new ConcurrencyLimitPolicyBuilder()
+                .withInitialLimit(1)
+                .withLimitRange(1, 1)
+                .build());
+
+        executeFailing(pool, FOO_ENDPOINT);
+        executeSucceeding(pool, FOO_ENDPOINT);
+
+        assertEquals(0, pool.getServicePoolStatistics().getNumOutstandingRequests(FOO_ENDPOINT));
+        pool.close();
+    }
+
+    @Test
+    public void testConcurrencyLimitShrinksAfterFailures() {
+        ServicePool<Service> pool = newConcurrencyLimitPool(new ConcurrencyLimitPolicyBuilder()
+                .withInitialLimit(10)
+                .build());
+
+        for (int i = 0; i < 5; i++) {
+            executeFailing(pool, FOO_ENDPOINT);
+        }
+
+        assertEquals(5, pool.getEndPointConcurrencyLimit(FOO_ENDPOINT));
+        pool.close();
+    }
+
+    @Test
+    public void testNoConcurrencyLimitByDefault() {
+        executeSucceeding(_pool, FOO_ENDPOINT);
+
+        assertEquals(-1, _pool.getEndPointConcurrencyLimit(FOO_ENDPOINT));
+    }
+
+    @Test
+    public void testRateLimitRejectsRequestOverLimit() {
+        ServicePool<Service> pool = newRateLimitPool(new RateLimitPolicyBuilder()
+                .withPermitsPerSecond(1)
+                .build());
+
+        pool.execute(NEVER_RETRY, newNoOpCallback());
+        try {
+            pool.execute(NEVER_RETRY, newNoOpCallback());
+            fail();
+        } catch (RateLimitExceededException e) {
+            // Expected
+        }
+        pool.close();
+    }
+
+    @Test
+    public void testRateLimitRefills() {
+        ServicePool<Service> pool = newRateLimitPool(new RateLimitPolicyBuilder()
+                .withPermitsPerSecond(1)
+                .build());
+
+        pool.execute(NEVER_RETRY, newNoOpCallback());
+        when(_ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(1));
+        pool.execute(NEVER_RETRY, newNoOpCallback());
+        pool.close();
+    }
+
+    @Test
+    public void testRateLimitBurst() {
+        ServicePool<Service> pool = newRateLimitPool(new RateLimitPolicyBuilder()
+                .withPermitsPerSecond(1)
+                .withMaxBurst(3, TimeUnit.SECONDS)
+                .build());
+
+        for (int i = 0; i < 3; i++) {
+            pool.execute(NEVER_RETRY, newNoOpCallback());
+        }
+        try {
+            pool.execute(NEVER_RETRY, newNoOpCallback());
+            fail();
+        } catch (RateLimitExceededException e) {
+            // Expected
+        }
+        pool.close();
+    }
+
+    @Test
+    public void testRateLimitWaitsForPermit() {
+        ServicePool<Service> pool = newRateLimitPool(new RateLimitPolicyBuilder()
+                .withPermitsPerSecond(1000)
+                .withMaxBurst(1, TimeUnit.MILLISECONDS)
+                .withMaxWait(10, TimeUnit.SECONDS)
+                .build());
+
+        // The ticker never moves, so the second request has to wait a millisecond for its permit.
+        pool.execute(NEVER_RETRY, newNoOpCallback());
+        pool.execute(NEVER_RETRY, newNoOpCallback());
+        pool.close();
+    }
+
+    @Test
+    public void testRateLimitWaitIsInterruptible() {
+        ServicePool<Service> pool = newRateLimitPool(new RateLimitPolicyBuilder()
+                .withPermitsPerSecond(1000)
+                .withMaxBurst(1, TimeUnit.MILLISECONDS)
+                .withMaxWait(1, TimeUnit.MILLISECONDS)
+                .build());
+
+        pool.execute(NEVER_RETRY, newNoOpCallback());
+        Thread.currentThread().interrupt();
+        try {
+            pool.execute(NEVER_RETRY, newNoOpCallback());
+            fail();
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof InterruptedException);
+        }
+        assertTrue(Thread.interrupted());
+
+        // The interrupted request gave its permit back, so this one only has to wait a millisecond for it.
+        pool.execute(NEVER_RETRY, newNoOpCallback());
+        pool.close();
+    }
+
+    @Test
+    public void testRateLimitPerPartition() {
+        ServicePool<Service> pool = newRateLimitPool(new RateLimitPolicyBuilder()
+                .withPartitionPermitsPerSecond("", 1)
+                .build());
+
+        pool.execute(PartitionContextBuilder.of("a"), NEVER_RETRY, newNoOpCallback());
+        pool.execute(PartitionContextBuilder.of("b"), NEVER_RETRY, newNoOpCallback());
+        try {
+            pool.execute(PartitionContextBuilder.of("a"), NEVER_RETRY, newNoOpCallback());
+            fail();
+        } catch (RateLimitExceededException e) {
+            // Expected
+        }
+
+        // Requests without a value for the partition key aren't limited.
+        pool.execute(NEVER_RETRY, newNoOpCallback());
+        pool.execute(NEVER_RETRY, newNoOpCallback());
+        pool.close();
+    }
+
+    @Test
+    public void testRateLimitRejectionByPartitionRefundsPoolPermit() {
+        ServicePool<Service> pool = newRateLimitPool(new RateLimitPolicyBuilder()
+                .withPermitsPerSecond(1)
+                .withMaxBurst(2, TimeUnit.SECONDS)
+                .withPartitionPermitsPerSecond("", 0.5)
+                .build());
+
+        pool.execute(PartitionContextBuilder.of("a"), NEVER_RETRY, newNoOpCallback());
+        try {
+            pool.execute(PartitionContextBuilder.of("a"), NEVER_RETRY, newNoOpCallback());
+            fail();
+        } catch (RateLimitExceededException e) {
+            // Expected
+        }
+        pool.execute(PartitionContextBuilder.of("b"), NEVER_RETRY, newNoOpCallback());
+        pool.close();
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testExecuteCoalescedNullPartitionContext() {
+        _pool.executeCoalesced(null, "key", NEVER_RETRY, newNoOpCallback());
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testExecuteCoalescedNullKey() {
+        _pool.executeCoalesced(PartitionContextBuilder.empty(), null, NEVER_RETRY, newNoOpCallback());
+    }
+
+    @Test
+    public void testExecuteCoalescedReturnsResult() {
+        String result = _pool.executeCoalesced(PartitionContextBuilder.empty(), "key", NEVER_RETRY,
+                new ServiceCallback<Service, String>() {
+                    @Override
+                    public String call(Service service) throws ServiceException {
+                        return "foo";
+                    }
+                });
+
+        assertEquals("foo", result);
+    }
+
+    @Test
+    public void testExecuteCoalescedIsNotCached() {
+        final AtomicInteger numCalls = new AtomicInteger();
+        ServiceCallback<Service, Integer> callback = new ServiceCallback<Service, Integer>() {
+            @Override
+            public Integer call(Service service) throws ServiceException {
+                return numCalls.incrementAndGet();
+            }
+        };
+
+        assertEquals(1, (int) _pool.executeCoalesced(PartitionContextBuilder.empty(), "key", NEVER_RETRY, callback));
+        assertEquals(2, (int) _pool.executeCoalesced(PartitionContextBuilder.empty(), "key", NEVER_RETRY, callback));
+    }
+
+    @Test
+    public void testExecuteCoalescedPropagatesException() {
+        final RuntimeException exception = new RuntimeException();
+        try {
+            _pool.executeCoalesced(PartitionContextBuilder.empty(), "key", NEVER_RETRY,
+                    new ServiceCallback<Service, Void>() {
+                        @Override
+                        public Void call(Service service) throws ServiceException {
+                            throw exception;
+                        }
+                    });
+            fail();
+        } catch (MaxRetriesException e) {
+            assertSame(exception, e.getCause());
+        }
+    }
+
+    private ServicePool<Service> newRateLimitPool(RateLimitPolicy rateLimitPolicy) {
+        return new ServicePool<>(_ticker, _hostDiscovery, false, _serviceFactory, UNLIMITED_CACHING, _partitionFilter,
+                _loadBalanceAlgorithm, _healthCheckExecutor, false, FixedHealthCheckRetryDelay.ZERO, null, null, false,
+                null, null, rateLimitPolicy, _registry);
+    }
+
+    private ServicePool<Service> newConcurrencyLimitPool(ConcurrencyLimitPolicy concurrencyLimitPolicy) {
+        return new ServicePool<>(_ticker, _hostDiscovery, false, _serviceFactory, UNLIMITED_CACHING, _partitionFilter,
+                _loadBalanceAlgorithm, _healthCheckExecutor, false, FixedHealthCheckRetryDelay.ZERO, null, null, false,
+                null, concurrencyLimitPolicy, null, _registry);
+    }
+
+    private ServicePool<Service> newOutlierDetectionPool(OutlierDetectionPolicy outlierDetectionPolicy) {
+        return new ServicePool<>(_ticker, _hostDiscovery, false, _serviceFactory, UNLIMITED_CACHING, _partitionFilter,
+                _loadBalanceAlgorithm, _healthCheckExecutor, false, FixedHealthCheckRetryDelay.ZERO, null, null, false,
+                outlierDetectionPolicy, null, null, _registry);
+    }
+
+    private void ejectAndRecover(ServicePool<Service> pool, ServiceEndPoint endPoint) {
+        executeFailing(pool, endPoint);
+        assertTrue(pool.getBadEndPoints().contains(endPoint));
+
+        when(_serviceFactory.isHealthy(endPoint)).thenReturn(true);
+        pool.forceHealthChecks();
+    }
+
+    private static void executeSucceeding(ServicePool<Service> pool, ServiceEndPoint endPoint) {
+        try {
+            pool.executeOnEndPoint(endPoint, new ServiceCallback<Service, Void>() {
+                @Override
+                public Void call(Service service) throws ServiceException {
+                    return null;
+                }
+            });
+        } catch (Exception e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    private static void executeFailing(ServicePool<Service> pool, ServiceEndPoint endPoint) {
+        try {
+            pool.executeOnEndPoint(endPoint, new ServiceCallback<Service, Void>() {
+                @Override
+                public Void call(Service service) throws ServiceException {
+                    throw new ServiceException();
+                }
+            });
+            fail();
+        } catch (ServiceException e) {
+            // Expected
+        } catch (Exception e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    @Test
+    public void testLoadAwarePartitionFilterIsGivenStatistics() {
+        LoadAwarePartitionFilter partitionFilter = mock(LoadAwarePartitionFilter.class);
+        when(partitionFilter.filterIndex(any(EndPointSnapshot.class), any(PartitionContext.class),
+                any(ExtendedServicePoolStatistics.class))).thenReturn(IndexedPartitionFilter.ALL_END_POINTS);
+        ServicePool<Service> pool = new ServicePool<>(_ticker, _hostDiscovery, false, _serviceFactory,
+                UNLIMITED_CACHING, partitionFilter, _loadBalanceAlgorithm, _healthCheckExecutor, false,
+                FixedHealthCheckRetryDelay.ZERO, _registry);
+
+        pool.execute(NEVER_RETRY, newNoOpCallback());
+
+        verify(partitionFilter).filterIndex(any(EndPointSnapshot.class), any(PartitionContext.class),
+                same(pool.getServicePoolStatistics()));
+        verify(partitionFilter, never()).filterIndex(any(EndPointSnapshot.class), any(PartitionContext.class));
+        pool.close();
+    }
+
+    @Test
+    public void testStatsNumOutstandingRequestsDecrementsAfterFailure() {
+        reset(_loadBalanceAlgorithm);
+        when(_loadBalanceAlgorithm.choose(Matchers.<Iterable<ServiceEndPoint>>any(), any(ServicePoolStatistics.class)))
+                .thenReturn(FOO_ENDPOINT);
+
+        try {
+            _pool.execute(NEVER_RETRY, new ServiceCallback<Service, Void>() {
+                @Override
+                public Void call(Service service) throws ServiceException {
+                    throw new ServiceException();
+                }
+            });
+            fail();
+        } catch (MaxRetriesException e) {
+            // Expected
+        }
+
+        assertEquals(0, _pool.getServicePoolStatistics().getNumOutstandingRequests(FOO_ENDPOINT));
+    }
+
+    @Test
+    public void testStatsAverageResponseTimeSeededByHealthCheck() {
+        when(_serviceFactory.isHealthy(FOO_ENDPOINT)).thenReturn(true);
+        when(_ticker.read()).thenReturn(0L, 5000L, 5000L);
+
+        assertTrue(_pool.checkHealth(FOO_ENDPOINT).isHealthy());
+        assertEquals(5000, _pool.getServicePoolStatistics().getAverageResponseTime(FOO_ENDPOINT,
+                TimeUnit.NANOSECONDS));
+    }
+
+    @Test
+    public void testStatsAverageResponseTimeOnlyKeptOnceAskedFor() {
+        reset(_loadBalanceAlgorithm);
+        when(_loadBalanceAlgorithm.choose(Matchers.<Iterable<ServiceEndPoint>>any(), any(ServicePoolStatistics.class)))
+                .thenReturn(FOO_ENDPOINT);
+        ServiceCallback<Service, Void> slowCallback = new ServiceCallback<Service, Void>() {
+            @Override
+            public Void call(Service service) throws ServiceException {
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    throw new ServiceException(e);
+                }
+                return null;
+            }
+        };
+        ExtendedServicePoolStatistics statistics = _pool.getServicePoolStatistics();
+
+        _pool.execute(NEVER_RETRY, slowCallback);
+        assertEquals(0, statistics.getAverageResponseTime(FOO_ENDPOINT, TimeUnit.NANOSECONDS));
+
+        _pool.execute(NEVER_RETRY, slowCallback);
+        assertTrue(statistics.getAverageResponseTime(FOO_ENDPOINT, TimeUnit.MILLISECONDS) >= 5);
+    }
+
+    @Test
+    public void testStatsAverageResponseTimeNotSeededByFailedHealthCheck() {
+        when(_serviceFactory.isHealthy(FOO_ENDPOINT)).thenReturn(false);
+        when(_ticker.read()).thenReturn(0L, 5000L, 5000L);
+
+        assertFalse(_pool.checkHealth(FOO_ENDPOINT).isHealthy());
+        assertEquals(0, _pool.getServicePoolStatistics().getAverageResponseTime(FOO_ENDPOINT,
+                TimeUnit.NANOSECONDS));
+    }
+
     @Test
     public void testCheckForHealthyEndPointWhenEmpty() {
         when(_hostDiscovery.getHosts()).thenReturn(Collections.<ServiceEndPoint>emptySet());
@@ -790,6 +1568,15 @@ public abstract class AbstractServicePoolTestingHarness {
         _pool.close();
     }
 
+    @Test
+    public void testClosesResourcesClosedWithPool() throws IOException {
+        Closeable resource = mock(Closeable.class);
+        _pool.closeWithPool(resource);
+        _pool.close();
+
+        verify(resource).close();
+    }
+
     @Test
     public void testDoesNotShutdownHealthCheckExecutorOnClose() {
         ServicePool<Service> pool = new ServicePool<>(_ticker, _hostDiscovery, false, _serviceFactory,
@@ -898,6 +1685,119 @@ public abstract class AbstractServicePoolTestingHarness {
         assertEquals(2, _pool.getNumBadEndPoints());
     }
 
+    @Test
+    public void testExecuteOnEndPointAsyncKeepsRequestOutstandingUntilFutureCompletes() throws Exception {
+        SettableServiceFuture<String> future = new SettableServiceFuture<>();
+        ListenableServiceFuture<String> result = _pool.executeOnEndPointAsync(FOO_ENDPOINT,
+                newAsyncCallback(future));
+
+        ExtendedServicePoolStatistics statistics = _pool.getServicePoolStatistics();
+        assertFalse(result.isDone());
+        assertEquals(1, statistics.getNumOutstandingRequests(FOO_ENDPOINT));
+
+        future.set("result");
+        assertEquals("result", result.get(10, TimeUnit.SECONDS));
+        assertEquals(0, statistics.getNumOutstandingRequests(FOO_ENDPOINT));
+    }
+
+    @Test
+    public void testExecuteOnEndPointAsyncMarksEndPointBadOnFailedFuture() {
+        SettableServiceFuture<String> future = new SettableServiceFuture<>();
+        future.setException(new ServiceException());
+        ListenableServiceFuture<String> result = _pool.executeOnEndPointAsync(FOO_ENDPOINT,
+                newAsyncCallback(future));
+
+        assertTrue(result.isDone());
+        assertEquals(1, _pool.getNumBadEndPoints());
+    }
+
+    @Test
+    public void testExecuteOnEndPointAsyncCancelsCallbackFuture() {
+        SettableServiceFuture<String> future = new SettableServiceFuture<>();
+        ListenableServiceFuture<String> result = _pool.executeOnEndPointAsync(FOO_ENDPOINT,
+                newAsyncCallback(future));
+
+        result.cancel(true);
+        assertTrue(future.isCancelled());
+        assertEquals(0, _pool.getServicePoolStatistics().getNumOutstandingRequests(FOO_ENDPOINT));
+        assertEquals(0, _pool.getNumBadEndPoints());
+    }
+
+    @Test
+    public void testEndPointStateReusedWhileEndPointsUnchanged() {
+        ServicePool.EndPointState state = _pool.getEndPointState();
+
+        assertSame(state, _pool.getEndPointState());
+        assertEquals(ImmutableList.of(FOO_ENDPOINT, BAR_ENDPOINT, BAZ_ENDPOINT), state.getValidEndPoints().asList());
+    }
+
+    @Test
+    public void testEndPointStateRebuiltWhenHostDiscoveryChanges() {
+        ServicePool.EndPointState state = _pool.getEndPointState();
+
+        when(_hostDiscovery.getHosts()).thenReturn(ImmutableList.of(FOO_ENDPOINT));
+
+        ServicePool.EndPointState newState = _pool.getEndPointState();
+        assertEquals(3, state.getNumEndPoints());
+        assertEquals(1, newState.getNumEndPoints());
+        assertEquals(ImmutableList.of(FOO_ENDPOINT), newState.getValidEndPoints().asList());
+    }
+
+    @Test
+    public void testEndPointStateRebuiltWhenListenerFires() {
+        ServicePool.EndPointState state = _pool.getEndPointState();
+
+        ArgumentCaptor<HostDiscovery.EndPointListener> listener = ArgumentCaptor.forClass(
+                HostDiscovery.EndPointListener.class);
+        verify(_hostDiscovery).addListener(listener.capture());
+        listener.getValue().onEndPointAdded(FOO_ENDPOINT);
+
+        ServicePool.EndPointState newState = _pool.getEndPointState();
+        assertTrue(newState != state);
+        assertTrue(newState.getValidEndPoints().getVersion() > state.getValidEndPoints().getVersion());
+    }
+
+    @Test
+    public void testEndPointStateExcludesBadEndPoints() {
+        reset(_loadBalanceAlgorithm);
+        when(_loadBalanceAlgorithm.choose(Matchers.<Iterable<ServiceEndPoint>>any(), any(ServicePoolStatistics.class)))
+                .thenReturn(FOO_ENDPOINT);
+
+        try {
+            _pool.execute(NEVER_RETRY, new ServiceCallback<Service, Void>() {
+                @Override
+                public Void call(Service service) throws ServiceException {
+                    throw new ServiceException();
+                }
+            });
+            fail();
+        } catch (MaxRetriesException e) {
+            // Expected
+        }
+
+        ServicePool.EndPointState state = _pool.getEndPointState();
+        assertEquals(3, state.getNumEndPoints());
+        assertEquals(ImmutableList.of(BAR_ENDPOINT, BAZ_ENDPOINT), state.getValidEndPoints().asList());
+    }
+
+    private static ServiceCallback<Service, Void> newNoOpCallback() {
+        return new ServiceCallback<Service, Void>() {
+            @Override
+            public Void call(Service service) throws ServiceException {
+                return null;
+            }
+        };
+    }
+
+    private static <R> AsyncServiceCallback<Service, R> newAsyncCallback(final ListenableServiceFuture<R> future) {
+        return new AsyncServiceCallback<Service, R>() {
+            @Override
+            public ListenableServiceFuture<R> call(Service service) throws ServiceException {
+                return future;
+            }
+        };
+    }
+
     // A dummy interface for testing...
     protected static interface Service {
     }
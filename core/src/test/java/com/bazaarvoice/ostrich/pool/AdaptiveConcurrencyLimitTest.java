@@ -0,0 +1,132 @@
+package com.bazaarvoice.ostrich.pool;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveConcurrencyLimitTest {
+    @Test
+    public void testAcquireUpToLimit() {
+        AdaptiveConcurrencyLimit limit = newLimit(2, 1, 10);
+
+        assertTrue(limit.tryAcquire());
+        assertTrue(limit.tryAcquire());
+        assertFalse(limit.tryAcquire());
+        assertFalse(limit.hasCapacity());
+        assertEquals(2, limit.getNumInFlight());
+    }
+
+    @Test
+    public void testReleaseMakesRoom() {
+        AdaptiveConcurrencyLimit limit = newLimit(1, 1, 10);
+
+        assertTrue(limit.tryAcquire());
+        limit.onIgnored();
+
+        assertTrue(limit.hasCapacity());
+        assertTrue(limit.tryAcquire());
+    }
+
+    @Test
+    public void testIgnoredLeavesLimit() {
+        AdaptiveConcurrencyLimit limit = newLimit(10, 1, 100);
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(limit.tryAcquire());
+            limit.onIgnored();
+        }
+
+        assertEquals(10, limit.getLimit());
+    }
+
+    @Test
+    public void testLimitGrowsWhileResponseTimesStayLow() {
+        AdaptiveConcurrencyLimit limit = newLimit(10, 1, 100);
+
+        for (int i = 0; i < 20; i++) {
+            saturate(limit, 1000);
+        }
+
+        assertTrue(limit.getLimit() > 10);
+    }
+
+    @Test
+    public void testLimitDoesNotGrowWhenUnused() {
+        AdaptiveConcurrencyLimit limit = newLimit(10, 1, 100);
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(limit.tryAcquire());
+            limit.onSuccess(1000);
+        }
+
+        assertEquals(10, limit.getLimit());
+    }
+
+    @Test
+    public void testLimitShrinksWhenResponseTimesRise() {
+        AdaptiveConcurrencyLimit limit = newLimit(50, 1, 100);
+        assertTrue(limit.tryAcquire());
+        limit.onSuccess(1000);
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(limit.tryAcquire());
+            limit.onSuccess(10000);
+        }
+
+        assertTrue(limit.getLimit() < 50);
+    }
+
+    @Test
+    public void testDroppedBacksOff() {
+        AdaptiveConcurrencyLimit limit = newLimit(10, 1, 100);
+
+        assertTrue(limit.tryAcquire());
+        limit.onDropped();
+
+        assertEquals(9, limit.getLimit());
+        assertEquals(0, limit.getNumInFlight());
+    }
+
+    @Test
+    public void testLimitStaysAboveMin() {
+        AdaptiveConcurrencyLimit limit = newLimit(3, 3, 100);
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(limit.tryAcquire());
+            limit.onDropped();
+        }
+
+        assertEquals(3, limit.getLimit());
+    }
+
+    @Test
+    public void testLimitStaysBelowMax() {
+        AdaptiveConcurrencyLimit limit = newLimit(10, 1, 12);
+
+        for (int i = 0; i < 50; i++) {
+            saturate(limit, 1000);
+        }
+
+        assertEquals(12, limit.getLimit());
+    }
+
+    private static AdaptiveConcurrencyLimit newLimit(int initialLimit, int minLimit, int maxLimit) {
+        return new AdaptiveConcurrencyLimit(new ConcurrencyLimitPolicyBuilder()
+                .withLimitRange(minLimit, maxLimit)
+                .withInitialLimit(initialLimit)
+                .build());
+    }
+
+    /** Start as many requests as the limit allows, then finish them all with the same response time. */
+    private static void saturate(AdaptiveConcurrencyLimit limit, long responseTimeNanos) {
+        int numAcquired = 0;
+        while (limit.tryAcquire()) {
+            numAcquired++;
+        }
+        for (int i = 0; i < numAcquired; i++) {
+            limit.onSuccess(responseTimeNanos);
+        }
+    }
+}
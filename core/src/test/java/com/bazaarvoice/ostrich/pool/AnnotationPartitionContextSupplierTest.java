@@ -1,10 +1,12 @@
 package com.bazaarvoice.ostrich.pool;
 
 import com.bazaarvoice.ostrich.PartitionContext;
+import com.bazaarvoice.ostrich.PartitionContextBuilder;
 import com.bazaarvoice.ostrich.partition.PartitionKey;
 import com.google.common.collect.ImmutableMap;
 import org.junit.Test;
 
+import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -102,6 +104,34 @@ public class AnnotationPartitionContextSupplierTest {
                 "one", "two", "three").asMap());
     }
 
+    @Test
+    public void testTwoPartitionKeys() throws Exception {
+        PartitionContextSupplier contextSupplier =
+                new AnnotationPartitionContextSupplier(MyService.class, MyServiceImpl.class);
+
+        assertEquals(PartitionContextBuilder.of("a", "one", "b", "two"), contextSupplier.forCall(
+                MyService.class.getMethod("twoKey", String.class, String.class), "one", "two"));
+    }
+
+    /**
+     * Null arguments are left out of the partition context.
+     */
+    @Test
+    public void testNullArguments() throws Exception {
+        PartitionContextSupplier contextSupplier =
+                new AnnotationPartitionContextSupplier(MyService.class, MyServiceImpl.class);
+        Method unnamed = MyService.class.getMethod("unnamed", String.class);
+        Method twoKey = MyService.class.getMethod("twoKey", String.class, String.class);
+        Method threeKey = MyService.class.getMethod("threeKey", String.class, String.class, String.class);
+
+        assertEquals(PartitionContextBuilder.empty(), contextSupplier.forCall(unnamed, (Object) null));
+        assertEquals(PartitionContextBuilder.of("b", "two"), contextSupplier.forCall(twoKey, null, "two"));
+        assertEquals(PartitionContextBuilder.of("a", "one"), contextSupplier.forCall(twoKey, "one", null));
+        assertEquals(PartitionContextBuilder.empty(), contextSupplier.forCall(twoKey, null, null));
+        assertEquals(PartitionContextBuilder.of("", "one", "c", "three"),
+                contextSupplier.forCall(threeKey, "one", null, "three"));
+    }
+
     /**
      * Implementation return type is more specific than the interface return type (ArrayList vs List)
      */
@@ -146,6 +176,7 @@ public class AnnotationPartitionContextSupplierTest {
         void overloaded(String string);
         void noKey(boolean flag);
         void twoArgsOneKey(int num, String string);
+        void twoKey(String a1, String a2);
         void threeKey(String a1, String a2, String a3);
         List<?> covariant(String string);
     }
@@ -170,6 +201,8 @@ public class AnnotationPartitionContextSupplierTest {
         @Override
         public void twoArgsOneKey(int num, @PartitionKey String string) {}
         @Override
+        public void twoKey(@PartitionKey ("a") String x, @PartitionKey ("b") String y) {}
+        @Override
         public void threeKey(@PartitionKey String x, @PartitionKey ("b") String y, @PartitionKey ("c") String z) {}
         @Override
         public ArrayList<?> covariant(@PartitionKey String string) {return null;}
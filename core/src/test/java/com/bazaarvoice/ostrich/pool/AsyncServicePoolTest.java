@@ -1,11 +1,18 @@
 package com.bazaarvoice.ostrich.pool;
 
+import com.bazaarvoice.ostrich.AsyncServiceCallback;
+import com.bazaarvoice.ostrich.BatchServiceCallback;
+import com.bazaarvoice.ostrich.EndPointSnapshot;
+import com.bazaarvoice.ostrich.ListenableServiceFuture;
 import com.bazaarvoice.ostrich.PartitionContext;
 import com.bazaarvoice.ostrich.RetryPolicy;
+import com.bazaarvoice.ostrich.ScheduledRetryPolicy;
 import com.bazaarvoice.ostrich.ServiceCallback;
 import com.bazaarvoice.ostrich.ServiceEndPoint;
 import com.bazaarvoice.ostrich.ServiceEndPointPredicate;
+import com.bazaarvoice.ostrich.SettableServiceFuture;
 import com.bazaarvoice.ostrich.exceptions.MaxRetriesException;
+import com.bazaarvoice.ostrich.exceptions.RateLimitExceededException;
 import com.codahale.metrics.MetricRegistry;
 import com.google.common.base.Ticker;
 import com.google.common.collect.Lists;
@@ -15,6 +22,7 @@ import com.google.common.util.concurrent.MoreExecutors;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 
 import java.io.IOException;
 import java.util.Collection;
@@ -25,15 +33,18 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.same;
 import static org.mockito.Mockito.RETURNS_MOCKS;
 import static org.mockito.Mockito.mock;
@@ -50,6 +61,7 @@ public class AsyncServicePoolTest {
 
     private final Ticker _mockTicker = mock(Ticker.class);
     private final ExecutorService _mockExecutor = mock(ExecutorService.class);
+    private final ScheduledExecutorService _mockScheduler = mock(ScheduledExecutorService.class);
     private final Collection<AsyncServicePool<Service>> _asyncServicePools = Lists.newArrayList();
     private final MetricRegistry _metricRegistry = mock(MetricRegistry.class, RETURNS_MOCKS);
 
@@ -67,18 +79,25 @@ public class AsyncServicePoolTest {
 
     @Test(expected =  NullPointerException.class)
     public void testNullTicker() {
-        new AsyncServicePool<>(null, _mockPool, true, _mockExecutor, true, _metricRegistry);
+        new AsyncServicePool<>(null, _mockPool, true, _mockExecutor, true, _mockScheduler, true,
+                _metricRegistry);
     }
 
     @Test(expected = NullPointerException.class)
     public void testNullServicePool() {
-        new AsyncServicePool<>(_mockTicker, null, true, _mockExecutor, true, _metricRegistry);
+        new AsyncServicePool<>(_mockTicker, null, true, _mockExecutor, true, _mockScheduler, true,
+                _metricRegistry);
     }
 
     @SuppressWarnings("unchecked")
     @Test(expected = NullPointerException.class)
     public void testNullExecutorService() {
-        new AsyncServicePool<>(_mockTicker, _mockPool, true, null, true, _metricRegistry);
+        new AsyncServicePool<>(_mockTicker, _mockPool, true, null, true, _mockScheduler, true, _metricRegistry);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullRetryScheduler() {
+        new AsyncServicePool<>(_mockTicker, _mockPool, true, _mockExecutor, true, null, true, _metricRegistry);
     }
 
     @SuppressWarnings("unchecked")
@@ -374,6 +393,215 @@ public class AsyncServicePoolTest {
         future.get(10, TimeUnit.SECONDS);
     }
 
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testExecuteAsyncSubmitsToExecutor() {
+        AsyncServicePool<Service> pool = newAsyncPool();
+        pool.executeAsync(NEVER_RETRY, mock(AsyncServiceCallback.class));
+
+        verify(_mockExecutor).execute(any(Runnable.class));
+        verify(_mockPool, never()).executeOnEndPointAsync(any(ServiceEndPoint.class), any(AsyncServiceCallback.class));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testExecuteAsyncReturnsValueInFuture() throws Exception {
+        ServiceEndPoint endPoint = mock(ServiceEndPoint.class);
+        AsyncServiceCallback<Service, String> callback = mock(AsyncServiceCallback.class);
+        when(_mockPool.chooseEndPoint(any(EndPointSnapshot.class), any(PartitionContext.class), any(Exception.class)))
+                .thenReturn(endPoint);
+        when(_mockPool.executeOnEndPointAsync(endPoint, callback)).thenReturn(completed("result"));
+
+        AsyncServicePool<Service> pool = newAsyncPool(MoreExecutors.sameThreadExecutor());
+        ListenableServiceFuture<String> future = pool.executeAsync(NEVER_RETRY, callback);
+
+        assertEquals("result", future.get(10, TimeUnit.SECONDS));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testExecuteAsyncWaitsForCallbackFuture() throws Exception {
+        ServiceEndPoint endPoint = mock(ServiceEndPoint.class);
+        AsyncServiceCallback<Service, String> callback = mock(AsyncServiceCallback.class);
+        SettableServiceFuture<String> attempt = new SettableServiceFuture<>();
+        when(_mockPool.chooseEndPoint(any(EndPointSnapshot.class), any(PartitionContext.class), any(Exception.class)))
+                .thenReturn(endPoint);
+        when(_mockPool.executeOnEndPointAsync(endPoint, callback)).thenReturn(attempt);
+
+        AsyncServicePool<Service> pool = newAsyncPool(MoreExecutors.sameThreadExecutor());
+        ListenableServiceFuture<String> future = pool.executeAsync(NEVER_RETRY, callback);
+        assertFalse(future.isDone());
+
+        attempt.set("result");
+        assertEquals("result", future.get(10, TimeUnit.SECONDS));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testExecuteAsyncWrapsNonRetriableExceptionInFuture() throws Exception {
+        ServiceEndPoint endPoint = mock(ServiceEndPoint.class);
+        AsyncServiceCallback<Service, String> callback = mock(AsyncServiceCallback.class);
+        RuntimeException exception = new RuntimeException();
+        when(_mockPool.chooseEndPoint(any(EndPointSnapshot.class), any(PartitionContext.class), any(Exception.class)))
+                .thenReturn(endPoint);
+        when(_mockPool.executeOnEndPointAsync(endPoint, callback)).thenReturn(this.<String>failed(exception));
+        when(_mockPool.isRetriableException(exception)).thenReturn(false);
+
+        AsyncServicePool<Service> pool = newAsyncPool(MoreExecutors.sameThreadExecutor());
+        ListenableServiceFuture<String> future = pool.executeAsync(NEVER_RETRY, callback);
+
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertSame(exception, e.getCause());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testExecuteAsyncRetriesRetriableException() throws Exception {
+        ServiceEndPoint endPoint = mock(ServiceEndPoint.class);
+        AsyncServiceCallback<Service, String> callback = mock(AsyncServiceCallback.class);
+        when(_mockPool.chooseEndPoint(any(EndPointSnapshot.class), any(PartitionContext.class), any(Exception.class)))
+                .thenReturn(endPoint);
+        when(_mockPool.executeOnEndPointAsync(endPoint, callback))
+                .thenReturn(this.<String>failed(new RuntimeException()), completed("result"));
+        when(_mockPool.isRetriableException(any(Exception.class))).thenReturn(true);
+
+        RetryPolicy retry = mock(RetryPolicy.class);
+        when(retry.allowRetry(anyInt(), anyLong())).thenReturn(true);
+
+        AsyncServicePool<Service> pool = newAsyncPool(MoreExecutors.sameThreadExecutor());
+        ListenableServiceFuture<String> future = pool.executeAsync(retry, callback);
+
+        assertEquals("result", future.get(10, TimeUnit.SECONDS));
+        verify(retry).allowRetry(eq(1), anyLong());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testExecuteAsyncSchedulesRetryWithDelay() throws Exception {
+        ServiceEndPoint endPoint = mock(ServiceEndPoint.class);
+        AsyncServiceCallback<Service, String> callback = mock(AsyncServiceCallback.class);
+        when(_mockPool.chooseEndPoint(any(EndPointSnapshot.class), any(PartitionContext.class), any(Exception.class)))
+                .thenReturn(endPoint);
+        when(_mockPool.executeOnEndPointAsync(endPoint, callback))
+                .thenReturn(this.<String>failed(new RuntimeException()), completed("result"));
+        when(_mockPool.isRetriableException(any(Exception.class))).thenReturn(true);
+
+        ScheduledRetryPolicy retry = mock(ScheduledRetryPolicy.class);
+        when(retry.getRetryDelayMs(anyInt(), anyLong())).thenReturn(123L);
+
+        AsyncServicePool<Service> pool = newAsyncPool(MoreExecutors.sameThreadExecutor());
+        ListenableServiceFuture<String> future = pool.executeAsync(retry, callback);
+
+        // The retry waits on the scheduler instead of sleeping.
+        ArgumentCaptor<Runnable> retryCaptor = ArgumentCaptor.forClass(Runnable.class);
+        verify(_mockScheduler).schedule(retryCaptor.capture(), eq(123L), eq(TimeUnit.MILLISECONDS));
+        verify(retry, never()).allowRetry(anyInt(), anyLong());
+        assertFalse(future.isDone());
+
+        retryCaptor.getValue().run();
+        assertEquals("result", future.get(10, TimeUnit.SECONDS));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testExecuteAsyncPropagatesMaxRetriesExceptionWhenOutOfRetries() throws Exception {
+        ServiceEndPoint endPoint = mock(ServiceEndPoint.class);
+        AsyncServiceCallback<Service, String> callback = mock(AsyncServiceCallback.class);
+        when(_mockPool.chooseEndPoint(any(EndPointSnapshot.class), any(PartitionContext.class), any(Exception.class)))
+                .thenReturn(endPoint);
+        when(_mockPool.executeOnEndPointAsync(endPoint, callback))
+                .thenReturn(this.<String>failed(new RuntimeException()));
+        when(_mockPool.isRetriableException(any(Exception.class))).thenReturn(true);
+
+        ScheduledRetryPolicy retry = mock(ScheduledRetryPolicy.class);
+        when(retry.getRetryDelayMs(anyInt(), anyLong())).thenReturn(-1L);
+
+        AsyncServicePool<Service> pool = newAsyncPool(MoreExecutors.sameThreadExecutor());
+        ListenableServiceFuture<String> future = pool.executeAsync(retry, callback);
+
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof MaxRetriesException);
+        }
+        verify(_mockScheduler, never()).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testExecuteAsyncWaitsForRateLimitOnScheduler() throws Exception {
+        ServiceEndPoint endPoint = mock(ServiceEndPoint.class);
+        AsyncServiceCallback<Service, String> callback = mock(AsyncServiceCallback.class);
+        when(_mockPool.reserveRateLimit(any(PartitionContext.class))).thenReturn(5000L);
+        when(_mockPool.chooseEndPoint(any(EndPointSnapshot.class), any(PartitionContext.class), any(Exception.class)))
+                .thenReturn(endPoint);
+        when(_mockPool.executeOnEndPointAsync(endPoint, callback)).thenReturn(completed("result"));
+
+        AsyncServicePool<Service> pool = newAsyncPool(MoreExecutors.sameThreadExecutor());
+        ListenableServiceFuture<String> future = pool.executeAsync(NEVER_RETRY, callback);
+
+        // The attempt waits for its permit on the scheduler instead of sleeping.
+        ArgumentCaptor<Runnable> attemptCaptor = ArgumentCaptor.forClass(Runnable.class);
+        verify(_mockScheduler).schedule(attemptCaptor.capture(), eq(5000L), eq(TimeUnit.NANOSECONDS));
+        verify(_mockPool, never()).executeOnEndPointAsync(endPoint, callback);
+        assertFalse(future.isDone());
+
+        attemptCaptor.getValue().run();
+        assertEquals("result", future.get(10, TimeUnit.SECONDS));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testExecuteAsyncPropagatesRateLimitExceededException() throws Exception {
+        AsyncServiceCallback<Service, String> callback = mock(AsyncServiceCallback.class);
+        when(_mockPool.reserveRateLimit(any(PartitionContext.class))).thenThrow(new RateLimitExceededException());
+
+        AsyncServicePool<Service> pool = newAsyncPool(MoreExecutors.sameThreadExecutor());
+        ListenableServiceFuture<String> future = pool.executeAsync(NEVER_RETRY, callback);
+
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RateLimitExceededException);
+        }
+        verify(_mockPool, never()).executeOnEndPointAsync(any(ServiceEndPoint.class), same(callback));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testCancelExecuteAsyncCancelsAttempt() throws Exception {
+        ServiceEndPoint endPoint = mock(ServiceEndPoint.class);
+        AsyncServiceCallback<Service, String> callback = mock(AsyncServiceCallback.class);
+        SettableServiceFuture<String> attempt = new SettableServiceFuture<>();
+        when(_mockPool.chooseEndPoint(any(EndPointSnapshot.class), any(PartitionContext.class), any(Exception.class)))
+                .thenReturn(endPoint);
+        when(_mockPool.executeOnEndPointAsync(endPoint, callback)).thenReturn(attempt);
+
+        AsyncServicePool<Service> pool = newAsyncPool(MoreExecutors.sameThreadExecutor());
+        ListenableServiceFuture<String> future = pool.executeAsync(NEVER_RETRY, callback);
+        future.cancel(true);
+
+        assertTrue(attempt.isCancelled());
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNewBatcherWithNullBatchingPolicy() {
+        @SuppressWarnings("unchecked")
+        BatchServiceCallback<Service, String, String> callback = mock(BatchServiceCallback.class);
+        newAsyncPool().newBatcher(null, NEVER_RETRY, callback);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNewBatcherWithNullCallback() {
+        newAsyncPool().newBatcher(new BatchingPolicyBuilder().build(), NEVER_RETRY, null);
+    }
+
     @Test
     public void testCloseDoesShutdownExecutor() throws IOException {
         AsyncServicePool<Service> pool = newAsyncPool(_mockExecutor, true);
@@ -438,18 +666,31 @@ public class AsyncServicePoolTest {
 
     private AsyncServicePool<Service> newAsyncPool(ExecutorService executor, boolean shutdownExecutorOnClose) {
         AsyncServicePool<Service> pool = new AsyncServicePool<>(_mockTicker, _mockPool, true, executor,
-                shutdownExecutorOnClose, _metricRegistry);
+                shutdownExecutorOnClose, _mockScheduler, true, _metricRegistry);
         _asyncServicePools.add(pool);
         return pool;
     }
 
     private AsyncServicePool<Service> newAsyncPool(ServicePool<Service> pool, boolean shutdownPoolOnClose) {
         AsyncServicePool<Service> asyncPool = new AsyncServicePool<>(_mockTicker, pool, shutdownPoolOnClose,
-                _mockExecutor, true, _metricRegistry);
+                _mockExecutor, true, _mockScheduler, true,
+                _metricRegistry);
         _asyncServicePools.add(asyncPool);
         return asyncPool;
     }
 
+    private <R> ListenableServiceFuture<R> completed(R value) {
+        SettableServiceFuture<R> future = new SettableServiceFuture<>();
+        future.set(value);
+        return future;
+    }
+
+    private <R> ListenableServiceFuture<R> failed(Exception exception) {
+        SettableServiceFuture<R> future = new SettableServiceFuture<>();
+        future.setException(exception);
+        return future;
+    }
+
     private static interface Service {
     }
 }
\ No newline at end of file
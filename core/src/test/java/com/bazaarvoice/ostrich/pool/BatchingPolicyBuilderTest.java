@@ -0,0 +1,47 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.BatchingPolicy;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class BatchingPolicyBuilderTest {
+    @Test
+    public void testDefaults() {
+        BatchingPolicy policy = new BatchingPolicyBuilder().build();
+
+        assertEquals(100, policy.getMaxBatchSize());
+        assertEquals(1, policy.getMaxDelay(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testMaxBatchSizeSet() {
+        BatchingPolicy policy = new BatchingPolicyBuilder().withMaxBatchSize(10).build();
+
+        assertEquals(10, policy.getMaxBatchSize());
+    }
+
+    @Test
+    public void testMaxDelaySet() {
+        BatchingPolicy policy = new BatchingPolicyBuilder().withMaxDelay(250, TimeUnit.MICROSECONDS).build();
+
+        assertEquals(250, policy.getMaxDelay(TimeUnit.MICROSECONDS));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testInvalidMaxBatchSize() {
+        new BatchingPolicyBuilder().withMaxBatchSize(0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testInvalidMaxDelay() {
+        new BatchingPolicyBuilder().withMaxDelay(-1, TimeUnit.MILLISECONDS);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullMaxDelayUnit() {
+        new BatchingPolicyBuilder().withMaxDelay(1, null);
+    }
+}
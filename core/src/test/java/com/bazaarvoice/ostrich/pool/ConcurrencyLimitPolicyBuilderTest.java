@@ -0,0 +1,62 @@
+package com.bazaarvoice.ostrich.pool;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ConcurrencyLimitPolicyBuilderTest {
+    @Test
+    public void testDefaults() {
+        ConcurrencyLimitPolicy policy = new ConcurrencyLimitPolicyBuilder().build();
+
+        assertEquals(20, policy.getInitialLimit());
+        assertEquals(1, policy.getMinLimit());
+        assertEquals(1000, policy.getMaxLimit());
+    }
+
+    @Test
+    public void testInitialLimitSet() {
+        ConcurrencyLimitPolicy policy = new ConcurrencyLimitPolicyBuilder().withInitialLimit(50).build();
+
+        assertEquals(50, policy.getInitialLimit());
+    }
+
+    @Test
+    public void testLimitRangeSet() {
+        ConcurrencyLimitPolicy policy = new ConcurrencyLimitPolicyBuilder().withLimitRange(10, 100).build();
+
+        assertEquals(10, policy.getMinLimit());
+        assertEquals(100, policy.getMaxLimit());
+    }
+
+    @Test
+    public void testLimitRangeOfOne() {
+        ConcurrencyLimitPolicy policy = new ConcurrencyLimitPolicyBuilder()
+                .withInitialLimit(5)
+                .withLimitRange(5, 5)
+                .build();
+
+        assertEquals(5, policy.getMinLimit());
+        assertEquals(5, policy.getMaxLimit());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testInvalidInitialLimit() {
+        new ConcurrencyLimitPolicyBuilder().withInitialLimit(0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testInvalidMinLimit() {
+        new ConcurrencyLimitPolicyBuilder().withLimitRange(0, 10);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testMaxLimitBelowMinLimit() {
+        new ConcurrencyLimitPolicyBuilder().withLimitRange(10, 5);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testInitialLimitOutsideRange() {
+        new ConcurrencyLimitPolicyBuilder().withLimitRange(10, 100).withInitialLimit(5).build();
+    }
+}
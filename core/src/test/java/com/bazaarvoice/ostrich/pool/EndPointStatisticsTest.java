@@ -0,0 +1,181 @@
+package com.bazaarvoice.ostrich.pool;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EndPointStatisticsTest {
+    private static final long ONE_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void testOutstandingRequests() {
+        EndPointStatistics statistics = new EndPointStatistics();
+        statistics.requestStarted();
+        statistics.requestStarted();
+        statistics.requestFinished();
+
+        assertEquals(1, statistics.getNumOutstandingRequests());
+    }
+
+    @Test
+    public void testResponseTimeStartsUnknown() {
+        assertEquals(0, new EndPointStatistics().getResponseTimeNanos(0));
+    }
+
+    @Test
+    public void testSlowResponseReplacesAverage() {
+        EndPointStatistics statistics = new EndPointStatistics();
+        statistics.recordResponseTime(100, 0);
+        statistics.recordResponseTime(1000, 0);
+
+        assertEquals(1000, statistics.getResponseTimeNanos(0));
+    }
+
+    @Test
+    public void testFastResponseIsBlendedIn() {
+        EndPointStatistics statistics = new EndPointStatistics();
+        statistics.recordResponseTime(1000, 0);
+        statistics.recordResponseTime(100, ONE_SECOND);
+
+        long average = statistics.getResponseTimeNanos(ONE_SECOND);
+        assertTrue(average > 100);
+        assertTrue(average < 1000);
+    }
+
+    @Test
+    public void testAverageDecaysOverTime() {
+        EndPointStatistics statistics = new EndPointStatistics();
+        statistics.recordResponseTime(1000, 0);
+
+        assertTrue(statistics.getResponseTimeNanos(10 * ONE_SECOND) < 1000);
+        assertTrue(statistics.getResponseTimeNanos(20 * ONE_SECOND) < statistics.getResponseTimeNanos(10 * ONE_SECOND));
+    }
+
+    @Test
+    public void testSeedOnlyAppliesBeforeFirstResponse() {
+        EndPointStatistics statistics = new EndPointStatistics();
+        statistics.seedResponseTime(500, 0);
+        assertEquals(500, statistics.getResponseTimeNanos(0));
+
+        statistics.recordResponseTime(2000, 0);
+        statistics.seedResponseTime(500, 0);
+        assertEquals(2000, statistics.getResponseTimeNanos(0));
+    }
+
+    @Test
+    public void testPercentileUnknownWithFewResponses() {
+        EndPointStatistics statistics = new EndPointStatistics();
+        statistics.sampleResponseTime(1000);
+
+        assertEquals(-1, statistics.getResponseTimePercentile(0.9, 0));
+    }
+
+    @Test
+    public void testPercentile() {
+        EndPointStatistics statistics = new EndPointStatistics();
+        for (int i = 1; i <= 100; i++) {
+            statistics.sampleResponseTime(i * 1000);
+        }
+
+        long percentile = statistics.getResponseTimePercentile(0.9, 0);
+        assertTrue(percentile >= 89000);
+        assertTrue(percentile <= 91000);
+    }
+
+    @Test
+    public void testPercentileIsReusedBriefly() {
+        EndPointStatistics statistics = new EndPointStatistics();
+        for (int i = 0; i < 100; i++) {
+            statistics.sampleResponseTime(1000);
+        }
+        assertEquals(1000, statistics.getResponseTimePercentile(0.9, 0));
+
+        for (int i = 0; i < 128; i++) {
+            statistics.sampleResponseTime(5000);
+        }
+        assertEquals(1000, statistics.getResponseTimePercentile(0.9, ONE_SECOND / 2));
+        assertEquals(5000, statistics.getResponseTimePercentile(0.9, ONE_SECOND));
+    }
+
+    @Test
+    public void testPercentileOfMostRecentResponses() {
+        EndPointStatistics statistics = new EndPointStatistics();
+        for (int i = 0; i < 1000; i++) {
+            statistics.sampleResponseTime(1000);
+        }
+        for (int i = 0; i < 128; i++) {
+            statistics.sampleResponseTime(5000);
+        }
+
+        assertEquals(5000, statistics.getResponseTimePercentile(0.1, 0));
+    }
+
+    @Test
+    public void testAverageNotAffectedBySamples() {
+        EndPointStatistics statistics = new EndPointStatistics();
+        for (int i = 0; i < 100; i++) {
+            statistics.sampleResponseTime(1000);
+        }
+
+        assertEquals(0, statistics.getResponseTimeNanos(0));
+    }
+
+    @Test
+    public void testErrorRateStartsAtZero() {
+        EndPointStatistics statistics = new EndPointStatistics();
+
+        assertEquals(0, statistics.getNumOutcomes());
+        assertEquals(0, statistics.getErrorRate(), 0);
+    }
+
+    @Test
+    public void testErrorRate() {
+        EndPointStatistics statistics = new EndPointStatistics();
+        statistics.recordFailure();
+        statistics.recordSuccess();
+        statistics.recordSuccess();
+        statistics.recordFailure();
+
+        assertEquals(4, statistics.getNumOutcomes());
+        assertEquals(0.5, statistics.getErrorRate(), 0);
+    }
+
+    @Test
+    public void testErrorRateOnlyCountsRecentOutcomes() {
+        EndPointStatistics statistics = new EndPointStatistics();
+        for (int i = 0; i < EndPointStatistics.NUM_OUTCOME_SAMPLES; i++) {
+            statistics.recordFailure();
+        }
+        for (int i = 0; i < EndPointStatistics.NUM_OUTCOME_SAMPLES / 2; i++) {
+            statistics.recordSuccess();
+        }
+
+        assertEquals(EndPointStatistics.NUM_OUTCOME_SAMPLES, statistics.getNumOutcomes());
+        assertEquals(0.5, statistics.getErrorRate(), 0);
+    }
+
+    @Test
+    public void testConsecutiveFailures() {
+        EndPointStatistics statistics = new EndPointStatistics();
+        statistics.recordFailure();
+        statistics.recordFailure();
+        assertEquals(2, statistics.getNumConsecutiveFailures());
+
+        statistics.recordSuccess();
+        assertEquals(0, statistics.getNumConsecutiveFailures());
+    }
+
+    @Test
+    public void testResetOutcomes() {
+        EndPointStatistics statistics = new EndPointStatistics();
+        statistics.recordFailure();
+        statistics.resetOutcomes();
+
+        assertEquals(0, statistics.getNumOutcomes());
+        assertEquals(0, statistics.getErrorRate(), 0);
+        assertEquals(0, statistics.getNumConsecutiveFailures());
+    }
+}
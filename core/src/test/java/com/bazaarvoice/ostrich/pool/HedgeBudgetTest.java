@@ -0,0 +1,60 @@
+package com.bazaarvoice.ostrich.pool;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HedgeBudgetTest {
+    @Test
+    public void testStartsEmpty() {
+        HedgeBudget budget = new HedgeBudget(0.5, 10);
+
+        assertFalse(budget.tryAcquire());
+    }
+
+    @Test
+    public void testEarnedByRequests() {
+        HedgeBudget budget = new HedgeBudget(0.5, 10);
+
+        budget.requestStarted();
+        assertFalse(budget.tryAcquire());
+
+        budget.requestStarted();
+        assertTrue(budget.tryAcquire());
+        assertFalse(budget.tryAcquire());
+    }
+
+    @Test
+    public void testZeroRatioNeverHedges() {
+        HedgeBudget budget = new HedgeBudget(0, 10);
+
+        for (int i = 0; i < 1000; i++) {
+            budget.requestStarted();
+        }
+        assertFalse(budget.tryAcquire());
+    }
+
+    @Test
+    public void testBurstIsBounded() {
+        HedgeBudget budget = new HedgeBudget(1, 3);
+
+        for (int i = 0; i < 1000; i++) {
+            budget.requestStarted();
+        }
+        assertTrue(budget.tryAcquire());
+        assertTrue(budget.tryAcquire());
+        assertTrue(budget.tryAcquire());
+        assertFalse(budget.tryAcquire());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidRatio() {
+        new HedgeBudget(2, 10);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidBurst() {
+        new HedgeBudget(0.05, 0);
+    }
+}
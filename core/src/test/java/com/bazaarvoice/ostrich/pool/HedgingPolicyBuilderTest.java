@@ -0,0 +1,76 @@
+package com.bazaarvoice.ostrich.pool;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class HedgingPolicyBuilderTest {
+    @Test
+    public void testHedgeDelaySet() {
+        HedgingPolicyBuilder builder = new HedgingPolicyBuilder();
+        builder.withHedgeDelay(10, TimeUnit.MILLISECONDS);
+
+        assertEquals(10, builder.build().getHedgeDelay(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testDefaultLatencyPercentile() {
+        HedgingPolicyBuilder builder = new HedgingPolicyBuilder();
+        builder.withHedgeDelay(10, TimeUnit.MILLISECONDS);
+
+        assertEquals(0, builder.build().getLatencyPercentile(), 0);
+    }
+
+    @Test
+    public void testLatencyPercentileSet() {
+        HedgingPolicyBuilder builder = new HedgingPolicyBuilder();
+        builder.withHedgeDelay(10, TimeUnit.MILLISECONDS);
+        builder.withLatencyPercentile(0.95);
+
+        assertEquals(0.95, builder.build().getLatencyPercentile(), 0);
+    }
+
+    @Test
+    public void testDefaultMaxHedgeRatio() {
+        HedgingPolicyBuilder builder = new HedgingPolicyBuilder();
+        builder.withHedgeDelay(10, TimeUnit.MILLISECONDS);
+
+        assertEquals(0.05, builder.build().getMaxHedgeRatio(), 0);
+    }
+
+    @Test
+    public void testMaxHedgeRatioSet() {
+        HedgingPolicyBuilder builder = new HedgingPolicyBuilder();
+        builder.withHedgeDelay(10, TimeUnit.MILLISECONDS);
+        builder.withMaxHedgeRatio(0.1);
+
+        assertEquals(0.1, builder.build().getMaxHedgeRatio(), 0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testNoHedgeDelay() {
+        new HedgingPolicyBuilder().build();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testInvalidHedgeDelay() {
+        new HedgingPolicyBuilder().withHedgeDelay(-1, TimeUnit.MILLISECONDS);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullHedgeDelayUnit() {
+        new HedgingPolicyBuilder().withHedgeDelay(10, null);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testInvalidLatencyPercentile() {
+        new HedgingPolicyBuilder().withLatencyPercentile(1);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testInvalidMaxHedgeRatio() {
+        new HedgingPolicyBuilder().withMaxHedgeRatio(1.5);
+    }
+}
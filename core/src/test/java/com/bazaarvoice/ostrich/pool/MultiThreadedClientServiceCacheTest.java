@@ -2,25 +2,39 @@ package com.bazaarvoice.ostrich.pool;
 
 import com.bazaarvoice.ostrich.MultiThreadedServiceFactory;
 import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.bazaarvoice.ostrich.ValidatingServiceFactory;
 import com.codahale.metrics.MetricRegistry;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
 
 public class MultiThreadedClientServiceCacheTest {
     private ServiceEndPoint _endPoint;
@@ -290,6 +304,256 @@ public class MultiThreadedClientServiceCacheTest {
     }
 
 
+    @Test
+    public void testSlowCreationDoesNotBlockOtherEndPoints()
+            throws Exception {
+        ServiceEndPoint slowEndPoint = newEndPoint("slow", "name");
+        CountDownLatch release = blockCreation(slowEndPoint);
+
+        MultiThreadedClientServiceCache<Service> cache = newCache();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<ServiceHandle<Service>> slowCheckOut = executor.submit(checkOut(cache, slowEndPoint));
+            verify(_factory, timeout(1000)).create(slowEndPoint);
+
+            assertSame(_endPoint, cache.checkOut(_endPoint).getEndPoint());
+            assertFalse(slowCheckOut.isDone());
+
+            release.countDown();
+            assertSame(slowEndPoint, slowCheckOut.get(10, TimeUnit.SECONDS).getEndPoint());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testConcurrentCheckOutsShareCreation()
+            throws Exception {
+        CountDownLatch release = blockCreation(_endPoint);
+
+        MultiThreadedClientServiceCache<Service> cache = newCache();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<ServiceHandle<Service>> checkOut1 = executor.submit(checkOut(cache, _endPoint));
+            verify(_factory, timeout(1000)).create(_endPoint);
+            Future<ServiceHandle<Service>> checkOut2 = executor.submit(checkOut(cache, _endPoint));
+
+            release.countDown();
+            assertSame(checkOut1.get(10, TimeUnit.SECONDS), checkOut2.get(10, TimeUnit.SECONDS));
+            verify(_factory, times(1)).create(_endPoint);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testConcurrentCreationsAreBounded()
+            throws Exception {
+        ServiceEndPoint slowEndPoint = newEndPoint("slow", "name");
+        CountDownLatch release = blockCreation(slowEndPoint);
+
+        MultiThreadedClientServiceCache<Service> cache = new MultiThreadedClientServiceCache<>(_factory,
+                ServiceCacheBuilder.buildDefaultExecutor(), 1, 1, 1, 1, _metricRegistry);
+        _caches.add(cache);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<ServiceHandle<Service>> slowCheckOut = executor.submit(checkOut(cache, slowEndPoint));
+            verify(_factory, timeout(1000)).create(slowEndPoint);
+
+            // The only creation permit is taken, so this has to wait for the slow creation to finish.
+            Future<ServiceHandle<Service>> otherCheckOut = executor.submit(checkOut(cache, _endPoint));
+            try {
+                otherCheckOut.get(100, TimeUnit.MILLISECONDS);
+                fail();
+            } catch (TimeoutException e) {
+                // expected
+            }
+
+            release.countDown();
+            slowCheckOut.get(10, TimeUnit.SECONDS);
+            assertSame(_endPoint, otherCheckOut.get(10, TimeUnit.SECONDS).getEndPoint());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testMultipleInstancesReuseIdleInstance()
+            throws Exception {
+        MultiThreadedClientServiceCache<Service> cache = newCache(1, 3);
+        ServiceHandle<Service> handle1 = cache.checkOut(_endPoint);
+        cache.checkIn(handle1);
+        assertEquals(1, cache.getNumIdleInstances(_endPoint));
+        assertEquals(0, cache.getNumActiveInstances(_endPoint));
+
+        ServiceHandle<Service> handle2 = cache.checkOut(_endPoint);
+        assertSame(handle1.getService(), handle2.getService());
+        verify(_factory, times(1)).create(_endPoint);
+        assertEquals(0, cache.getNumIdleInstances(_endPoint));
+        assertEquals(1, cache.getNumActiveInstances(_endPoint));
+    }
+
+    @Test
+    public void testMultipleInstancesGrowWhenBusy()
+            throws Exception {
+        MultiThreadedClientServiceCache<Service> cache = newCache(1, 3);
+        Set<Service> services = Sets.newHashSet();
+        services.add(cache.checkOut(_endPoint).getService());
+        for (int i = 2; i <= 3; i++) {
+            // The checkout that finds every instance busy shares one, and another is added in the background.
+            assertTrue(services.contains(cache.checkOut(_endPoint).getService()));
+            awaitNumInstances(cache, i);
+            services.add(cache.checkOut(_endPoint).getService());
+        }
+        assertEquals(3, services.size());
+        assertEquals(0, cache.getNumIdleInstances(_endPoint));
+        assertEquals(3, cache.getNumActiveInstances(_endPoint));
+
+        // At the limit, so busy instances are shared.
+        assertTrue(services.contains(cache.checkOut(_endPoint).getService()));
+        Thread.sleep(50);
+        verify(_factory, times(3)).create(_endPoint);
+    }
+
+    @Test
+    public void testMultipleInstancesGrowWithoutBlockingCheckOut()
+            throws Exception {
+        Service service = mock(Service.class);
+        final CountDownLatch release = new CountDownLatch(1);
+        when(_factory.create(_endPoint)).thenReturn(service).thenAnswer(new Answer<Service>() {
+            @Override
+            public Service answer(InvocationOnMock invocation)
+                    throws Throwable {
+                release.await();
+                return mock(Service.class);
+            }
+        });
+
+        MultiThreadedClientServiceCache<Service> cache = newCache(1, 2);
+        cache.checkOut(_endPoint);
+        try {
+            // The new instance can't be created until it's released, but the checkout doesn't wait for it.
+            assertSame(service, cache.checkOut(_endPoint).getService());
+            verify(_factory, timeout(1000).times(2)).create(_endPoint);
+        } finally {
+            release.countDown();
+        }
+        awaitNumInstances(cache, 2);
+        assertEquals(1, cache.getNumIdleInstances(_endPoint));
+        assertEquals(1, cache.getNumActiveInstances(_endPoint));
+    }
+
+    @Test
+    public void testMultipleInstancesPreferLeastBusy()
+            throws Exception {
+        MultiThreadedClientServiceCache<Service> cache = newCache(1, 2);
+        ServiceHandle<Service> handle1 = cache.checkOut(_endPoint);
+        cache.checkIn(cache.checkOut(_endPoint));
+        awaitNumInstances(cache, 2);
+        ServiceHandle<Service> handle2 = cache.checkOut(_endPoint);
+        assertNotSame(handle1.getService(), handle2.getService());
+
+        // Both instances had one call in flight, so the third call could have gone to either of them.
+        ServiceHandle<Service> handle3 = cache.checkOut(_endPoint);
+        ServiceHandle<Service> leastBusy = (handle3.getService() == handle1.getService()) ? handle2 : handle1;
+        assertSame(leastBusy.getService(), cache.checkOut(_endPoint).getService());
+    }
+
+    @Test
+    public void testMultipleInstancesFallBackWhenGrowingFails()
+            throws Exception {
+        Service service = mock(Service.class);
+        when(_factory.create(_endPoint)).thenReturn(service).thenThrow(new RuntimeException());
+
+        MultiThreadedClientServiceCache<Service> cache = newCache(1, 2);
+        cache.checkOut(_endPoint);
+
+        assertSame(service, cache.checkOut(_endPoint).getService());
+        verify(_factory, timeout(1000).times(2)).create(_endPoint);
+        assertEquals(0, cache.getNumIdleInstances(_endPoint));
+        assertEquals(1, cache.getNumActiveInstances(_endPoint));
+    }
+
+    @Test
+    public void testMultipleInstancesAllDestroyedOnEviction()
+            throws Exception {
+        MultiThreadedClientServiceCache<Service> cache = newCache(0, 2);
+        ServiceHandle<Service> handle1 = cache.checkOut(_endPoint);
+        cache.checkIn(cache.checkOut(_endPoint));
+        awaitNumInstances(cache, 2);
+        ServiceHandle<Service> handle2 = cache.checkOut(_endPoint);
+        assertNotSame(handle1.getService(), handle2.getService());
+
+        cache.evict(_endPoint);
+        verify(_factory, timeout(100).times(1)).destroy(_endPoint, handle1.getService());
+        verify(_factory, timeout(100).times(1)).destroy(_endPoint, handle2.getService());
+        assertEquals(0, cache.getNumIdleInstances(_endPoint));
+    }
+
+    @Test
+    public void testExpiredClientReplaced() throws Exception {
+        MultiThreadedClientServiceCache<Service> cache = newCache(0, 1, 0, 1);
+        ServiceHandle<Service> handle = cache.checkOut(_endPoint);
+        cache.checkIn(handle);
+
+        verify(_factory, timeout(1000)).destroy(_endPoint, handle.getService());
+        assertNotSame(handle.getService(), cache.checkOut(_endPoint).getService());
+        assertEquals(1, cache.getNumIdleInstances(_endPoint));
+    }
+
+    @Test
+    public void testClientNotReplacedWithoutLifetime() throws Exception {
+        MultiThreadedClientServiceCache<Service> cache = newCache(0, 1, 0, 0);
+        ServiceHandle<Service> handle = cache.checkOut(_endPoint);
+        cache.checkIn(handle);
+
+        Thread.sleep(50);
+        verify(_factory, never()).destroy(_endPoint, handle.getService());
+        assertSame(handle.getService(), cache.checkOut(_endPoint).getService());
+    }
+
+    @Test
+    public void testInvalidClientReplaced() throws Exception {
+        ValidatingServiceFactory<Service> factory = useValidatingFactory();
+        Service invalidService = mock(Service.class);
+        when(_factory.create(_endPoint)).thenReturn(invalidService).thenReturn(mock(Service.class));
+        when(factory.isValid(_endPoint, invalidService)).thenReturn(false);
+
+        MultiThreadedClientServiceCache<Service> cache = newCache(0, 1, 1, 0);
+        assertSame(invalidService, cache.checkOut(_endPoint).getService());
+
+        verify(_factory, timeout(1000)).destroy(_endPoint, invalidService);
+        assertNotSame(invalidService, cache.checkOut(_endPoint).getService());
+    }
+
+    @Test
+    public void testValidClientKept() throws Exception {
+        ValidatingServiceFactory<Service> factory = useValidatingFactory();
+        when(factory.isValid(any(ServiceEndPoint.class), any(Service.class))).thenReturn(true);
+
+        MultiThreadedClientServiceCache<Service> cache = newCache(0, 1, 1, 0);
+        ServiceHandle<Service> handle = cache.checkOut(_endPoint);
+
+        verify(factory, timeout(1000).atLeast(2)).isValid(_endPoint, handle.getService());
+        verify(_factory, never()).destroy(_endPoint, handle.getService());
+        assertSame(handle.getService(), cache.checkOut(_endPoint).getService());
+    }
+
+    @Test
+    public void testReplacedClientDestroyedOnClose() throws Exception {
+        MultiThreadedClientServiceCache<Service> cache = new MultiThreadedClientServiceCache<>(_factory,
+                ServiceCacheBuilder.buildDefaultExecutor(), 60, 0, 16, 1, 0, 1, _metricRegistry);
+        _caches.add(cache);
+        ServiceHandle<Service> handle = cache.checkOut(_endPoint);
+
+        // The expired client is replaced, but kept for the eviction delay in case it's still in use.
+        verify(_factory, timeout(1000).atLeast(2)).create(_endPoint);
+        verify(_factory, never()).destroy(_endPoint, handle.getService());
+
+        cache.close();
+        verify(_factory).destroy(_endPoint, handle.getService());
+    }
+
     @Test
     public void testMultipleClose() {
         MultiThreadedClientServiceCache<Service> cache = newCache();
@@ -301,12 +565,81 @@ public class MultiThreadedClientServiceCacheTest {
         return newCache(1);
     }
 
+    private MultiThreadedClientServiceCache<Service> newCache(int ttl, int maxNumInstancesPerEndPoint) {
+        MultiThreadedClientServiceCache<Service> cache = new MultiThreadedClientServiceCache<>(_factory,
+                ServiceCacheBuilder.buildDefaultExecutor(), ttl, ttl, 16, maxNumInstancesPerEndPoint, _metricRegistry);
+        _caches.add(cache);
+        return cache;
+    }
+
+    private MultiThreadedClientServiceCache<Service> newCache(int ttl, int maxNumInstancesPerEndPoint,
+                                                              long validationIntervalMillis, long maxLifetimeMillis) {
+        MultiThreadedClientServiceCache<Service> cache = new MultiThreadedClientServiceCache<>(_factory,
+                ServiceCacheBuilder.buildDefaultExecutor(), ttl, ttl, 16, maxNumInstancesPerEndPoint,
+                validationIntervalMillis, maxLifetimeMillis, _metricRegistry);
+        _caches.add(cache);
+        return cache;
+    }
+
+    /**
+     * Waits for the instances that are added in the background.
+     */
+    private void awaitNumInstances(MultiThreadedClientServiceCache<Service> cache, int numInstances)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 1000;
+        while (cache.getNumIdleInstances(_endPoint) + cache.getNumActiveInstances(_endPoint) < numInstances
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(numInstances, cache.getNumIdleInstances(_endPoint) + cache.getNumActiveInstances(_endPoint));
+    }
+
+    @SuppressWarnings("unchecked")
+    private ValidatingServiceFactory<Service> useValidatingFactory() {
+        MultiThreadedServiceFactory<Service> factory = mock(MultiThreadedServiceFactory.class,
+                withSettings().extraInterfaces(ValidatingServiceFactory.class));
+        when(factory.getServiceName()).thenReturn(Service.class.getSimpleName());
+        when(factory.create(any(ServiceEndPoint.class))).thenAnswer(new Answer<Service>() {
+            @Override
+            public Service answer(InvocationOnMock invocation)
+                    throws Throwable {
+                return mock(Service.class);
+            }
+        });
+        _factory = factory;
+        return (ValidatingServiceFactory<Service>) factory;
+    }
+
     private MultiThreadedClientServiceCache<Service> newCache(int ttl) {
         MultiThreadedClientServiceCache<Service> cache = new MultiThreadedClientServiceCache<>(_factory, ServiceCacheBuilder.buildDefaultExecutor(), ttl, ttl, _metricRegistry);
         _caches.add(cache);
         return cache;
     }
 
+    private CountDownLatch blockCreation(ServiceEndPoint endPoint) {
+        final CountDownLatch release = new CountDownLatch(1);
+        when(_factory.create(endPoint)).thenAnswer(new Answer<Service>() {
+            @Override
+            public Service answer(InvocationOnMock invocation)
+                    throws Throwable {
+                release.await();
+                return mock(Service.class);
+            }
+        });
+        return release;
+    }
+
+    private Callable<ServiceHandle<Service>> checkOut(final MultiThreadedClientServiceCache<Service> cache,
+                                                      final ServiceEndPoint endPoint) {
+        return new Callable<ServiceHandle<Service>>() {
+            @Override
+            public ServiceHandle<Service> call()
+                    throws Exception {
+                return cache.checkOut(endPoint);
+            }
+        };
+    }
+
     private ServiceEndPoint newEndPoint(String id, String name) {
         ServiceEndPoint endPoint = mock(ServiceEndPoint.class);
         when(endPoint.getId()).thenReturn(id);
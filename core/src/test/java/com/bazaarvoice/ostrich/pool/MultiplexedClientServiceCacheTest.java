@@ -0,0 +1,410 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.bazaarvoice.ostrich.ServiceFactory;
+import com.bazaarvoice.ostrich.ValidatingServiceFactory;
+import com.bazaarvoice.ostrich.exceptions.NoCachedInstancesAvailableException;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Ticker;
+import com.google.common.collect.Lists;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class MultiplexedClientServiceCacheTest {
+    private static final ServiceEndPoint END_POINT = mock(ServiceEndPoint.class);
+
+    private final MetricRegistry _registry = new MetricRegistry();
+    private final Ticker _ticker = mock(Ticker.class);
+    private ExtendedServiceCachingPolicy _cachingPolicy;
+    private ServiceFactory<Service> _factory;
+    private List<MultiplexedClientServiceCache<?>> _caches = Lists.newArrayList();
+
+    @SuppressWarnings("unchecked")
+    @Before
+    public void setup() {
+        _factory = mock(ServiceFactory.class);
+        when(_factory.getServiceName()).thenReturn(Service.class.getSimpleName());
+        when(_factory.create(any(ServiceEndPoint.class))).thenAnswer(new Answer<Service>() {
+            @Override
+            public Service answer(InvocationOnMock invocation) throws Throwable {
+                return mock(Service.class);
+            }
+        });
+
+        // By default the caching policy will grow infinitely, with two callers per instance
+        _cachingPolicy = mock(ExtendedServiceCachingPolicy.class);
+        when(_cachingPolicy.getMaxNumCallersPerServiceInstance()).thenReturn(2);
+        when(_cachingPolicy.getMaxNumServiceInstances()).thenReturn(-1);
+        when(_cachingPolicy.getMaxNumServiceInstancesPerEndPoint()).thenReturn(-1);
+        when(_cachingPolicy.getCacheExhaustionAction()).thenReturn(ServiceCachingPolicy.ExhaustionAction.FAIL);
+    }
+
+    @After
+    public void teardown() {
+        for (MultiplexedClientServiceCache<?> cache : _caches) {
+            cache.close();
+        }
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testCheckOutFromNullEndPoint() throws Exception {
+        newCache().checkOut(null);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testCheckInNullHandle() throws Exception {
+        newCache().checkIn(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCheckInForeignHandle() throws Exception {
+        newCache().checkIn(new ServiceHandle<>(mock(Service.class), END_POINT));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCheckOutAfterClose() throws Exception {
+        MultiplexedClientServiceCache<Service> cache = newCache();
+        cache.close();
+        cache.checkOut(END_POINT);
+    }
+
+    @Test
+    public void testInstanceSharedUpToMaxCallers() throws Exception {
+        MultiplexedClientServiceCache<Service> cache = newCache();
+        ServiceHandle<Service> handle1 = cache.checkOut(END_POINT);
+        ServiceHandle<Service> handle2 = cache.checkOut(END_POINT);
+        ServiceHandle<Service> handle3 = cache.checkOut(END_POINT);
+
+        assertSame(handle1.getService(), handle2.getService());
+        assertNotSame(handle1.getService(), handle3.getService());
+        verify(_factory, times(2)).create(END_POINT);
+        assertEquals(2, cache.getNumActiveInstances(END_POINT));
+    }
+
+    @Test
+    public void testInstanceReusedAfterCheckIn() throws Exception {
+        MultiplexedClientServiceCache<Service> cache = newCache();
+        ServiceHandle<Service> handle1 = cache.checkOut(END_POINT);
+        cache.checkIn(handle1);
+        ServiceHandle<Service> handle2 = cache.checkOut(END_POINT);
+
+        assertSame(handle1.getService(), handle2.getService());
+        verify(_factory).create(END_POINT);
+    }
+
+    @Test
+    public void testCheckOutsFillFirstInstance() throws Exception {
+        MultiplexedClientServiceCache<Service> cache = newCache();
+        ServiceHandle<Service> handle1 = cache.checkOut(END_POINT);
+        cache.checkOut(END_POINT);
+        ServiceHandle<Service> handle3 = cache.checkOut(END_POINT);
+        cache.checkIn(handle1);
+
+        // The first instance has room again, so it's preferred over the second, less busy one.
+        assertSame(handle1.getService(), cache.checkOut(END_POINT).getService());
+        assertEquals(0, cache.getNumIdleInstances(END_POINT));
+
+        cache.checkIn(handle3);
+        assertEquals(1, cache.getNumIdleInstances(END_POINT));
+        assertEquals(1, cache.getNumActiveInstances(END_POINT));
+    }
+
+    @Test
+    public void testFailWhenSaturatedAtLimit() throws Exception {
+        when(_cachingPolicy.getMaxNumServiceInstancesPerEndPoint()).thenReturn(1);
+
+        MultiplexedClientServiceCache<Service> cache = newCache();
+        cache.checkOut(END_POINT);
+        cache.checkOut(END_POINT);
+        try {
+            cache.checkOut(END_POINT);
+            fail();
+        } catch (NoCachedInstancesAvailableException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testGrowDestroysExtraInstanceOnceUnused() throws Exception {
+        when(_cachingPolicy.getMaxNumCallersPerServiceInstance()).thenReturn(1);
+        when(_cachingPolicy.getMaxNumServiceInstancesPerEndPoint()).thenReturn(1);
+        when(_cachingPolicy.getCacheExhaustionAction()).thenReturn(ServiceCachingPolicy.ExhaustionAction.GROW);
+
+        MultiplexedClientServiceCache<Service> cache = newCache();
+        ServiceHandle<Service> handle1 = cache.checkOut(END_POINT);
+        ServiceHandle<Service> handle2 = cache.checkOut(END_POINT);
+        assertNotSame(handle1.getService(), handle2.getService());
+
+        cache.checkIn(handle2);
+        verify(_factory).destroy(END_POINT, handle2.getService());
+
+        cache.checkIn(handle1);
+        verify(_factory, never()).destroy(END_POINT, handle1.getService());
+        assertEquals(1, cache.getNumIdleInstances(END_POINT));
+    }
+
+    @Test
+    public void testTotalLimitDestroysIdleInstanceOfOtherEndPoint() throws Exception {
+        when(_cachingPolicy.getMaxNumCallersPerServiceInstance()).thenReturn(1);
+        when(_cachingPolicy.getMaxNumServiceInstances()).thenReturn(1);
+        ServiceEndPoint otherEndPoint = mock(ServiceEndPoint.class);
+
+        MultiplexedClientServiceCache<Service> cache = newCache();
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        cache.checkIn(handle);
+        cache.checkOut(otherEndPoint);
+
+        verify(_factory).destroy(END_POINT, handle.getService());
+        assertEquals(0, cache.getNumIdleInstances(END_POINT));
+    }
+
+    @Test
+    public void testWaitingCheckOutWokenByCheckIn() throws Exception {
+        when(_cachingPolicy.getMaxNumCallersPerServiceInstance()).thenReturn(1);
+        when(_cachingPolicy.getMaxNumServiceInstancesPerEndPoint()).thenReturn(1);
+        when(_cachingPolicy.getCacheExhaustionAction()).thenReturn(ServiceCachingPolicy.ExhaustionAction.WAIT);
+
+        final MultiplexedClientServiceCache<Service> cache = newCache();
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<ServiceHandle<Service>> waiting = executor.submit(new Callable<ServiceHandle<Service>>() {
+                @Override
+                public ServiceHandle<Service> call() throws Exception {
+                    return cache.checkOut(END_POINT);
+                }
+            });
+            try {
+                waiting.get(100, TimeUnit.MILLISECONDS);
+                fail();
+            } catch (TimeoutException e) {
+                // expected
+            }
+
+            cache.checkIn(handle);
+            assertSame(handle.getService(), waiting.get(10, TimeUnit.SECONDS).getService());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFactoryExceptionReleasesCapacity() throws Exception {
+        when(_cachingPolicy.getMaxNumServiceInstancesPerEndPoint()).thenReturn(1);
+        when(_factory.create(any(ServiceEndPoint.class))).thenThrow(new RuntimeException()).thenReturn(
+                mock(Service.class));
+
+        MultiplexedClientServiceCache<Service> cache = newCache();
+        try {
+            cache.checkOut(END_POINT);
+            fail();
+        } catch (RuntimeException e) {
+            // expected
+        }
+        cache.checkOut(END_POINT);
+    }
+
+    @Test
+    public void testEvictDestroysInstancesOnceUnused() throws Exception {
+        MultiplexedClientServiceCache<Service> cache = newCache();
+        ServiceHandle<Service> handle1 = cache.checkOut(END_POINT);
+        ServiceHandle<Service> handle2 = cache.checkOut(END_POINT);
+
+        cache.evict(END_POINT);
+        cache.checkIn(handle1);
+        verify(_factory, never()).destroy(END_POINT, handle1.getService());
+
+        cache.checkIn(handle2);
+        verify(_factory).destroy(END_POINT, handle2.getService());
+
+        assertNotSame(handle1.getService(), cache.checkOut(END_POINT).getService());
+    }
+
+    @Test
+    public void testIdleInstancesEvicted() throws Exception {
+        when(_cachingPolicy.getMaxNumCallersPerServiceInstance()).thenReturn(1);
+        when(_cachingPolicy.getMaxServiceInstanceIdleTime(TimeUnit.NANOSECONDS)).thenReturn(100L);
+
+        MultiplexedClientServiceCache<Service> cache = newCache();
+        ServiceHandle<Service> oldHandle = cache.checkOut(END_POINT);
+        ServiceHandle<Service> newHandle = cache.checkOut(END_POINT);
+        ServiceHandle<Service> busyHandle = cache.checkOut(END_POINT);
+        cache.checkIn(oldHandle);
+        when(_ticker.read()).thenReturn(50L);
+        cache.checkIn(newHandle);
+
+        when(_ticker.read()).thenReturn(120L);
+        cache.evictIdleInstances();
+
+        verify(_factory).destroy(END_POINT, oldHandle.getService());
+        verify(_factory, never()).destroy(END_POINT, newHandle.getService());
+        verify(_factory, never()).destroy(END_POINT, busyHandle.getService());
+        assertEquals(1, cache.getNumIdleInstances(END_POINT));
+        assertEquals(1, cache.getNumActiveInstances(END_POINT));
+    }
+
+    @Test
+    public void testCloseDestroysIdleInstances() throws Exception {
+        MultiplexedClientServiceCache<Service> cache = newCache();
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        cache.checkIn(handle);
+        cache.close();
+
+        verify(_factory).destroy(END_POINT, handle.getService());
+    }
+
+    @Test
+    public void testCheckInAfterCloseDestroysInstance() throws Exception {
+        MultiplexedClientServiceCache<Service> cache = newCache();
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        cache.close();
+        verify(_factory, never()).destroy(END_POINT, handle.getService());
+
+        cache.checkIn(handle);
+        verify(_factory).destroy(END_POINT, handle.getService());
+    }
+
+    @Test
+    public void testExpiredInstanceTakesNoNewCallers() throws Exception {
+        when(_cachingPolicy.getMaxServiceInstanceLifetime(TimeUnit.NANOSECONDS)).thenReturn(100L);
+
+        MultiplexedClientServiceCache<Service> cache = newCache();
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        when(_ticker.read()).thenReturn(100L);
+        ServiceHandle<Service> otherHandle = cache.checkOut(END_POINT);
+        assertNotSame(handle.getService(), otherHandle.getService());
+
+        cache.checkIn(handle);
+        verify(_factory).destroy(END_POINT, handle.getService());
+        assertEquals(1, cache.getNumActiveInstances(END_POINT));
+        assertEquals(0, cache.getNumIdleInstances(END_POINT));
+    }
+
+    @Test
+    public void testExpiredInstanceUsedWhenExhausted() throws Exception {
+        when(_cachingPolicy.getMaxServiceInstanceLifetime(TimeUnit.NANOSECONDS)).thenReturn(100L);
+        when(_cachingPolicy.getMaxNumServiceInstancesPerEndPoint()).thenReturn(1);
+
+        MultiplexedClientServiceCache<Service> cache = newCache();
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        when(_ticker.read()).thenReturn(100L);
+
+        assertSame(handle.getService(), cache.checkOut(END_POINT).getService());
+    }
+
+    @Test
+    public void testExpiredIdleInstanceEvicted() throws Exception {
+        when(_cachingPolicy.getMaxServiceInstanceLifetime(TimeUnit.NANOSECONDS)).thenReturn(100L);
+
+        MultiplexedClientServiceCache<Service> cache = newCache();
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        cache.checkIn(handle);
+        verify(_factory, never()).destroy(END_POINT, handle.getService());
+
+        when(_ticker.read()).thenReturn(100L);
+        cache.evictIdleInstances();
+        verify(_factory).destroy(END_POINT, handle.getService());
+        assertEquals(0, cache.getNumIdleInstances(END_POINT));
+    }
+
+    @Test
+    public void testInvalidIdleInstanceDestroyed() throws Exception {
+        ValidatingServiceFactory<Service> factory = useValidatingFactory();
+        when(_cachingPolicy.getServiceInstanceValidationInterval(TimeUnit.NANOSECONDS)).thenReturn(100L);
+
+        MultiplexedClientServiceCache<Service> cache = newCache();
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        cache.checkIn(handle);
+        when(factory.isValid(END_POINT, handle.getService())).thenReturn(false);
+        when(_ticker.read()).thenReturn(100L);
+        cache.validateIdleInstances();
+
+        verify(factory).destroy(END_POINT, handle.getService());
+        assertEquals(0, cache.getNumIdleInstances(END_POINT));
+    }
+
+    @Test
+    public void testValidIdleInstanceKept() throws Exception {
+        ValidatingServiceFactory<Service> factory = useValidatingFactory();
+        when(_cachingPolicy.getServiceInstanceValidationInterval(TimeUnit.NANOSECONDS)).thenReturn(100L);
+
+        MultiplexedClientServiceCache<Service> cache = newCache();
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        cache.checkIn(handle);
+        when(factory.isValid(END_POINT, handle.getService())).thenReturn(true);
+        when(_ticker.read()).thenReturn(100L);
+        cache.validateIdleInstances();
+
+        verify(factory).isValid(END_POINT, handle.getService());
+        verify(factory, never()).destroy(END_POINT, handle.getService());
+        assertEquals(1, cache.getNumIdleInstances(END_POINT));
+        assertSame(handle.getService(), cache.checkOut(END_POINT).getService());
+    }
+
+    @Test
+    public void testInstanceInUseNotValidated() throws Exception {
+        ValidatingServiceFactory<Service> factory = useValidatingFactory();
+        when(_cachingPolicy.getServiceInstanceValidationInterval(TimeUnit.NANOSECONDS)).thenReturn(100L);
+
+        MultiplexedClientServiceCache<Service> cache = newCache();
+        cache.checkOut(END_POINT);
+        when(_ticker.read()).thenReturn(100L);
+        cache.validateIdleInstances();
+
+        verify(factory, never()).isValid(any(ServiceEndPoint.class), any(Service.class));
+    }
+
+    @Test
+    public void testMultipleClose() {
+        MultiplexedClientServiceCache<Service> cache = newCache();
+        cache.close();
+        cache.close();
+    }
+
+    @SuppressWarnings("unchecked")
+    private ValidatingServiceFactory<Service> useValidatingFactory() {
+        ValidatingServiceFactory<Service> factory = mock(ValidatingServiceFactory.class);
+        when(factory.getServiceName()).thenReturn(Service.class.getSimpleName());
+        when(factory.create(any(ServiceEndPoint.class))).thenAnswer(new Answer<Service>() {
+            @Override
+            public Service answer(InvocationOnMock invocation) throws Throwable {
+                return mock(Service.class);
+            }
+        });
+        _factory = factory;
+        return factory;
+    }
+
+    private MultiplexedClientServiceCache<Service> newCache() {
+        MultiplexedClientServiceCache<Service> cache = new MultiplexedClientServiceCache<>(_cachingPolicy, _factory,
+                mock(ScheduledExecutorService.class), _ticker, _registry);
+        _caches.add(cache);
+        return cache;
+    }
+
+    public static interface Service {}
+}
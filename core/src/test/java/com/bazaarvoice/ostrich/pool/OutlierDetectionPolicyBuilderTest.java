@@ -0,0 +1,105 @@
+package com.bazaarvoice.ostrich.pool;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class OutlierDetectionPolicyBuilderTest {
+    @Test
+    public void testDefaults() {
+        OutlierDetectionPolicy policy = new OutlierDetectionPolicyBuilder().build();
+
+        assertEquals(5, policy.getMaxConsecutiveFailures());
+        assertEquals(0.5, policy.getMaxErrorRate(), 0);
+        assertEquals(20, policy.getMinRequestVolume());
+        assertEquals(0, policy.getLatencyOutlierFactor(), 0);
+        assertEquals(0.5, policy.getMaxEjectionRatio(), 0);
+        assertEquals(0.1, policy.getHalfOpenTrafficRatio(), 0);
+        assertEquals(5, policy.getHalfOpenSuccesses());
+    }
+
+    @Test
+    public void testMaxConsecutiveFailuresSet() {
+        OutlierDetectionPolicy policy = new OutlierDetectionPolicyBuilder().withMaxConsecutiveFailures(3).build();
+
+        assertEquals(3, policy.getMaxConsecutiveFailures());
+    }
+
+    @Test
+    public void testMaxErrorRateSet() {
+        OutlierDetectionPolicy policy = new OutlierDetectionPolicyBuilder().withMaxErrorRate(0.25, 10).build();
+
+        assertEquals(0.25, policy.getMaxErrorRate(), 0);
+        assertEquals(10, policy.getMinRequestVolume());
+    }
+
+    @Test
+    public void testLatencyOutlierFactorSet() {
+        OutlierDetectionPolicy policy = new OutlierDetectionPolicyBuilder().withLatencyOutlierFactor(3).build();
+
+        assertEquals(3, policy.getLatencyOutlierFactor(), 0);
+    }
+
+    @Test
+    public void testMaxEjectionRatioSet() {
+        OutlierDetectionPolicy policy = new OutlierDetectionPolicyBuilder().withMaxEjectionRatio(0.2).build();
+
+        assertEquals(0.2, policy.getMaxEjectionRatio(), 0);
+    }
+
+    @Test
+    public void testHalfOpenSet() {
+        OutlierDetectionPolicy policy = new OutlierDetectionPolicyBuilder().withHalfOpen(0.05, 10).build();
+
+        assertEquals(0.05, policy.getHalfOpenTrafficRatio(), 0);
+        assertEquals(10, policy.getHalfOpenSuccesses());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testInvalidMaxConsecutiveFailures() {
+        new OutlierDetectionPolicyBuilder().withMaxConsecutiveFailures(0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testInvalidMaxErrorRate() {
+        new OutlierDetectionPolicyBuilder().withMaxErrorRate(0, 10);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testMinRequestVolumeLargerThanWindow() {
+        new OutlierDetectionPolicyBuilder().withMaxErrorRate(0.5, EndPointStatistics.NUM_OUTCOME_SAMPLES + 1);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testInvalidLatencyOutlierFactor() {
+        new OutlierDetectionPolicyBuilder().withLatencyOutlierFactor(1);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testInvalidMaxEjectionRatio() {
+        new OutlierDetectionPolicyBuilder().withMaxEjectionRatio(1.5);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testInvalidHalfOpenTrafficRatio() {
+        new OutlierDetectionPolicyBuilder().withHalfOpen(-0.1, 5);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testInvalidHalfOpenSuccesses() {
+        new OutlierDetectionPolicyBuilder().withHalfOpen(0.1, -1);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testHalfOpenWithoutTrafficNeedingSuccesses() {
+        new OutlierDetectionPolicyBuilder().withHalfOpen(0, 5);
+    }
+
+    @Test
+    public void testHalfOpenWithoutTrafficSkipped() {
+        OutlierDetectionPolicy policy = new OutlierDetectionPolicyBuilder().withHalfOpen(0, 0).build();
+
+        assertEquals(0, policy.getHalfOpenTrafficRatio(), 0);
+        assertEquals(0, policy.getHalfOpenSuccesses());
+    }
+}
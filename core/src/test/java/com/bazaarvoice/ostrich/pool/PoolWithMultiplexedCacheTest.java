@@ -0,0 +1,20 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.ServiceFactory;
+
+import static org.mockito.Mockito.mock;
+
+public class PoolWithMultiplexedCacheTest extends AbstractServicePoolTestingHarness {
+    @Override
+    protected ServiceCachingPolicy getServiceCachingPolicy() {
+        return new ServiceCachingPolicyBuilder()
+                .withMaxNumCallersPerServiceInstance(4)
+                .build();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected ServiceFactory<AbstractServicePoolTestingHarness.Service> getServiceFactoryMock() {
+        return (ServiceFactory<Service>) mock(ServiceFactory.class);
+    }
+}
@@ -0,0 +1,84 @@
+package com.bazaarvoice.ostrich.pool;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class RateLimitPolicyBuilderTest {
+    @Test
+    public void testDefaults() {
+        RateLimitPolicy policy = new RateLimitPolicyBuilder().withPermitsPerSecond(10).build();
+
+        assertEquals(10, policy.getPermitsPerSecond(), 0);
+        assertNull(policy.getPartitionKey());
+        assertEquals(1, policy.getMaxBurst(TimeUnit.SECONDS));
+        assertEquals(0, policy.getMaxWait(TimeUnit.NANOSECONDS));
+    }
+
+    @Test
+    public void testPartitionPermitsPerSecondSet() {
+        RateLimitPolicy policy = new RateLimitPolicyBuilder().withPartitionPermitsPerSecond("key", 5).build();
+
+        assertEquals(0, policy.getPermitsPerSecond(), 0);
+        assertEquals("key", policy.getPartitionKey());
+        assertEquals(5, policy.getPartitionPermitsPerSecond(), 0);
+    }
+
+    @Test
+    public void testMaxBurstSet() {
+        RateLimitPolicy policy = new RateLimitPolicyBuilder()
+                .withPermitsPerSecond(10)
+                .withMaxBurst(500, TimeUnit.MILLISECONDS)
+                .build();
+
+        assertEquals(500, policy.getMaxBurst(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testMaxWaitSet() {
+        RateLimitPolicy policy = new RateLimitPolicyBuilder()
+                .withPermitsPerSecond(10)
+                .withMaxWait(2, TimeUnit.SECONDS)
+                .build();
+
+        assertEquals(2000, policy.getMaxWait(TimeUnit.MILLISECONDS));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testRateRequired() {
+        new RateLimitPolicyBuilder().build();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testInvalidPermitsPerSecond() {
+        new RateLimitPolicyBuilder().withPermitsPerSecond(0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testInvalidPartitionPermitsPerSecond() {
+        new RateLimitPolicyBuilder().withPartitionPermitsPerSecond("key", 0);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullPartitionKey() {
+        new RateLimitPolicyBuilder().withPartitionPermitsPerSecond(null, 1);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testInvalidMaxBurst() {
+        new RateLimitPolicyBuilder().withMaxBurst(0, TimeUnit.SECONDS);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testInvalidMaxWait() {
+        new RateLimitPolicyBuilder().withMaxWait(-1, TimeUnit.SECONDS);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullMaxWaitUnit() {
+        new RateLimitPolicyBuilder().withMaxWait(1, null);
+    }
+}
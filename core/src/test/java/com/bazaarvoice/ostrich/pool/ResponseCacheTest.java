@@ -0,0 +1,298 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.Cacheable;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ResponseCacheTest {
+    private static final Method LOOKUP = getMethod("lookup");
+    private static final Method NO_REFRESH = getMethod("lookupWithoutRefresh");
+    private static final Method SMALL = getMethod("lookupSmall");
+    private static final Method UNCACHED = getMethod("uncached");
+
+    private final Ticker _ticker = mock(Ticker.class);
+    private final ExecutorService _refreshExecutor = MoreExecutors.sameThreadExecutor();
+    private final MetricRegistry _metrics = new MetricRegistry();
+    private ResponseCache _cache;
+
+    @Before
+    public void setup() {
+        _cache = new ResponseCache(Service.class, "service", _ticker, _refreshExecutor, _metrics);
+    }
+
+    @After
+    public void teardown() {
+        _cache.close();
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullServiceType() {
+        new ResponseCache(null, "service", _ticker, _refreshExecutor, _metrics);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullTicker() {
+        new ResponseCache(Service.class, "service", null, _refreshExecutor, _metrics);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullRefreshExecutor() {
+        new ResponseCache(Service.class, "service", _ticker, null, _metrics);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullMetrics() {
+        new ResponseCache(Service.class, "service", _ticker, _refreshExecutor, null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNonPositiveTtl() {
+        new ResponseCache(InvalidService.class, "service", _ticker, _refreshExecutor, _metrics);
+    }
+
+    @Test
+    public void testIsCacheableServiceType() {
+        assertTrue(ResponseCache.isCacheable(Service.class));
+        assertFalse(ResponseCache.isCacheable(Runnable.class));
+    }
+
+    @Test
+    public void testIsCacheableMethod() {
+        assertTrue(_cache.isCacheable(LOOKUP));
+        assertFalse(_cache.isCacheable(UNCACHED));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGetUncacheableMethod() {
+        _cache.get(UNCACHED, new Object[0], new CountingCall());
+    }
+
+    @Test
+    public void testHit() {
+        CountingCall call = new CountingCall();
+
+        assertEquals(1, _cache.get(LOOKUP, args("a"), call));
+        assertEquals(1, _cache.get(LOOKUP, args("a"), call));
+        assertEquals(1, call.getNumCalls());
+        assertEquals(1, _metrics.meter(metricName("num-cache-hits")).getCount());
+        assertEquals(1, _metrics.meter(metricName("num-cache-misses")).getCount());
+    }
+
+    @Test
+    public void testDifferentArgumentsMiss() {
+        CountingCall call = new CountingCall();
+
+        assertEquals(1, _cache.get(LOOKUP, args("a"), call));
+        assertEquals(2, _cache.get(LOOKUP, args("b"), call));
+    }
+
+    @Test
+    public void testChangingArgumentsAfterCallDoesNotChangeKey() {
+        CountingCall call = new CountingCall();
+        Object[] args = args("a");
+
+        _cache.get(LOOKUP, args, call);
+        args[0] = "b";
+
+        assertEquals(1, _cache.get(LOOKUP, args("a"), call));
+    }
+
+    @Test
+    public void testNullResponseIsCached() {
+        final AtomicInteger numCalls = new AtomicInteger();
+        Callable<Object> call = new Callable<Object>() {
+            @Override
+            public Object call() {
+                numCalls.incrementAndGet();
+                return null;
+            }
+        };
+
+        assertNull(_cache.get(LOOKUP, args("a"), call));
+        assertNull(_cache.get(LOOKUP, args("a"), call));
+        assertEquals(1, numCalls.get());
+    }
+
+    @Test
+    public void testExceptionIsNotCached() {
+        final RuntimeException exception = new RuntimeException();
+        Callable<Object> failing = new Callable<Object>() {
+            @Override
+            public Object call() {
+                throw exception;
+            }
+        };
+
+        try {
+            _cache.get(LOOKUP, args("a"), failing);
+            fail();
+        } catch (RuntimeException e) {
+            assertSame(exception, e);
+        }
+
+        assertEquals(1, _cache.get(LOOKUP, args("a"), new CountingCall()));
+    }
+
+    @Test
+    public void testExpires() {
+        CountingCall call = new CountingCall();
+
+        _cache.get(NO_REFRESH, args("a"), call);
+        when(_ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(10));
+
+        assertEquals(2, _cache.get(NO_REFRESH, args("a"), call));
+    }
+
+    @Test
+    public void testRefreshAhead() {
+        CountingCall call = new CountingCall();
+
+        _cache.get(LOOKUP, args("a"), call);
+        when(_ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(8));
+
+        // The old response is returned while the refresh replaces it.
+        assertEquals(1, _cache.get(LOOKUP, args("a"), call));
+        assertEquals(2, _cache.get(LOOKUP, args("a"), call));
+        assertEquals(2, call.getNumCalls());
+        assertEquals(1, _metrics.meter(metricName("num-cache-refreshes")).getCount());
+    }
+
+    @Test
+    public void testNoRefreshBeforeRefreshTime() {
+        CountingCall call = new CountingCall();
+
+        _cache.get(LOOKUP, args("a"), call);
+        when(_ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(7));
+        _cache.get(LOOKUP, args("a"), call);
+
+        assertEquals(1, call.getNumCalls());
+    }
+
+    @Test
+    public void testNoRefreshWhenDisabled() {
+        CountingCall call = new CountingCall();
+
+        _cache.get(NO_REFRESH, args("a"), call);
+        when(_ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(9));
+
+        assertEquals(1, _cache.get(NO_REFRESH, args("a"), call));
+        assertEquals(1, _cache.get(NO_REFRESH, args("a"), call));
+        assertEquals(1, call.getNumCalls());
+    }
+
+    @Test
+    public void testFailedRefreshKeepsOldResponse() {
+        _cache.get(LOOKUP, args("a"), new CountingCall());
+        when(_ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(8));
+
+        final AtomicInteger numCalls = new AtomicInteger();
+        Callable<Object> failing = new Callable<Object>() {
+            @Override
+            public Object call() {
+                numCalls.incrementAndGet();
+                throw new RuntimeException();
+            }
+        };
+
+        assertEquals(1, _cache.get(LOOKUP, args("a"), failing));
+        assertEquals(1, _cache.get(LOOKUP, args("a"), failing));
+
+        // Each use tries to refresh again.
+        assertEquals(2, numCalls.get());
+    }
+
+    @Test
+    public void testMaxSize() {
+        CountingCall call = new CountingCall();
+
+        _cache.get(SMALL, args("a"), call);
+        _cache.get(SMALL, args("b"), call);
+
+        assertEquals(3, _cache.get(SMALL, args("a"), call));
+    }
+
+    @Test
+    public void testMethodsAreCachedSeparately() {
+        CountingCall call = new CountingCall();
+
+        _cache.get(LOOKUP, args("a"), call);
+
+        assertEquals(2, _cache.get(NO_REFRESH, args("a"), call));
+    }
+
+    @Test
+    public void testCloseShutsDownRefreshExecutor() {
+        ExecutorService executor = mock(ExecutorService.class);
+        ResponseCache cache = new ResponseCache(Service.class, "service", _ticker, executor, _metrics);
+        cache.close();
+
+        verify(executor).shutdownNow();
+    }
+
+    private String metricName(String name) {
+        return MetricRegistry.name(ResponseCache.class, "service", name);
+    }
+
+    private static Object[] args(Object... args) {
+        return args;
+    }
+
+    private static Method getMethod(String name) {
+        try {
+            return Service.class.getMethod(name, String.class);
+        } catch (NoSuchMethodException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static class CountingCall implements Callable<Object> {
+        private final AtomicInteger _numCalls = new AtomicInteger();
+
+        @Override
+        public Object call() {
+            return _numCalls.incrementAndGet();
+        }
+
+        int getNumCalls() {
+            return _numCalls.get();
+        }
+    }
+
+    private static interface Service {
+        @Cacheable(ttl = 10)
+        Object lookup(String key);
+
+        @Cacheable(ttl = 10, refreshAhead = false)
+        Object lookupWithoutRefresh(String key);
+
+        @Cacheable(ttl = 10, maxSize = 1)
+        Object lookupSmall(String key);
+
+        Object uncached(String key);
+    }
+
+    private static interface InvalidService {
+        @Cacheable(ttl = 0)
+        Object lookup(String key);
+    }
+}
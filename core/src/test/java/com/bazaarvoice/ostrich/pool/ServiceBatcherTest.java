@@ -0,0 +1,271 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.BatchServiceCallback;
+import com.bazaarvoice.ostrich.BatchingPolicy;
+import com.bazaarvoice.ostrich.EndPointSnapshot;
+import com.bazaarvoice.ostrich.ListenableServiceFuture;
+import com.bazaarvoice.ostrich.PartitionContext;
+import com.bazaarvoice.ostrich.PartitionContextBuilder;
+import com.bazaarvoice.ostrich.RetryPolicy;
+import com.bazaarvoice.ostrich.ServiceCallback;
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.bazaarvoice.ostrich.exceptions.MaxRetriesException;
+import com.bazaarvoice.ostrich.exceptions.NoSuitableHostsException;
+import com.codahale.metrics.Histogram;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@SuppressWarnings("unchecked")
+public class ServiceBatcherTest {
+    private static final ServiceEndPoint FOO_ENDPOINT = mock(ServiceEndPoint.class);
+    private static final ServiceEndPoint BAR_ENDPOINT = mock(ServiceEndPoint.class);
+    private static final PartitionContext FOO_PARTITION = PartitionContextBuilder.of("foo");
+    private static final PartitionContext BAR_PARTITION = PartitionContextBuilder.of("bar");
+
+    private final ServicePool<Service> _mockPool = mock(ServicePool.class);
+    private final ScheduledExecutorService _mockScheduler = mock(ScheduledExecutorService.class);
+    private final RetryPolicy _retryPolicy = mock(RetryPolicy.class);
+
+    @Before
+    public void setup() throws Exception {
+        when(_mockPool.chooseEndPoint(any(EndPointSnapshot.class), eq(FOO_PARTITION), any(Exception.class)))
+                .thenReturn(FOO_ENDPOINT);
+        when(_mockPool.chooseEndPoint(any(EndPointSnapshot.class), eq(BAR_PARTITION), any(Exception.class)))
+                .thenReturn(BAR_ENDPOINT);
+        when(_mockPool.executeOnEndPoint(any(ServiceEndPoint.class), any(ServiceCallback.class)))
+                .thenAnswer(new Answer<Object>() {
+                    @Override
+                    public Object answer(InvocationOnMock invocation) throws Throwable {
+                        return ((ServiceCallback<Service, ?>) invocation.getArguments()[1]).call(mock(Service.class));
+                    }
+                });
+    }
+
+    @Test
+    public void testFullBatchExecutedRightAway() throws Exception {
+        ServiceBatcher<Service, String, String> batcher = newBatcher(2, upperCase());
+
+        ListenableServiceFuture<String> a = batcher.submit(FOO_PARTITION, "a");
+        assertFalse(a.isDone());
+        ListenableServiceFuture<String> b = batcher.submit(FOO_PARTITION, "b");
+
+        assertEquals("A", a.get(10, TimeUnit.SECONDS));
+        assertEquals("B", b.get(10, TimeUnit.SECONDS));
+        verify(_mockPool).executeOnEndPoint(eq(FOO_ENDPOINT), any(ServiceCallback.class));
+    }
+
+    @Test
+    public void testPartialBatchExecutedAfterMaxDelay() throws Exception {
+        ServiceBatcher<Service, String, String> batcher = newBatcher(10, upperCase());
+
+        ListenableServiceFuture<String> a = batcher.submit(FOO_PARTITION, "a");
+
+        ArgumentCaptor<Runnable> flushCaptor = ArgumentCaptor.forClass(Runnable.class);
+        verify(_mockScheduler).schedule(flushCaptor.capture(), eq(TimeUnit.MILLISECONDS.toNanos(5)),
+                eq(TimeUnit.NANOSECONDS));
+        assertFalse(a.isDone());
+
+        flushCaptor.getValue().run();
+        assertEquals("A", a.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testItemsBatchedPerEndPoint() throws Exception {
+        ServiceBatcher<Service, String, String> batcher = newBatcher(2, upperCase());
+
+        ListenableServiceFuture<String> a = batcher.submit(FOO_PARTITION, "a");
+        ListenableServiceFuture<String> b = batcher.submit(BAR_PARTITION, "b");
+        ListenableServiceFuture<String> c = batcher.submit(FOO_PARTITION, "c");
+
+        assertEquals("A", a.get(10, TimeUnit.SECONDS));
+        assertEquals("C", c.get(10, TimeUnit.SECONDS));
+        assertFalse(b.isDone());
+        verify(_mockPool, never()).executeOnEndPoint(eq(BAR_ENDPOINT), any(ServiceCallback.class));
+    }
+
+    @Test
+    public void testCloseExecutesPendingItems() throws Exception {
+        ServiceBatcher<Service, String, String> batcher = newBatcher(10, upperCase());
+
+        ListenableServiceFuture<String> a = batcher.submit(FOO_PARTITION, "a");
+        ListenableServiceFuture<String> b = batcher.submit(BAR_PARTITION, "b");
+        batcher.close();
+
+        assertEquals("A", a.get(10, TimeUnit.SECONDS));
+        assertEquals("B", b.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testSubmitAfterClose() {
+        ServiceBatcher<Service, String, String> batcher = newBatcher(10, upperCase());
+        batcher.close();
+
+        batcher.submit(FOO_PARTITION, "a");
+    }
+
+    @Test
+    public void testFlushAfterFullBatchDoesNothing() throws Exception {
+        ServiceBatcher<Service, String, String> batcher = newBatcher(2, upperCase());
+
+        batcher.submit(FOO_PARTITION, "a");
+        batcher.submit(FOO_PARTITION, "b");
+        ArgumentCaptor<Runnable> flushCaptor = ArgumentCaptor.forClass(Runnable.class);
+        verify(_mockScheduler).schedule(flushCaptor.capture(), anyLong(), any(TimeUnit.class));
+
+        flushCaptor.getValue().run();
+        verify(_mockPool).executeOnEndPoint(eq(FOO_ENDPOINT), any(ServiceCallback.class));
+    }
+
+    @Test
+    public void testRoutingFailureFailsItem() throws Exception {
+        when(_mockPool.chooseEndPoint(any(EndPointSnapshot.class), eq(FOO_PARTITION), any(Exception.class)))
+                .thenThrow(new NoSuitableHostsException());
+        ServiceBatcher<Service, String, String> batcher = newBatcher(1, upperCase());
+
+        ListenableServiceFuture<String> a = batcher.submit(FOO_PARTITION, "a");
+
+        assertFailsWith(NoSuitableHostsException.class, a);
+    }
+
+    @Test
+    public void testCancelledItemSkipped() throws Exception {
+        final List<List<String>> batches = Lists.newArrayList();
+        ServiceBatcher<Service, String, String> batcher = newBatcher(2,
+                new BatchServiceCallback<Service, String, String>() {
+                    @Override
+                    public List<String> call(Service service, List<String> items) {
+                        batches.add(ImmutableList.copyOf(items));
+                        return items;
+                    }
+                });
+
+        batcher.submit(FOO_PARTITION, "a").cancel(false);
+        ListenableServiceFuture<String> b = batcher.submit(FOO_PARTITION, "b");
+
+        assertEquals("b", b.get(10, TimeUnit.SECONDS));
+        assertEquals(ImmutableList.of(ImmutableList.of("b")), batches);
+    }
+
+    @Test
+    public void testRetriableFailureRoutesItemsAgain() throws Exception {
+        when(_mockPool.isRetriableException(any(Exception.class))).thenReturn(true);
+        when(_retryPolicy.allowRetry(anyInt(), anyLong())).thenReturn(true);
+        doThrow(new RuntimeException()).when(_mockPool)
+                .executeOnEndPoint(eq(FOO_ENDPOINT), any(ServiceCallback.class));
+        when(_mockPool.chooseEndPoint(any(EndPointSnapshot.class), eq(FOO_PARTITION), any(Exception.class)))
+                .thenReturn(FOO_ENDPOINT, BAR_ENDPOINT);
+        ServiceBatcher<Service, String, String> batcher = newBatcher(1, upperCase());
+
+        ListenableServiceFuture<String> a = batcher.submit(FOO_PARTITION, "a");
+
+        assertEquals("A", a.get(10, TimeUnit.SECONDS));
+        verify(_retryPolicy).allowRetry(eq(1), anyLong());
+    }
+
+    @Test
+    public void testNonRetriableFailureFailsItems() throws Exception {
+        when(_mockPool.isRetriableException(any(Exception.class))).thenReturn(false);
+        doThrow(new UnsupportedOperationException()).when(_mockPool)
+                .executeOnEndPoint(eq(FOO_ENDPOINT), any(ServiceCallback.class));
+        ServiceBatcher<Service, String, String> batcher = newBatcher(2, upperCase());
+
+        ListenableServiceFuture<String> a = batcher.submit(FOO_PARTITION, "a");
+        ListenableServiceFuture<String> b = batcher.submit(FOO_PARTITION, "b");
+
+        assertFailsWith(UnsupportedOperationException.class, a);
+        assertFailsWith(UnsupportedOperationException.class, b);
+        verify(_retryPolicy, never()).allowRetry(anyInt(), anyLong());
+    }
+
+    @Test
+    public void testOutOfRetriesFailsItems() throws Exception {
+        when(_mockPool.isRetriableException(any(Exception.class))).thenReturn(true);
+        when(_retryPolicy.allowRetry(anyInt(), anyLong())).thenReturn(false);
+        doThrow(new RuntimeException()).when(_mockPool)
+                .executeOnEndPoint(eq(FOO_ENDPOINT), any(ServiceCallback.class));
+        ServiceBatcher<Service, String, String> batcher = newBatcher(1, upperCase());
+
+        ListenableServiceFuture<String> a = batcher.submit(FOO_PARTITION, "a");
+
+        assertFailsWith(MaxRetriesException.class, a);
+    }
+
+    @Test
+    public void testWrongNumberOfResultsFailsItems() throws Exception {
+        ServiceBatcher<Service, String, String> batcher = newBatcher(2,
+                new BatchServiceCallback<Service, String, String>() {
+                    @Override
+                    public List<String> call(Service service, List<String> items) {
+                        return ImmutableList.of("only one");
+                    }
+                });
+
+        ListenableServiceFuture<String> a = batcher.submit(FOO_PARTITION, "a");
+        ListenableServiceFuture<String> b = batcher.submit(FOO_PARTITION, "b");
+
+        assertFailsWith(IllegalStateException.class, a);
+        assertFailsWith(IllegalStateException.class, b);
+    }
+
+    private ServiceBatcher<Service, String, String> newBatcher(int maxBatchSize,
+                                                               BatchServiceCallback<Service, String, String> callback) {
+        BatchingPolicy batchingPolicy = new BatchingPolicyBuilder()
+                .withMaxBatchSize(maxBatchSize)
+                .withMaxDelay(5, TimeUnit.MILLISECONDS)
+                .build();
+        return new ServiceBatcher<>(mock(Ticker.class), _mockPool, MoreExecutors.sameThreadExecutor(), _mockScheduler,
+                batchingPolicy, _retryPolicy, callback, mock(Histogram.class));
+    }
+
+    private static BatchServiceCallback<Service, String, String> upperCase() {
+        return new BatchServiceCallback<Service, String, String>() {
+            @Override
+            public List<String> call(Service service, List<String> items) {
+                ImmutableList.Builder<String> results = ImmutableList.builder();
+                for (String item : items) {
+                    results.add(item.toUpperCase());
+                }
+                return results.build();
+            }
+        };
+    }
+
+    private static void assertFailsWith(Class<? extends Exception> exceptionClass, ListenableServiceFuture<?> future)
+            throws Exception {
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(exceptionClass.isInstance(e.getCause()));
+        }
+    }
+
+    private static interface Service {
+    }
+}
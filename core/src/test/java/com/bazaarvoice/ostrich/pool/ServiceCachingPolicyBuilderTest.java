@@ -5,6 +5,9 @@ import org.junit.Test;
 import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 public class ServiceCachingPolicyBuilderTest {
     @Test
@@ -22,6 +25,19 @@ public class ServiceCachingPolicyBuilderTest {
         assertEquals(true, cachingPolicy.useMultiThreadedClientPolicy());
     }
 
+    @Test
+    public void testMultiThreadedClientPolicyWithMaxNumServiceInstancesPerEndPoint() {
+        ServiceCachingPolicy cachingPolicy = ServiceCachingPolicyBuilder.getMultiThreadedClientPolicy(4);
+
+        assertEquals(true, cachingPolicy.useMultiThreadedClientPolicy());
+        assertEquals(4, ((MultiThreadedClientPolicy) cachingPolicy).getMaxNumClientsPerEndPoint());
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void testMultiThreadedClientPolicyWithInvalidMaxNumServiceInstancesPerEndPoint() {
+        ServiceCachingPolicyBuilder.getMultiThreadedClientPolicy(0);
+    }
+
     @Test
     public void testDefaultMultiThreadedClientPolicy() {
         ServiceCachingPolicyBuilder builder = new ServiceCachingPolicyBuilder();
@@ -29,6 +45,71 @@ public class ServiceCachingPolicyBuilderTest {
         assertEquals(false, builder.build().useMultiThreadedClientPolicy());
     }
     
+    @Test
+    public void testThreadAffinitySet() {
+        ServiceCachingPolicyBuilder builder = new ServiceCachingPolicyBuilder();
+        builder.withThreadAffinity(true);
+
+        assertEquals(true, build(builder).useThreadAffinity());
+    }
+
+    @Test
+    public void testDefaultThreadAffinity() {
+        ServiceCachingPolicyBuilder builder = new ServiceCachingPolicyBuilder();
+
+        assertEquals(false, build(builder).useThreadAffinity());
+    }
+
+    @Test
+    public void testMinNumIdleServiceInstancesPerEndPointSet() {
+        ServiceCachingPolicyBuilder builder = new ServiceCachingPolicyBuilder();
+        builder.withMinNumIdleServiceInstancesPerEndPoint(2);
+
+        assertEquals(2, build(builder).getMinNumIdleServiceInstancesPerEndPoint());
+    }
+
+    @Test
+    public void testDefaultMinNumIdleServiceInstancesPerEndPoint() {
+        ServiceCachingPolicyBuilder builder = new ServiceCachingPolicyBuilder();
+
+        assertEquals(0, build(builder).getMinNumIdleServiceInstancesPerEndPoint());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testInvalidMinNumIdleServiceInstancesPerEndPoint() {
+        ServiceCachingPolicyBuilder builder = new ServiceCachingPolicyBuilder();
+        builder.withMinNumIdleServiceInstancesPerEndPoint(-1);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testMinNumIdleServiceInstancesPerEndPointAboveMax() {
+        ServiceCachingPolicyBuilder builder = new ServiceCachingPolicyBuilder();
+        builder.withMaxNumServiceInstancesPerEndPoint(1);
+        builder.withMinNumIdleServiceInstancesPerEndPoint(2);
+        builder.build();
+    }
+
+    @Test
+    public void testMaxNumCallersPerServiceInstanceSet() {
+        ServiceCachingPolicyBuilder builder = new ServiceCachingPolicyBuilder();
+        builder.withMaxNumCallersPerServiceInstance(8);
+
+        assertEquals(8, build(builder).getMaxNumCallersPerServiceInstance());
+    }
+
+    @Test
+    public void testDefaultMaxNumCallersPerServiceInstance() {
+        ServiceCachingPolicyBuilder builder = new ServiceCachingPolicyBuilder();
+
+        assertEquals(1, build(builder).getMaxNumCallersPerServiceInstance());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testInvalidMaxNumCallersPerServiceInstance() {
+        ServiceCachingPolicyBuilder builder = new ServiceCachingPolicyBuilder();
+        builder.withMaxNumCallersPerServiceInstance(0);
+    }
+
     @Test
     public void testMaxNumServiceInstancesSet() {
         ServiceCachingPolicyBuilder builder = new ServiceCachingPolicyBuilder();
@@ -53,6 +134,140 @@ public class ServiceCachingPolicyBuilderTest {
         assertEquals(10, builder.build().getMaxServiceInstanceIdleTime(TimeUnit.SECONDS));
     }
 
+    @Test
+    public void testServiceInstanceValidationIntervalSet() {
+        ServiceCachingPolicyBuilder builder = new ServiceCachingPolicyBuilder();
+        builder.withServiceInstanceValidationInterval(30, TimeUnit.SECONDS);
+
+        assertEquals(30, build(builder).getServiceInstanceValidationInterval(TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testDefaultServiceInstanceValidationInterval() {
+        ServiceCachingPolicyBuilder builder = new ServiceCachingPolicyBuilder();
+
+        assertEquals(0, build(builder).getServiceInstanceValidationInterval(TimeUnit.SECONDS));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testInvalidServiceInstanceValidationInterval() {
+        ServiceCachingPolicyBuilder builder = new ServiceCachingPolicyBuilder();
+        builder.withServiceInstanceValidationInterval(0, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testMaxServiceInstanceLifetimeSet() {
+        ServiceCachingPolicyBuilder builder = new ServiceCachingPolicyBuilder();
+        builder.withMaxServiceInstanceLifetime(30, TimeUnit.MINUTES);
+
+        assertEquals(30, build(builder).getMaxServiceInstanceLifetime(TimeUnit.MINUTES));
+    }
+
+    @Test
+    public void testDefaultMaxServiceInstanceLifetime() {
+        ServiceCachingPolicyBuilder builder = new ServiceCachingPolicyBuilder();
+
+        assertEquals(0, build(builder).getMaxServiceInstanceLifetime(TimeUnit.MINUTES));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testInvalidMaxServiceInstanceLifetime() {
+        ServiceCachingPolicyBuilder builder = new ServiceCachingPolicyBuilder();
+        builder.withMaxServiceInstanceLifetime(-1, TimeUnit.MINUTES);
+    }
+
+    @Test
+    public void testAdaptiveSizingSet() {
+        ExtendedServiceCachingPolicy cachingPolicy = build(new ServiceCachingPolicyBuilder()
+                .withMaxNumServiceInstancesPerEndPoint(10)
+                .withMaxServiceInstanceIdleTime(10, TimeUnit.MINUTES)
+                .withAdaptiveSizing(2, 1, TimeUnit.MINUTES));
+
+        assertEquals(true, cachingPolicy.useAdaptiveSizing());
+        assertEquals(2, cachingPolicy.getAdaptiveMinNumServiceInstancesPerEndPoint());
+        assertEquals(1, cachingPolicy.getAdaptiveMinServiceInstanceIdleTime(TimeUnit.MINUTES));
+    }
+
+    @Test
+    public void testDefaultAdaptiveSizing() {
+        ExtendedServiceCachingPolicy cachingPolicy = build(new ServiceCachingPolicyBuilder());
+
+        assertEquals(false, cachingPolicy.useAdaptiveSizing());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testInvalidAdaptiveMinNumServiceInstancesPerEndPoint() {
+        ServiceCachingPolicyBuilder builder = new ServiceCachingPolicyBuilder();
+        builder.withAdaptiveSizing(0, 1, TimeUnit.MINUTES);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testInvalidAdaptiveMinServiceInstanceIdleTime() {
+        ServiceCachingPolicyBuilder builder = new ServiceCachingPolicyBuilder();
+        builder.withAdaptiveSizing(1, 0, TimeUnit.MINUTES);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testAdaptiveSizingWithoutMaxNumServiceInstancesPerEndPoint() {
+        new ServiceCachingPolicyBuilder()
+                .withMaxServiceInstanceIdleTime(10, TimeUnit.MINUTES)
+                .withAdaptiveSizing(2, 1, TimeUnit.MINUTES)
+                .build();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testAdaptiveSizingWithoutMaxServiceInstanceIdleTime() {
+        new ServiceCachingPolicyBuilder()
+                .withMaxNumServiceInstancesPerEndPoint(10)
+                .withAdaptiveSizing(2, 1, TimeUnit.MINUTES)
+                .build();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testAdaptiveMinNumServiceInstancesPerEndPointBelowMinNumIdle() {
+        new ServiceCachingPolicyBuilder()
+                .withMaxNumServiceInstancesPerEndPoint(10)
+                .withMinNumIdleServiceInstancesPerEndPoint(3)
+                .withMaxServiceInstanceIdleTime(10, TimeUnit.MINUTES)
+                .withAdaptiveSizing(2, 1, TimeUnit.MINUTES)
+                .build();
+    }
+
+    @Test
+    public void testBuildMultiThreadedClientPolicy() {
+        ServiceCachingPolicy cachingPolicy = new ServiceCachingPolicyBuilder()
+                .withMaxNumServiceInstancesPerEndPoint(2)
+                .withServiceInstanceValidationInterval(30, TimeUnit.SECONDS)
+                .withMaxServiceInstanceLifetime(30, TimeUnit.MINUTES)
+                .buildMultiThreadedClientPolicy();
+        MultiThreadedClientPolicy multiThreadedClientPolicy = (MultiThreadedClientPolicy) cachingPolicy;
+
+        assertEquals(true, cachingPolicy.useMultiThreadedClientPolicy());
+        assertEquals(2, multiThreadedClientPolicy.getMaxNumClientsPerEndPoint());
+        assertEquals(30, multiThreadedClientPolicy.getClientValidationInterval(TimeUnit.SECONDS));
+        assertEquals(30, multiThreadedClientPolicy.getMaxClientLifetime(TimeUnit.MINUTES));
+    }
+
+    @Test
+    public void testBuildMultiThreadedClientPolicyDefaultsToOneClientPerEndPoint() {
+        MultiThreadedClientPolicy cachingPolicy =
+                (MultiThreadedClientPolicy) new ServiceCachingPolicyBuilder().buildMultiThreadedClientPolicy();
+
+        assertEquals(1, cachingPolicy.getMaxNumClientsPerEndPoint());
+        assertEquals(0, cachingPolicy.getMaxClientLifetime(TimeUnit.MINUTES));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testBuildMultiThreadedClientPolicyWithoutClients() {
+        new ServiceCachingPolicyBuilder().withMaxNumServiceInstancesPerEndPoint(0).buildMultiThreadedClientPolicy();
+    }
+
+    @Test (expected = UnsupportedOperationException.class)
+    public void testBuildMultiThreadedClientPolicyWithCacheExhaustionAction() {
+        ServiceCachingPolicy cachingPolicy = new ServiceCachingPolicyBuilder().buildMultiThreadedClientPolicy();
+        cachingPolicy.getCacheExhaustionAction();
+    }
+
     @Test(expected = NullPointerException.class)
     public void testNullExhaustionAction() {
         ServiceCachingPolicyBuilder builder = new ServiceCachingPolicyBuilder();
@@ -100,4 +315,31 @@ public class ServiceCachingPolicyBuilderTest {
         ServiceCachingPolicy cachingPolicy = ServiceCachingPolicyBuilder.getMultiThreadedClientPolicy();
         assertEquals(ServiceCachingPolicy.ExhaustionAction.GROW, cachingPolicy.getCacheExhaustionAction());
     }
+
+    @Test
+    public void testExtendedPolicyDefaults() {
+        ServiceCachingPolicy cachingPolicy = mock(ServiceCachingPolicy.class);
+        when(cachingPolicy.getMaxNumServiceInstancesPerEndPoint()).thenReturn(3);
+
+        ExtendedServiceCachingPolicy extendedPolicy = ServiceCachingPolicyBuilder.toExtendedPolicy(cachingPolicy);
+
+        assertEquals(3, extendedPolicy.getMaxNumServiceInstancesPerEndPoint());
+        assertEquals(0, extendedPolicy.getMinNumIdleServiceInstancesPerEndPoint());
+        assertEquals(1, extendedPolicy.getMaxNumCallersPerServiceInstance());
+        assertEquals(0, extendedPolicy.getServiceInstanceValidationInterval(TimeUnit.SECONDS));
+        assertEquals(0, extendedPolicy.getMaxServiceInstanceLifetime(TimeUnit.SECONDS));
+        assertEquals(false, extendedPolicy.useAdaptiveSizing());
+        assertEquals(false, extendedPolicy.useThreadAffinity());
+    }
+
+    @Test
+    public void testExtendedPolicyOfBuiltPolicy() {
+        ServiceCachingPolicy cachingPolicy = new ServiceCachingPolicyBuilder().build();
+
+        assertSame(cachingPolicy, ServiceCachingPolicyBuilder.toExtendedPolicy(cachingPolicy));
+    }
+
+    private static ExtendedServiceCachingPolicy build(ServiceCachingPolicyBuilder builder) {
+        return (ExtendedServiceCachingPolicy) builder.build();
+    }
 }
@@ -0,0 +1,60 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.bazaarvoice.ostrich.ServiceFactory;
+import com.bazaarvoice.ostrich.ValidatingServiceFactory;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ServiceInstanceRecyclingTest {
+    private static final ServiceEndPoint END_POINT = mock(ServiceEndPoint.class);
+
+    @Test
+    public void testJitteredLifetimeWithinBounds() {
+        long maxLifetime = 1000;
+        long minLifetime = (long) (maxLifetime * (1 - ServiceInstanceRecycling.MAX_LIFETIME_JITTER));
+        boolean jittered = false;
+        for (int i = 0; i < 1000; i++) {
+            long lifetime = ServiceInstanceRecycling.jitteredLifetime(maxLifetime);
+            assertTrue(lifetime >= minLifetime && lifetime <= maxLifetime);
+            jittered |= (lifetime != maxLifetime);
+        }
+        assertTrue(jittered);
+    }
+
+    @Test
+    public void testShortLifetimeNotJittered() {
+        assertTrue(ServiceInstanceRecycling.jitteredLifetime(5) == 5);
+    }
+
+    @Test
+    public void testCanValidate() {
+        assertTrue(ServiceInstanceRecycling.canValidate(mock(ValidatingServiceFactory.class), 1));
+        assertFalse(ServiceInstanceRecycling.canValidate(mock(ValidatingServiceFactory.class), 0));
+        assertFalse(ServiceInstanceRecycling.canValidate(mock(ServiceFactory.class), 1));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testValidationExceptionMeansInvalid() {
+        ValidatingServiceFactory<Object> factory = mock(ValidatingServiceFactory.class);
+        Object service = new Object();
+        when(factory.isValid(END_POINT, service)).thenThrow(new IllegalStateException());
+
+        assertFalse(ServiceInstanceRecycling.isValid(factory, END_POINT, service));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testValidationResultReturned() {
+        ValidatingServiceFactory<Object> factory = mock(ValidatingServiceFactory.class);
+        Object service = new Object();
+        when(factory.isValid(END_POINT, service)).thenReturn(true);
+
+        assertTrue(ServiceInstanceRecycling.isValid(factory, END_POINT, service));
+    }
+}
@@ -18,6 +18,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.anyString;
@@ -77,6 +78,31 @@ public class ServicePoolBuilderTest {
         ServicePoolBuilder.create(Service.class).withAsyncExecutor(null);
     }
 
+    @Test(expected = NullPointerException.class)
+    public void testNullHedgingPolicy() {
+        ServicePoolBuilder.create(Service.class).withHedgingPolicy(null);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullHedgeExecutor() {
+        ServicePoolBuilder.create(Service.class).withHedgeExecutor(null);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullOutlierDetectionPolicy() {
+        ServicePoolBuilder.create(Service.class).withOutlierDetectionPolicy(null);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullConcurrencyLimitPolicy() {
+        ServicePoolBuilder.create(Service.class).withConcurrencyLimitPolicy(null);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullRateLimit() {
+        ServicePoolBuilder.create(Service.class).withRateLimit(null);
+    }
+
     @Test(expected = NullPointerException.class)
     public void testNullMetricRegistry() {
         ServicePoolBuilder.create(Service.class).withMetricRegistry(null);
@@ -341,6 +367,30 @@ public class ServicePoolBuilderTest {
                 .buildAsync();
     }
 
+    @Test
+    public void testVirtualThreadsDisabledByDefault() {
+        assertFalse(ServicePoolBuilder.create(Service.class).useVirtualThreads());
+    }
+
+    @Test
+    public void testVirtualThreadsOnlyUsedWhenSupported() {
+        ServicePoolBuilder<Service> builder = ServicePoolBuilder.create(Service.class).withVirtualThreads(true);
+        assertEquals(VirtualThreads.isSupported(), builder.useVirtualThreads());
+    }
+
+    @Test
+    public void testBuildAsyncWithVirtualThreads() throws IOException {
+        com.bazaarvoice.ostrich.AsyncServicePool<Service> pool = ServicePoolBuilder.create(Service.class)
+                .withServiceFactory(_serviceFactory)
+                .withCachingPolicy(_cachingPolicy)
+                .withHostDiscovery(_hostDiscovery)
+                .withPartitionFilter(_partitionFilter)
+                .withMetricRegistry(_metricRegistry)
+                .withVirtualThreads(true)
+                .buildAsync();
+        pool.close();
+    }
+
     @Test
     public void testBuildProxy() throws IOException {
         Service service = ServicePoolBuilder.create(Service.class)
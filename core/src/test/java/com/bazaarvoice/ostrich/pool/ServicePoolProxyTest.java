@@ -1,8 +1,13 @@
 package com.bazaarvoice.ostrich.pool;
 
+import com.bazaarvoice.ostrich.Cacheable;
+import com.bazaarvoice.ostrich.Idempotent;
 import com.bazaarvoice.ostrich.PartitionContext;
 import com.bazaarvoice.ostrich.RetryPolicy;
 import com.bazaarvoice.ostrich.ServiceCallback;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.MoreExecutors;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
@@ -10,14 +15,19 @@ import org.mockito.ArgumentCaptor;
 import java.io.Closeable;
 import java.io.IOException;
 import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.same;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -82,7 +92,76 @@ public class ServicePoolProxyTest {
         assertSame(_pool, proxy.getServicePool());
     }
 
+    @Test
+    public void testIdempotentMethodIsCoalesced() {
+        when(_pool.executeCoalesced(same(CONTEXT), any(), same(NEVER_RETRY), anyCallback()))
+                .thenReturn("bar");
+        Service service = ServicePoolProxy.create(Service.class, NEVER_RETRY, _pool, SUPPLIER, false);
+
+        assertEquals("bar", service.lookup("foo"));
+
+        ArgumentCaptor<Object> keyCaptor = ArgumentCaptor.forClass(Object.class);
+        verify(_pool).executeCoalesced(same(CONTEXT), keyCaptor.capture(), same(NEVER_RETRY),
+                anyCallback());
+        verify(_pool, never()).execute(any(PartitionContext.class), any(RetryPolicy.class),
+                anyCallback());
+
+        // Calls with equal arguments must have equal keys and calls with different arguments must not.
+        service.lookup("foo");
+        service.lookup("baz");
+        verify(_pool, times(3)).executeCoalesced(same(CONTEXT), keyCaptor.capture(), same(NEVER_RETRY),
+                anyCallback());
+        List<Object> keys = keyCaptor.getAllValues();
+        assertEquals(keys.get(0), keys.get(2));
+        assertEquals(keys.get(0).hashCode(), keys.get(2).hashCode());
+        assertNotEquals(keys.get(0), keys.get(3));
+    }
+
+    @Test
+    public void testIdempotentMethodOfPoolWithoutCoalescingIsExecuted() {
+        @SuppressWarnings("unchecked")
+        com.bazaarvoice.ostrich.ServicePool<Service> pool = mock(com.bazaarvoice.ostrich.ServicePool.class);
+        when(pool.execute(same(CONTEXT), same(NEVER_RETRY), anyCallback())).thenReturn("bar");
+        Service service = ServicePoolProxy.create(Service.class, NEVER_RETRY, pool, SUPPLIER, false);
+
+        assertEquals("bar", service.lookup("foo"));
+    }
+
+    @Test
+    public void testNonIdempotentMethodIsNotCoalesced() {
+        Service service = ServicePoolProxy.create(Service.class, NEVER_RETRY, _pool, SUPPLIER, false);
+        service.close();
+
+        verify(_pool).execute(same(CONTEXT), same(NEVER_RETRY), anyCallback());
+        verify(_pool, never()).executeCoalesced(any(PartitionContext.class), any(), any(RetryPolicy.class),
+                anyCallback());
+    }
+
+    @Test
+    public void testCacheableMethodIsCached() {
+        when(_pool.execute(same(CONTEXT), same(NEVER_RETRY), anyCallback())).thenReturn("bar");
+        ResponseCache responseCache = new ResponseCache(Service.class, "service", Ticker.systemTicker(),
+                MoreExecutors.sameThreadExecutor(), new MetricRegistry());
+        Service service = ServicePoolProxy.create(Service.class, NEVER_RETRY, _pool, SUPPLIER, false, responseCache);
+
+        assertEquals("bar", service.find("foo"));
+        assertEquals("bar", service.find("foo"));
+
+        verify(_pool).execute(same(CONTEXT), same(NEVER_RETRY), anyCallback());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <R> ServiceCallback<Service, R> anyCallback() {
+        return any(ServiceCallback.class);
+    }
+
     private static interface Service {
         void close();
+
+        @Idempotent
+        String lookup(String key);
+
+        @Cacheable(ttl = 1, unit = TimeUnit.MINUTES)
+        String find(String key);
     }
 }
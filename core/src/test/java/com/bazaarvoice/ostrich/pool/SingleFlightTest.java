@@ -0,0 +1,187 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.codahale.metrics.Meter;
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SingleFlightTest {
+    private static final int NUM_CALLERS = 5;
+
+    private final Meter _numJoined = new Meter();
+    private final SingleFlight _singleFlight = new SingleFlight(_numJoined);
+    private final ExecutorService _executor = Executors.newCachedThreadPool();
+
+    @After
+    public void teardown() {
+        _executor.shutdownNow();
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullMeter() {
+        new SingleFlight(null);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullKey() {
+        _singleFlight.execute(null, constant("foo"));
+    }
+
+    @Test
+    public void testReturnsResult() {
+        assertEquals("foo", _singleFlight.execute("key", constant("foo")));
+        assertEquals(0, _singleFlight.getNumInFlight());
+    }
+
+    @Test
+    public void testSequentialCallsAreNotShared() {
+        CountingSupplier supplier = new CountingSupplier();
+
+        _singleFlight.execute("key", supplier);
+        _singleFlight.execute("key", supplier);
+
+        assertEquals(2, supplier.getNumCalls());
+        assertEquals(0, _numJoined.getCount());
+    }
+
+    @Test
+    public void testConcurrentCallsAreShared() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger numCalls = new AtomicInteger();
+        final Object result = new Object();
+        final Supplier<Object> supplier = new Supplier<Object>() {
+            @Override
+            public Object get() {
+                numCalls.incrementAndGet();
+                started.countDown();
+                Uninterruptibles.awaitUninterruptibly(release);
+                return result;
+            }
+        };
+
+        List<Future<Object>> futures = Lists.newArrayList();
+        futures.add(_executor.submit(execute("key", supplier)));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        for (int i = 1; i < NUM_CALLERS; i++) {
+            futures.add(_executor.submit(execute("key", supplier)));
+        }
+        awaitNumJoined(NUM_CALLERS - 1);
+        release.countDown();
+
+        for (Future<Object> future : futures) {
+            assertSame(result, future.get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(1, numCalls.get());
+        assertEquals(0, _singleFlight.getNumInFlight());
+    }
+
+    @Test
+    public void testConcurrentCallsWithDifferentKeysAreNotShared() throws Exception {
+        final CountDownLatch started = new CountDownLatch(2);
+        Supplier<Object> supplier = new Supplier<Object>() {
+            @Override
+            public Object get() {
+                // Only returns once both calls are executing at the same time.
+                started.countDown();
+                Uninterruptibles.awaitUninterruptibly(started);
+                return null;
+            }
+        };
+
+        Future<Object> first = _executor.submit(execute("key1", supplier));
+        Future<Object> second = _executor.submit(execute("key2", supplier));
+
+        first.get(10, TimeUnit.SECONDS);
+        second.get(10, TimeUnit.SECONDS);
+        assertEquals(0, _numJoined.getCount());
+    }
+
+    @Test
+    public void testExceptionIsShared() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final RuntimeException exception = new RuntimeException();
+        Supplier<Object> supplier = new Supplier<Object>() {
+            @Override
+            public Object get() {
+                started.countDown();
+                Uninterruptibles.awaitUninterruptibly(release);
+                throw exception;
+            }
+        };
+
+        Future<Object> leader = _executor.submit(execute("key", supplier));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        Future<Object> follower = _executor.submit(execute("key", supplier));
+        awaitNumJoined(1);
+        release.countDown();
+
+        for (Future<Object> future : ImmutableList.of(leader, follower)) {
+            try {
+                future.get(10, TimeUnit.SECONDS);
+                fail();
+            } catch (ExecutionException e) {
+                assertSame(exception, e.getCause());
+            }
+        }
+        assertEquals(0, _singleFlight.getNumInFlight());
+    }
+
+    private void awaitNumJoined(int numJoined) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (_numJoined.getCount() < numJoined) {
+            assertTrue(System.nanoTime() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    private Callable<Object> execute(final Object key, final Supplier<Object> supplier) {
+        return new Callable<Object>() {
+            @Override
+            public Object call() {
+                return _singleFlight.execute(key, supplier);
+            }
+        };
+    }
+
+    private static <T> Supplier<T> constant(final T value) {
+        return new Supplier<T>() {
+            @Override
+            public T get() {
+                return value;
+            }
+        };
+    }
+
+    private static class CountingSupplier implements Supplier<Object> {
+        private final AtomicInteger _numCalls = new AtomicInteger();
+
+        @Override
+        public Object get() {
+            return _numCalls.incrementAndGet();
+        }
+
+        int getNumCalls() {
+            return _numCalls.get();
+        }
+    }
+}
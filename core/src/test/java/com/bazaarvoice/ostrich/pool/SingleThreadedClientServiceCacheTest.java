@@ -2,11 +2,12 @@ package com.bazaarvoice.ostrich.pool;
 
 import com.bazaarvoice.ostrich.ServiceEndPoint;
 import com.bazaarvoice.ostrich.ServiceFactory;
+import com.bazaarvoice.ostrich.ValidatingServiceFactory;
 import com.bazaarvoice.ostrich.exceptions.NoCachedInstancesAvailableException;
 import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Ticker;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
-import org.apache.commons.pool.impl.GenericKeyedObjectPool;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -31,10 +32,12 @@ import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyBoolean;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
@@ -45,7 +48,7 @@ public class SingleThreadedClientServiceCacheTest {
     private static final ServiceEndPoint END_POINT = mock(ServiceEndPoint.class);
 
     private ServiceFactory<Service> _factory;
-    private ServiceCachingPolicy _cachingPolicy;
+    private ExtendedServiceCachingPolicy _cachingPolicy;
     private MetricRegistry _registry = new MetricRegistry();
     private List<SingleThreadedClientServiceCache<?>> _caches = Lists.newArrayList();
 
@@ -62,7 +65,7 @@ public class SingleThreadedClientServiceCacheTest {
         });
 
         // By default the caching policy will grow infinitely
-        _cachingPolicy = mock(ServiceCachingPolicy.class);
+        _cachingPolicy = mock(ExtendedServiceCachingPolicy.class);
         when(_cachingPolicy.getMaxNumServiceInstances()).thenReturn(-1);
         when(_cachingPolicy.getMaxNumServiceInstancesPerEndPoint()).thenReturn(1);
         when(_cachingPolicy.getCacheExhaustionAction()).thenReturn(ServiceCachingPolicy.ExhaustionAction.FAIL);
@@ -75,23 +78,6 @@ public class SingleThreadedClientServiceCacheTest {
         }
     }
 
-    @Test
-    public void testKeyedObjectPoolIsCorrectlyConfigured() {
-        // Set values to be different from corresponding GenericKeyedObjectPool defaults.
-        when(_cachingPolicy.getCacheExhaustionAction()).thenReturn(ServiceCachingPolicy.ExhaustionAction.GROW);
-        when(_cachingPolicy.getMaxNumServiceInstances()).thenReturn(20);
-        when(_cachingPolicy.getMaxNumServiceInstancesPerEndPoint()).thenReturn(5);
-        when(_cachingPolicy.getMaxServiceInstanceIdleTime(TimeUnit.MILLISECONDS)).thenReturn(10L);
-
-        GenericKeyedObjectPool<ServiceEndPoint, Service> pool = newCache().getPool();
-        assertEquals(GenericKeyedObjectPool.WHEN_EXHAUSTED_GROW, pool.getWhenExhaustedAction());
-        assertEquals(20, pool.getMaxTotal());
-        assertEquals(5, pool.getMaxActive());
-        assertEquals(5, pool.getMaxIdle());
-        assertEquals(10L, pool.getMinEvictableIdleTimeMillis());
-        assertEquals(20, pool.getNumTestsPerEvictionRun());
-    }
-
     @Test(expected = NullPointerException.class)
     public void testCheckOutFromNullEndPoint() throws Exception {
         newCache().checkOut(null);
@@ -537,6 +523,837 @@ public class SingleThreadedClientServiceCacheTest {
         verify(future).cancel(anyBoolean());
     }
 
+    @Test(expected = IllegalArgumentException.class)
+    public void testCheckInForeignHandle() throws Exception {
+        newCache().checkIn(new ServiceHandle<>(mock(Service.class), END_POINT));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCheckOutAfterClose() throws Exception {
+        SingleThreadedClientServiceCache<Service> cache = newCache();
+        cache.close();
+        cache.checkOut(END_POINT);
+    }
+
+    @Test
+    public void testCheckInAfterCloseDestroysInstance() throws Exception {
+        SingleThreadedClientServiceCache<Service> cache = newCache();
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        cache.close();
+        cache.checkIn(handle);
+
+        verify(_factory).destroy(END_POINT, handle.getService());
+    }
+
+    @Test
+    public void testMostRecentlyUsedInstanceIsReused() throws Exception {
+        when(_cachingPolicy.getMaxNumServiceInstancesPerEndPoint()).thenReturn(2);
+
+        SingleThreadedClientServiceCache<Service> cache = newCache();
+        ServiceHandle<Service> handle1 = cache.checkOut(END_POINT);
+        ServiceHandle<Service> handle2 = cache.checkOut(END_POINT);
+        cache.checkIn(handle1);
+        cache.checkIn(handle2);
+
+        assertSame(handle2.getService(), cache.checkOut(END_POINT).getService());
+    }
+
+    @Test
+    public void testThreadAffinityReturnsThreadsOwnInstance() throws Exception {
+        when(_cachingPolicy.getMaxNumServiceInstancesPerEndPoint()).thenReturn(2);
+        when(_cachingPolicy.useThreadAffinity()).thenReturn(true);
+
+        final SingleThreadedClientServiceCache<Service> cache = newCache();
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        final ServiceHandle<Service> otherHandle = onOtherThread(new Callable<ServiceHandle<Service>>() {
+            @Override
+            public ServiceHandle<Service> call() throws Exception {
+                return cache.checkOut(END_POINT);
+            }
+        });
+        cache.checkIn(handle);
+        onOtherThread(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                cache.checkIn(otherHandle);
+                return null;
+            }
+        });
+
+        // Without affinity the most recently checked in instance would be checked out.
+        assertSame(handle.getService(), cache.checkOut(END_POINT).getService());
+        assertEquals(1, cache.getNumIdleInstances(END_POINT));
+    }
+
+    @Test
+    public void testThreadAffinityAllowsOtherThreadsToTakeIdleInstance() throws Exception {
+        when(_cachingPolicy.useThreadAffinity()).thenReturn(true);
+
+        final SingleThreadedClientServiceCache<Service> cache = newCache();
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        cache.checkIn(handle);
+
+        ServiceHandle<Service> otherHandle = onOtherThread(new Callable<ServiceHandle<Service>>() {
+            @Override
+            public ServiceHandle<Service> call() throws Exception {
+                return cache.checkOut(END_POINT);
+            }
+        });
+        assertSame(handle.getService(), otherHandle.getService());
+        assertEquals(0, cache.getNumIdleInstances(END_POINT));
+        assertEquals(1, cache.getNumActiveInstances(END_POINT));
+
+        // The instance is no longer idle, so this thread can't claim it back.
+        try {
+            cache.checkOut(END_POINT);
+            fail();
+        } catch (NoCachedInstancesAvailableException e) {
+            // expected
+        }
+        verify(_factory).create(END_POINT);
+    }
+
+    @Test
+    public void testThreadAffinityForgetsInstanceAfterCheckingOutOtherEndPoint() throws Exception {
+        ServiceEndPoint otherEndPoint = mock(ServiceEndPoint.class);
+        when(_cachingPolicy.getMaxNumServiceInstancesPerEndPoint()).thenReturn(2);
+        when(_cachingPolicy.useThreadAffinity()).thenReturn(true);
+
+        final SingleThreadedClientServiceCache<Service> cache = newCache();
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        final ServiceHandle<Service> otherHandle = onOtherThread(new Callable<ServiceHandle<Service>>() {
+            @Override
+            public ServiceHandle<Service> call() throws Exception {
+                return cache.checkOut(END_POINT);
+            }
+        });
+        cache.checkIn(handle);
+        cache.checkOut(otherEndPoint);
+        onOtherThread(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                cache.checkIn(otherHandle);
+                return null;
+            }
+        });
+
+        // The thread only remembers one instance, and gave it up when checking out the other end point.
+        assertSame(otherHandle.getService(), cache.checkOut(END_POINT).getService());
+    }
+
+    @Test
+    public void testThreadAffinityIgnoredForVirtualThreads() throws Exception {
+        assumeTrue(VirtualThreads.isSupported());
+        when(_cachingPolicy.getMaxNumServiceInstancesPerEndPoint()).thenReturn(2);
+        when(_cachingPolicy.useThreadAffinity()).thenReturn(true);
+
+        final SingleThreadedClientServiceCache<Service> cache = newCache();
+        ExecutorService virtualThread = VirtualThreads.newThreadPerTaskExecutor("test-");
+        try {
+            final ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+            final ServiceHandle<Service> otherHandle = cache.checkOut(END_POINT);
+            // The same virtual thread checks the instance in and the next one out, as a task would.
+            ServiceHandle<Service> checkedOut = virtualThread.submit(new Callable<ServiceHandle<Service>>() {
+                @Override
+                public ServiceHandle<Service> call() throws Exception {
+                    cache.checkIn(handle);
+                    onOtherThread(new Callable<Void>() {
+                        @Override
+                        public Void call() throws Exception {
+                            cache.checkIn(otherHandle);
+                            return null;
+                        }
+                    });
+                    return cache.checkOut(END_POINT);
+                }
+            }).get(10, TimeUnit.SECONDS);
+
+            // With affinity the virtual thread would get back the instance it checked in.
+            assertSame(otherHandle.getService(), checkedOut.getService());
+        } finally {
+            virtualThread.shutdown();
+        }
+    }
+
+    @Test
+    public void testThreadAffinityInstanceEvictedWhenIdle() throws Exception {
+        Ticker ticker = mock(Ticker.class);
+        when(_cachingPolicy.getMaxServiceInstanceIdleTime(TimeUnit.NANOSECONDS)).thenReturn(100L);
+        when(_cachingPolicy.useThreadAffinity()).thenReturn(true);
+
+        SingleThreadedClientServiceCache<Service> cache = newCache(ticker);
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        cache.checkIn(handle);
+        when(ticker.read()).thenReturn(50L);
+        cache.checkIn(cache.checkOut(END_POINT));
+
+        // Claimed and checked in again since it was first idle, so not evicted yet.
+        when(ticker.read()).thenReturn(120L);
+        cache.evictIdleInstances();
+        verify(_factory, never()).destroy(END_POINT, handle.getService());
+
+        when(ticker.read()).thenReturn(200L);
+        cache.evictIdleInstances();
+        verify(_factory).destroy(END_POINT, handle.getService());
+        assertEquals(0, cache.getNumIdleInstances(END_POINT));
+
+        assertNotSame(handle.getService(), cache.checkOut(END_POINT).getService());
+    }
+
+    @Test
+    public void testRegisterWithoutMinIdleCreatesNothing() throws Exception {
+        SingleThreadedClientServiceCache<Service> cache = newCache(inlineExecutor());
+        cache.register(END_POINT);
+
+        verify(_factory, never()).create(END_POINT);
+        assertEquals(0, cache.getNumIdleInstances(END_POINT));
+    }
+
+    @Test
+    public void testRegisterPrewarmsIdleInstances() throws Exception {
+        when(_cachingPolicy.getMaxNumServiceInstancesPerEndPoint()).thenReturn(3);
+        when(_cachingPolicy.getMinNumIdleServiceInstancesPerEndPoint()).thenReturn(2);
+
+        SingleThreadedClientServiceCache<Service> cache = newCache(inlineExecutor());
+        cache.register(END_POINT);
+        verify(_factory, times(2)).create(END_POINT);
+        assertEquals(2, cache.getNumIdleInstances(END_POINT));
+
+        cache.checkOut(END_POINT);
+        verify(_factory, times(2)).create(END_POINT);
+    }
+
+    @Test
+    public void testIdleEvictionKeepsMinIdleInstances() throws Exception {
+        Ticker ticker = mock(Ticker.class);
+        when(_cachingPolicy.getMaxServiceInstanceIdleTime(TimeUnit.NANOSECONDS)).thenReturn(100L);
+        when(_cachingPolicy.getMinNumIdleServiceInstancesPerEndPoint()).thenReturn(1);
+
+        SingleThreadedClientServiceCache<Service> cache = newCache(inlineExecutor(), ticker);
+        cache.register(END_POINT);
+        assertEquals(1, cache.getNumIdleInstances(END_POINT));
+
+        when(ticker.read()).thenReturn(200L);
+        cache.evictIdleInstances();
+        verify(_factory, never()).destroy(eq(END_POINT), any(Service.class));
+        verify(_factory).create(END_POINT);
+        assertEquals(1, cache.getNumIdleInstances(END_POINT));
+    }
+
+    @Test
+    public void testIdleEvictionKeepsNewestMinIdleInstancesWithoutReplacingOthers() throws Exception {
+        Ticker ticker = mock(Ticker.class);
+        when(_cachingPolicy.getMaxServiceInstanceIdleTime(TimeUnit.NANOSECONDS)).thenReturn(100L);
+        when(_cachingPolicy.getMaxNumServiceInstancesPerEndPoint()).thenReturn(3);
+        when(_cachingPolicy.getMinNumIdleServiceInstancesPerEndPoint()).thenReturn(2);
+
+        SingleThreadedClientServiceCache<Service> cache = newCache(inlineExecutor(), ticker);
+        ServiceHandle<Service> handle1 = cache.checkOut(END_POINT);
+        ServiceHandle<Service> handle2 = cache.checkOut(END_POINT);
+        ServiceHandle<Service> handle3 = cache.checkOut(END_POINT);
+        when(ticker.read()).thenReturn(10L);
+        cache.checkIn(handle1);
+        when(ticker.read()).thenReturn(20L);
+        cache.checkIn(handle2);
+        when(ticker.read()).thenReturn(30L);
+        cache.checkIn(handle3);
+
+        when(ticker.read()).thenReturn(200L);
+        cache.evictIdleInstances();
+        verify(_factory).destroy(END_POINT, handle1.getService());
+        verify(_factory, never()).destroy(END_POINT, handle2.getService());
+        verify(_factory, never()).destroy(END_POINT, handle3.getService());
+        verify(_factory, times(3)).create(END_POINT);
+        assertEquals(2, cache.getNumIdleInstances(END_POINT));
+    }
+
+    @Test
+    public void testExpiredIdleInstancesReplaced() throws Exception {
+        Ticker ticker = mock(Ticker.class);
+        when(_cachingPolicy.getMaxServiceInstanceLifetime(TimeUnit.NANOSECONDS)).thenReturn(100L);
+        when(_cachingPolicy.getMinNumIdleServiceInstancesPerEndPoint()).thenReturn(1);
+
+        SingleThreadedClientServiceCache<Service> cache = newCache(inlineExecutor(), ticker);
+        cache.register(END_POINT);
+        assertEquals(1, cache.getNumIdleInstances(END_POINT));
+
+        when(ticker.read()).thenReturn(200L);
+        cache.evictIdleInstances();
+        verify(_factory).destroy(eq(END_POINT), any(Service.class));
+        verify(_factory, times(2)).create(END_POINT);
+        assertEquals(1, cache.getNumIdleInstances(END_POINT));
+    }
+
+    @Test
+    public void testPrewarmingStaysWithinEndPointLimitWithActiveInstances() throws Exception {
+        when(_cachingPolicy.getMaxNumServiceInstancesPerEndPoint()).thenReturn(2);
+        when(_cachingPolicy.getMinNumIdleServiceInstancesPerEndPoint()).thenReturn(2);
+
+        SingleThreadedClientServiceCache<Service> cache = newCache(inlineExecutor());
+        cache.checkOut(END_POINT);
+        cache.checkOut(END_POINT);
+        cache.register(END_POINT);
+
+        verify(_factory, times(2)).create(END_POINT);
+        assertEquals(0, cache.getNumIdleInstances(END_POINT));
+        assertEquals(2, cache.getNumActiveInstances(END_POINT));
+    }
+
+    @Test
+    public void testPrewarmingCountsActiveInstancesAgainstEndPointLimit() throws Exception {
+        when(_cachingPolicy.getMaxNumServiceInstancesPerEndPoint()).thenReturn(3);
+        when(_cachingPolicy.getMinNumIdleServiceInstancesPerEndPoint()).thenReturn(2);
+
+        SingleThreadedClientServiceCache<Service> cache = newCache(inlineExecutor());
+        cache.checkOut(END_POINT);
+        cache.checkOut(END_POINT);
+        cache.register(END_POINT);
+
+        verify(_factory, times(3)).create(END_POINT);
+        assertEquals(1, cache.getNumIdleInstances(END_POINT));
+        assertEquals(2, cache.getNumActiveInstances(END_POINT));
+    }
+
+    @Test
+    public void testEvictedEndPointNotPrewarmed() throws Exception {
+        when(_cachingPolicy.getMinNumIdleServiceInstancesPerEndPoint()).thenReturn(1);
+
+        SingleThreadedClientServiceCache<Service> cache = newCache(inlineExecutor());
+        cache.register(END_POINT);
+        cache.evict(END_POINT);
+
+        verify(_factory).create(END_POINT);
+        verify(_factory).destroy(eq(END_POINT), any(Service.class));
+    }
+
+    @Test
+    public void testPrewarmingDoesNotDestroyOtherEndPointsInstances() throws Exception {
+        when(_cachingPolicy.getMaxNumServiceInstances()).thenReturn(1);
+        when(_cachingPolicy.getMinNumIdleServiceInstancesPerEndPoint()).thenReturn(1);
+        ServiceEndPoint otherEndPoint = mock(ServiceEndPoint.class);
+
+        SingleThreadedClientServiceCache<Service> cache = newCache(inlineExecutor());
+        cache.register(END_POINT);
+        cache.register(otherEndPoint);
+
+        verify(_factory, never()).create(otherEndPoint);
+        verify(_factory, never()).destroy(eq(END_POINT), any(Service.class));
+        assertEquals(1, cache.getNumIdleInstances(END_POINT));
+    }
+
+    @Test
+    public void testPrewarmingFailureReleasesCapacity() throws Exception {
+        when(_cachingPolicy.getMinNumIdleServiceInstancesPerEndPoint()).thenReturn(1);
+        when(_factory.create(any(ServiceEndPoint.class))).thenThrow(new RuntimeException()).thenReturn(
+                mock(Service.class));
+
+        SingleThreadedClientServiceCache<Service> cache = newCache(inlineExecutor());
+        cache.register(END_POINT);
+        assertEquals(0, cache.getNumIdleInstances(END_POINT));
+
+        cache.checkOut(END_POINT);
+        assertEquals(1, cache.getNumActiveInstances(END_POINT));
+    }
+
+    @Test(expected = NoCachedInstancesAvailableException.class)
+    public void testFailWhenTotalExhausted() throws Exception {
+        when(_cachingPolicy.getMaxNumServiceInstances()).thenReturn(1);
+
+        SingleThreadedClientServiceCache<Service> cache = newCache();
+        cache.checkOut(END_POINT);
+        cache.checkOut(mock(ServiceEndPoint.class));
+    }
+
+    @Test
+    public void testFactoryExceptionReleasesCapacity() throws Exception {
+        when(_factory.create(any(ServiceEndPoint.class))).thenThrow(new RuntimeException()).thenReturn(
+                mock(Service.class));
+
+        SingleThreadedClientServiceCache<Service> cache = newCache();
+        try {
+            cache.checkOut(END_POINT);
+            fail();
+        } catch (RuntimeException e) {
+            // Expected
+        }
+
+        cache.checkOut(END_POINT);
+        assertEquals(1, cache.getNumActiveInstances(END_POINT));
+    }
+
+    @Test
+    public void testIdleInstancesEvicted() throws Exception {
+        Ticker ticker = mock(Ticker.class);
+        when(_cachingPolicy.getMaxServiceInstanceIdleTime(TimeUnit.NANOSECONDS)).thenReturn(100L);
+        when(_cachingPolicy.getMaxNumServiceInstancesPerEndPoint()).thenReturn(2);
+
+        SingleThreadedClientServiceCache<Service> cache = newCache(ticker);
+        ServiceHandle<Service> oldHandle = cache.checkOut(END_POINT);
+        ServiceHandle<Service> newHandle = cache.checkOut(END_POINT);
+        cache.checkIn(oldHandle);
+        when(ticker.read()).thenReturn(50L);
+        cache.checkIn(newHandle);
+
+        when(ticker.read()).thenReturn(120L);
+        cache.evictIdleInstances();
+
+        verify(_factory).destroy(END_POINT, oldHandle.getService());
+        verify(_factory, never()).destroy(END_POINT, newHandle.getService());
+        assertEquals(1, cache.getNumIdleInstances(END_POINT));
+    }
+
+    @Test
+    public void testIdleInstancesNotEvictedWithoutIdleTime() throws Exception {
+        Ticker ticker = mock(Ticker.class);
+
+        SingleThreadedClientServiceCache<Service> cache = newCache(ticker);
+        cache.checkIn(cache.checkOut(END_POINT));
+        when(ticker.read()).thenReturn(TimeUnit.DAYS.toNanos(1));
+        cache.evictIdleInstances();
+
+        assertEquals(1, cache.getNumIdleInstances(END_POINT));
+    }
+
+    @Test
+    public void testWaitingCheckOutWokenByEviction() throws Exception {
+        when(_cachingPolicy.getMaxNumServiceInstances()).thenReturn(1);
+        when(_cachingPolicy.getCacheExhaustionAction()).thenReturn(ServiceCachingPolicy.ExhaustionAction.WAIT);
+
+        final SingleThreadedClientServiceCache<Service> cache = newCache();
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        final ServiceEndPoint otherEndPoint = mock(ServiceEndPoint.class);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<ServiceHandle<Service>> serviceFuture = executor.submit(new Callable<ServiceHandle<Service>>() {
+                @Override
+                public ServiceHandle<Service> call() throws Exception {
+                    return cache.checkOut(otherEndPoint);
+                }
+            });
+
+            // Checking the instance in makes it idle, which makes room for the other end point by destroying it.
+            cache.checkIn(handle);
+            assertSame(otherEndPoint, serviceFuture.get(10, TimeUnit.SECONDS).getEndPoint());
+            verify(_factory).destroy(END_POINT, handle.getService());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testConcurrentCheckOutAndCheckIn() throws Exception {
+        checkOutAndCheckInConcurrently(false);
+    }
+
+    @Test
+    public void testConcurrentCheckOutAndCheckInWithThreadAffinity() throws Exception {
+        checkOutAndCheckInConcurrently(true);
+    }
+
+    private void checkOutAndCheckInConcurrently(boolean threadAffinity) throws Exception {
+        final int numThreads = 8;
+        final int numIterations = 1000;
+        when(_cachingPolicy.getMaxNumServiceInstancesPerEndPoint()).thenReturn(2);
+        when(_cachingPolicy.getCacheExhaustionAction()).thenReturn(ServiceCachingPolicy.ExhaustionAction.WAIT);
+        when(_cachingPolicy.useThreadAffinity()).thenReturn(threadAffinity);
+
+        final SingleThreadedClientServiceCache<Service> cache = newCache();
+        final Set<Service> inUse = Sets.newConcurrentHashSet();
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<Future<?>> futures = Lists.newArrayList();
+            for (int i = 0; i < numThreads; i++) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for (int j = 0; j < numIterations; j++) {
+                            ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+                            // An instance must never be checked out twice at once.
+                            assertTrue(inUse.add(handle.getService()));
+                            assertTrue(inUse.remove(handle.getService()));
+                            cache.checkIn(handle);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(0, cache.getNumActiveInstances(END_POINT));
+        assertEquals(2, cache.getNumIdleInstances(END_POINT));
+        verify(_factory, times(2)).create(END_POINT);
+    }
+
+    @Test
+    public void testExpiredInstanceDestroyedOnCheckIn() throws Exception {
+        Ticker ticker = mock(Ticker.class);
+        when(_cachingPolicy.getMaxServiceInstanceLifetime(TimeUnit.NANOSECONDS)).thenReturn(100L);
+
+        SingleThreadedClientServiceCache<Service> cache = newCache(ticker);
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        when(ticker.read()).thenReturn(100L);
+        cache.checkIn(handle);
+
+        verify(_factory).destroy(END_POINT, handle.getService());
+        assertEquals(0, cache.getNumIdleInstances(END_POINT));
+        assertEquals(0, cache.getNumActiveInstances(END_POINT));
+        assertNotSame(handle.getService(), cache.checkOut(END_POINT).getService());
+    }
+
+    @Test
+    public void testInstanceNotExpiredBeforeJitteredLifetime() throws Exception {
+        Ticker ticker = mock(Ticker.class);
+        when(_cachingPolicy.getMaxServiceInstanceLifetime(TimeUnit.NANOSECONDS)).thenReturn(100L);
+
+        SingleThreadedClientServiceCache<Service> cache = newCache(ticker);
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        when(ticker.read()).thenReturn(89L);
+        cache.checkIn(handle);
+        cache.evictIdleInstances();
+
+        verify(_factory, never()).destroy(END_POINT, handle.getService());
+        assertEquals(1, cache.getNumIdleInstances(END_POINT));
+    }
+
+    @Test
+    public void testExpiredIdleInstanceEvicted() throws Exception {
+        Ticker ticker = mock(Ticker.class);
+        when(_cachingPolicy.getMaxServiceInstanceLifetime(TimeUnit.NANOSECONDS)).thenReturn(100L);
+
+        SingleThreadedClientServiceCache<Service> cache = newCache(ticker);
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        cache.checkIn(handle);
+        when(ticker.read()).thenReturn(100L);
+        cache.evictIdleInstances();
+
+        verify(_factory).destroy(END_POINT, handle.getService());
+        assertEquals(0, cache.getNumIdleInstances(END_POINT));
+    }
+
+    @Test
+    public void testExpiredInstanceReplacedWhenPrewarming() throws Exception {
+        Ticker ticker = mock(Ticker.class);
+        when(_cachingPolicy.getMaxServiceInstanceLifetime(TimeUnit.NANOSECONDS)).thenReturn(100L);
+        when(_cachingPolicy.getMinNumIdleServiceInstancesPerEndPoint()).thenReturn(1);
+
+        SingleThreadedClientServiceCache<Service> cache = newCache(inlineExecutor(), ticker);
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        when(ticker.read()).thenReturn(100L);
+        cache.checkIn(handle);
+
+        verify(_factory).destroy(END_POINT, handle.getService());
+        verify(_factory, times(2)).create(END_POINT);
+        assertEquals(1, cache.getNumIdleInstances(END_POINT));
+    }
+
+    @Test
+    public void testInvalidIdleInstanceDestroyed() throws Exception {
+        Ticker ticker = mock(Ticker.class);
+        ValidatingServiceFactory<Service> factory = useValidatingFactory();
+        when(_cachingPolicy.getServiceInstanceValidationInterval(TimeUnit.NANOSECONDS)).thenReturn(100L);
+
+        SingleThreadedClientServiceCache<Service> cache = newCache(ticker);
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        cache.checkIn(handle);
+        when(factory.isValid(END_POINT, handle.getService())).thenReturn(false);
+        when(ticker.read()).thenReturn(100L);
+        cache.validateIdleInstances();
+
+        verify(factory).destroy(END_POINT, handle.getService());
+        assertEquals(0, cache.getNumIdleInstances(END_POINT));
+        assertNotSame(handle.getService(), cache.checkOut(END_POINT).getService());
+    }
+
+    @Test
+    public void testValidIdleInstanceKept() throws Exception {
+        Ticker ticker = mock(Ticker.class);
+        ValidatingServiceFactory<Service> factory = useValidatingFactory();
+        when(_cachingPolicy.getServiceInstanceValidationInterval(TimeUnit.NANOSECONDS)).thenReturn(100L);
+        when(_cachingPolicy.getMaxServiceInstanceIdleTime(TimeUnit.NANOSECONDS)).thenReturn(150L);
+
+        SingleThreadedClientServiceCache<Service> cache = newCache(ticker);
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        cache.checkIn(handle);
+        when(factory.isValid(END_POINT, handle.getService())).thenReturn(true);
+        when(ticker.read()).thenReturn(100L);
+        cache.validateIdleInstances();
+
+        verify(factory).isValid(END_POINT, handle.getService());
+        verify(factory, never()).destroy(END_POINT, handle.getService());
+        assertEquals(1, cache.getNumIdleInstances(END_POINT));
+
+        // Validating the instance doesn't count as using it.
+        when(ticker.read()).thenReturn(200L);
+        cache.evictIdleInstances();
+        verify(factory).destroy(END_POINT, handle.getService());
+    }
+
+    @Test
+    public void testIdleInstanceNotValidatedUntilDue() throws Exception {
+        Ticker ticker = mock(Ticker.class);
+        ValidatingServiceFactory<Service> factory = useValidatingFactory();
+        when(_cachingPolicy.getServiceInstanceValidationInterval(TimeUnit.NANOSECONDS)).thenReturn(100L);
+
+        SingleThreadedClientServiceCache<Service> cache = newCache(ticker);
+        cache.checkIn(cache.checkOut(END_POINT));
+        when(ticker.read()).thenReturn(99L);
+        cache.validateIdleInstances();
+
+        verify(factory, never()).isValid(any(ServiceEndPoint.class), any(Service.class));
+    }
+
+    @Test
+    public void testCheckedOutInstanceNotValidated() throws Exception {
+        Ticker ticker = mock(Ticker.class);
+        ValidatingServiceFactory<Service> factory = useValidatingFactory();
+        when(_cachingPolicy.getServiceInstanceValidationInterval(TimeUnit.NANOSECONDS)).thenReturn(100L);
+
+        SingleThreadedClientServiceCache<Service> cache = newCache(ticker);
+        cache.checkOut(END_POINT);
+        when(ticker.read()).thenReturn(100L);
+        cache.validateIdleInstances();
+
+        verify(factory, never()).isValid(any(ServiceEndPoint.class), any(Service.class));
+    }
+
+    @Test
+    public void testValidationExceptionDestroysInstance() throws Exception {
+        Ticker ticker = mock(Ticker.class);
+        ValidatingServiceFactory<Service> factory = useValidatingFactory();
+        when(_cachingPolicy.getServiceInstanceValidationInterval(TimeUnit.NANOSECONDS)).thenReturn(100L);
+
+        SingleThreadedClientServiceCache<Service> cache = newCache(ticker);
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        cache.checkIn(handle);
+        when(factory.isValid(END_POINT, handle.getService())).thenThrow(new RuntimeException());
+        when(ticker.read()).thenReturn(100L);
+        cache.validateIdleInstances();
+
+        verify(factory).destroy(END_POINT, handle.getService());
+        assertEquals(0, cache.getNumIdleInstances(END_POINT));
+    }
+
+    @Test
+    public void testValidationNotScheduledForNonValidatingFactory() {
+        ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+        when(_cachingPolicy.getServiceInstanceValidationInterval(TimeUnit.NANOSECONDS)).thenReturn(100L);
+
+        newCache(executor);
+        verify(executor, never()).scheduleWithFixedDelay(any(Runnable.class), anyLong(), anyLong(),
+                any(TimeUnit.class));
+    }
+
+    @Test
+    public void testValidationScheduledForValidatingFactory() {
+        ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+        useValidatingFactory();
+        when(_cachingPolicy.getServiceInstanceValidationInterval(TimeUnit.NANOSECONDS)).thenReturn(100L);
+
+        newCache(executor);
+        verify(executor).scheduleWithFixedDelay(any(Runnable.class), eq(100L), eq(100L), eq(TimeUnit.NANOSECONDS));
+    }
+
+    @Test
+    public void testAdaptiveSizingScheduled() {
+        ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+        useAdaptiveSizing();
+
+        newCache(executor);
+        verify(executor).scheduleAtFixedRate(any(Runnable.class),
+                eq(SingleThreadedClientServiceCache.ADAPTIVE_SIZING_DURATION_IN_SECONDS),
+                eq(SingleThreadedClientServiceCache.ADAPTIVE_SIZING_DURATION_IN_SECONDS),
+                eq(TimeUnit.SECONDS));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAdaptiveSizingRequiresMaxNumServiceInstancesPerEndPoint() {
+        useAdaptiveSizing();
+        when(_cachingPolicy.getMaxNumServiceInstancesPerEndPoint()).thenReturn(-1);
+
+        newCache();
+    }
+
+    @Test
+    public void testAdaptiveLimitShrinksTowardsPeak() throws Exception {
+        useAdaptiveSizing();
+
+        SingleThreadedClientServiceCache<Service> cache = newCache(mock(Ticker.class));
+        cache.checkIn(cache.checkOut(END_POINT));
+
+        // With a peak of one instance in use, the limit heads for the adaptive minimum of two: 10, 6, 4, 3, 2.
+        for (int i = 0; i < 4; i++) {
+            cache.adjustSizes();
+        }
+
+        cache.checkOut(END_POINT);
+        cache.checkOut(END_POINT);
+        try {
+            cache.checkOut(END_POINT);
+            fail();
+        } catch (NoCachedInstancesAvailableException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testAdaptiveLimitGrowsWhenExhausted() throws Exception {
+        useAdaptiveSizing();
+
+        SingleThreadedClientServiceCache<Service> cache = newCache(mock(Ticker.class));
+        cache.checkIn(cache.checkOut(END_POINT));
+        for (int i = 0; i < 4; i++) {
+            cache.adjustSizes();
+        }
+        cache.checkOut(END_POINT);
+        cache.checkOut(END_POINT);
+        try {
+            cache.checkOut(END_POINT);
+            fail();
+        } catch (NoCachedInstancesAvailableException e) {
+            // Expected
+        }
+
+        cache.adjustSizes();
+        cache.checkOut(END_POINT);
+        assertEquals(3, cache.getNumActiveInstances(END_POINT));
+    }
+
+    @Test
+    public void testAdaptiveLimitNeverExceedsPolicy() throws Exception {
+        useAdaptiveSizing();
+
+        SingleThreadedClientServiceCache<Service> cache = newCache(mock(Ticker.class));
+        for (int i = 0; i < 10; i++) {
+            cache.checkOut(END_POINT);
+        }
+        for (int i = 0; i < 3; i++) {
+            try {
+                cache.checkOut(END_POINT);
+                fail();
+            } catch (NoCachedInstancesAvailableException e) {
+                // Expected
+            }
+            cache.adjustSizes();
+        }
+
+        assertEquals(10, cache.getNumActiveInstances(END_POINT));
+    }
+
+    @Test
+    public void testAdaptiveLimitTrimsIdleInstances() throws Exception {
+        useAdaptiveSizing();
+
+        SingleThreadedClientServiceCache<Service> cache = newCache(mock(Ticker.class));
+        List<ServiceHandle<Service>> handles = Lists.newArrayList();
+        for (int i = 0; i < 4; i++) {
+            handles.add(cache.checkOut(END_POINT));
+        }
+        for (ServiceHandle<Service> handle : handles) {
+            cache.checkIn(handle);
+        }
+
+        // The peak of four is forgotten after the first adjustment, so the limit heads for the adaptive minimum.
+        for (int i = 0; i < 5; i++) {
+            cache.adjustSizes();
+        }
+
+        assertEquals(2, cache.getNumIdleInstances(END_POINT));
+        verify(_factory, times(2)).destroy(eq(END_POINT), any(Service.class));
+    }
+
+    @Test
+    public void testAdaptiveLimitTrimsIdleInstancesWithoutReplacingThem() throws Exception {
+        useAdaptiveSizing();
+        when(_cachingPolicy.getMinNumIdleServiceInstancesPerEndPoint()).thenReturn(2);
+
+        SingleThreadedClientServiceCache<Service> cache = newCache(inlineExecutor(), mock(Ticker.class));
+        List<ServiceHandle<Service>> handles = Lists.newArrayList();
+        for (int i = 0; i < 4; i++) {
+            handles.add(cache.checkOut(END_POINT));
+        }
+        for (ServiceHandle<Service> handle : handles) {
+            cache.checkIn(handle);
+        }
+
+        for (int i = 0; i < 5; i++) {
+            cache.adjustSizes();
+        }
+
+        // The two most recently checked in instances are kept, and the trimmed ones aren't created again.
+        assertEquals(2, cache.getNumIdleInstances(END_POINT));
+        verify(_factory).destroy(END_POINT, handles.get(0).getService());
+        verify(_factory).destroy(END_POINT, handles.get(1).getService());
+        verify(_factory, times(4)).create(END_POINT);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAdaptiveMinNumServiceInstancesBelowMinIdle() {
+        useAdaptiveSizing();
+        when(_cachingPolicy.getMinNumIdleServiceInstancesPerEndPoint()).thenReturn(3);
+
+        newCache();
+    }
+
+    @Test
+    public void testAdaptiveIdleTimeShrinksWhileIdle() throws Exception {
+        Ticker ticker = mock(Ticker.class);
+        useAdaptiveSizing();
+
+        SingleThreadedClientServiceCache<Service> cache = newCache(ticker);
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        cache.checkIn(handle);
+        cache.adjustSizes();
+        when(ticker.read()).thenReturn(751L);
+        cache.evictIdleInstances();
+
+        verify(_factory).destroy(END_POINT, handle.getService());
+        assertEquals(0, cache.getNumIdleInstances(END_POINT));
+    }
+
+    @Test
+    public void testAdaptiveIdleTimeGrowsOnChurn() throws Exception {
+        Ticker ticker = mock(Ticker.class);
+        useAdaptiveSizing();
+
+        SingleThreadedClientServiceCache<Service> cache = newCache(ticker);
+        cache.checkIn(cache.checkOut(END_POINT));
+        cache.adjustSizes();
+        when(ticker.read()).thenReturn(751L);
+        cache.evictIdleInstances();
+
+        // The evicted instance is needed again right away, so idle instances are kept for longer.
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        cache.checkIn(handle);
+        cache.adjustSizes();
+        when(ticker.read()).thenReturn(1750L);
+        cache.evictIdleInstances();
+
+        verify(_factory, never()).destroy(END_POINT, handle.getService());
+        assertEquals(1, cache.getNumIdleInstances(END_POINT));
+    }
+
+    @Test
+    public void testSizesNotAdjustedWithoutAdaptiveSizing() throws Exception {
+        when(_cachingPolicy.getMaxNumServiceInstancesPerEndPoint()).thenReturn(10);
+
+        SingleThreadedClientServiceCache<Service> cache = newCache(mock(Ticker.class));
+        cache.checkIn(cache.checkOut(END_POINT));
+        for (int i = 0; i < 4; i++) {
+            cache.adjustSizes();
+        }
+
+        for (int i = 0; i < 10; i++) {
+            cache.checkOut(END_POINT);
+        }
+        assertEquals(10, cache.getNumActiveInstances(END_POINT));
+    }
+
     @Test
     public void testMultipleClose() {
         SingleThreadedClientServiceCache<Service> cache = newCache();
@@ -544,6 +1361,41 @@ public class SingleThreadedClientServiceCacheTest {
         cache.close();
     }
 
+    private static <T> T onOtherThread(Callable<T> callable) throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            return executor.submit(callable).get(10, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private ValidatingServiceFactory<Service> useValidatingFactory() {
+        ValidatingServiceFactory<Service> factory = mock(ValidatingServiceFactory.class);
+        when(factory.getServiceName()).thenReturn(Service.class.getSimpleName());
+        when(factory.create(any(ServiceEndPoint.class))).thenAnswer(new Answer<Service>() {
+            @Override
+            public Service answer(InvocationOnMock invocation) throws Throwable {
+                return mock(Service.class);
+            }
+        });
+        _factory = factory;
+        return factory;
+    }
+
+    /**
+     * Allows between 2 and 10 instances per end point, kept idle for between 100 and 1000 nanoseconds.
+     */
+    private void useAdaptiveSizing() {
+        when(_cachingPolicy.getMaxNumServiceInstancesPerEndPoint()).thenReturn(10);
+        when(_cachingPolicy.getMaxServiceInstanceIdleTime(TimeUnit.NANOSECONDS)).thenReturn(1000L);
+        when(_cachingPolicy.getMaxServiceInstanceIdleTime(TimeUnit.MILLISECONDS)).thenReturn(1L);
+        when(_cachingPolicy.useAdaptiveSizing()).thenReturn(true);
+        when(_cachingPolicy.getAdaptiveMinNumServiceInstancesPerEndPoint()).thenReturn(2);
+        when(_cachingPolicy.getAdaptiveMinServiceInstanceIdleTime(TimeUnit.NANOSECONDS)).thenReturn(100L);
+    }
+
     private SingleThreadedClientServiceCache<Service> newCache() {
         SingleThreadedClientServiceCache<Service> cache = new SingleThreadedClientServiceCache<>(_cachingPolicy, _factory, _registry);
         _caches.add(cache);
@@ -556,5 +1408,34 @@ public class SingleThreadedClientServiceCacheTest {
         return cache;
     }
 
+    private SingleThreadedClientServiceCache<Service> newCache(ScheduledExecutorService executor, Ticker ticker) {
+        SingleThreadedClientServiceCache<Service> cache = new SingleThreadedClientServiceCache<>(_cachingPolicy, _factory,
+                executor, ticker, _registry);
+        _caches.add(cache);
+        return cache;
+    }
+
+    /**
+     * An executor that runs tasks in the calling thread, but never runs scheduled tasks.
+     */
+    private ScheduledExecutorService inlineExecutor() {
+        ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                ((Runnable) invocation.getArguments()[0]).run();
+                return null;
+            }
+        }).when(executor).execute(any(Runnable.class));
+        return executor;
+    }
+
+    private SingleThreadedClientServiceCache<Service> newCache(Ticker ticker) {
+        SingleThreadedClientServiceCache<Service> cache = new SingleThreadedClientServiceCache<>(_cachingPolicy, _factory,
+                mock(ScheduledExecutorService.class), ticker, _registry);
+        _caches.add(cache);
+        return cache;
+    }
+
     public static interface Service {}
 }
@@ -0,0 +1,96 @@
+package com.bazaarvoice.ostrich.pool;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class TokenBucketTest {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void testStartsFull() {
+        TokenBucket bucket = new TokenBucket(2, SECOND, 0);
+
+        assertEquals(0, bucket.reserve(0, 0));
+        assertEquals(0, bucket.reserve(0, 0));
+        assertEquals(-1, bucket.reserve(0, 0));
+    }
+
+    @Test
+    public void testHoldsAtLeastOnePermit() {
+        TokenBucket bucket = new TokenBucket(1, 1, 0);
+
+        assertEquals(0, bucket.reserve(0, 0));
+        assertEquals(-1, bucket.reserve(0, 0));
+    }
+
+    @Test
+    public void testRefills() {
+        TokenBucket bucket = new TokenBucket(1, SECOND, 0);
+
+        assertEquals(0, bucket.reserve(0, 0));
+        assertEquals(-1, bucket.reserve(SECOND / 2, 0));
+        assertEquals(0, bucket.reserve(SECOND, 0));
+    }
+
+    @Test
+    public void testRefillCappedAtCapacity() {
+        TokenBucket bucket = new TokenBucket(1, SECOND, 0);
+
+        assertEquals(0, bucket.reserve(100 * SECOND, 0));
+        assertEquals(-1, bucket.reserve(100 * SECOND, 0));
+    }
+
+    @Test
+    public void testReserveAhead() {
+        TokenBucket bucket = new TokenBucket(1, SECOND, 0);
+
+        assertEquals(0, bucket.reserve(0, 10 * SECOND));
+        assertEquals(SECOND, bucket.reserve(0, 10 * SECOND));
+        assertEquals(2 * SECOND, bucket.reserve(0, 10 * SECOND));
+    }
+
+    @Test
+    public void testReserveAheadLimitedByMaxWait() {
+        TokenBucket bucket = new TokenBucket(1, SECOND, 0);
+
+        assertEquals(0, bucket.reserve(0, SECOND));
+        assertEquals(SECOND, bucket.reserve(0, SECOND));
+        assertEquals(-1, bucket.reserve(0, SECOND));
+    }
+
+    @Test
+    public void testCancelGivesPermitBack() {
+        TokenBucket bucket = new TokenBucket(1, SECOND, 0);
+
+        assertEquals(0, bucket.reserve(0, 0));
+        bucket.cancel();
+        assertEquals(0, bucket.reserve(0, 0));
+    }
+
+    @Test
+    public void testCancelReservedAheadPermit() {
+        TokenBucket bucket = new TokenBucket(1, SECOND, 0);
+
+        assertEquals(0, bucket.reserve(0, 10 * SECOND));
+        assertEquals(SECOND, bucket.reserve(0, 10 * SECOND));
+        bucket.cancel();
+        assertEquals(SECOND, bucket.reserve(0, 10 * SECOND));
+    }
+
+    @Test
+    public void testCancelDoesNotExceedCapacity() {
+        TokenBucket bucket = new TokenBucket(1, SECOND, 0);
+
+        bucket.cancel();
+        assertEquals(0, bucket.reserve(0, 0));
+        assertEquals(-1, bucket.reserve(0, 0));
+    }
+
+    @Test
+    public void testRefillNanos() {
+        assertEquals(2 * SECOND, new TokenBucket(5, 2 * SECOND, 0).getRefillNanos());
+    }
+}
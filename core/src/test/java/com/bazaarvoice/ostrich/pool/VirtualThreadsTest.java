@@ -0,0 +1,82 @@
+package com.bazaarvoice.ostrich.pool;
+
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeFalse;
+import static org.junit.Assume.assumeTrue;
+
+public class VirtualThreadsTest {
+    @Test(expected = IllegalStateException.class)
+    public void testThreadFactoryWhenUnsupported() {
+        assumeFalse(VirtualThreads.isSupported());
+        VirtualThreads.newThreadFactory("test-");
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testThreadPerTaskExecutorWhenUnsupported() {
+        assumeFalse(VirtualThreads.isSupported());
+        VirtualThreads.newThreadPerTaskExecutor("test-");
+    }
+
+    @Test
+    public void testThreadCreationFailureIsUnsupported() throws Exception {
+        // Like Thread.ofVirtual() on Java 19 and 20 without preview features enabled.
+        Method ofVirtual = VirtualThreadsTest.class.getDeclaredMethod("throwUnsupported");
+        Method unstarted = Thread.class.getMethod("setDaemon", boolean.class);
+
+        assertFalse(VirtualThreads.canCreateThread(ofVirtual, unstarted));
+    }
+
+    @Test
+    public void testPlatformThreadIsNotVirtual() {
+        assertFalse(VirtualThreads.isVirtual(Thread.currentThread()));
+    }
+
+    @Test
+    public void testVirtualThreadIsVirtual() {
+        assumeTrue(VirtualThreads.isSupported());
+        Thread thread = VirtualThreads.newThreadFactory("test-").newThread(new NoOp());
+
+        assertTrue(VirtualThreads.isVirtual(thread));
+    }
+
+    @Test
+    public void testThreadFactoryNamesThreads() {
+        assumeTrue(VirtualThreads.isSupported());
+        ThreadFactory threadFactory = VirtualThreads.newThreadFactory("test-");
+
+        assertEquals("test-0", threadFactory.newThread(new NoOp()).getName());
+        assertEquals("test-1", threadFactory.newThread(new NoOp()).getName());
+    }
+
+    @Test
+    public void testThreadPerTaskExecutorRunsTasks() throws Exception {
+        assumeTrue(VirtualThreads.isSupported());
+        ExecutorService executor = VirtualThreads.newThreadPerTaskExecutor("test-");
+        try {
+            Future<?> future = executor.submit(new NoOp());
+            future.get(10, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    static Object throwUnsupported() {
+        throw new UnsupportedOperationException();
+    }
+
+    private static class NoOp implements Runnable {
+        @Override
+        public void run() {
+        }
+    }
+}
@@ -108,6 +108,15 @@ public class ExponentialBackoffRetryTest {
         }
     }
 
+    @Test
+    public void testRetryDelayMatchesSleepTime() {
+        SleepingRetry retry = new ExponentialBackoffRetry(3, 20, 1000, TimeUnit.MILLISECONDS);
+
+        assertBetween(20, retry.getRetryDelayMs(1, 0), 40);
+        assertBetween(40, retry.getRetryDelayMs(2, 0), 80);
+        assertTrue(retry.getRetryDelayMs(3, 0) < 0);
+    }
+
     /** Asserts expectedLowerBound <= actual <= expectedUpperBound. */
     private void assertBetween(long expectedLowerBound, long actual, long expectedUpperBound) {
         assertTrue("Expected: " + expectedLowerBound + " <= " + actual, expectedLowerBound <= actual);
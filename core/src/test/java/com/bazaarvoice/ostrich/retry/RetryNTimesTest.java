@@ -70,4 +70,22 @@ public class RetryNTimesTest {
         }
         assertFalse(retry.allowRetry(N, 0));
     }
+
+    @Test
+    public void testRetryDelayMaxOneAttempt() {
+        RetryNTimes retry = new RetryNTimes(1, 123, TimeUnit.MILLISECONDS);
+        assertTrue(retry.getRetryDelayMs(1, 0) < 0);
+    }
+
+    @Test
+    public void testRetryDelayMaxTwoAttempts() {
+        RetryNTimes retry = new RetryNTimes(2, 123, TimeUnit.MILLISECONDS);
+        assertEquals(123, retry.getRetryDelayMs(1, 0));
+        assertTrue(retry.getRetryDelayMs(2, 0) < 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRetryDelayZeroAttempts() {
+        new RetryNTimes(1).getRetryDelayMs(0, 0);
+    }
 }
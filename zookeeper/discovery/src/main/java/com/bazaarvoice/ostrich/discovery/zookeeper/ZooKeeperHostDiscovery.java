@@ -46,6 +46,7 @@ public class ZooKeeperHostDiscovery implements HostDiscovery {
 
     private final NodeDiscovery<ServiceEndPoint> _nodeDiscovery;
     private final Multiset<ServiceEndPoint> _endPoints;
+    private final Iterable<ServiceEndPoint> _hosts;
     private final Set<EndPointListener> _listeners;
 
     private final Metrics.InstanceMetrics _metrics;
@@ -72,6 +73,9 @@ public class ZooKeeperHostDiscovery implements HostDiscovery {
         _listeners = Sets.newSetFromMap(Maps.<EndPointListener, Boolean>newConcurrentMap());
         _endPoints = ConcurrentHashMultiset.create();
 
+        // Always hand out the same live view so service pools can tell that the collection itself hasn't changed.
+        _hosts = Iterables.unmodifiableIterable(_endPoints.elementSet());
+
         _nodeDiscovery = factory.create(
                 curator,
                 servicePath,
@@ -104,7 +108,7 @@ public class ZooKeeperHostDiscovery implements HostDiscovery {
 
     @Override
     public Iterable<ServiceEndPoint> getHosts() {
-        return Iterables.unmodifiableIterable(_endPoints.elementSet());
+        return _hosts;
     }
 
     @Override